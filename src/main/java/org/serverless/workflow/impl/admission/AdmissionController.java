@@ -0,0 +1,166 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether new work (an instance start or a signalled event) is admitted, based on the number of events
+ * waiting to be delivered, the number of instances in flight and the observed 99th percentile of event delivery
+ * latency. Work is named by workflow id for starts and by trigger name for events, and each name can be given a
+ * {@link Priority}: low priority work is shed first, high priority work is only limited by the queue depth.
+ * The latency percentile is not computed per check: {@link #refreshLatency()} recomputes it, and the engine calls
+ * it on every timer tick.
+ */
+public class AdmissionController {
+
+    private volatile AdmissionPolicy policy = new AdmissionPolicy();
+    private final Map<String, Priority> priorities = new ConcurrentHashMap<>();
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long p99LatencyMillis;
+
+    /**
+     * @return the reason the work is rejected, or null if it is admitted
+     */
+    public AdmissionRejectedException.Reason check(String name,
+                                                   int queueDepth,
+                                                   int inFlightInstances) {
+        AdmissionPolicy current = policy;
+        if (current.isUnlimited()) {
+            return null;
+        }
+        Priority priority = getPriority(name);
+        double ratio = priority == Priority.LOW ? current.getLowPriorityRatio() : 1;
+        AdmissionRejectedException.Reason reason = null;
+        if (exceeds(queueDepth,
+                    current.getMaxQueueDepth(),
+                    ratio)) {
+            reason = AdmissionRejectedException.Reason.QUEUE_DEPTH;
+        } else if (priority != Priority.HIGH && exceeds(inFlightInstances,
+                                                        current.getMaxInFlightInstances(),
+                                                        ratio)) {
+            reason = AdmissionRejectedException.Reason.IN_FLIGHT_INSTANCES;
+        } else if (priority != Priority.HIGH && current.getMaxP99LatencyMillis() > 0 &&
+                p99LatencyMillis > current.getMaxP99LatencyMillis() * ratio) {
+            reason = AdmissionRejectedException.Reason.LATENCY;
+        }
+        if (reason != null) {
+            rejected.incrementAndGet();
+        }
+        return reason;
+    }
+
+    /**
+     * @throws AdmissionRejectedException if the work is not admitted
+     */
+    public void admit(String name,
+                      int queueDepth,
+                      int inFlightInstances) {
+        AdmissionRejectedException.Reason reason = check(name,
+                                                         queueDepth,
+                                                         inFlightInstances);
+        if (reason != null) {
+            throw rejection(reason,
+                            name,
+                            queueDepth,
+                            inFlightInstances);
+        }
+    }
+
+    public AdmissionRejectedException rejection(AdmissionRejectedException.Reason reason,
+                                                String name,
+                                                int queueDepth,
+                                                int inFlightInstances) {
+        AdmissionPolicy current = policy;
+        Priority priority = getPriority(name);
+        String load;
+        switch (reason) {
+            case QUEUE_DEPTH:
+                load = queueDepth + " events queued, limit " + current.getMaxQueueDepth();
+                break;
+            case IN_FLIGHT_INSTANCES:
+                load = inFlightInstances + " instances in flight, limit " + current.getMaxInFlightInstances();
+                break;
+            default:
+                load = "p99 latency " + p99LatencyMillis + " ms, limit " + current.getMaxP99LatencyMillis() + " ms";
+        }
+        return new AdmissionRejectedException(reason,
+                                              name,
+                                              priority,
+                                              "Rejected " + priority.name().toLowerCase() + " priority " + name + ": " + load);
+    }
+
+    public AdmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(AdmissionPolicy policy) {
+        this.policy = policy;
+    }
+
+    public Priority getPriority(String name) {
+        return name == null ? Priority.NORMAL : priorities.getOrDefault(name,
+                                                                        Priority.NORMAL);
+    }
+
+    /**
+     * @param name workflow id or trigger name
+     */
+    public void setPriority(String name,
+                            Priority priority) {
+        priorities.put(name,
+                       priority);
+    }
+
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * Recomputes the 99th percentile of the latencies recorded so far, which {@link #check(String, int, int)}
+     * compares with the policy's latency limit until the next refresh.
+     */
+    public void refreshLatency() {
+        p99LatencyMillis = latencyTracker.getP99Millis();
+    }
+
+    /**
+     * @return 99th percentile latency as of the last {@link #refreshLatency()}
+     */
+    public long getP99LatencyMillis() {
+        return p99LatencyMillis;
+    }
+
+    /**
+     * @return number of times work was rejected
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private static boolean exceeds(int load,
+                                   int limit,
+                                   double ratio) {
+        return limit > 0 && load >= Math.max(1,
+                                             (long) (limit * ratio));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.admission;
+
+public class AdmissionPolicy {
+
+    public static final double DEFAULT_LOW_PRIORITY_RATIO = 0.8;
+
+    private final int maxQueueDepth;
+    private final int maxInFlightInstances;
+    private final long maxP99LatencyMillis;
+    private final double lowPriorityRatio;
+
+    /**
+     * Policy admitting everything.
+     */
+    public AdmissionPolicy() {
+        this(0,
+             0,
+             0);
+    }
+
+    public AdmissionPolicy(int maxQueueDepth,
+                           int maxInFlightInstances,
+                           long maxP99LatencyMillis) {
+        this(maxQueueDepth,
+             maxInFlightInstances,
+             maxP99LatencyMillis,
+             DEFAULT_LOW_PRIORITY_RATIO);
+    }
+
+    /**
+     * @param maxQueueDepth number of events waiting to be delivered above which events are rejected, 0 to disable
+     * @param maxInFlightInstances number of running instances above which new work is rejected, 0 to disable
+     * @param maxP99LatencyMillis 99th percentile of event delivery latency above which new work is rejected, 0 to disable
+     * @param lowPriorityRatio fraction of each limit at which low priority work is already rejected
+     */
+    public AdmissionPolicy(int maxQueueDepth,
+                           int maxInFlightInstances,
+                           long maxP99LatencyMillis,
+                           double lowPriorityRatio) {
+        if (maxQueueDepth < 0 || maxInFlightInstances < 0 || maxP99LatencyMillis < 0) {
+            throw new IllegalArgumentException("Admission limits must not be negative");
+        }
+        if (lowPriorityRatio <= 0 || lowPriorityRatio > 1) {
+            throw new IllegalArgumentException("Invalid low priority ratio: " + lowPriorityRatio);
+        }
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxInFlightInstances = maxInFlightInstances;
+        this.maxP99LatencyMillis = maxP99LatencyMillis;
+        this.lowPriorityRatio = lowPriorityRatio;
+    }
+
+    public boolean isUnlimited() {
+        return maxQueueDepth == 0 && maxInFlightInstances == 0 && maxP99LatencyMillis == 0;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public int getMaxInFlightInstances() {
+        return maxInFlightInstances;
+    }
+
+    public long getMaxP99LatencyMillis() {
+        return maxP99LatencyMillis;
+    }
+
+    public double getLowPriorityRatio() {
+        return lowPriorityRatio;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.admission;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when work is rejected because the engine is over one of its admission limits, or a workflow is over
+ * its {@link InstanceQuota}. Callers should back off and retry later rather than queue the work themselves.
+ */
+public class AdmissionRejectedException extends RejectedExecutionException {
+
+    public enum Reason {
+        QUEUE_DEPTH,
+        IN_FLIGHT_INSTANCES,
+        LATENCY,
+        RATE_LIMIT,
+        CONCURRENCY_LIMIT
+    }
+
+    private final Reason reason;
+    private final String name;
+    private final Priority priority;
+
+    public AdmissionRejectedException(Reason reason,
+                                      String name,
+                                      Priority priority,
+                                      String message) {
+        super(message);
+        this.reason = reason;
+        this.name = name;
+        this.priority = priority;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return workflow id or trigger name of the rejected work
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.admission;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Limits on the instances of one workflow definition: the rate at which they are started and the number
+ * running at the same time. A zero disables a limit.
+ */
+public class InstanceQuota {
+
+    public static final String RATE = "quota.rate";
+    public static final String BURST = "quota.burst";
+    public static final String MAX_CONCURRENT = "quota.max-concurrent";
+    public static final String PROPERTY_PREFIX = "workflow.";
+
+    public static final InstanceQuota UNLIMITED = new InstanceQuota(0,
+                                                                    0,
+                                                                    0);
+
+    private final double ratePerSecond;
+    private final int burst;
+    private final int maxConcurrentInstances;
+
+    /**
+     * @param ratePerSecond instances that can be started per second, 0 to disable
+     * @param burst instances that can be started at once after an idle period, 0 for the rate rounded up
+     * @param maxConcurrentInstances instances that can be running at the same time, 0 to disable
+     */
+    public InstanceQuota(double ratePerSecond,
+                         int burst,
+                         int maxConcurrentInstances) {
+        if (ratePerSecond < 0 || burst < 0 || maxConcurrentInstances < 0) {
+            throw new IllegalArgumentException("Instance quota limits must not be negative");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst > 0 ? burst : Math.max(1,
+                                                   (int) Math.ceil(ratePerSecond));
+        this.maxConcurrentInstances = maxConcurrentInstances;
+    }
+
+    /**
+     * Reads the quota of a workflow from its metadata ("quota.rate", "quota.burst", "quota.max-concurrent"),
+     * overridden per key by the properties "workflow.&lt;id&gt;.quota.rate" and so on, which are in turn
+     * overridden by "workflow.&lt;id&gt;.&lt;version&gt;.quota.rate".
+     * @param metadata workflow metadata, may be null
+     * @param properties property source, may be null
+     */
+    public static InstanceQuota of(String workflowId,
+                                   String workflowVersion,
+                                   Map<String, String> metadata,
+                                   Properties properties) {
+        double rate = Double.parseDouble(lookup(RATE,
+                                                workflowId,
+                                                workflowVersion,
+                                                metadata,
+                                                properties));
+        int burst = Integer.parseInt(lookup(BURST,
+                                            workflowId,
+                                            workflowVersion,
+                                            metadata,
+                                            properties));
+        int maxConcurrent = Integer.parseInt(lookup(MAX_CONCURRENT,
+                                                    workflowId,
+                                                    workflowVersion,
+                                                    metadata,
+                                                    properties));
+        return rate == 0 && maxConcurrent == 0 ? UNLIMITED : new InstanceQuota(rate,
+                                                                              burst,
+                                                                              maxConcurrent);
+    }
+
+    public boolean isUnlimited() {
+        return ratePerSecond == 0 && maxConcurrentInstances == 0;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getMaxConcurrentInstances() {
+        return maxConcurrentInstances;
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceQuota{rate=" + ratePerSecond + ", burst=" + burst + ", maxConcurrent=" + maxConcurrentInstances + "}";
+    }
+
+    private static String lookup(String key,
+                                 String workflowId,
+                                 String workflowVersion,
+                                 Map<String, String> metadata,
+                                 Properties properties) {
+        String value = null;
+        if (properties != null) {
+            if (workflowVersion != null) {
+                value = properties.getProperty(PROPERTY_PREFIX + workflowId + "." + workflowVersion + "." + key);
+            }
+            if (value == null) {
+                value = properties.getProperty(PROPERTY_PREFIX + workflowId + "." + key);
+            }
+        }
+        if (value == null && metadata != null) {
+            value = metadata.get(key);
+        }
+        return value == null || value.trim().isEmpty() ? "0" : value.trim();
+    }
+}
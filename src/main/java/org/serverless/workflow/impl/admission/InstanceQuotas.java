@@ -0,0 +1,132 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.admission;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.serverless.workflow.api.WorkflowPropertySource;
+import org.serverless.workflow.spi.WorkflowPropertySourceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-definition instance quotas, keyed by workflow id and version. A definition's quota is read once, from
+ * explicitly set quotas or else from its metadata and the property source, and its limiter is cached so the
+ * start path only does two map lookups and the limiter's atomics.
+ */
+public class InstanceQuotas {
+
+    private final Properties properties;
+    private final Map<String, Map<String, InstanceQuota>> configured = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, QuotaLimiter>> limiters = new ConcurrentHashMap<>();
+
+    private static Logger logger = LoggerFactory.getLogger(InstanceQuotas.class);
+
+    /**
+     * Quotas read from workflow metadata and the default workflow property source.
+     */
+    public InstanceQuotas() {
+        this(defaultProperties());
+    }
+
+    /**
+     * @param properties property source for quotas, may be null to only use workflow metadata
+     */
+    public InstanceQuotas(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @param metadata workflow metadata, read only the first time the definition is seen
+     */
+    public QuotaLimiter limiterFor(String workflowId,
+                                   String workflowVersion,
+                                   Map<String, String> metadata) {
+        String version = workflowVersion == null ? "" : workflowVersion;
+        Map<String, QuotaLimiter> versions = limiters.get(workflowId);
+        QuotaLimiter limiter = versions == null ? null : versions.get(version);
+        if (limiter != null) {
+            return limiter;
+        }
+        return limiters.computeIfAbsent(workflowId,
+                                        id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(version,
+                                 v -> {
+                                     InstanceQuota quota = configured(workflowId,
+                                                                      v);
+                                     if (quota == null) {
+                                         quota = InstanceQuota.of(workflowId,
+                                                                  workflowVersion,
+                                                                  metadata,
+                                                                  properties);
+                                     }
+                                     if (!quota.isUnlimited()) {
+                                         logger.info("Workflow " + workflowId + " version " + v + " limited to " + quota);
+                                     }
+                                     return new QuotaLimiter(workflowId,
+                                                             v,
+                                                             quota);
+                                 });
+    }
+
+    /**
+     * Sets the quota of a workflow version, taking precedence over its metadata and properties. Instances
+     * already running keep counting against the limiter they were started with.
+     */
+    public void setQuota(String workflowId,
+                         String workflowVersion,
+                         InstanceQuota quota) {
+        String version = workflowVersion == null ? "" : workflowVersion;
+        configured.computeIfAbsent(workflowId,
+                                   id -> new ConcurrentHashMap<>()).put(version,
+                                                                        quota);
+        Map<String, QuotaLimiter> versions = limiters.get(workflowId);
+        if (versions != null) {
+            versions.remove(version);
+        }
+    }
+
+    /**
+     * @return the quota in force for a workflow version, or null if it has not been started yet
+     */
+    public InstanceQuota getQuota(String workflowId,
+                                  String workflowVersion) {
+        Map<String, QuotaLimiter> versions = limiters.get(workflowId);
+        QuotaLimiter limiter = versions == null ? null : versions.get(workflowVersion == null ? "" : workflowVersion);
+        return limiter == null ? configured(workflowId,
+                                            workflowVersion == null ? "" : workflowVersion) : limiter.getQuota();
+    }
+
+    private InstanceQuota configured(String workflowId,
+                                     String version) {
+        Map<String, InstanceQuota> versions = configured.get(workflowId);
+        return versions == null ? null : versions.get(version);
+    }
+
+    private static Properties defaultProperties() {
+        try {
+            WorkflowPropertySource propertySource = WorkflowPropertySourceProvider.getInstance().get();
+            return propertySource == null ? null : propertySource.getPropertySource();
+        } catch (Exception e) {
+            logger.warn("Unable to read instance quotas from the workflow property source: " + e.getMessage());
+            return null;
+        }
+    }
+}
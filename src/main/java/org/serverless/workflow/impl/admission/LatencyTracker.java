@@ -0,0 +1,142 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram over a sliding window. Values are kept in log-linear buckets (eight per power of
+ * two, so percentiles are accurate to within 12.5%) in two windows: the current one and the one before it.
+ * Windows rotate when they are older than the window length, so percentiles reflect the last one to two windows
+ * and drop back to zero after two quiet windows.
+ */
+public class LatencyTracker {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 10000;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long windowNanos;
+    private volatile Window current;
+    private volatile Window previous;
+
+    public LatencyTracker() {
+        this(DEFAULT_WINDOW_MILLIS,
+             TimeUnit.MILLISECONDS);
+    }
+
+    public LatencyTracker(long window,
+                          TimeUnit unit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid latency window: " + window);
+        }
+        this.windowNanos = unit.toNanos(window);
+        long now = System.nanoTime();
+        this.current = new Window(now);
+        this.previous = new Window(now - windowNanos);
+    }
+
+    public void record(long latency,
+                       TimeUnit unit) {
+        long micros = Math.max(0,
+                               unit.toMicros(latency));
+        currentWindow(System.nanoTime()).buckets.incrementAndGet(bucketOf(micros));
+    }
+
+    /**
+     * @param percentile between 0 and 1, for instance 0.99
+     * @return upper bound of the bucket holding the percentile in microseconds, 0 if nothing was recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long now = System.nanoTime();
+        Window latest = currentWindow(now);
+        Window before = previous;
+        boolean includePrevious = now - before.start < 2 * windowNanos;
+
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = latest.buckets.get(i) + (includePrevious ? before.buckets.get(i) : 0);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1,
+                               (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    public long getP99Millis() {
+        return TimeUnit.MICROSECONDS.toMillis(getPercentileMicros(0.99));
+    }
+
+    private Window currentWindow(long now) {
+        Window window = current;
+        if (now - window.start < windowNanos) {
+            return window;
+        }
+        synchronized (this) {
+            if (current == window) {
+                // a window left idle for longer than its length starts from scratch
+                previous = now - window.start < 2 * windowNanos ? window : new Window(now - windowNanos);
+                current = new Window(now);
+            }
+            return current;
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (octave - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (octave - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int octave = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (octave - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (octave - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static class Window {
+
+        private final long start;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Window(long start) {
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.admission;
+
+/**
+ * Order in which work is shed under load.
+ */
+public enum Priority {
+    /**
+     * Shed first, once load reaches the policy's low priority ratio of a limit.
+     */
+    LOW,
+    /**
+     * Shed once load reaches a limit.
+     */
+    NORMAL,
+    /**
+     * Only held back by the queue depth limit, which protects the heap.
+     */
+    HIGH
+}
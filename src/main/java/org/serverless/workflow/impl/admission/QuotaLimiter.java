@@ -0,0 +1,117 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforces the {@link InstanceQuota} of one workflow definition. Acquiring and releasing only touch atomics
+ * owned by the definition, so definitions never contend with each other.
+ */
+public class QuotaLimiter {
+
+    private final String workflowId;
+    private final String workflowVersion;
+    private final InstanceQuota quota;
+    private final TokenBucket tokenBucket;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public QuotaLimiter(String workflowId,
+                        String workflowVersion,
+                        InstanceQuota quota) {
+        this.workflowId = workflowId;
+        this.workflowVersion = workflowVersion;
+        this.quota = quota;
+        this.tokenBucket = quota.getRatePerSecond() > 0 ? new TokenBucket(quota.getRatePerSecond(),
+                                                                          quota.getBurst()) : null;
+    }
+
+    /**
+     * Takes a permit for one new instance, to be given back with {@link #release()} when it finishes.
+     * @return the reason no permit is available, or null if one was taken
+     */
+    public AdmissionRejectedException.Reason tryAcquire() {
+        if (quota.isUnlimited()) {
+            return null;
+        }
+        int max = quota.getMaxConcurrentInstances();
+        if (max > 0 && running.incrementAndGet() > max) {
+            running.decrementAndGet();
+            rejected.incrementAndGet();
+            return AdmissionRejectedException.Reason.CONCURRENCY_LIMIT;
+        }
+        if (tokenBucket != null && !tokenBucket.tryAcquire()) {
+            if (max > 0) {
+                running.decrementAndGet();
+            }
+            rejected.incrementAndGet();
+            return AdmissionRejectedException.Reason.RATE_LIMIT;
+        }
+        return null;
+    }
+
+    /**
+     * Takes a permit, whatever the limits, for an instance that already held one before a restart.
+     */
+    public void reacquire() {
+        if (quota.getMaxConcurrentInstances() > 0) {
+            running.incrementAndGet();
+        }
+    }
+
+    public void release() {
+        if (quota.getMaxConcurrentInstances() > 0) {
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return nanoseconds until {@link #tryAcquire()} can succeed on the rate limit, 0 if it is not the obstacle
+     */
+    public long nanosUntilPermit() {
+        return tokenBucket == null ? 0 : tokenBucket.nanosUntilPermit();
+    }
+
+    public AdmissionRejectedException rejection(AdmissionRejectedException.Reason reason,
+                                                Priority priority) {
+        String limit = reason == AdmissionRejectedException.Reason.CONCURRENCY_LIMIT ?
+                quota.getMaxConcurrentInstances() + " concurrent instances" :
+                quota.getRatePerSecond() + " instances per second";
+        return new AdmissionRejectedException(reason,
+                                              workflowId,
+                                              priority,
+                                              "Rejected " + workflowId + " version " + workflowVersion + ": over its quota of " + limit);
+    }
+
+    public InstanceQuota getQuota() {
+        return quota;
+    }
+
+    /**
+     * @return number of instances holding a permit, only counted if concurrency is capped
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Instead of a token count refilled by a timer it keeps the theoretical arrival time of
+ * the next permit in a single atomic, so acquiring a permit is one read of the clock and one compare-and-set.
+ */
+public class TokenBucket {
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong nextPermitNanos;
+
+    /**
+     * @param permitsPerSecond sustained rate at which permits are handed out
+     * @param burst number of permits that can be taken at once after the bucket has been idle
+     */
+    public TokenBucket(double permitsPerSecond,
+                       int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid token bucket rate " + permitsPerSecond + " burst " + burst);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.intervalNanos = Math.max(1,
+                                      (long) (1_000_000_000L / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.nextPermitNanos = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextPermitNanos.get();
+            long base = next - now > 0 ? next : now;
+            if (base - toleranceNanos - now > 0) {
+                return false;
+            }
+            if (nextPermitNanos.compareAndSet(next,
+                                              base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds until a permit can be acquired, 0 if one is available now
+     */
+    public long nanosUntilPermit() {
+        return Math.max(0,
+                        nextPermitNanos.get() - toleranceNanos - System.nanoTime());
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.aot;
+
+import java.util.Set;
+
+/**
+ * Workflow ready to be written to a {@link WorkflowArtifact}.
+ */
+public class CompiledWorkflow {
+
+    private final String id;
+    private final String version;
+    private final byte[] definition;
+    private final Set<String> triggerMatches;
+
+    /**
+     * @param definition the workflow encoded as Smile
+     * @param triggerMatches matches recorded by {@link TriggerMatches} while compiling the workflow
+     */
+    public CompiledWorkflow(String id,
+                            String version,
+                            byte[] definition,
+                            Set<String> triggerMatches) {
+        this.id = id;
+        this.version = version;
+        this.definition = definition;
+        this.triggerMatches = triggerMatches;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public byte[] getDefinition() {
+        return definition;
+    }
+
+    public Set<String> getTriggerMatches() {
+        return triggerMatches;
+    }
+}
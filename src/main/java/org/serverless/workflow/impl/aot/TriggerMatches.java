@@ -0,0 +1,81 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.aot;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.serverless.workflow.api.ExpressionEvaluator;
+import org.serverless.workflow.api.events.TriggerEvent;
+
+/**
+ * Matches of event state expressions to trigger definitions. Recording matches delegate to an evaluator and
+ * remember the pairs it accepted; matches read from an artifact answer from those pairs without evaluating
+ * anything.
+ */
+public class TriggerMatches implements ExpressionEvaluator {
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final ExpressionEvaluator evaluator;
+    private final Set<String> matches;
+
+    private TriggerMatches(ExpressionEvaluator evaluator,
+                           Set<String> matches) {
+        this.evaluator = evaluator;
+        this.matches = matches;
+    }
+
+    public static TriggerMatches recording(ExpressionEvaluator evaluator) {
+        return new TriggerMatches(evaluator,
+                                  new LinkedHashSet<>());
+    }
+
+    public static TriggerMatches of(Set<String> matches) {
+        return new TriggerMatches(null,
+                                  matches);
+    }
+
+    @Override
+    public String getName() {
+        return evaluator == null ? "precomputed" : evaluator.getName();
+    }
+
+    @Override
+    public boolean evaluate(String expression,
+                            TriggerEvent triggerEvent) {
+        String match = expression + SEPARATOR + triggerEvent.getName();
+        if (evaluator == null) {
+            return matches.contains(match);
+        }
+        boolean matched = evaluator.evaluate(expression,
+                                             triggerEvent);
+        if (matched) {
+            matches.add(match);
+        }
+        return matched;
+    }
+
+    /**
+     * @return expression and trigger name of every match, joined by a NUL character
+     */
+    public Set<String> getMatches() {
+        return Collections.unmodifiableSet(matches);
+    }
+}
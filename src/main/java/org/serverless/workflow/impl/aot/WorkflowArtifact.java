@@ -0,0 +1,293 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.aot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.impl.mapper.SmileObjectMapper;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+
+/**
+ * Precompiled workflow definitions in a single file, written by {@link WorkflowCompiler} and memory-mapped when
+ * opened. The header (magic, format version, creation time, entry count and index length) is followed by an
+ * index of the entries, then by their payloads: the workflow encoded as Smile after property substitution and
+ * validation, and the trigger definitions its event states matched. Entries are stored so that subflows come
+ * before the workflows calling them.
+ * <p>
+ * Loading an artifact decodes the binary definitions and registers them without reading markup, substituting
+ * properties, validating or evaluating event expressions again.
+ */
+public class WorkflowArtifact implements AutoCloseable {
+
+    public static final int MAGIC = 0x57464152;
+    public static final short FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 4 + 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final SmileObjectMapper mapper;
+    private final long createdAt;
+    private final List<Entry> entries;
+
+    private WorkflowArtifact(Path path,
+                             SmileObjectMapper mapper) throws IOException {
+        this.path = path;
+        this.mapper = mapper;
+        this.channel = FileChannel.open(path,
+                                        StandardOpenOption.READ);
+        try {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      0,
+                                      channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException(path + " is not a workflow artifact");
+            }
+            short version = buffer.getShort(4);
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported workflow artifact format version " + version + " of " + path);
+            }
+            this.createdAt = buffer.getLong(6);
+            int count = buffer.getInt(14);
+            int indexLength = buffer.getInt(18);
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(bytes(HEADER_SIZE,
+                                                                                       indexLength)));
+            List<Entry> entries = new ArrayList<>(count);
+            int payloads = HEADER_SIZE + indexLength;
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(index.readUTF(),
+                                      index.readBoolean() ? index.readUTF() : null,
+                                      payloads + index.readInt(),
+                                      index.readInt(),
+                                      index.readInt()));
+            }
+            this.entries = Collections.unmodifiableList(entries);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an artifact, reading its definitions without a property source, as their properties were
+     * substituted when it was compiled.
+     */
+    public static WorkflowArtifact open(Path path) throws IOException {
+        return open(path,
+                    new SmileObjectMapper());
+    }
+
+    /**
+     * @param mapper mapper with the extensions used by the definitions registered
+     */
+    public static WorkflowArtifact open(Path path,
+                                        SmileObjectMapper mapper) throws IOException {
+        return new WorkflowArtifact(path,
+                                    mapper);
+    }
+
+    /**
+     * Writes an artifact, replacing the file atomically.
+     * @param workflows compiled workflows, in the order they are to be registered
+     */
+    public static void write(Path path,
+                             List<CompiledWorkflow> workflows) throws IOException {
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payloads = new DataOutputStream(payloadBytes);
+        for (CompiledWorkflow workflow : workflows) {
+            ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(workflow.getDefinition().length + 64);
+            DataOutputStream entry = new DataOutputStream(entryBytes);
+            entry.writeInt(workflow.getDefinition().length);
+            entry.write(workflow.getDefinition());
+            entry.writeInt(workflow.getTriggerMatches().size());
+            for (String match : workflow.getTriggerMatches()) {
+                entry.writeUTF(match);
+            }
+            byte[] payload = entryBytes.toByteArray();
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload);
+            int offset = payloads.size();
+            int length = payload.length;
+            payloads.write(payload);
+
+            index.writeUTF(workflow.getId());
+            index.writeBoolean(workflow.getVersion() != null);
+            if (workflow.getVersion() != null) {
+                index.writeUTF(workflow.getVersion());
+            }
+            index.writeInt(offset);
+            index.writeInt(length);
+            index.writeInt((int) crc32.getValue());
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(workflows.size());
+            out.writeInt(index.size());
+            indexBytes.writeTo(out);
+            payloadBytes.writeTo(out);
+        }
+        Files.move(temporary,
+                   path,
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Registers every definition of the artifact with the catalog, in artifact order.
+     * @return number of definitions registered
+     */
+    public int load(DefinitionCatalog catalog) {
+        for (Entry entry : entries) {
+            catalog.register(getWorkflow(entry),
+                             TriggerMatches.of(getTriggerMatches(entry)));
+        }
+        return entries.size();
+    }
+
+    public Workflow getWorkflow(Entry entry) {
+        ByteBuffer payload = payload(entry);
+        byte[] definition = new byte[payload.getInt()];
+        payload.get(definition);
+        try {
+            return mapper.readValue(definition,
+                                    Workflow.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read workflow " + entry.getId() + " from " + path,
+                                           e);
+        }
+    }
+
+    public Set<String> getTriggerMatches(Entry entry) {
+        ByteBuffer payload = payload(entry);
+        payload.position(payload.position() + 4 + payload.getInt(payload.position()));
+        byte[] matches = new byte[payload.remaining()];
+        payload.get(matches);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(matches));
+            int count = in.readInt();
+            Set<String> triggerMatches = new LinkedHashSet<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                triggerMatches.add(in.readUTF());
+            }
+            return triggerMatches;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read trigger matches of " + entry.getId() + " from " + path,
+                                           e);
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return time the artifact was compiled, in milliseconds since the epoch
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer payload(Entry entry) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(entry.offset + entry.length);
+        payload.position(entry.offset);
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.duplicate());
+        if ((int) crc32.getValue() != entry.crc) {
+            throw new IllegalStateException("Corrupt entry " + entry.getId() + " in " + path);
+        }
+        return payload;
+    }
+
+    private byte[] bytes(int offset,
+                         int length) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Index entry of a definition in the artifact.
+     */
+    public static class Entry {
+
+        private final String id;
+        private final String version;
+        private final int offset;
+        private final int length;
+        private final int crc;
+
+        private Entry(String id,
+                      String version,
+                      int offset,
+                      int length,
+                      int crc) {
+            this.id = id;
+            this.version = version;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + version;
+        }
+    }
+}
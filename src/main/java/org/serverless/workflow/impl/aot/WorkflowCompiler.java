@@ -0,0 +1,222 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.aot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.serverless.workflow.api.ExpressionEvaluator;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.api.branches.Branch;
+import org.serverless.workflow.api.interfaces.Extension;
+import org.serverless.workflow.api.interfaces.State;
+import org.serverless.workflow.api.states.ParallelState;
+import org.serverless.workflow.api.states.SubflowState;
+import org.serverless.workflow.api.validation.ValidationError;
+import org.serverless.workflow.impl.manager.WorkflowManagerImpl;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+
+/**
+ * Compiles a directory of JSON and YAML workflows into a {@link WorkflowArtifact}. Every workflow is parsed with
+ * property substitution, validated and compiled into a definition, recording the trigger definitions its event
+ * states match; the artifact is only written if all of them succeed.
+ * <p>
+ * Usage: {@code WorkflowCompiler <workflow directory> <artifact> [--evaluator <name>] [--extension <id>=<class>]...}
+ */
+public class WorkflowCompiler {
+
+    private final WorkflowManagerImpl workflowManager = new WorkflowManagerImpl();
+    private ExpressionEvaluator expressionEvaluator = new DefinitionCatalog().getExpressionEvaluator();
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: WorkflowCompiler <workflow directory> <artifact> [--evaluator <name>] [--extension <id>=<class>]...");
+            System.exit(2);
+        }
+        WorkflowCompiler compiler = new WorkflowCompiler();
+        try {
+            for (int i = 2; i < args.length; i++) {
+                if ("--evaluator".equals(args[i]) && i + 1 < args.length) {
+                    compiler.setExpressionEvaluator(args[++i]);
+                } else if ("--extension".equals(args[i]) && i + 1 < args.length) {
+                    String[] extension = args[++i].split("=",
+                                                         2);
+                    compiler.registerExtension(extension[0],
+                                               Class.forName(extension[1]).asSubclass(Extension.class));
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            List<CompiledWorkflow> workflows = compiler.compile(Paths.get(args[0]),
+                                                                Paths.get(args[1]));
+            System.out.println("Compiled " + workflows.size() + " workflows into " + args[1]);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sets the expression evaluator event states are matched to trigger definitions with.
+     */
+    public void setExpressionEvaluator(String evaluatorName) {
+        this.expressionEvaluator = workflowManager.getExpressionEvaluator(evaluatorName);
+    }
+
+    public void registerExtension(String extensionId,
+                                  Class<? extends Extension> extensionClass) {
+        workflowManager.registerExtension(extensionId,
+                                          extensionClass);
+    }
+
+    /**
+     * Compiles the workflows found in the directory and its subdirectories and writes them to the artifact.
+     * @return the compiled workflows, in artifact order
+     * @throws IllegalArgumentException listing every workflow that could not be read, validated or compiled
+     */
+    public List<CompiledWorkflow> compile(Path sourceDirectory,
+                                          Path artifact) throws IOException {
+        List<String> errors = new ArrayList<>();
+        Map<String, Workflow> workflows = new LinkedHashMap<>();
+        for (Path source : sources(sourceDirectory)) {
+            try {
+                workflowManager.setMarkup(new String(Files.readAllBytes(source),
+                                                     StandardCharsets.UTF_8));
+                List<ValidationError> validationErrors = workflowManager.getWorkflowValidator().validate();
+                if (validationErrors != null && !validationErrors.isEmpty()) {
+                    validationErrors.forEach(error -> errors.add(source + ": " + error.getType() + " " + error.getMessage()));
+                    continue;
+                }
+                Workflow workflow = workflowManager.getWorkflow();
+                if (workflows.put(workflow.getId() + ":" + workflow.getVersion(),
+                                  workflow) != null) {
+                    errors.add(source + ": duplicate workflow " + workflow.getId() + " version " + workflow.getVersion());
+                }
+            } catch (RuntimeException e) {
+                errors.add(source + ": " + e.getMessage());
+            }
+        }
+
+        DefinitionCatalog catalog = new DefinitionCatalog();
+        List<CompiledWorkflow> compiled = new ArrayList<>();
+        for (Workflow workflow : subflowsFirst(workflows.values())) {
+            try {
+                TriggerMatches triggerMatches = TriggerMatches.recording(expressionEvaluator);
+                catalog.register(workflow,
+                                 triggerMatches);
+                workflowManager.setWorkflow(workflow);
+                byte[] definition = workflowManager.toBinary();
+                if (definition == null) {
+                    throw new IllegalStateException("Unable to encode workflow");
+                }
+                compiled.add(new CompiledWorkflow(workflow.getId(),
+                                                  workflow.getVersion(),
+                                                  definition,
+                                                  triggerMatches.getMatches()));
+            } catch (RuntimeException e) {
+                errors.add(workflow.getId() + ":" + workflow.getVersion() + ": " + e.getMessage());
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Unable to compile " + sourceDirectory + ":\n" + String.join("\n",
+                                                                                                            errors));
+        }
+        WorkflowArtifact.write(artifact,
+                               compiled);
+        return compiled;
+    }
+
+    private static List<Path> sources(Path sourceDirectory) throws IOException {
+        try (Stream<Path> files = Files.walk(sourceDirectory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.endsWith(".json") || name.endsWith(".yml") || name.endsWith(".yaml");
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Orders workflows so that those called as subflows come before their callers, letting the catalog inline
+     * them when the artifact is loaded.
+     */
+    static List<Workflow> subflowsFirst(Iterable<Workflow> workflows) {
+        Map<String, List<Workflow>> byId = new LinkedHashMap<>();
+        workflows.forEach(workflow -> byId.computeIfAbsent(workflow.getId(),
+                                                           id -> new ArrayList<>()).add(workflow));
+        List<Workflow> ordered = new ArrayList<>();
+        Set<Workflow> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        workflows.forEach(workflow -> visit(workflow,
+                                            byId,
+                                            visited,
+                                            ordered));
+        return ordered;
+    }
+
+    private static void visit(Workflow workflow,
+                              Map<String, List<Workflow>> byId,
+                              Set<Workflow> visited,
+                              List<Workflow> ordered) {
+        if (!visited.add(workflow)) {
+            return;
+        }
+        for (String subflowId : subflowIds(workflow.getStates())) {
+            for (Workflow subflow : byId.getOrDefault(subflowId,
+                                                      new ArrayList<>())) {
+                visit(subflow,
+                      byId,
+                      visited,
+                      ordered);
+            }
+        }
+        ordered.add(workflow);
+    }
+
+    private static Set<String> subflowIds(List<State> states) {
+        Set<String> subflowIds = new HashSet<>();
+        if (states == null) {
+            return subflowIds;
+        }
+        for (State state : states) {
+            if (state instanceof SubflowState) {
+                subflowIds.add(((SubflowState) state).getWorkflowId());
+            } else if (state instanceof ParallelState && ((ParallelState) state).getBranches() != null) {
+                for (Branch branch : ((ParallelState) state).getBranches()) {
+                    subflowIds.addAll(subflowIds(branch.getStates()));
+                }
+            }
+        }
+        return subflowIds;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class AndPredicate implements ChoicePredicate {
+
+    private final ChoicePredicate[] predicates;
+
+    public AndPredicate(ChoicePredicate[] predicates) {
+        this.predicates = predicates;
+    }
+
+    @Override
+    public boolean test(JsonNode data) {
+        for (int i = 0; i < predicates.length; i++) {
+            if (!predicates[i].test(data)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public ChoicePredicate[] getPredicates() {
+        return predicates;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.api.choices.AndChoice;
+import org.serverless.workflow.api.choices.DefaultChoice;
+import org.serverless.workflow.api.choices.NotChoice;
+import org.serverless.workflow.api.choices.OrChoice;
+import org.serverless.workflow.api.choices.SingleChoice;
+import org.serverless.workflow.api.interfaces.Choice;
+import org.serverless.workflow.api.interfaces.State;
+import org.serverless.workflow.api.states.SwitchState;
+
+public class ChoiceCompiler {
+
+    public static final int DECISION_TABLE_MIN_CHOICES = 8;
+
+    public static Map<String, CompiledSwitchState> compileAll(Workflow workflow) {
+        return compileAll(workflow.getStates());
+    }
+
+    public static Map<String, CompiledSwitchState> compileAll(List<State> states) {
+        Map<String, CompiledSwitchState> compiledSwitchStates = new HashMap<>();
+        if (states != null) {
+            for (State state : states) {
+                if (state instanceof SwitchState) {
+                    compiledSwitchStates.put(state.getName(),
+                                             compile((SwitchState) state));
+                }
+            }
+        }
+        return compiledSwitchStates;
+    }
+
+    public static CompiledSwitchState compile(SwitchState switchState) {
+        List<Choice> choices = switchState.getChoices();
+        int size = choices == null ? 0 : choices.size();
+
+        ChoicePredicate[] predicates = new ChoicePredicate[size];
+        String[] nextStates = new String[size];
+        for (int i = 0; i < size; i++) {
+            predicates[i] = compile(choices.get(i));
+            nextStates[i] = getNextState(choices.get(i));
+        }
+
+        return new CompiledSwitchState(switchState.getName(),
+                                       compileDecision(predicates,
+                                                       nextStates,
+                                                       switchState.getDefault()));
+    }
+
+    public static SwitchDecision compileDecision(ChoicePredicate[] predicates,
+                                                 String[] nextStates,
+                                                 String defaultState) {
+        if (predicates.length >= DECISION_TABLE_MIN_CHOICES) {
+            ComparisonPredicate[] comparisons = asComparisonsOnSamePath(predicates);
+            if (comparisons != null) {
+                boolean allEquals = true;
+                boolean allNumeric = true;
+                for (ComparisonPredicate comparison : comparisons) {
+                    allEquals &= comparison.getComparison() == ComparisonPredicate.Comparison.EQUALS;
+                    allNumeric &= comparison.isNumeric();
+                }
+
+                if (allEquals) {
+                    return new LookupDecision(comparisons,
+                                              nextStates,
+                                              defaultState);
+                } else if (allNumeric) {
+                    return new IntervalDecision(comparisons,
+                                                nextStates,
+                                                defaultState);
+                }
+            }
+        }
+
+        return new SequentialDecision(predicates,
+                                      nextStates,
+                                      defaultState);
+    }
+
+    private static ComparisonPredicate[] asComparisonsOnSamePath(ChoicePredicate[] predicates) {
+        ComparisonPredicate[] comparisons = new ComparisonPredicate[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            if (!(predicates[i] instanceof ComparisonPredicate)) {
+                return null;
+            }
+            comparisons[i] = (ComparisonPredicate) predicates[i];
+            if (!comparisons[i].getPath().equals(comparisons[0].getPath())) {
+                return null;
+            }
+        }
+        return comparisons;
+    }
+
+    public static ChoicePredicate compile(Choice choice) {
+        if (choice instanceof AndChoice) {
+            return new AndPredicate(compile(((AndChoice) choice).getAnd()));
+        } else if (choice instanceof OrChoice) {
+            return new OrPredicate(compile(((OrChoice) choice).getOr()));
+        } else if (choice instanceof NotChoice) {
+            return new NotPredicate(compile(((NotChoice) choice).getNot()));
+        } else if (choice instanceof DefaultChoice) {
+            return compile((DefaultChoice) choice);
+        }
+
+        throw new IllegalArgumentException("Unsupported choice type: " + (choice == null ? null : choice.getClass().getName()));
+    }
+
+    public static ChoicePredicate compile(DefaultChoice choice) {
+        if (choice == null) {
+            throw new IllegalArgumentException("Choice must not be empty");
+        }
+        return new ComparisonPredicate(JsonPath.compile(choice.getPath()),
+                                       ComparisonPredicate.Comparison.fromOperator(choice.getOperator()),
+                                       choice.getValue());
+    }
+
+    private static ChoicePredicate[] compile(List<DefaultChoice> choices) {
+        if (choices == null || choices.isEmpty()) {
+            throw new IllegalArgumentException("Composite choices must contain at least one choice");
+        }
+
+        ChoicePredicate[] predicates = new ChoicePredicate[choices.size()];
+        for (int i = 0; i < predicates.length; i++) {
+            predicates[i] = compile(choices.get(i));
+        }
+        return predicates;
+    }
+
+    public static String getNextState(Choice choice) {
+        if (choice instanceof AndChoice) {
+            return ((AndChoice) choice).getNextState();
+        } else if (choice instanceof OrChoice) {
+            return ((OrChoice) choice).getNextState();
+        } else if (choice instanceof NotChoice) {
+            return ((NotChoice) choice).getNextState();
+        } else if (choice instanceof SingleChoice) {
+            return ((SingleChoice) choice).getNextState();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.serverless.workflow.api.choices.DefaultChoice;
+
+/**
+ * Compares the value at a path with a constant. The constant is coerced up front to every type it can be
+ * compared as, so a test only resolves the path and compares primitives.
+ */
+public class ComparisonPredicate implements ChoicePredicate {
+
+    public enum Comparison {
+        EQUALS,
+        NOT_EQUALS,
+        LESS_THAN,
+        LESS_THAN_EQUALS,
+        GREATER_THAN,
+        GREATER_THAN_EQUALS;
+
+        public static Comparison fromOperator(DefaultChoice.Operator operator) {
+            if (operator == null) {
+                throw new IllegalArgumentException("Choice operator must be specified");
+            }
+            // operator constant names vary in word separation (EQUALS, LESS_THAN_EQUALS, LESSTHANEQUALS)
+            switch (operator.name().replace("_",
+                                            "").toUpperCase()) {
+                case "EQUALS":
+                    return EQUALS;
+                case "NOTEQUALS":
+                    return NOT_EQUALS;
+                case "LESSTHAN":
+                    return LESS_THAN;
+                case "LESSTHANEQUALS":
+                    return LESS_THAN_EQUALS;
+                case "GREATERTHAN":
+                    return GREATER_THAN;
+                case "GREATERTHANEQUALS":
+                    return GREATER_THAN_EQUALS;
+                default:
+                    throw new IllegalArgumentException("Unsupported choice operator: " + operator);
+            }
+        }
+
+        public boolean isEquality() {
+            return this == EQUALS || this == NOT_EQUALS;
+        }
+
+        public boolean matches(int comparison) {
+            switch (this) {
+                case EQUALS:
+                    return comparison == 0;
+                case NOT_EQUALS:
+                    return comparison != 0;
+                case LESS_THAN:
+                    return comparison < 0;
+                case LESS_THAN_EQUALS:
+                    return comparison <= 0;
+                case GREATER_THAN:
+                    return comparison > 0;
+                default:
+                    return comparison >= 0;
+            }
+        }
+    }
+
+    private final JsonPath path;
+    private final Comparison comparison;
+    private final String textValue;
+    private final boolean numeric;
+    private final double numericValue;
+    private final boolean bool;
+    private final boolean booleanValue;
+
+    public ComparisonPredicate(JsonPath path,
+                               Comparison comparison,
+                               String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Choice value for path " + path + " must be specified");
+        }
+        this.path = path;
+        this.comparison = comparison;
+        this.textValue = value;
+
+        double parsed = 0;
+        boolean isNumeric;
+        try {
+            parsed = Double.parseDouble(value.trim());
+            isNumeric = !Double.isNaN(parsed);
+        } catch (NumberFormatException e) {
+            isNumeric = false;
+        }
+        this.numeric = isNumeric;
+        this.numericValue = parsed;
+        this.bool = "true".equalsIgnoreCase(value.trim()) || "false".equalsIgnoreCase(value.trim());
+        this.booleanValue = Boolean.parseBoolean(value.trim());
+    }
+
+    @Override
+    public boolean test(JsonNode data) {
+        JsonNode node = path.resolve(data);
+        if (node == null) {
+            return false;
+        }
+
+        // a value of another type than the choice value is unequal to it and not ordered against it
+        int result;
+        if (node.isNumber()) {
+            if (!numeric) {
+                return comparison == Comparison.NOT_EQUALS;
+            }
+            result = compare(node.doubleValue(),
+                             numericValue);
+        } else if (node.isTextual()) {
+            result = node.textValue().compareTo(textValue);
+        } else if (node.isBoolean()) {
+            if (!bool) {
+                return comparison == Comparison.NOT_EQUALS;
+            }
+            if (!comparison.isEquality()) {
+                return false;
+            }
+            result = node.booleanValue() == booleanValue ? 0 : 1;
+        } else {
+            return comparison == Comparison.NOT_EQUALS;
+        }
+        return comparison.matches(result);
+    }
+
+    public boolean testNumber(double value) {
+        if (!numeric) {
+            return comparison == Comparison.NOT_EQUALS;
+        }
+        return comparison.matches(compare(value,
+                                          numericValue));
+    }
+
+    private static int compare(double value,
+                               double other) {
+        if (value < other) {
+            return -1;
+        }
+        return value == other ? 0 : 1;
+    }
+
+    public JsonPath getPath() {
+        return path;
+    }
+
+    public Comparison getComparison() {
+        return comparison;
+    }
+
+    public String getTextValue() {
+        return textValue;
+    }
+
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    public double getNumericValue() {
+        return numericValue;
+    }
+
+    public boolean isBoolean() {
+        return bool;
+    }
+
+    public boolean getBooleanValue() {
+        return booleanValue;
+    }
+}
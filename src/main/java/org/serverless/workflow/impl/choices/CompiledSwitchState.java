@@ -0,0 +1,45 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class CompiledSwitchState {
+
+    private final String name;
+    private final SwitchDecision decision;
+
+    public CompiledSwitchState(String name,
+                               SwitchDecision decision) {
+        this.name = name;
+        this.decision = decision;
+    }
+
+    public String evaluate(JsonNode data) {
+        return decision.decide(data);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SwitchDecision getDecision() {
+        return decision;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Decision table for switch states whose choices all compare the same path with numbers.
+ * The choice values split the number line into points and the open intervals between them.
+ * The outcome of sequential evaluation is computed once per region at compile time, so a decision is a
+ * binary search over the sorted choice values. Values that are not numbers fall back to sequential evaluation.
+ */
+public class IntervalDecision implements SwitchDecision {
+
+    private final JsonPath path;
+    private final double[] breakpoints;
+    private final String[] regionTargets;
+    private final SequentialDecision fallback;
+
+    public IntervalDecision(ComparisonPredicate[] predicates,
+                            String[] nextStates,
+                            String defaultState) {
+        this.path = predicates[0].getPath();
+        this.fallback = new SequentialDecision(predicates,
+                                               nextStates,
+                                               defaultState);
+
+        TreeSet<Double> values = new TreeSet<>();
+        for (ComparisonPredicate predicate : predicates) {
+            if (!predicate.isNumeric() || !predicate.getPath().equals(path)) {
+                throw new IllegalArgumentException("Interval decisions require numeric choices on path " + path);
+            }
+            values.add(predicate.getNumericValue() + 0.0);
+        }
+
+        this.breakpoints = new double[values.size()];
+        int i = 0;
+        for (Double value : values) {
+            breakpoints[i++] = value;
+        }
+
+        // region 2i + 1 is the breakpoint i itself, region 2i the open interval below it
+        this.regionTargets = new String[2 * breakpoints.length + 1];
+        for (int region = 0; region < regionTargets.length; region++) {
+            double representative;
+            if (region % 2 == 1) {
+                representative = breakpoints[region / 2];
+            } else if (region == 0) {
+                representative = Math.nextDown(breakpoints[0]);
+            } else {
+                representative = Math.nextUp(breakpoints[region / 2 - 1]);
+            }
+            regionTargets[region] = decide(predicates,
+                                           nextStates,
+                                           defaultState,
+                                           representative);
+        }
+    }
+
+    private static String decide(ComparisonPredicate[] predicates,
+                                 String[] nextStates,
+                                 String defaultState,
+                                 double value) {
+        for (int i = 0; i < predicates.length; i++) {
+            if (predicates[i].testNumber(value)) {
+                return nextStates[i];
+            }
+        }
+        return defaultState;
+    }
+
+    @Override
+    public String decide(JsonNode data) {
+        JsonNode node = path.resolve(data);
+        if (node == null || !node.isNumber() || Double.isNaN(node.doubleValue())) {
+            return fallback.decide(data);
+        }
+
+        int index = Arrays.binarySearch(breakpoints,
+                                        node.doubleValue() + 0.0);
+        return regionTargets[index >= 0 ? 2 * index + 1 : -2 * (index + 1)];
+    }
+
+    public JsonPath getPath() {
+        return path;
+    }
+
+    public int size() {
+        return breakpoints.length;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Path into the state data, split into its segments once so that resolving it does no parsing.
+ * Supports "$", dotted member names ("$.order.customer" or "order.customer") and array indexes ("items[0]").
+ */
+public final class JsonPath {
+
+    private final String expression;
+    private final String[] names;
+    private final int[] indexes;
+
+    private JsonPath(String expression,
+                     String[] names,
+                     int[] indexes) {
+        this.expression = expression;
+        this.names = names;
+        this.indexes = indexes;
+    }
+
+    public static JsonPath compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Path must not be empty");
+        }
+
+        String path = expression.trim();
+        if (path.startsWith("$")) {
+            path = path.substring(1);
+        }
+        if (path.startsWith(".")) {
+            path = path.substring(1);
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        int i = 0;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+            } else if (c == '[') {
+                int end = path.indexOf(']',
+                                       i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated index in path: " + expression);
+                }
+                try {
+                    indexes.add(Integer.parseInt(path.substring(i + 1,
+                                                                end).trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid index in path: " + expression);
+                }
+                names.add(null);
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                names.add(path.substring(i,
+                                         end));
+                indexes.add(-1);
+                i = end;
+            }
+        }
+
+        int[] indexArray = new int[indexes.size()];
+        for (int j = 0; j < indexArray.length; j++) {
+            indexArray[j] = indexes.get(j);
+        }
+        return new JsonPath(expression,
+                            names.toArray(new String[0]),
+                            indexArray);
+    }
+
+    public JsonNode resolve(JsonNode data) {
+        JsonNode node = data;
+        for (int i = 0; i < names.length && node != null; i++) {
+            node = names[i] != null ? node.get(names[i]) : node.get(indexes[i]);
+        }
+        return node;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Paths are equal when they have the same segments, however they are written ("$.a", ".a" and "a").
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof JsonPath)) {
+            return false;
+        }
+        JsonPath other = (JsonPath) o;
+        return Arrays.equals(names,
+                             other.names) && Arrays.equals(indexes,
+                                                           other.indexes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(names) + Arrays.hashCode(indexes);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Decision table for switch states whose choices all test the same path for equality.
+ * Text values are looked up in a hash map, numbers with a binary search over the sorted choice values.
+ * When several choices test the same value the first one wins, as with sequential evaluation.
+ */
+public class LookupDecision implements SwitchDecision {
+
+    private final JsonPath path;
+    private final Map<String, String> textTargets = new HashMap<>();
+    private final double[] numericKeys;
+    private final String[] numericTargets;
+    private final String trueTarget;
+    private final String falseTarget;
+    private final String defaultState;
+
+    public LookupDecision(ComparisonPredicate[] predicates,
+                          String[] nextStates,
+                          String defaultState) {
+        this.path = predicates[0].getPath();
+        this.defaultState = defaultState;
+
+        TreeMap<Double, String> numericTargetMap = new TreeMap<>();
+        String booleanTrue = null;
+        String booleanFalse = null;
+        for (int i = 0; i < predicates.length; i++) {
+            ComparisonPredicate predicate = predicates[i];
+            if (predicate.getComparison() != ComparisonPredicate.Comparison.EQUALS || !predicate.getPath().equals(path)) {
+                throw new IllegalArgumentException("Lookup decisions require equality choices on path " + path);
+            }
+
+            textTargets.putIfAbsent(predicate.getTextValue(),
+                                    nextStates[i]);
+            if (predicate.isNumeric()) {
+                numericTargetMap.putIfAbsent(predicate.getNumericValue() + 0.0,
+                                             nextStates[i]);
+            }
+            if (predicate.isBoolean()) {
+                if (predicate.getBooleanValue() && booleanTrue == null) {
+                    booleanTrue = nextStates[i];
+                } else if (!predicate.getBooleanValue() && booleanFalse == null) {
+                    booleanFalse = nextStates[i];
+                }
+            }
+        }
+
+        this.numericKeys = new double[numericTargetMap.size()];
+        this.numericTargets = new String[numericTargetMap.size()];
+        int i = 0;
+        for (Map.Entry<Double, String> entry : numericTargetMap.entrySet()) {
+            numericKeys[i] = entry.getKey();
+            numericTargets[i] = entry.getValue();
+            i++;
+        }
+        this.trueTarget = booleanTrue;
+        this.falseTarget = booleanFalse;
+    }
+
+    @Override
+    public String decide(JsonNode data) {
+        JsonNode node = path.resolve(data);
+        String target = null;
+        if (node == null) {
+            return defaultState;
+        } else if (node.isTextual()) {
+            target = textTargets.get(node.textValue());
+        } else if (node.isNumber()) {
+            int index = Arrays.binarySearch(numericKeys,
+                                            node.doubleValue() + 0.0);
+            target = index >= 0 ? numericTargets[index] : null;
+        } else if (node.isBoolean()) {
+            target = node.booleanValue() ? trueTarget : falseTarget;
+        }
+        return target != null ? target : defaultState;
+    }
+
+    public JsonPath getPath() {
+        return path;
+    }
+
+    public int size() {
+        return textTargets.size();
+    }
+}
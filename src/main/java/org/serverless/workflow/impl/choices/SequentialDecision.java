@@ -0,0 +1,61 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.choices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class SequentialDecision implements SwitchDecision {
+
+    private final ChoicePredicate[] predicates;
+    private final String[] nextStates;
+    private final String defaultState;
+
+    public SequentialDecision(ChoicePredicate[] predicates,
+                              String[] nextStates,
+                              String defaultState) {
+        if (predicates.length != nextStates.length) {
+            throw new IllegalArgumentException("Each choice needs a next state");
+        }
+        this.predicates = predicates;
+        this.nextStates = nextStates;
+        this.defaultState = defaultState;
+    }
+
+    @Override
+    public String decide(JsonNode data) {
+        for (int i = 0; i < predicates.length; i++) {
+            if (predicates[i].test(data)) {
+                return nextStates[i];
+            }
+        }
+        return defaultState;
+    }
+
+    public ChoicePredicate[] getPredicates() {
+        return predicates;
+    }
+
+    public String[] getNextStates() {
+        return nextStates;
+    }
+
+    public String getDefaultState() {
+        return defaultState;
+    }
+}
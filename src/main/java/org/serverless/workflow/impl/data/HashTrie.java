@@ -0,0 +1,570 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.data;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie. Updates copy only the path from the root to the changed entry (at most
+ * seven nodes of up to 32 slots), every other node is shared with the previous version.
+ */
+final class HashTrie<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final HashTrie<?, ?> EMPTY = new HashTrie<>(null,
+                                                               0);
+
+    private final Node root;
+    private final int size;
+
+    private HashTrie(Node root,
+                     int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> HashTrie<K, V> empty() {
+        return (HashTrie<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        return root == null ? null : (V) root.get(0,
+                                                  hash(key),
+                                                  key);
+    }
+
+    HashTrie<K, V> put(K key,
+                       V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = (root == null ? BitmapNode.EMPTY : root).put(0,
+                                                                   hash(key),
+                                                                   key,
+                                                                   value,
+                                                                   added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new HashTrie<>(newRoot,
+                              added[0] ? size + 1 : size);
+    }
+
+    HashTrie<K, V> remove(K key) {
+        if (root == null) {
+            return this;
+        }
+        Node newRoot = root.remove(0,
+                                   hash(key),
+                                   key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new HashTrie<>(newRoot,
+                                                          size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            root.forEach((BiConsumer<Object, Object>) action);
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        List<Map.Entry<K, V>> entries = new ArrayList<>(size);
+        forEach((key, value) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(key,
+                                                                                   value)));
+        return entries.iterator();
+    }
+
+    /**
+     * Reports the entries that differ between two versions of a trie. Subtries shared by both versions are
+     * skipped without being visited, so the cost depends on the number of changes, not on the size of the tries.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> void diff(HashTrie<K, V> base,
+                            HashTrie<K, V> changed,
+                            DiffVisitor<K, V> visitor) {
+        diff(base.root,
+             changed.root,
+             (DiffVisitor<Object, Object>) visitor);
+    }
+
+    interface DiffVisitor<K, V> {
+
+        /**
+         * @param oldValue value in the base trie, null if the entry was added
+         * @param newValue value in the changed trie, null if the entry was removed
+         */
+        void changed(K key,
+                     V oldValue,
+                     V newValue);
+    }
+
+    private static void diff(Object base,
+                             Object changed,
+                             DiffVisitor<Object, Object> visitor) {
+        if (base == changed) {
+            return;
+        }
+        if (base instanceof BitmapNode && changed instanceof BitmapNode) {
+            BitmapNode baseNode = (BitmapNode) base;
+            BitmapNode changedNode = (BitmapNode) changed;
+            int bits = baseNode.bitmap | changedNode.bitmap;
+            while (bits != 0) {
+                int bit = Integer.lowestOneBit(bits);
+                bits &= ~bit;
+                diffSlot(baseNode,
+                         changedNode,
+                         bit,
+                         visitor);
+            }
+            return;
+        }
+        diffEntries(entriesOf(base),
+                    entriesOf(changed),
+                    visitor);
+    }
+
+    private static void diffSlot(BitmapNode base,
+                                 BitmapNode changed,
+                                 int bit,
+                                 DiffVisitor<Object, Object> visitor) {
+        Object baseKey = null;
+        Object baseValue = null;
+        Object changedKey = null;
+        Object changedValue = null;
+        if ((base.bitmap & bit) != 0) {
+            int index = base.index(bit);
+            baseKey = base.array[2 * index];
+            baseValue = base.array[2 * index + 1];
+        }
+        if ((changed.bitmap & bit) != 0) {
+            int index = changed.index(bit);
+            changedKey = changed.array[2 * index];
+            changedValue = changed.array[2 * index + 1];
+        }
+        if (baseKey == changedKey && baseValue == changedValue) {
+            return;
+        }
+        if (baseKey == null && changedKey == null && baseValue instanceof Node && changedValue instanceof Node) {
+            diff(baseValue,
+                 changedValue,
+                 visitor);
+            return;
+        }
+        diffEntries(slotEntries(baseKey,
+                                baseValue),
+                    slotEntries(changedKey,
+                                changedValue),
+                    visitor);
+    }
+
+    private static List<Object> slotEntries(Object key,
+                                            Object value) {
+        if (value == null) {
+            return new ArrayList<>();
+        }
+        if (key == null) {
+            return entriesOf(value);
+        }
+        List<Object> entries = new ArrayList<>(2);
+        entries.add(key);
+        entries.add(value);
+        return entries;
+    }
+
+    private static List<Object> entriesOf(Object node) {
+        List<Object> entries = new ArrayList<>();
+        if (node != null) {
+            ((Node) node).forEach((key, value) -> {
+                entries.add(key);
+                entries.add(value);
+            });
+        }
+        return entries;
+    }
+
+    private static void diffEntries(List<Object> base,
+                                    List<Object> changed,
+                                    DiffVisitor<Object, Object> visitor) {
+        for (int i = 0; i < changed.size(); i += 2) {
+            Object key = changed.get(i);
+            Object oldValue = valueOf(base,
+                                      key);
+            if (oldValue != changed.get(i + 1)) {
+                visitor.changed(key,
+                                oldValue,
+                                changed.get(i + 1));
+            }
+        }
+        for (int i = 0; i < base.size(); i += 2) {
+            if (valueOf(changed,
+                        base.get(i)) == null) {
+                visitor.changed(base.get(i),
+                                base.get(i + 1),
+                                null);
+            }
+        }
+    }
+
+    private static Object valueOf(List<Object> entries,
+                                  Object key) {
+        for (int i = 0; i < entries.size(); i += 2) {
+            if (entries.get(i).equals(key)) {
+                return entries.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private abstract static class Node {
+
+        abstract Object get(int shift,
+                            int hash,
+                            Object key);
+
+        abstract Node put(int shift,
+                          int hash,
+                          Object key,
+                          Object value,
+                          boolean[] added);
+
+        abstract Node remove(int shift,
+                             int hash,
+                             Object key);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /**
+     * Node with up to 32 slots selected by five bits of the hash. A slot holds either a key and its value,
+     * or a null key and a child node.
+     */
+    private static final class BitmapNode extends Node {
+
+        private static final BitmapNode EMPTY = new BitmapNode(0,
+                                                               new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        private BitmapNode(int bitmap,
+                           Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        Object get(int shift,
+                   int hash,
+                   Object key) {
+            int bit = bitpos(hash,
+                             shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = index(bit);
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                return ((Node) slotValue).get(shift + 5,
+                                              hash,
+                                              key);
+            }
+            return key.equals(slotKey) ? slotValue : null;
+        }
+
+        @Override
+        Node put(int shift,
+                 int hash,
+                 Object key,
+                 Object value,
+                 boolean[] added) {
+            int bit = bitpos(hash,
+                             shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array,
+                                 0,
+                                 newArray,
+                                 0,
+                                 2 * index);
+                newArray[2 * index] = key;
+                newArray[2 * index + 1] = value;
+                System.arraycopy(array,
+                                 2 * index,
+                                 newArray,
+                                 2 * index + 2,
+                                 array.length - 2 * index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit,
+                                      newArray);
+            }
+
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                Node child = ((Node) slotValue).put(shift + 5,
+                                                    hash,
+                                                    key,
+                                                    value,
+                                                    added);
+                return child == slotValue ? this : withSlot(index,
+                                                            null,
+                                                            child);
+            }
+            if (key.equals(slotKey)) {
+                return slotValue == value ? this : withSlot(index,
+                                                            slotKey,
+                                                            value);
+            }
+            added[0] = true;
+            return withSlot(index,
+                            null,
+                            createNode(shift + 5,
+                                       slotKey,
+                                       slotValue,
+                                       hash,
+                                       key,
+                                       value));
+        }
+
+        @Override
+        Node remove(int shift,
+                    int hash,
+                    Object key) {
+            int bit = bitpos(hash,
+                             shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                Node child = ((Node) slotValue).remove(shift + 5,
+                                                       hash,
+                                                       key);
+                if (child == slotValue) {
+                    return this;
+                }
+                if (child != null) {
+                    return withSlot(index,
+                                    null,
+                                    child);
+                }
+            } else if (!key.equals(slotKey)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array,
+                             0,
+                             newArray,
+                             0,
+                             2 * index);
+            System.arraycopy(array,
+                             2 * index + 2,
+                             newArray,
+                             2 * index,
+                             newArray.length - 2 * index);
+            return new BitmapNode(bitmap & ~bit,
+                                  newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i],
+                                  array[i + 1]);
+                }
+            }
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private BitmapNode withSlot(int index,
+                                    Object key,
+                                    Object value) {
+            Object[] newArray = array.clone();
+            newArray[2 * index] = key;
+            newArray[2 * index + 1] = value;
+            return new BitmapNode(bitmap,
+                                  newArray);
+        }
+
+        private static Node createNode(int shift,
+                                       Object firstKey,
+                                       Object firstValue,
+                                       int secondHash,
+                                       Object secondKey,
+                                       Object secondValue) {
+            int firstHash = hash(firstKey);
+            if (firstHash == secondHash) {
+                return new CollisionNode(firstHash,
+                                         new Object[]{firstKey, firstValue, secondKey, secondValue});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.put(shift,
+                             firstHash,
+                             firstKey,
+                             firstValue,
+                             added).put(shift,
+                                        secondHash,
+                                        secondKey,
+                                        secondValue,
+                                        added);
+        }
+
+        private static int bitpos(int hash,
+                                  int shift) {
+            return 1 << ((hash >>> shift) & 0x1f);
+        }
+    }
+
+    /**
+     * Node for keys whose hashes are equal.
+     */
+    private static final class CollisionNode extends Node {
+
+        private final int hash;
+        private final Object[] array;
+
+        private CollisionNode(int hash,
+                              Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        Object get(int shift,
+                   int hash,
+                   Object key) {
+            int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override
+        Node put(int shift,
+                 int hash,
+                 Object key,
+                 Object value,
+                 boolean[] added) {
+            if (hash != this.hash) {
+                return new BitmapNode(BitmapNode.bitpos(this.hash,
+                                                        shift),
+                                      new Object[]{null, this}).put(shift,
+                                                                    hash,
+                                                                    key,
+                                                                    value,
+                                                                    added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[index + 1] = value;
+                return new CollisionNode(hash,
+                                         newArray);
+            }
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array,
+                             0,
+                             newArray,
+                             0,
+                             array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash,
+                                     newArray);
+        }
+
+        @Override
+        Node remove(int shift,
+                    int hash,
+                    Object key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array,
+                             0,
+                             newArray,
+                             0,
+                             index);
+            System.arraycopy(array,
+                             index + 2,
+                             newArray,
+                             index,
+                             newArray.length - index);
+            return new CollisionNode(hash,
+                                     newArray);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i],
+                              array[i + 1]);
+            }
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (Objects.equals(key,
+                                   array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
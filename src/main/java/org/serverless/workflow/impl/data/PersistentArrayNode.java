@@ -0,0 +1,261 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.WritableTypeId;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.BaseJsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Immutable JSON array. Updates copy the element references (never the elements themselves),
+ * so nested objects stay shared between versions.
+ */
+public final class PersistentArrayNode extends BaseJsonNode {
+
+    private static final PersistentArrayNode EMPTY = new PersistentArrayNode(new JsonNode[0]);
+
+    private final JsonNode[] elements;
+    private int hash;
+
+    PersistentArrayNode(JsonNode[] elements) {
+        this.elements = elements;
+    }
+
+    public static PersistentArrayNode empty() {
+        return EMPTY;
+    }
+
+    public PersistentArrayNode withElement(int index,
+                                           JsonNode value) {
+        JsonNode element = PersistentJson.persistent(value);
+        if (elements[index] == element) {
+            return this;
+        }
+        JsonNode[] updated = elements.clone();
+        updated[index] = element;
+        return new PersistentArrayNode(updated);
+    }
+
+    public PersistentArrayNode withAdded(JsonNode value) {
+        JsonNode[] updated = Arrays.copyOf(elements,
+                                           elements.length + 1);
+        updated[elements.length] = PersistentJson.persistent(value);
+        return new PersistentArrayNode(updated);
+    }
+
+    public PersistentArrayNode withoutElement(int index) {
+        JsonNode[] updated = new JsonNode[elements.length - 1];
+        System.arraycopy(elements,
+                         0,
+                         updated,
+                         0,
+                         index);
+        System.arraycopy(elements,
+                         index + 1,
+                         updated,
+                         index,
+                         updated.length - index);
+        return new PersistentArrayNode(updated);
+    }
+
+    @Override
+    public JsonNodeType getNodeType() {
+        return JsonNodeType.ARRAY;
+    }
+
+    @Override
+    public boolean isArray() {
+        return true;
+    }
+
+    @Override
+    public JsonToken asToken() {
+        return JsonToken.START_ARRAY;
+    }
+
+    @Override
+    public String asText() {
+        return "";
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public JsonNode get(int index) {
+        return index >= 0 && index < elements.length ? elements[index] : null;
+    }
+
+    @Override
+    public JsonNode get(String fieldName) {
+        return null;
+    }
+
+    @Override
+    public JsonNode path(String fieldName) {
+        return MissingNode.getInstance();
+    }
+
+    @Override
+    public JsonNode path(int index) {
+        JsonNode element = get(index);
+        return element == null ? MissingNode.getInstance() : element;
+    }
+
+    @Override
+    protected JsonNode _at(JsonPointer pointer) {
+        return get(pointer.getMatchingIndex());
+    }
+
+    @Override
+    public Iterator<JsonNode> elements() {
+        return Arrays.asList(elements).iterator();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public PersistentArrayNode deepCopy() {
+        return this;
+    }
+
+    @Override
+    public JsonNode findValue(String fieldName) {
+        for (JsonNode element : elements) {
+            JsonNode found = element.findValue(fieldName);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public JsonNode findParent(String fieldName) {
+        for (JsonNode element : elements) {
+            JsonNode found = element.findParent(fieldName);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<JsonNode> findValues(String fieldName,
+                                     List<JsonNode> foundSoFar) {
+        for (JsonNode element : elements) {
+            foundSoFar = element.findValues(fieldName,
+                                            foundSoFar);
+        }
+        return foundSoFar;
+    }
+
+    @Override
+    public List<String> findValuesAsText(String fieldName,
+                                         List<String> foundSoFar) {
+        for (JsonNode element : elements) {
+            foundSoFar = element.findValuesAsText(fieldName,
+                                                  foundSoFar);
+        }
+        return foundSoFar;
+    }
+
+    @Override
+    public List<JsonNode> findParents(String fieldName,
+                                      List<JsonNode> foundSoFar) {
+        for (JsonNode element : elements) {
+            foundSoFar = element.findParents(fieldName,
+                                             foundSoFar);
+        }
+        return foundSoFar;
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator,
+                          SerializerProvider provider) throws IOException {
+        generator.writeStartArray();
+        for (JsonNode element : elements) {
+            element.serialize(generator,
+                              provider);
+        }
+        generator.writeEndArray();
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator,
+                                  SerializerProvider provider,
+                                  TypeSerializer typeSerializer) throws IOException {
+        WritableTypeId typeId = typeSerializer.writeTypePrefix(generator,
+                                                               typeSerializer.typeId(this,
+                                                                                     JsonToken.START_ARRAY));
+        for (JsonNode element : elements) {
+            element.serialize(generator,
+                              provider);
+        }
+        typeSerializer.writeTypeSuffix(generator,
+                                       typeId);
+    }
+
+    /**
+     * Equal to persistent array nodes with equal elements only, as Jackson's array nodes are never equal to other
+     * implementations. Use {@link PersistentJson#equivalent(JsonNode, JsonNode)} to compare with any array node.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentArrayNode) || ((PersistentArrayNode) o).elements.length != elements.length) {
+            return false;
+        }
+        return Arrays.equals(elements,
+                             ((PersistentArrayNode) o).elements);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = Arrays.hashCode(elements);
+            result = result == 0 ? 1 : result;
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return PersistentJson.toString(this);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.data;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Conversions between mutable Jackson trees and persistent nodes.
+ */
+public final class PersistentJson {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private PersistentJson() {
+    }
+
+    /**
+     * Converts a tree to its persistent form. Persistent nodes and value nodes (which are immutable)
+     * are returned as they are, mutable containers are copied once.
+     */
+    public static JsonNode persistent(JsonNode node) {
+        if (node == null || node instanceof PersistentObjectNode || node instanceof PersistentArrayNode) {
+            return node;
+        }
+        if (node.isObject()) {
+            return PersistentObjectNode.empty().withFields(node);
+        }
+        if (node.isArray()) {
+            JsonNode[] elements = new JsonNode[node.size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = persistent(node.get(i));
+            }
+            return new PersistentArrayNode(elements);
+        }
+        return node;
+    }
+
+    /**
+     * Converts an object tree to its persistent form, an empty object if the node is null or not an object.
+     */
+    public static PersistentObjectNode persistentObject(JsonNode node) {
+        JsonNode converted = persistent(node);
+        return converted instanceof PersistentObjectNode ? (PersistentObjectNode) converted : PersistentObjectNode.empty();
+    }
+
+    /**
+     * Copies a tree into mutable Jackson nodes.
+     */
+    public static JsonNode mutable(JsonNode node) {
+        if (node == null) {
+            return null;
+        }
+        if (node.isObject()) {
+            ObjectNode copy = mapper.createObjectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                copy.set(field.getKey(),
+                         mutable(field.getValue()));
+            }
+            return copy;
+        }
+        if (node.isArray()) {
+            ArrayNode copy = mapper.createArrayNode();
+            for (JsonNode element : node) {
+                copy.add(mutable(element));
+            }
+            return copy;
+        }
+        return node.deepCopy();
+    }
+
+    /**
+     * Compares two trees by content, whatever their implementation: a persistent node is equivalent to a mutable
+     * Jackson node with the same fields or elements, which {@code equals} does not consider equal.
+     */
+    public static boolean equivalent(JsonNode first,
+                                     JsonNode second) {
+        if (first == second) {
+            return true;
+        }
+        if (first == null || second == null) {
+            return false;
+        }
+        if (first.isObject() && second.isObject()) {
+            if (first.size() != second.size()) {
+                return false;
+            }
+            Iterator<Map.Entry<String, JsonNode>> fields = first.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!equivalent(field.getValue(),
+                                second.get(field.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (first.isArray() && second.isArray()) {
+            if (first.size() != second.size()) {
+                return false;
+            }
+            for (int i = 0; i < first.size(); i++) {
+                if (!equivalent(first.get(i),
+                                second.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return !first.isContainerNode() && !second.isContainerNode() && first.equals(second);
+    }
+
+    static String toString(JsonNode node) {
+        try {
+            return mapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize " + node.getNodeType() + " node",
+                                            e);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.data;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.WritableTypeId;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.BaseJsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Immutable JSON object backed by a {@link HashTrie}. It can be read through the regular {@link JsonNode} API
+ * and serialized like any other node; updates return a new object sharing all unchanged fields and subtrees
+ * with this one, so handing the same object to several parallel branches or retry attempts needs no copy.
+ * Fields are iterated and serialized in insertion order, as with {@code ObjectNode}: every field carries the
+ * ordinal it was added with, and the ordered view is built once per object when it is first iterated.
+ * <p>
+ * Like the other container nodes it reports itself as an object, but it is not an {@code ObjectNode}. It stays
+ * inside the engine; {@link PersistentJson#mutable(JsonNode)} converts it wherever data is handed out.
+ */
+public final class PersistentObjectNode extends BaseJsonNode {
+
+    private static final PersistentObjectNode EMPTY = new PersistentObjectNode(HashTrie.empty(),
+                                                                               0);
+
+    private final HashTrie<String, Field> fields;
+    private final long nextOrdinal;
+    private int hash;
+    private volatile List<Field> ordered;
+
+    private PersistentObjectNode(HashTrie<String, Field> fields,
+                                 long nextOrdinal) {
+        this.fields = fields;
+        this.nextOrdinal = nextOrdinal;
+    }
+
+    public static PersistentObjectNode empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns an object with the given field set, converting the value to its persistent form.
+     */
+    public PersistentObjectNode withField(String fieldName,
+                                          JsonNode value) {
+        long[] ordinal = {nextOrdinal};
+        HashTrie<String, Field> updated = set(fields,
+                                              fieldName,
+                                              PersistentJson.persistent(value),
+                                              ordinal);
+        return updated == fields ? this : new PersistentObjectNode(updated,
+                                                                   ordinal[0]);
+    }
+
+    public PersistentObjectNode withoutField(String fieldName) {
+        HashTrie<String, Field> updated = fields.remove(fieldName);
+        return updated == fields ? this : new PersistentObjectNode(updated,
+                                                                   nextOrdinal);
+    }
+
+    /**
+     * Returns an object with the fields of the given object set, replacing existing values
+     * (the persistent counterpart of {@code ObjectNode.setAll}).
+     */
+    public PersistentObjectNode withFields(JsonNode other) {
+        if (other == null || !other.isObject() || other == this) {
+            return this;
+        }
+        long[] ordinal = {nextOrdinal};
+        HashTrie<String, Field> updated = fields;
+        Iterator<Map.Entry<String, JsonNode>> iterator = other.fields();
+        while (iterator.hasNext()) {
+            Map.Entry<String, JsonNode> field = iterator.next();
+            updated = set(updated,
+                          field.getKey(),
+                          PersistentJson.persistent(field.getValue()),
+                          ordinal);
+        }
+        return updated == fields ? this : new PersistentObjectNode(updated,
+                                                                   ordinal[0]);
+    }
+
+    /**
+     * Applies the changes that turned {@code base} into {@code changed} to this object. Both must be versions of
+     * the same object (for example the data handed to a parallel branch and the data the branch ended with):
+     * only the paths that differ between them are visited and copied, nested objects are merged recursively.
+     * Fields this object does not have are appended in the order they were added to {@code changed}.
+     */
+    public PersistentObjectNode withChanges(PersistentObjectNode base,
+                                            PersistentObjectNode changed) {
+        if (base == changed) {
+            return this;
+        }
+        HashTrie<String, Field>[] updated = new HashTrie[]{fields};
+        long[] ordinal = {nextOrdinal};
+        List<Field> added = new ArrayList<>();
+        HashTrie.diff(base.fields,
+                      changed.fields,
+                      (fieldName, oldField, newField) -> {
+                          if (newField == null) {
+                              updated[0] = updated[0].remove(fieldName);
+                              return;
+                          }
+                          Field current = updated[0].get(fieldName);
+                          if (current == null) {
+                              added.add(newField);
+                              return;
+                          }
+                          JsonNode value = newField.getValue();
+                          if (oldField != null && oldField.getValue() instanceof PersistentObjectNode &&
+                                  value instanceof PersistentObjectNode && current.getValue() instanceof PersistentObjectNode) {
+                              value = ((PersistentObjectNode) current.getValue()).withChanges((PersistentObjectNode) oldField.getValue(),
+                                                                                              (PersistentObjectNode) value);
+                          }
+                          updated[0] = set(updated[0],
+                                           fieldName,
+                                           value,
+                                           ordinal);
+                      });
+        added.sort(Comparator.comparingLong(field -> field.ordinal));
+        for (Field field : added) {
+            updated[0] = set(updated[0],
+                             field.getKey(),
+                             field.getValue(),
+                             ordinal);
+        }
+        return updated[0] == fields ? this : new PersistentObjectNode(updated[0],
+                                                                      ordinal[0]);
+    }
+
+    @Override
+    public JsonNodeType getNodeType() {
+        return JsonNodeType.OBJECT;
+    }
+
+    @Override
+    public boolean isObject() {
+        return true;
+    }
+
+    @Override
+    public JsonToken asToken() {
+        return JsonToken.START_OBJECT;
+    }
+
+    @Override
+    public String asText() {
+        return "";
+    }
+
+    @Override
+    public int size() {
+        return fields.size();
+    }
+
+    @Override
+    public JsonNode get(int index) {
+        return null;
+    }
+
+    @Override
+    public JsonNode get(String fieldName) {
+        Field field = fields.get(fieldName);
+        return field == null ? null : field.getValue();
+    }
+
+    @Override
+    public JsonNode path(String fieldName) {
+        JsonNode value = get(fieldName);
+        return value == null ? MissingNode.getInstance() : value;
+    }
+
+    @Override
+    public JsonNode path(int index) {
+        return MissingNode.getInstance();
+    }
+
+    @Override
+    protected JsonNode _at(JsonPointer pointer) {
+        return get(pointer.getMatchingProperty());
+    }
+
+    @Override
+    public Iterator<String> fieldNames() {
+        List<String> names = new ArrayList<>(fields.size());
+        for (Field field : ordered()) {
+            names.add(field.getKey());
+        }
+        return names.iterator();
+    }
+
+    @Override
+    public Iterator<JsonNode> elements() {
+        List<JsonNode> values = new ArrayList<>(fields.size());
+        for (Field field : ordered()) {
+            values.add(field.getValue());
+        }
+        return values.iterator();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, JsonNode>> fields() {
+        return Collections.<Map.Entry<String, JsonNode>>unmodifiableList(ordered()).iterator();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public PersistentObjectNode deepCopy() {
+        return this;
+    }
+
+    @Override
+    public JsonNode findValue(String fieldName) {
+        JsonNode value = get(fieldName);
+        if (value != null) {
+            return value;
+        }
+        for (Field field : ordered()) {
+            JsonNode found = field.getValue().findValue(fieldName);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public JsonNode findParent(String fieldName) {
+        if (fields.get(fieldName) != null) {
+            return this;
+        }
+        for (Field field : ordered()) {
+            JsonNode found = field.getValue().findParent(fieldName);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<JsonNode> findValues(String fieldName,
+                                     List<JsonNode> foundSoFar) {
+        for (Field field : ordered()) {
+            if (field.getKey().equals(fieldName)) {
+                if (foundSoFar == null) {
+                    foundSoFar = new ArrayList<>();
+                }
+                foundSoFar.add(field.getValue());
+            } else {
+                foundSoFar = field.getValue().findValues(fieldName,
+                                                         foundSoFar);
+            }
+        }
+        return foundSoFar;
+    }
+
+    @Override
+    public List<String> findValuesAsText(String fieldName,
+                                         List<String> foundSoFar) {
+        for (Field field : ordered()) {
+            if (field.getKey().equals(fieldName)) {
+                if (foundSoFar == null) {
+                    foundSoFar = new ArrayList<>();
+                }
+                foundSoFar.add(field.getValue().asText());
+            } else {
+                foundSoFar = field.getValue().findValuesAsText(fieldName,
+                                                               foundSoFar);
+            }
+        }
+        return foundSoFar;
+    }
+
+    @Override
+    public List<JsonNode> findParents(String fieldName,
+                                      List<JsonNode> foundSoFar) {
+        for (Field field : ordered()) {
+            if (field.getKey().equals(fieldName)) {
+                if (foundSoFar == null) {
+                    foundSoFar = new ArrayList<>();
+                }
+                foundSoFar.add(this);
+            } else {
+                foundSoFar = field.getValue().findParents(fieldName,
+                                                          foundSoFar);
+            }
+        }
+        return foundSoFar;
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator,
+                          SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        serializeFields(generator,
+                        provider);
+        generator.writeEndObject();
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator,
+                                  SerializerProvider provider,
+                                  TypeSerializer typeSerializer) throws IOException {
+        WritableTypeId typeId = typeSerializer.writeTypePrefix(generator,
+                                                               typeSerializer.typeId(this,
+                                                                                     JsonToken.START_OBJECT));
+        serializeFields(generator,
+                        provider);
+        typeSerializer.writeTypeSuffix(generator,
+                                       typeId);
+    }
+
+    private void serializeFields(JsonGenerator generator,
+                                 SerializerProvider provider) throws IOException {
+        for (Field field : ordered()) {
+            generator.writeFieldName(field.getKey());
+            field.getValue().serialize(generator,
+                                       provider);
+        }
+    }
+
+    /**
+     * Equal to persistent object nodes with equal fields only, as Jackson's object nodes are never equal to other
+     * implementations. Use {@link PersistentJson#equivalent(JsonNode, JsonNode)} to compare with any object node.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentObjectNode) || ((PersistentObjectNode) o).size() != size()) {
+            return false;
+        }
+        PersistentObjectNode other = (PersistentObjectNode) o;
+        for (Field field : ordered()) {
+            if (!field.getValue().equals(other.get(field.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            int[] sum = new int[1];
+            fields.forEach((name, field) -> sum[0] += name.hashCode() ^ field.getValue().hashCode());
+            result = sum[0] == 0 ? 1 : sum[0];
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return PersistentJson.toString(this);
+    }
+
+    /**
+     * Sets a field, keeping the ordinal of a field that is already present and giving a new one the next ordinal.
+     */
+    private static HashTrie<String, Field> set(HashTrie<String, Field> fields,
+                                               String fieldName,
+                                               JsonNode value,
+                                               long[] nextOrdinal) {
+        Field current = fields.get(fieldName);
+        if (current == null) {
+            return fields.put(fieldName,
+                              new Field(fieldName,
+                                        value,
+                                        nextOrdinal[0]++));
+        }
+        if (current.getValue() == value) {
+            return fields;
+        }
+        return fields.put(fieldName,
+                          new Field(fieldName,
+                                    value,
+                                    current.ordinal));
+    }
+
+    private List<Field> ordered() {
+        List<Field> entries = ordered;
+        if (entries == null) {
+            // immutable, so racing threads build the same view
+            entries = new ArrayList<>(fields.size());
+            List<Field> collected = entries;
+            fields.forEach((name, field) -> collected.add(field));
+            entries.sort(Comparator.comparingLong(field -> field.ordinal));
+            ordered = entries;
+        }
+        return entries;
+    }
+
+    private static final class Field extends AbstractMap.SimpleImmutableEntry<String, JsonNode> {
+
+        private final long ordinal;
+
+        private Field(String name,
+                      JsonNode value,
+                      long ordinal) {
+            super(name,
+                  value);
+            this.ordinal = ordinal;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single consumer of a {@link RingBuffer}. Runs on its own thread, waits for events with the consumer wait
+ * strategy and passes everything published since the last pass, up to maxBatchSize events, to the handler
+ * as one batch. Under load batches grow, so the per-event cost of waking up and dispatching goes down.
+ */
+public class BatchEventProcessor<E> {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final RingBuffer<E> ringBuffer;
+    private final int maxBatchSize;
+    private final BatchHandler<E> handler;
+    private final Thread thread;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+
+    private static Logger logger = LoggerFactory.getLogger(BatchEventProcessor.class);
+
+    public BatchEventProcessor(String name,
+                               RingBuffer<E> ringBuffer,
+                               int maxBatchSize,
+                               BatchHandler<E> handler) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum batch size: " + maxBatchSize);
+        }
+        this.ringBuffer = ringBuffer;
+        this.maxBatchSize = maxBatchSize;
+        this.handler = handler;
+        this.thread = new Thread(this::process,
+                                 name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the processor once the events already published are handled.
+     * @return whether the processor stopped within the timeout
+     */
+    public boolean stop(long timeout,
+                        TimeUnit unit) throws InterruptedException {
+        running = false;
+        ringBuffer.wakeUp();
+        return stopped.await(timeout,
+                             unit);
+    }
+
+    public RingBuffer<E> getRingBuffer() {
+        return ringBuffer;
+    }
+
+    private void process() {
+        List<E> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (ringBuffer.awaitEvents(() -> !running) || running) {
+                batch.clear();
+                if (ringBuffer.drain(batch::add,
+                                     maxBatchSize) > 0) {
+                    handle(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void handle(List<E> batch) {
+        try {
+            handler.onBatch(batch);
+        } catch (RuntimeException e) {
+            logger.error("Unable to handle batch of " + batch.size() + " events: " + e.getMessage());
+        }
+    }
+}
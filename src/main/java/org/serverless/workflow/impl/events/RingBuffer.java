@@ -0,0 +1,254 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.events;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Bounded, pre-allocated multi-producer / single-consumer ring buffer. Producers claim a sequence
+ * with a compare-and-set on the cursor and mark their slot as published; the consumer reads every
+ * contiguous published slot in one pass and then releases them all by moving its own sequence,
+ * so neither side takes a lock and nothing is allocated per event.
+ * <p>
+ * A full buffer is reported to the producer ({@link #tryPublish(Object)} returns false) or waited out
+ * with the producer wait strategy, an empty one is waited out with the consumer wait strategy.
+ */
+public class RingBuffer<E> {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final Object[] entries;
+    private final int mask;
+    private final int indexShift;
+    private final AtomicIntegerArray publishedRounds;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+    private final WaitStrategy producerWait;
+    private final WaitStrategy consumerWait;
+    private final Queue<CapacityWaiter> capacityWaiters = new ConcurrentLinkedQueue<>();
+
+    public RingBuffer() {
+        this(DEFAULT_CAPACITY,
+             WaitStrategies.sleeping(TimeUnit.MICROSECONDS.toNanos(100)),
+             WaitStrategies.blocking());
+    }
+
+    /**
+     * @param capacity number of slots, a power of two
+     */
+    public RingBuffer(int capacity,
+                      WaitStrategy producerWait,
+                      WaitStrategy consumerWait) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of two: " + capacity);
+        }
+        this.entries = new Object[capacity];
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.publishedRounds = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            publishedRounds.set(i,
+                                -1);
+        }
+        this.producerWait = producerWait;
+        this.consumerWait = consumerWait;
+    }
+
+    /**
+     * Publishes the event if there is free capacity.
+     * @return false if the buffer is full, in which case the caller should back off or shed the event
+     */
+    public boolean tryPublish(E event) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        store(sequence,
+              event);
+        return true;
+    }
+
+    /**
+     * Publishes the event, waiting for free capacity with the producer wait strategy.
+     */
+    public void publish(E event) throws InterruptedException {
+        while (!tryPublish(event)) {
+            producerWait.waitFor(this::hasCapacity,
+                                 Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Publishes the event, waiting at most the given time for free capacity.
+     * @return false if the buffer stayed full
+     */
+    public boolean offer(E event,
+                         long timeout,
+                         TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryPublish(event)) {
+            if (!producerWait.waitFor(this::hasCapacity,
+                                      deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands all contiguous published events, at most maxEvents, to the handler and releases their slots.
+     * Must only be called by the single consumer thread.
+     * @return number of events drained
+     */
+    public int drain(Consumer<? super E> handler,
+                     int maxEvents) {
+        long next = consumed.get() + 1;
+        long last = Math.min(cursor.get(),
+                             next + maxEvents - 1);
+        long sequence = next;
+        while (sequence <= last && isPublished(sequence)) {
+            int index = (int) sequence & mask;
+            @SuppressWarnings("unchecked")
+            E event = (E) entries[index];
+            entries[index] = null;
+            handler.accept(event);
+            sequence++;
+        }
+        if (sequence == next) {
+            return 0;
+        }
+        consumed.lazySet(sequence - 1);
+        producerWait.signalAll();
+        notifyCapacityWaiters();
+        return (int) (sequence - next);
+    }
+
+    /**
+     * Notifies asynchronous producers when the buffer has room for the given number of events, without
+     * blocking a thread in the meantime. The returned future is completed by the consumer thread.
+     */
+    public CompletableFuture<Void> whenCapacity(int slots) {
+        if (slots < 1 || slots > entries.length) {
+            throw new IllegalArgumentException("Invalid number of slots: " + slots);
+        }
+        CompletableFuture<Void> available = new CompletableFuture<>();
+        if (getRemainingCapacity() >= slots) {
+            available.complete(null);
+            return available;
+        }
+        capacityWaiters.add(new CapacityWaiter(slots,
+                                               available));
+        // the consumer may have released slots before the waiter was added
+        notifyCapacityWaiters();
+        return available;
+    }
+
+    /**
+     * Waits with the consumer wait strategy until an event is published or the condition to stop holds.
+     * @return whether an event is available
+     */
+    public boolean awaitEvents(BooleanSupplier stop) throws InterruptedException {
+        consumerWait.waitFor(() -> isPublished(consumed.get() + 1) || stop.getAsBoolean(),
+                             Long.MAX_VALUE);
+        return isPublished(consumed.get() + 1);
+    }
+
+    /**
+     * Wakes up a consumer waiting in {@link #awaitEvents(BooleanSupplier)}, for instance to stop it.
+     */
+    public void wakeUp() {
+        consumerWait.signalAll();
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return number of claimed slots the consumer has not released yet
+     */
+    public int getBacklog() {
+        return (int) (cursor.get() - consumed.get());
+    }
+
+    public int getRemainingCapacity() {
+        return entries.length - getBacklog();
+    }
+
+    private boolean hasCapacity() {
+        return cursor.get() - consumed.get() < entries.length;
+    }
+
+    private long claim() {
+        long current;
+        long next;
+        do {
+            current = cursor.get();
+            next = current + 1;
+            if (next - entries.length > consumed.get()) {
+                return -1;
+            }
+        } while (!cursor.compareAndSet(current,
+                                       next));
+        return next;
+    }
+
+    private void store(long sequence,
+                       E event) {
+        int index = (int) sequence & mask;
+        entries[index] = event;
+        publishedRounds.lazySet(index,
+                                (int) (sequence >>> indexShift));
+        consumerWait.signalAll();
+    }
+
+    private boolean isPublished(long sequence) {
+        return publishedRounds.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    private void notifyCapacityWaiters() {
+        if (capacityWaiters.isEmpty()) {
+            return;
+        }
+        for (CapacityWaiter waiter : capacityWaiters) {
+            if (getRemainingCapacity() >= waiter.slots && capacityWaiters.remove(waiter)) {
+                waiter.available.complete(null);
+            }
+        }
+    }
+
+    private static class CapacityWaiter {
+
+        private final int slots;
+        private final CompletableFuture<Void> available;
+
+        private CapacityWaiter(int slots,
+                               CompletableFuture<Void> available) {
+            this.slots = slots;
+            this.available = available;
+        }
+    }
+}
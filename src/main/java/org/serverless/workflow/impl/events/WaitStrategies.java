@@ -0,0 +1,197 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.events;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Wait strategies for ring buffer producers and consumers.
+ */
+public final class WaitStrategies {
+
+    private static final int SPIN_TRIES = 100;
+
+    private WaitStrategies() {
+    }
+
+    /**
+     * Spins on the condition. Lowest latency, but occupies a core while waiting.
+     */
+    public static WaitStrategy busySpin() {
+        return new BusySpinWaitStrategy();
+    }
+
+    /**
+     * Spins for a while, then yields the thread between checks.
+     */
+    public static WaitStrategy yielding() {
+        return new YieldingWaitStrategy();
+    }
+
+    /**
+     * Spins for a while, then parks the thread for the given time between checks.
+     */
+    public static WaitStrategy sleeping(long sleepNanos) {
+        return new SleepingWaitStrategy(sleepNanos);
+    }
+
+    /**
+     * Blocks on a lock condition until signalled. Only signals when a thread is actually waiting, so
+     * the other side does not take the lock on every call.
+     */
+    public static WaitStrategy blocking() {
+        return new BlockingWaitStrategy();
+    }
+
+    private static boolean expired(long deadline) {
+        return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static class BusySpinWaitStrategy implements WaitStrategy {
+
+        @Override
+        public boolean waitFor(BooleanSupplier condition,
+                               long deadline) throws InterruptedException {
+            while (!condition.getAsBoolean()) {
+                if (expired(deadline)) {
+                    return false;
+                }
+                checkInterrupted();
+            }
+            return true;
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    private static class YieldingWaitStrategy implements WaitStrategy {
+
+        @Override
+        public boolean waitFor(BooleanSupplier condition,
+                               long deadline) throws InterruptedException {
+            int tries = 0;
+            while (!condition.getAsBoolean()) {
+                if (expired(deadline)) {
+                    return false;
+                }
+                checkInterrupted();
+                if (++tries > SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    private static class SleepingWaitStrategy implements WaitStrategy {
+
+        private final long sleepNanos;
+
+        private SleepingWaitStrategy(long sleepNanos) {
+            this.sleepNanos = sleepNanos;
+        }
+
+        @Override
+        public boolean waitFor(BooleanSupplier condition,
+                               long deadline) throws InterruptedException {
+            int tries = 0;
+            while (!condition.getAsBoolean()) {
+                if (expired(deadline)) {
+                    return false;
+                }
+                checkInterrupted();
+                if (++tries > SPIN_TRIES) {
+                    LockSupport.parkNanos(sleepNanos);
+                } else {
+                    Thread.yield();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    private static class BlockingWaitStrategy implements WaitStrategy {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final AtomicBoolean signalNeeded = new AtomicBoolean();
+
+        @Override
+        public boolean waitFor(BooleanSupplier condition,
+                               long deadline) throws InterruptedException {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    signalNeeded.set(true);
+                    if (condition.getAsBoolean()) {
+                        return true;
+                    }
+                    if (deadline == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        changed.await(remaining,
+                                      TimeUnit.NANOSECONDS);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            if (signalNeeded.getAndSet(false)) {
+                lock.lock();
+                try {
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
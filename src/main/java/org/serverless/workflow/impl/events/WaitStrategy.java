@@ -0,0 +1,41 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.events;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a thread waits for a {@link RingBuffer} condition: a consumer for published events,
+ * a producer for free capacity. Implementations trade latency against CPU usage.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until the condition holds or the deadline passes.
+     * @param deadline value of {@link System#nanoTime()} to give up at, or {@link Long#MAX_VALUE} to wait without limit
+     * @return whether the condition holds
+     */
+    boolean waitFor(BooleanSupplier condition,
+                    long deadline) throws InterruptedException;
+
+    /**
+     * Wakes up threads blocked in {@link #waitFor(BooleanSupplier, long)} after the condition may have changed.
+     */
+    void signalAll();
+}
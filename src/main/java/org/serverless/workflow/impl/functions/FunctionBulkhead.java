@@ -0,0 +1,116 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.functions;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.serverless.workflow.api.functions.Function;
+
+/**
+ * Isolated pool of worker threads for a single function name. At most maxConcurrentCalls
+ * invocations run at once and at most maxQueuedCalls wait for a free worker, any further
+ * call is rejected straight away instead of tying up the caller.
+ */
+public class FunctionBulkhead {
+
+    private final String functionName;
+    private final int maxConcurrentCalls;
+    private final int maxQueuedCalls;
+    private final ThreadPoolExecutor executor;
+
+    public FunctionBulkhead(String functionName,
+                            int maxConcurrentCalls,
+                            int maxQueuedCalls) {
+        if (maxConcurrentCalls < 1 || maxQueuedCalls < 0) {
+            throw new IllegalArgumentException("Invalid bulkhead limits for function " + functionName + ": " +
+                                                       maxConcurrentCalls + " concurrent / " + maxQueuedCalls + " queued calls");
+        }
+
+        this.functionName = functionName;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueuedCalls = maxQueuedCalls;
+
+        BlockingQueue<Runnable> queue = maxQueuedCalls == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(maxQueuedCalls);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrentCalls,
+                                               maxConcurrentCalls,
+                                               60L,
+                                               TimeUnit.SECONDS,
+                                               queue,
+                                               runnable -> {
+                                                   Thread thread = new Thread(runnable,
+                                                                              "function-" + functionName + "-" + threadCount.incrementAndGet());
+                                                   thread.setDaemon(true);
+                                                   return thread;
+                                               },
+                                               new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public CompletableFuture<JsonNode> submit(FunctionInvoker functionInvoker,
+                                              Function function,
+                                              JsonNode input) {
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(functionInvoker.invoke(function,
+                                                           input));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new RejectedExecutionException("Bulkhead for function " + functionName + " is full"));
+        }
+        return result;
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public int getMaxQueuedCalls() {
+        return maxQueuedCalls;
+    }
+
+    public int getActiveCalls() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedCalls() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
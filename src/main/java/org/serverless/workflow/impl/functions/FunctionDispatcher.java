@@ -0,0 +1,101 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.functions;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.serverless.workflow.api.functions.Function;
+
+public class FunctionDispatcher {
+
+    public static final int DEFAULT_MAX_CONCURRENT_CALLS = 16;
+    public static final int DEFAULT_MAX_QUEUED_CALLS = 64;
+
+    private final Map<String, FunctionInvoker> functionInvokers;
+    private final ConcurrentMap<String, FunctionBulkhead> bulkheads = new ConcurrentHashMap<>();
+    private volatile int defaultMaxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+    private volatile int defaultMaxQueuedCalls = DEFAULT_MAX_QUEUED_CALLS;
+
+    public FunctionDispatcher() {
+        this(FunctionInvokerProvider.getInstance().get());
+    }
+
+    public FunctionDispatcher(Map<String, FunctionInvoker> functionInvokers) {
+        if (functionInvokers == null) {
+            throw new RuntimeException("Unable to retrieve function invokers");
+        }
+        this.functionInvokers = functionInvokers;
+    }
+
+    public CompletableFuture<JsonNode> invoke(Function function,
+                                              JsonNode input) {
+        FunctionInvoker functionInvoker = getFunctionInvoker(function.getType());
+        if (functionInvoker == null) {
+            CompletableFuture<JsonNode> result = new CompletableFuture<>();
+            result.completeExceptionally(new IllegalArgumentException("No function invoker registered for type: " + function.getType()));
+            return result;
+        }
+
+        return getBulkhead(function.getName()).submit(functionInvoker,
+                                                      function,
+                                                      input);
+    }
+
+    public FunctionInvoker getFunctionInvoker(String functionType) {
+        return functionType == null ? null : functionInvokers.get(functionType);
+    }
+
+    public FunctionBulkhead getBulkhead(String functionName) {
+        return bulkheads.computeIfAbsent(functionName,
+                                         name -> new FunctionBulkhead(name,
+                                                                      defaultMaxConcurrentCalls,
+                                                                      defaultMaxQueuedCalls));
+    }
+
+    public void setBulkheadLimits(String functionName,
+                                  int maxConcurrentCalls,
+                                  int maxQueuedCalls) {
+        FunctionBulkhead previous = bulkheads.put(functionName,
+                                                  new FunctionBulkhead(functionName,
+                                                                       maxConcurrentCalls,
+                                                                       maxQueuedCalls));
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public void setDefaultBulkheadLimits(int maxConcurrentCalls,
+                                         int maxQueuedCalls) {
+        if (maxConcurrentCalls < 1 || maxQueuedCalls < 0) {
+            throw new IllegalArgumentException("Invalid default bulkhead limits: " + maxConcurrentCalls + " concurrent / " +
+                                                       maxQueuedCalls + " queued calls");
+        }
+        this.defaultMaxConcurrentCalls = maxConcurrentCalls;
+        this.defaultMaxQueuedCalls = maxQueuedCalls;
+    }
+
+    public void shutdown() {
+        bulkheads.values().forEach(FunctionBulkhead::shutdown);
+        bulkheads.clear();
+    }
+}
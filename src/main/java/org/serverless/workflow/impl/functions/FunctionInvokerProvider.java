@@ -0,0 +1,48 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.functions;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+public class FunctionInvokerProvider {
+
+    private Map<String, FunctionInvoker> functionInvokers = new HashMap<>();
+
+    public FunctionInvokerProvider() {
+        ServiceLoader<FunctionInvoker> foundFunctionInvokers = ServiceLoader.load(FunctionInvoker.class);
+
+        foundFunctionInvokers.forEach(functionInvoker -> functionInvokers.put(functionInvoker.getType(),
+                                                                              functionInvoker));
+    }
+
+    private static class LazyHolder {
+
+        static final FunctionInvokerProvider INSTANCE = new FunctionInvokerProvider();
+    }
+
+    public static FunctionInvokerProvider getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    public Map<String, FunctionInvoker> get() {
+        return functionInvokers;
+    }
+}
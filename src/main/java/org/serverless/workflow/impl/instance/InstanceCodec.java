@@ -0,0 +1,147 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.instance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compact binary form of a workflow instance, used for snapshots.
+ */
+public class InstanceCodec {
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static byte[] encode(WorkflowInstance instance) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(instance.getId());
+            writeNullableString(out,
+                                instance.getWorkflowId());
+            writeNullableString(out,
+                                instance.getWorkflowVersion());
+            out.writeByte(instance.getStatus().ordinal());
+            writeNullableString(out,
+                                instance.getCurrentState());
+
+            byte[] data = encodeData(instance.getData());
+            out.writeInt(data.length);
+            out.write(data);
+
+            out.writeShort(instance.getTimers().size());
+            for (Map.Entry<String, Long> timer : instance.getTimers().entrySet()) {
+                out.writeUTF(timer.getKey());
+                out.writeLong(timer.getValue());
+            }
+            out.writeShort(instance.getAwaitedEvents().size());
+            for (Map.Entry<String, String> awaitedEvent : instance.getAwaitedEvents().entrySet()) {
+                out.writeUTF(awaitedEvent.getKey());
+                writeNullableString(out,
+                                    awaitedEvent.getValue());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to encode instance " + instance.getId(),
+                                           e);
+        }
+    }
+
+    public static WorkflowInstance decode(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported instance format version: " + version);
+            }
+            WorkflowInstance instance = new WorkflowInstance(in.readUTF(),
+                                                             readNullableString(in),
+                                                             readNullableString(in));
+            instance.setStatus(InstanceStatus.values()[in.readByte()]);
+            instance.setCurrentState(readNullableString(in));
+
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            instance.setData(decodeData(data));
+
+            int timers = in.readShort();
+            for (int i = 0; i < timers; i++) {
+                instance.getTimers().put(in.readUTF(),
+                                         in.readLong());
+            }
+            int awaitedEvents = in.readShort();
+            for (int i = 0; i < awaitedEvents; i++) {
+                instance.getAwaitedEvents().put(in.readUTF(),
+                                                readNullableString(in));
+            }
+            return instance;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to decode instance",
+                                           e);
+        }
+    }
+
+    public static byte[] encodeData(JsonNode data) {
+        if (data == null) {
+            return new byte[0];
+        }
+        try {
+            return mapper.writeValueAsBytes(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to encode instance data",
+                                           e);
+        }
+    }
+
+    public static JsonNode decodeData(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            return mapper.readTree(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to decode instance data",
+                                           e);
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out,
+                                            String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
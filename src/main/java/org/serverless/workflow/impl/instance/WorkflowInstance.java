@@ -0,0 +1,106 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.instance;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Runtime state of a single workflow instance. Instances are owned by one thread at a time and are not thread safe.
+ */
+public class WorkflowInstance {
+
+    private final String id;
+    private final String workflowId;
+    private final String workflowVersion;
+    private InstanceStatus status = InstanceStatus.RUNNING;
+    private String currentState;
+    private JsonNode data;
+    private Map<String, Long> timers = new LinkedHashMap<>();
+    private Map<String, String> awaitedEvents = new LinkedHashMap<>();
+
+    public WorkflowInstance(String id,
+                            String workflowId,
+                            String workflowVersion) {
+        this.id = id;
+        this.workflowId = workflowId;
+        this.workflowVersion = workflowVersion;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getWorkflowId() {
+        return workflowId;
+    }
+
+    public String getWorkflowVersion() {
+        return workflowVersion;
+    }
+
+    public InstanceStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(InstanceStatus status) {
+        this.status = status;
+    }
+
+    public String getCurrentState() {
+        return currentState;
+    }
+
+    public void setCurrentState(String currentState) {
+        this.currentState = currentState;
+    }
+
+    public JsonNode getData() {
+        return data;
+    }
+
+    public void setData(JsonNode data) {
+        this.data = data;
+    }
+
+    /**
+     * Pending timers by name, with their deadline in epoch milliseconds.
+     */
+    public Map<String, Long> getTimers() {
+        return timers;
+    }
+
+    /**
+     * Trigger events this instance is waiting for, by trigger name, with their correlation token.
+     */
+    public Map<String, String> getAwaitedEvents() {
+        return awaitedEvents;
+    }
+
+    public boolean isTerminated() {
+        return status.isTerminal();
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowInstance{" + id + ", " + workflowId + ":" + workflowVersion + ", " + status + ", " + currentState + "}";
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal stored in a directory of segment files. Appends from any thread are queued and
+ * a single writer thread commits everything queued so far with one write and one fsync (group commit).
+ * Segments are read back through memory mapping.
+ */
+public class FileJournal implements Journal {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final int MAX_BATCH_SIZE = 4096;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final boolean syncOnCommit;
+    private final List<JournalSegment> segments = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<PendingAppend> pendingAppends = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile long lastSequence;
+    private FileChannel activeChannel;
+    private JournalSegment activeSegment;
+
+    private static Logger logger = LoggerFactory.getLogger(FileJournal.class);
+
+    public FileJournal(Path directory) {
+        this(directory,
+             DEFAULT_MAX_SEGMENT_SIZE,
+             true);
+    }
+
+    public FileJournal(Path directory,
+                       long maxSegmentSize,
+                       boolean syncOnCommit) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.syncOnCommit = syncOnCommit;
+
+        try {
+            Files.createDirectories(directory);
+            recoverSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open journal in " + directory,
+                                           e);
+        }
+
+        this.writer = new Thread(this::writeLoop,
+                                 "journal-writer-" + directory.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public CompletableFuture<Long> append(JournalRecord record) {
+        return append(Collections.singletonList(record));
+    }
+
+    /**
+     * Encodes the records on the calling thread, so that a record that cannot be written fails its own append
+     * rather than the group commit it would have joined.
+     */
+    @Override
+    public CompletableFuture<Long> append(List<JournalRecord> records) {
+        PendingAppend pendingAppend = new PendingAppend(records.size());
+        if (closed) {
+            pendingAppend.future.completeExceptionally(new IllegalStateException("Journal is closed"));
+            return pendingAppend.future;
+        }
+        if (records.isEmpty()) {
+            pendingAppend.future.complete(lastSequence);
+            return pendingAppend.future;
+        }
+        try {
+            for (JournalRecord record : records) {
+                pendingAppend.add(JournalCodec.encode(record));
+            }
+        } catch (IllegalArgumentException e) {
+            pendingAppend.future.completeExceptionally(e);
+            return pendingAppend.future;
+        }
+        pendingAppends.add(pendingAppend);
+        // closed meanwhile, the writer may have drained the queue for the last time
+        if (closed && pendingAppends.remove(pendingAppend)) {
+            pendingAppend.future.completeExceptionally(new IllegalStateException("Journal is closed"));
+        }
+        return pendingAppend.future;
+    }
+
+    @Override
+    public void replay(long fromSequence,
+                       Consumer<JournalRecord> consumer) {
+        for (JournalSegment segment : segments) {
+            if (segment.isEmpty() || segment.getLastSequence() < fromSequence) {
+                continue;
+            }
+            readSegment(segment,
+                        segment.getSize(),
+                        record -> {
+                            if (record.getSequence() >= fromSequence) {
+                                consumer.accept(record);
+                            }
+                        });
+        }
+    }
+
+    public void replay(JournalSegment segment,
+                       Consumer<JournalRecord> consumer) {
+        readSegment(segment,
+                    segment.getSize(),
+                    consumer);
+    }
+
+    /**
+     * Deletes a sealed segment, for example once all of its records are covered by snapshots.
+     * The segment currently written to is never deleted.
+     */
+    public boolean deleteSegment(JournalSegment segment) {
+        if (segments.isEmpty() || segments.get(segments.size() - 1) == segment || !segments.remove(segment)) {
+            return false;
+        }
+        try {
+            Files.deleteIfExists(segment.getPath());
+            return true;
+        } catch (IOException e) {
+            logger.warn("Unable to delete journal segment " + segment.getPath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public List<JournalSegment> getSegments() {
+        return Collections.unmodifiableList(new ArrayList<>(segments));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeActiveChannel();
+
+        List<PendingAppend> remaining = new ArrayList<>();
+        pendingAppends.drainTo(remaining);
+        remaining.forEach(pendingAppend -> pendingAppend.future.completeExceptionally(new IllegalStateException("Journal is closed")));
+    }
+
+    private void recoverSegments() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(JournalSegment::isSegmentFile)
+                    .sorted((first, second) -> Long.compare(JournalSegment.firstSequenceOf(first),
+                                                            JournalSegment.firstSequenceOf(second)))
+                    .collect(Collectors.toList());
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            long firstSequence = JournalSegment.firstSequenceOf(file);
+            JournalSegment segment = new JournalSegment(file,
+                                                        firstSequence,
+                                                        firstSequence - 1,
+                                                        0);
+            long fileSize = Files.size(file);
+            long validSize = readSegment(segment,
+                                         fileSize,
+                                         record -> segment.appended(record.getSequence(),
+                                                                    0));
+            segment.appended(segment.getLastSequence(),
+                             validSize);
+
+            if (validSize < fileSize && i < files.size() - 1) {
+                // truncating would leave a gap before the records of the later segments
+                throw new IOException("Journal segment " + file + " has " + (fileSize - validSize) + " invalid bytes before the end of " +
+                                              "the journal, " + (files.size() - 1 - i) + " later segments follow it");
+            }
+            if (validSize < fileSize) {
+                logger.warn("Journal segment " + file + " has " + (fileSize - validSize) + " invalid trailing bytes, truncating");
+                try (FileChannel channel = FileChannel.open(file,
+                                                            StandardOpenOption.WRITE)) {
+                    channel.truncate(validSize);
+                }
+            }
+
+            segments.add(segment);
+            lastSequence = Math.max(lastSequence,
+                                    segment.getLastSequence());
+        }
+    }
+
+    private long readSegment(JournalSegment segment,
+                             long size,
+                             Consumer<JournalRecord> consumer) {
+        if (size == 0) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(segment.getPath(),
+                                                    StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                  0,
+                                                  Math.min(size,
+                                                           channel.size()));
+            JournalRecord record;
+            while ((record = JournalCodec.decode(buffer)) != null) {
+                consumer.accept(record);
+            }
+            return buffer.position();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read journal segment " + segment.getPath(),
+                                           e);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>();
+        while (!closed || !pendingAppends.isEmpty()) {
+            try {
+                PendingAppend first = pendingAppends.poll(100,
+                                                          TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pendingAppends.drainTo(batch,
+                                       MAX_BATCH_SIZE);
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Error committing journal records: " + e.getMessage());
+                batch.forEach(pendingAppend -> pendingAppend.future.completeExceptionally(e));
+                closeActiveChannel();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch, completing every append with the sequence of its last record. Segments are only rolled
+     * between appends, so that an append is written whole or not at all; an append larger than the segment size
+     * gets a segment of its own. If writing fails, the appends written before the failure still complete and the
+     * rest fail.
+     */
+    private void commit(List<PendingAppend> batch) {
+        int batchSize = 0;
+        for (PendingAppend pendingAppend : batch) {
+            batchSize += pendingAppend.size;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(batchSize);
+        long sequence = lastSequence;
+        long[] lastSequences = new long[batch.size()];
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                PendingAppend pendingAppend = batch.get(i);
+                if (activeChannel == null ||
+                        (activeSegment.getSize() + buffer.position() + pendingAppend.size > maxSegmentSize && activeSegment.getSize() + buffer.position() > 0)) {
+                    write(buffer,
+                          sequence);
+                    roll(sequence + 1);
+                }
+                for (ByteBuffer record : pendingAppend.records) {
+                    int start = buffer.position();
+                    buffer.put(record.duplicate());
+                    JournalCodec.setSequence(buffer,
+                                             start,
+                                             ++sequence);
+                }
+                lastSequences[i] = sequence;
+            }
+            write(buffer,
+                  sequence);
+        } catch (IOException e) {
+            logger.error("Error committing journal records: " + e.getMessage());
+            closeActiveChannel();
+            for (int i = 0; i < batch.size(); i++) {
+                if (lastSequences[i] != 0 && lastSequences[i] <= lastSequence) {
+                    batch.get(i).future.complete(lastSequences[i]);
+                } else {
+                    batch.get(i).future.completeExceptionally(e);
+                }
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(lastSequences[i]);
+        }
+    }
+
+    /**
+     * Writes the buffered records to the active segment. A failed write is truncated away, so that no record of
+     * a sequence given out again later is left on disk.
+     */
+    private void write(ByteBuffer buffer,
+                       long lastWrittenSequence) throws IOException {
+        if (buffer.position() == 0 || activeChannel == null) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                activeChannel.write(buffer);
+            }
+            if (syncOnCommit) {
+                activeChannel.force(false);
+            }
+        } catch (IOException e) {
+            truncateActiveChannel();
+            throw e;
+        }
+        activeSegment.appended(lastWrittenSequence,
+                               activeChannel.position());
+        lastSequence = lastWrittenSequence;
+        buffer.clear();
+    }
+
+    private void truncateActiveChannel() {
+        try {
+            activeChannel.truncate(activeSegment.getSize());
+            activeChannel.position(activeSegment.getSize());
+        } catch (IOException e) {
+            logger.warn("Unable to truncate journal segment " + activeSegment.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private void roll(long firstSequence) throws IOException {
+        JournalSegment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        boolean reopenLast = activeChannel == null && last != null && last.getLastSequence() == firstSequence - 1 &&
+                last.getSize() < maxSegmentSize;
+        closeActiveChannel();
+
+        if (reopenLast) {
+            activeSegment = last;
+        } else {
+            activeSegment = new JournalSegment(directory.resolve(JournalSegment.fileName(firstSequence)),
+                                               firstSequence,
+                                               firstSequence - 1,
+                                               0);
+            segments.add(activeSegment);
+        }
+        activeChannel = FileChannel.open(activeSegment.getPath(),
+                                         StandardOpenOption.CREATE,
+                                         StandardOpenOption.WRITE);
+        activeChannel.truncate(activeSegment.getSize());
+        activeChannel.position(activeSegment.getSize());
+    }
+
+    private void closeActiveChannel() {
+        if (activeChannel != null) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close journal segment: " + e.getMessage());
+            }
+            activeChannel = null;
+        }
+    }
+
+    private static class PendingAppend {
+
+        private final List<ByteBuffer> records;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private int size;
+
+        PendingAppend(int count) {
+            this.records = new ArrayList<>(count);
+        }
+
+        void add(ByteBuffer record) {
+            records.add(record);
+            size += record.remaining();
+        }
+    }
+}
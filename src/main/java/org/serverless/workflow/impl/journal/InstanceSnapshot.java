@@ -0,0 +1,63 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+public class InstanceSnapshot {
+
+    private final String instanceId;
+    private final long lastSequence;
+    private final boolean terminal;
+    private final byte[] state;
+
+    public InstanceSnapshot(String instanceId,
+                            long lastSequence,
+                            boolean terminal,
+                            byte[] state) {
+        this.instanceId = instanceId;
+        this.lastSequence = lastSequence;
+        this.terminal = terminal;
+        this.state = state;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Sequence number of the last journal record reflected in this snapshot.
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public boolean isTerminal() {
+        return terminal;
+    }
+
+    public byte[] getState() {
+        return state;
+    }
+
+    public WorkflowInstance getInstance() {
+        return InstanceCodec.decode(state);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+@FunctionalInterface
+public interface InstanceSnapshotSource {
+
+    /**
+     * Returns the encoded current state of a live instance, or null if the instance is not live.
+     * Called on the thread appending the instance records, either while appending or through {@link #onOwner}.
+     */
+    byte[] snapshot(String instanceId);
+
+    /**
+     * Runs a task on the thread that changes the instance and appends its records, so that the task sees the
+     * instance as of the records appended so far. Runs it on the calling thread by default, for sources whose
+     * instances are changed by their caller only.
+     */
+    default <T> CompletableFuture<T> onOwner(String instanceId,
+                                             Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task,
+                                             Runnable::run);
+    }
+}
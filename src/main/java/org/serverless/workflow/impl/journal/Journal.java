@@ -0,0 +1,44 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+public interface Journal extends AutoCloseable {
+
+    /**
+     * Appends the record and completes with its sequence number once it is durable.
+     */
+    CompletableFuture<Long> append(JournalRecord record);
+
+    /**
+     * Appends the records in one commit and completes with the sequence number of the last one.
+     */
+    CompletableFuture<Long> append(List<JournalRecord> records);
+
+    void replay(long fromSequence,
+                Consumer<JournalRecord> consumer);
+
+    long getLastSequence();
+
+    @Override
+    void close();
+}
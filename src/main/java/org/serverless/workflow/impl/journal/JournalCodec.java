@@ -0,0 +1,181 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary record format: int body length, int CRC32 of the body, then the body with
+ * byte type, long sequence, long timestamp, instance id, name and detail as short-length-prefixed UTF-8
+ * (length -1 for null) and the data as int-length-prefixed bytes.
+ */
+public class JournalCodec {
+
+    public static final int HEADER_SIZE = 8;
+    public static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    public static int encodedSize(JournalRecord record) {
+        return HEADER_SIZE + 1 + 8 + 8 + stringSize(record.getInstanceId()) + stringSize(record.getName()) +
+                stringSize(record.getDetail()) + 4 + record.getData().length;
+    }
+
+    /**
+     * Encodes a record on its own, so that it can be validated before it is written.
+     * @return buffer holding the encoded record, ready to be read
+     * @throws IllegalArgumentException if the record is too large or holds a string value that is too long
+     */
+    public static ByteBuffer encode(JournalRecord record) {
+        int size = encodedSize(record);
+        if (size - HEADER_SIZE > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Journal record is too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        encode(record,
+               buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Sets the sequence of the record encoded at the given position of the buffer, updating its checksum.
+     */
+    public static void setSequence(ByteBuffer buffer,
+                                   int start,
+                                   long sequence) {
+        buffer.putLong(start + HEADER_SIZE + 1,
+                       sequence);
+        buffer.putInt(start + 4,
+                      checksum(buffer,
+                               start + HEADER_SIZE,
+                               buffer.getInt(start)));
+    }
+
+    public static void encode(JournalRecord record,
+                              ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(record.getType().getCode());
+        buffer.putLong(record.getSequence());
+        buffer.putLong(record.getTimestamp());
+        putString(buffer,
+                  record.getInstanceId());
+        putString(buffer,
+                  record.getName());
+        putString(buffer,
+                  record.getDetail());
+        buffer.putInt(record.getData().length);
+        buffer.put(record.getData());
+        int end = buffer.position();
+
+        int bodyLength = end - start - HEADER_SIZE;
+        buffer.putInt(start,
+                      bodyLength);
+        buffer.putInt(start + 4,
+                      checksum(buffer,
+                               start + HEADER_SIZE,
+                               bodyLength));
+    }
+
+    /**
+     * Decodes the record at the buffer position and advances past it. Returns null, leaving the
+     * position unchanged, when the remaining bytes are a truncated or corrupted record.
+     */
+    public static JournalRecord decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        int bodyLength = buffer.getInt(start);
+        int crc = buffer.getInt(start + 4);
+        if (bodyLength <= 0 || bodyLength > MAX_RECORD_SIZE || buffer.remaining() < HEADER_SIZE + bodyLength) {
+            return null;
+        }
+        if (checksum(buffer,
+                     start + HEADER_SIZE,
+                     bodyLength) != crc) {
+            return null;
+        }
+
+        try {
+            buffer.position(start + HEADER_SIZE);
+            RecordType type = RecordType.fromCode(buffer.get());
+            long sequence = buffer.getLong();
+            long timestamp = buffer.getLong();
+            String instanceId = getString(buffer);
+            String name = getString(buffer);
+            String detail = getString(buffer);
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            return new JournalRecord(sequence,
+                                     timestamp,
+                                     type,
+                                     instanceId,
+                                     name,
+                                     detail,
+                                     data);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            buffer.position(start);
+            return null;
+        }
+    }
+
+    public static int checksum(ByteBuffer buffer,
+                               int offset,
+                               int length) {
+        CRC32 crc32 = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length);
+        body.position(offset);
+        crc32.update(body);
+        return (int) crc32.getValue();
+    }
+
+    static int stringSize(String value) {
+        return 2 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    static void putString(ByteBuffer buffer,
+                          String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal string value is too long: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes,
+                          StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Combines the instance journal with periodic per-instance snapshots. Instances are snapshotted once they
+ * accumulate enough journal records or bytes (see {@link SnapshotPolicy}); the state is captured on the appending
+ * thread and written in the background once the triggering record is committed. Sealed segments whose records are
+ * all covered by snapshots are removed by {@link #compact()}, so recovery time depends on the number of live
+ * instances rather than on the total history.
+ */
+public class JournalManager implements AutoCloseable {
+
+    private final FileJournal journal;
+    private final SnapshotStore snapshotStore;
+    private final SnapshotPolicy snapshotPolicy;
+    private final ConcurrentMap<String, SnapshotCounter> counters = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<Void>> pendingSnapshots = ConcurrentHashMap.newKeySet();
+    private final ExecutorService snapshotExecutor;
+    private volatile InstanceSnapshotSource snapshotSource;
+
+    private static Logger logger = LoggerFactory.getLogger(JournalManager.class);
+
+    public JournalManager(Path directory) {
+        this(directory,
+             new SnapshotPolicy());
+    }
+
+    public JournalManager(Path directory,
+                          SnapshotPolicy snapshotPolicy) {
+        this(new FileJournal(directory.resolve("journal")),
+             new SnapshotStore(directory.resolve("snapshots")),
+             snapshotPolicy);
+    }
+
+    public JournalManager(FileJournal journal,
+                          SnapshotStore snapshotStore,
+                          SnapshotPolicy snapshotPolicy) {
+        this.journal = journal;
+        this.snapshotStore = snapshotStore;
+        this.snapshotPolicy = snapshotPolicy;
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable,
+                                       "journal-snapshots-" + journal.getDirectory().getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the source used to capture the current state of live instances when a snapshot is due.
+     */
+    public void setSnapshotSource(InstanceSnapshotSource snapshotSource) {
+        this.snapshotSource = snapshotSource;
+    }
+
+    public CompletableFuture<Long> append(JournalRecord record) {
+        CompletableFuture<Long> sequence = journal.append(record);
+        recorded(record,
+                 sequence);
+        return sequence;
+    }
+
+    public CompletableFuture<Long> append(List<JournalRecord> records) {
+        CompletableFuture<Long> sequence = journal.append(records);
+        for (JournalRecord record : records) {
+            recorded(record,
+                     sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * Deletes sealed journal segments whose records are all reflected in snapshots. Instances still live in a
+     * segment but not yet snapshotted past it are snapshotted first. Snapshots of finished instances are removed
+     * once no remaining segment refers to them.
+     * @return number of deleted segments
+     */
+    public int compact() {
+        List<JournalSegment> segments = journal.getSegments();
+        int deleted = 0;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            JournalSegment segment = segments.get(i);
+            if (!coverSegment(segment)) {
+                break;
+            }
+            if (journal.deleteSegment(segment)) {
+                deleted++;
+            }
+        }
+
+        List<JournalSegment> remaining = journal.getSegments();
+        long firstRetained = remaining.isEmpty() ? Long.MAX_VALUE : remaining.get(0).getFirstSequence();
+        snapshotStore.forEach(snapshot -> {
+            if (snapshot.isTerminal() && snapshot.getLastSequence() < firstRetained) {
+                snapshotStore.delete(snapshot.getInstanceId());
+            }
+        });
+        return deleted;
+    }
+
+    /**
+     * Rebuilds live instances from their latest snapshot plus the journal records appended after it.
+     * @return instances that had not finished, by instance id
+     */
+    public Map<String, WorkflowInstance> recover() {
+        Map<String, WorkflowInstance> instances = new LinkedHashMap<>();
+        Map<String, Long> snapshotSequences = new HashMap<>();
+        snapshotStore.forEach(snapshot -> {
+            snapshotSequences.put(snapshot.getInstanceId(),
+                                  snapshot.getLastSequence());
+            if (!snapshot.isTerminal()) {
+                instances.put(snapshot.getInstanceId(),
+                              snapshot.getInstance());
+            }
+        });
+
+        journal.replay(0,
+                       record -> {
+                           Long snapshotSequence = snapshotSequences.get(record.getInstanceId());
+                           if (snapshotSequence == null || record.getSequence() > snapshotSequence) {
+                               JournalReplayer.apply(instances,
+                                                     record);
+                           }
+                       });
+
+        Iterator<WorkflowInstance> iterator = instances.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isTerminated()) {
+                iterator.remove();
+            }
+        }
+        counters.clear();
+        return instances;
+    }
+
+    /**
+     * Waits for snapshots scheduled so far to be written.
+     */
+    public void awaitSnapshots() {
+        try {
+            CompletableFuture.allOf(pendingSnapshots.toArray(new CompletableFuture[0])).get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to wait for pending snapshots",
+                                            e);
+        }
+    }
+
+    public FileJournal getJournal() {
+        return journal;
+    }
+
+    public SnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    @Override
+    public void close() {
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(30,
+                                              TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    private void recorded(JournalRecord record,
+                          CompletableFuture<Long> sequence) {
+        String instanceId = record.getInstanceId();
+        if (record.getType() == RecordType.INSTANCE_FINISHED) {
+            counters.remove(instanceId);
+            WorkflowInstance finished = new WorkflowInstance(instanceId,
+                                                             null,
+                                                             null);
+            finished.setStatus(InstanceStatus.valueOf(record.getName()));
+            scheduleSnapshot(instanceId,
+                             true,
+                             InstanceCodec.encode(finished),
+                             sequence);
+            return;
+        }
+
+        SnapshotCounter counter = counters.computeIfAbsent(instanceId,
+                                                           id -> new SnapshotCounter());
+        counter.lastAppend = sequence;
+        counter.events++;
+        counter.bytes += JournalCodec.encodedSize(record);
+        if (snapshotPolicy.shouldSnapshot(counter.events,
+                                          counter.bytes)) {
+            InstanceSnapshotSource source = snapshotSource;
+            byte[] state = source == null ? null : source.snapshot(instanceId);
+            if (state != null) {
+                counter.events = 0;
+                counter.bytes = 0;
+                scheduleSnapshot(instanceId,
+                                 false,
+                                 state,
+                                 sequence);
+            }
+        }
+    }
+
+    private void scheduleSnapshot(String instanceId,
+                                  boolean terminal,
+                                  byte[] state,
+                                  CompletableFuture<Long> sequence) {
+        CompletableFuture<Void> snapshot = sequence.thenAcceptAsync(lastSequence -> snapshotStore.write(new InstanceSnapshot(instanceId,
+                                                                                                                            lastSequence,
+                                                                                                                            terminal,
+                                                                                                                            state)),
+                                                                   snapshotExecutor)
+                .exceptionally(e -> {
+                    logger.warn("Unable to snapshot instance " + instanceId + ": " + e.getMessage());
+                    return null;
+                });
+        // tracked from scheduling on, the snapshot task is only submitted once the record is committed
+        pendingSnapshots.add(snapshot);
+        snapshot.whenComplete((result, e) -> pendingSnapshots.remove(snapshot));
+    }
+
+    private boolean coverSegment(JournalSegment segment) {
+        Map<String, Long> lastSequences = new HashMap<>();
+        journal.replay(segment,
+                       record -> lastSequences.put(record.getInstanceId(),
+                                                   record.getSequence()));
+
+        InstanceSnapshotSource source = snapshotSource;
+        List<CompletableFuture<Boolean>> snapshots = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : lastSequences.entrySet()) {
+            InstanceSnapshot snapshot = snapshotStore.read(entry.getKey());
+            if (snapshot != null && snapshot.getLastSequence() >= entry.getValue()) {
+                continue;
+            }
+            if (source == null) {
+                return false;
+            }
+            String instanceId = entry.getKey();
+            try {
+                snapshots.add(source.onOwner(instanceId,
+                                             () -> capture(source,
+                                                           instanceId))
+                                      .thenCompose(capture -> capture == null ? CompletableFuture.completedFuture(false) :
+                                              capture.sequence.thenApply(sequence -> {
+                                                  snapshotStore.write(new InstanceSnapshot(instanceId,
+                                                                                           sequence,
+                                                                                           false,
+                                                                                           capture.state));
+                                                  return true;
+                                              })));
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+        for (CompletableFuture<Boolean> snapshot : snapshots) {
+            try {
+                if (!snapshot.join()) {
+                    // neither snapshotted past this segment nor live, the segment is still needed for recovery
+                    return false;
+                }
+            } catch (CompletionException e) {
+                logger.warn("Unable to snapshot instance while compacting: " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Captures the state of an instance together with the sequence of the last record appended for it. Runs on
+     * the thread appending the instance records, so that the two match.
+     */
+    private Capture capture(InstanceSnapshotSource source,
+                            String instanceId) {
+        byte[] state = source.snapshot(instanceId);
+        if (state == null) {
+            return null;
+        }
+        SnapshotCounter counter = counters.get(instanceId);
+        if (counter == null || counter.lastAppend == null) {
+            // nothing appended for the instance since the journal was opened, all of its records are written
+            return new Capture(state,
+                               CompletableFuture.completedFuture(journal.getLastSequence()));
+        }
+        counter.events = 0;
+        counter.bytes = 0;
+        return new Capture(state,
+                           counter.lastAppend);
+    }
+
+    private static class SnapshotCounter {
+
+        private long events;
+        private long bytes;
+        private volatile CompletableFuture<Long> lastAppend;
+    }
+
+    private static class Capture {
+
+        private final byte[] state;
+        private final CompletableFuture<Long> sequence;
+
+        private Capture(byte[] state,
+                        CompletableFuture<Long> sequence) {
+            this.state = state;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+public class JournalRecord {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final long sequence;
+    private final long timestamp;
+    private final RecordType type;
+    private final String instanceId;
+    private final String name;
+    private final String detail;
+    private final byte[] data;
+
+    public JournalRecord(RecordType type,
+                         String instanceId,
+                         String name,
+                         String detail,
+                         byte[] data) {
+        this(0L,
+             System.currentTimeMillis(),
+             type,
+             instanceId,
+             name,
+             detail,
+             data);
+    }
+
+    public JournalRecord(long sequence,
+                         long timestamp,
+                         RecordType type,
+                         String instanceId,
+                         String name,
+                         String detail,
+                         byte[] data) {
+        if (type == null || instanceId == null) {
+            throw new IllegalArgumentException("Journal records need a type and an instance id");
+        }
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.instanceId = instanceId;
+        this.name = name;
+        this.detail = detail;
+        this.data = data == null ? EMPTY : data;
+    }
+
+    public static JournalRecord instanceStarted(String instanceId,
+                                                String workflowId,
+                                                String workflowVersion,
+                                                byte[] input) {
+        return new JournalRecord(RecordType.INSTANCE_STARTED,
+                                 instanceId,
+                                 workflowId,
+                                 workflowVersion,
+                                 input);
+    }
+
+    public static JournalRecord stateEntered(String instanceId,
+                                             String stateName,
+                                             byte[] data) {
+        return new JournalRecord(RecordType.STATE_ENTERED,
+                                 instanceId,
+                                 stateName,
+                                 null,
+                                 data);
+    }
+
+    public static JournalRecord actionCompleted(String instanceId,
+                                                String functionName,
+                                                byte[] result) {
+        return new JournalRecord(RecordType.ACTION_COMPLETED,
+                                 instanceId,
+                                 functionName,
+                                 null,
+                                 result);
+    }
+
+    public static JournalRecord eventCorrelated(String instanceId,
+                                                String triggerName,
+                                                String correlationToken,
+                                                byte[] eventData) {
+        return new JournalRecord(RecordType.EVENT_CORRELATED,
+                                 instanceId,
+                                 triggerName,
+                                 correlationToken,
+                                 eventData);
+    }
+
+    public static JournalRecord instanceFinished(String instanceId,
+                                                 String status,
+                                                 byte[] output) {
+        return new JournalRecord(RecordType.INSTANCE_FINISHED,
+                                 instanceId,
+                                 status,
+                                 null,
+                                 output);
+    }
+
+    public static JournalRecord eventAwaited(String instanceId,
+                                             String triggerName,
+                                             String correlationToken) {
+        return new JournalRecord(RecordType.EVENT_AWAITED,
+                                 instanceId,
+                                 triggerName,
+                                 correlationToken,
+                                 null);
+    }
+
+    public static JournalRecord timerScheduled(String instanceId,
+                                               String timerName,
+                                               long deadline) {
+        return new JournalRecord(RecordType.TIMER_SCHEDULED,
+                                 instanceId,
+                                 timerName,
+                                 Long.toString(deadline),
+                                 null);
+    }
+
+    public static JournalRecord timerFired(String instanceId,
+                                           String timerName) {
+        return new JournalRecord(RecordType.TIMER_FIRED,
+                                 instanceId,
+                                 timerName,
+                                 null,
+                                 null);
+    }
+
+    public JournalRecord withSequence(long sequence) {
+        return new JournalRecord(sequence,
+                                 timestamp,
+                                 type,
+                                 instanceId,
+                                 name,
+                                 detail,
+                                 data);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" + sequence + ", " + type + ", " + instanceId + ", " + name + "}";
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.util.Map;
+
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+/**
+ * Rebuilds instance state from journal records. Records carry absolute values (the state data after the change,
+ * not a delta), so applying a record that is already reflected in a snapshot leaves the instance unchanged.
+ */
+public class JournalReplayer {
+
+    public static void apply(Map<String, WorkflowInstance> instances,
+                             JournalRecord record) {
+        WorkflowInstance instance = instances.get(record.getInstanceId());
+        if (record.getType() == RecordType.INSTANCE_STARTED) {
+            instance = new WorkflowInstance(record.getInstanceId(),
+                                            record.getName(),
+                                            record.getDetail());
+            instances.put(instance.getId(),
+                          instance);
+        }
+        if (instance != null) {
+            apply(instance,
+                  record);
+        }
+    }
+
+    public static void apply(WorkflowInstance instance,
+                             JournalRecord record) {
+        switch (record.getType()) {
+            case INSTANCE_STARTED:
+                instance.setStatus(InstanceStatus.RUNNING);
+                updateData(instance,
+                           record);
+                break;
+            case STATE_ENTERED:
+                instance.setStatus(InstanceStatus.RUNNING);
+                instance.setCurrentState(record.getName());
+                updateData(instance,
+                           record);
+                break;
+            case ACTION_COMPLETED:
+                updateData(instance,
+                           record);
+                break;
+            case EVENT_AWAITED:
+                instance.setStatus(InstanceStatus.WAITING);
+                instance.getAwaitedEvents().put(record.getName(),
+                                                record.getDetail());
+                break;
+            case EVENT_CORRELATED:
+                // an event state completes on its first matching event, the other awaited events are dropped
+                instance.setStatus(InstanceStatus.RUNNING);
+                instance.getAwaitedEvents().clear();
+                updateData(instance,
+                           record);
+                break;
+            case TIMER_SCHEDULED:
+                instance.setStatus(InstanceStatus.WAITING);
+                instance.getTimers().put(record.getName(),
+                                         Long.parseLong(record.getDetail()));
+                break;
+            case TIMER_FIRED:
+                instance.setStatus(InstanceStatus.RUNNING);
+                instance.getTimers().remove(record.getName());
+                break;
+            case INSTANCE_FINISHED:
+                instance.setStatus(InstanceStatus.valueOf(record.getName()));
+                instance.getTimers().clear();
+                instance.getAwaitedEvents().clear();
+                updateData(instance,
+                           record);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported journal record type: " + record.getType());
+        }
+    }
+
+    private static void updateData(WorkflowInstance instance,
+                                   JournalRecord record) {
+        if (record.getData().length > 0) {
+            instance.setData(InstanceCodec.decodeData(record.getData()));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.nio.file.Path;
+
+public class JournalSegment {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    private final Path path;
+    private final long firstSequence;
+    private volatile long lastSequence;
+    private volatile long size;
+
+    public JournalSegment(Path path,
+                          long firstSequence,
+                          long lastSequence,
+                          long size) {
+        this.path = path;
+        this.firstSequence = firstSequence;
+        this.lastSequence = lastSequence;
+        this.size = size;
+    }
+
+    public static String fileName(long firstSequence) {
+        return String.format("%s%020d%s",
+                             PREFIX,
+                             firstSequence,
+                             SUFFIX);
+    }
+
+    public static boolean isSegmentFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    public static long firstSequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(),
+                                             name.length() - SUFFIX.length()));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return lastSequence < firstSequence;
+    }
+
+    void appended(long lastSequence,
+                  long size) {
+        this.lastSequence = lastSequence;
+        this.size = size;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+public enum RecordType {
+    INSTANCE_STARTED((byte) 1),
+    STATE_ENTERED((byte) 2),
+    ACTION_COMPLETED((byte) 3),
+    EVENT_CORRELATED((byte) 4),
+    INSTANCE_FINISHED((byte) 5),
+    EVENT_AWAITED((byte) 6),
+    TIMER_SCHEDULED((byte) 7),
+    TIMER_FIRED((byte) 8);
+
+    private final byte code;
+
+    RecordType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static RecordType fromCode(byte code) {
+        for (RecordType recordType : values()) {
+            if (recordType.code == code) {
+                return recordType;
+            }
+        }
+        throw new IllegalArgumentException("Unknown journal record type: " + code);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+public class SnapshotPolicy {
+
+    public static final long DEFAULT_EVENT_INTERVAL = 1000;
+    public static final long DEFAULT_BYTE_INTERVAL = 1024 * 1024;
+
+    private final long eventInterval;
+    private final long byteInterval;
+
+    public SnapshotPolicy() {
+        this(DEFAULT_EVENT_INTERVAL,
+             DEFAULT_BYTE_INTERVAL);
+    }
+
+    /**
+     * @param eventInterval number of journal records of an instance after which it is snapshotted, 0 to disable
+     * @param byteInterval number of journal bytes of an instance after which it is snapshotted, 0 to disable
+     */
+    public SnapshotPolicy(long eventInterval,
+                          long byteInterval) {
+        if (eventInterval < 0 || byteInterval < 0) {
+            throw new IllegalArgumentException("Snapshot intervals must not be negative");
+        }
+        this.eventInterval = eventInterval;
+        this.byteInterval = byteInterval;
+    }
+
+    public boolean shouldSnapshot(long eventsSinceSnapshot,
+                                  long bytesSinceSnapshot) {
+        return (eventInterval > 0 && eventsSinceSnapshot >= eventInterval) ||
+                (byteInterval > 0 && bytesSinceSnapshot >= byteInterval);
+    }
+
+    public long getEventInterval() {
+        return eventInterval;
+    }
+
+    public long getByteInterval() {
+        return byteInterval;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the latest snapshot of each instance in its own file. A snapshot file holds the CRC32 of its body
+ * followed by the body: last journal sequence, terminal flag, state length and the encoded instance state.
+ * Files are replaced atomically, so a crash during a write leaves the previous snapshot in place.
+ */
+public class SnapshotStore {
+
+    private static final String SUFFIX = ".snapshot";
+    private static final int HEADER_SIZE = 4 + 8 + 1 + 4;
+
+    private final Path directory;
+
+    private static Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create snapshot directory " + directory,
+                                           e);
+        }
+    }
+
+    public void write(InstanceSnapshot snapshot) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + snapshot.getState().length);
+        buffer.position(4);
+        buffer.putLong(snapshot.getLastSequence());
+        buffer.put((byte) (snapshot.isTerminal() ? 1 : 0));
+        buffer.putInt(snapshot.getState().length);
+        buffer.put(snapshot.getState());
+        buffer.putInt(0,
+                      JournalCodec.checksum(buffer,
+                                            4,
+                                            buffer.capacity() - 4));
+
+        Path target = pathFor(snapshot.getInstanceId());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.write(temp,
+                        buffer.array());
+            Files.move(temp,
+                       target,
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write snapshot of instance " + snapshot.getInstanceId(),
+                                           e);
+        }
+    }
+
+    public InstanceSnapshot read(String instanceId) {
+        Path path = pathFor(instanceId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != JournalCodec.checksum(buffer,
+                                                                                               4,
+                                                                                               buffer.capacity() - 4)) {
+                logger.warn("Ignoring corrupted snapshot " + path);
+                return null;
+            }
+            buffer.position(4);
+            long lastSequence = buffer.getLong();
+            boolean terminal = buffer.get() == 1;
+            byte[] state = new byte[buffer.getInt()];
+            buffer.get(state);
+            return new InstanceSnapshot(instanceId,
+                                        lastSequence,
+                                        terminal,
+                                        state);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read snapshot of instance " + instanceId,
+                                           e);
+        }
+    }
+
+    public void delete(String instanceId) {
+        try {
+            Files.deleteIfExists(pathFor(instanceId));
+        } catch (IOException e) {
+            logger.warn("Unable to delete snapshot of instance " + instanceId + ": " + e.getMessage());
+        }
+    }
+
+    public List<String> getInstanceIds() {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> decode(name.substring(0,
+                                                       name.length() - SUFFIX.length())))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list snapshots in " + directory,
+                                           e);
+        }
+    }
+
+    public void forEach(Consumer<InstanceSnapshot> consumer) {
+        for (String instanceId : getInstanceIds()) {
+            InstanceSnapshot snapshot = read(instanceId);
+            if (snapshot != null) {
+                consumer.accept(snapshot);
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path pathFor(String instanceId) {
+        return directory.resolve(encode(instanceId) + SUFFIX);
+    }
+
+    private static String encode(String instanceId) {
+        try {
+            return URLEncoder.encode(instanceId,
+                                     "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String fileName) {
+        try {
+            return URLDecoder.decode(fileName,
+                                     "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
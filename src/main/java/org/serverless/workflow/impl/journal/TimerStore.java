@@ -0,0 +1,452 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable timers kept in time buckets on disk. Each bucket file covers a fixed span of deadlines and is an
+ * append-only log of schedule and remove records in the journal's framing (int body length, int CRC32), with
+ * body byte type, long deadline, instance id and timer name. Buckets are only read once they come within the
+ * load horizon, so a restart reads the timers due soon and leaves long sleeps on disk until their time comes.
+ * A loaded bucket's file is deleted once its span has passed and all its timers have fired or been removed.
+ * Bucket files are kept open while they take writes; records reach the disk with the next {@link #force()}, which
+ * syncs every bucket written since the previous one, so a burst of timers costs one sync per bucket.
+ */
+public class TimerStore implements Closeable {
+
+    public static final long DEFAULT_BUCKET_MILLIS = 60_000;
+    public static final int DEFAULT_EAGER_BUCKETS = 5;
+
+    private static final String PREFIX = "timers-";
+    private static final String SUFFIX = ".log";
+    private static final byte SCHEDULED = 1;
+    private static final byte REMOVED = 2;
+
+    private final Path directory;
+    private final long bucketMillis;
+    private final int eagerBuckets;
+    private final NavigableSet<Long> unloadedBuckets = new TreeSet<>();
+    private final Map<Long, Map<TimerKey, StoredTimer>> loadedBuckets = new HashMap<>();
+    private final Map<Long, FileChannel> channels = new HashMap<>();
+    private final Set<FileChannel> unforced = new HashSet<>();
+    private long loadedUntil = Long.MIN_VALUE;
+
+    private static Logger logger = LoggerFactory.getLogger(TimerStore.class);
+
+    public TimerStore(Path directory) {
+        this(directory,
+             DEFAULT_BUCKET_MILLIS,
+             DEFAULT_EAGER_BUCKETS);
+    }
+
+    /**
+     * @param bucketMillis span of deadlines covered by one bucket file
+     * @param eagerBuckets number of buckets after the current one that are loaded ahead of time
+     */
+    public TimerStore(Path directory,
+                      long bucketMillis,
+                      int eagerBuckets) {
+        if (bucketMillis <= 0 || eagerBuckets < 0) {
+            throw new IllegalArgumentException("Invalid timer bucket span " + bucketMillis + " or eager buckets " + eagerBuckets);
+        }
+        this.directory = directory;
+        this.bucketMillis = bucketMillis;
+        this.eagerBuckets = eagerBuckets;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> stream = Files.list(directory)) {
+                stream.map(path -> path.getFileName().toString())
+                        .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                        .forEach(name -> unloadedBuckets.add(Long.parseLong(name.substring(PREFIX.length(),
+                                                                                           name.length() - SUFFIX.length()))));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open timer store in " + directory,
+                                           e);
+        }
+    }
+
+    /**
+     * Stores a timer, replacing a stored timer with the same instance and name in the same bucket.
+     * @return true if the timer's bucket is already loaded, so the caller schedules it now; false if it will be
+     * returned by {@link #load(long)} once its bucket comes within the load horizon
+     */
+    public boolean schedule(String instanceId,
+                            String timerName,
+                            long deadline) {
+        long bucket = bucketOf(deadline);
+        ByteBuffer record = encode(SCHEDULED,
+                                   deadline,
+                                   instanceId,
+                                   timerName);
+        synchronized (this) {
+            append(bucket,
+                   record,
+                   instanceId,
+                   timerName);
+            Map<TimerKey, StoredTimer> loaded = loadedBuckets.get(bucket);
+            if (loaded == null && bucket < loadedUntil) {
+                loaded = new LinkedHashMap<>();
+                loadedBuckets.put(bucket,
+                                  loaded);
+            }
+            if (loaded == null) {
+                unloadedBuckets.add(bucket);
+                return false;
+            }
+            loaded.put(new TimerKey(instanceId,
+                                    timerName),
+                       new StoredTimer(instanceId,
+                                       timerName,
+                                       deadline));
+            return true;
+        }
+    }
+
+    /**
+     * Removes a timer that fired or was cancelled.
+     * @param deadline deadline the timer was scheduled with, locating its bucket
+     */
+    public void remove(String instanceId,
+                       String timerName,
+                       long deadline) {
+        long bucket = bucketOf(deadline);
+        ByteBuffer record = encode(REMOVED,
+                                   deadline,
+                                   instanceId,
+                                   timerName);
+        synchronized (this) {
+            Map<TimerKey, StoredTimer> loaded = loadedBuckets.get(bucket);
+            if (loaded != null) {
+                if (loaded.remove(new TimerKey(instanceId,
+                                               timerName)) == null) {
+                    return;
+                }
+                if (loaded.isEmpty() && (bucket + 1) * bucketMillis <= System.currentTimeMillis()) {
+                    deleteBucket(bucket);
+                    return;
+                }
+            } else if (!unloadedBuckets.contains(bucket)) {
+                return;
+            }
+            append(bucket,
+                   record,
+                   instanceId,
+                   timerName);
+        }
+    }
+
+    /**
+     * Loads the buckets that have come within the load horizon of the given time: the current bucket and the
+     * configured number of buckets after it, plus any overdue ones.
+     * @return timers of the newly loaded buckets, to be scheduled by the caller
+     */
+    public synchronized List<StoredTimer> load(long now) {
+        long horizon = bucketOf(now) + eagerBuckets + 1;
+        List<StoredTimer> timers = new ArrayList<>();
+        Iterator<Long> due = unloadedBuckets.headSet(horizon,
+                                                     false).iterator();
+        while (due.hasNext()) {
+            long bucket = due.next();
+            due.remove();
+            Map<TimerKey, StoredTimer> loaded = readBucket(bucket);
+            loadedBuckets.put(bucket,
+                              loaded);
+            timers.addAll(loaded.values());
+        }
+        loadedUntil = Math.max(loadedUntil,
+                               horizon);
+
+        Iterator<Map.Entry<Long, Map<TimerKey, StoredTimer>>> buckets = loadedBuckets.entrySet().iterator();
+        while (buckets.hasNext()) {
+            Map.Entry<Long, Map<TimerKey, StoredTimer>> entry = buckets.next();
+            if (entry.getValue().isEmpty() && (entry.getKey() + 1) * bucketMillis <= now) {
+                buckets.remove();
+                deleteBucketFile(entry.getKey());
+            }
+        }
+        return timers;
+    }
+
+    /**
+     * Syncs the bucket files written since the last call to disk. The sync runs outside the store's lock, so timers
+     * keep being scheduled and removed meanwhile; their records are covered by the next call.
+     */
+    public void force() {
+        List<FileChannel> pending;
+        synchronized (this) {
+            if (unforced.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<>(unforced);
+            unforced.clear();
+        }
+        for (FileChannel channel : pending) {
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // the bucket was deleted or the store closed, which forces it
+            } catch (IOException e) {
+                synchronized (this) {
+                    unforced.add(channel);
+                }
+                throw new UncheckedIOException("Unable to sync timer buckets in " + directory,
+                                               e);
+            }
+        }
+    }
+
+    /**
+     * Syncs and closes the open bucket files. Timers scheduled afterwards reopen their bucket.
+     */
+    @Override
+    public synchronized void close() {
+        for (Long bucket : new ArrayList<>(channels.keySet())) {
+            closeChannel(bucket,
+                         true);
+        }
+    }
+
+    /**
+     * @return number of bucket files not read yet
+     */
+    public synchronized int getUnloadedBuckets() {
+        return unloadedBuckets.size();
+    }
+
+    /**
+     * @return number of timers held in memory from loaded buckets
+     */
+    public synchronized int getLoadedTimers() {
+        return loadedBuckets.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private long bucketOf(long deadline) {
+        return Math.floorDiv(deadline,
+                             bucketMillis);
+    }
+
+    private Path pathFor(long bucket) {
+        return directory.resolve(PREFIX + bucket + SUFFIX);
+    }
+
+    private static ByteBuffer encode(byte type,
+                                     long deadline,
+                                     String instanceId,
+                                     String timerName) {
+        int bodyLength = 1 + 8 + JournalCodec.stringSize(instanceId) + JournalCodec.stringSize(timerName);
+        ByteBuffer buffer = ByteBuffer.allocate(JournalCodec.HEADER_SIZE + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(deadline);
+        JournalCodec.putString(buffer,
+                               instanceId);
+        JournalCodec.putString(buffer,
+                               timerName);
+        buffer.putInt(4,
+                      JournalCodec.checksum(buffer,
+                                            JournalCodec.HEADER_SIZE,
+                                            bodyLength));
+        buffer.flip();
+        return buffer;
+    }
+
+    private void append(long bucket,
+                        ByteBuffer record,
+                        String instanceId,
+                        String timerName) {
+        try {
+            FileChannel channel = channels.get(bucket);
+            if (channel == null) {
+                channel = FileChannel.open(pathFor(bucket),
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE,
+                                           StandardOpenOption.APPEND);
+                channels.put(bucket,
+                             channel);
+            }
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            unforced.add(channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to store timer " + timerName + " of instance " + instanceId,
+                                           e);
+        }
+    }
+
+    private Map<TimerKey, StoredTimer> readBucket(long bucket) {
+        Map<TimerKey, StoredTimer> timers = new LinkedHashMap<>();
+        Path path = pathFor(bucket);
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read timer bucket " + path,
+                                           e);
+        }
+        while (buffer.remaining() >= JournalCodec.HEADER_SIZE) {
+            int start = buffer.position();
+            int bodyLength = buffer.getInt(start);
+            if (bodyLength <= 0 || buffer.remaining() < JournalCodec.HEADER_SIZE + bodyLength ||
+                    JournalCodec.checksum(buffer,
+                                          start + JournalCodec.HEADER_SIZE,
+                                          bodyLength) != buffer.getInt(start + 4)) {
+                logger.warn("Ignoring truncated or corrupted timer records at offset " + start + " of " + path);
+                break;
+            }
+            buffer.position(start + JournalCodec.HEADER_SIZE);
+            byte type = buffer.get();
+            long deadline = buffer.getLong();
+            String instanceId = JournalCodec.getString(buffer);
+            String timerName = JournalCodec.getString(buffer);
+            TimerKey key = new TimerKey(instanceId,
+                                        timerName);
+            if (type == SCHEDULED) {
+                timers.put(key,
+                           new StoredTimer(instanceId,
+                                           timerName,
+                                           deadline));
+            } else {
+                timers.remove(key);
+            }
+            buffer.position(start + JournalCodec.HEADER_SIZE + bodyLength);
+        }
+        return timers;
+    }
+
+    private void deleteBucket(long bucket) {
+        loadedBuckets.remove(bucket);
+        deleteBucketFile(bucket);
+    }
+
+    private void closeChannel(long bucket,
+                              boolean sync) {
+        FileChannel channel = channels.remove(bucket);
+        if (channel == null) {
+            return;
+        }
+        unforced.remove(channel);
+        try {
+            if (sync) {
+                channel.force(false);
+            }
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Unable to close timer bucket " + bucket + ": " + e.getMessage());
+        }
+    }
+
+    private void deleteBucketFile(long bucket) {
+        // no sync needed for a file about to go
+        closeChannel(bucket,
+                     false);
+        try {
+            Files.deleteIfExists(pathFor(bucket));
+        } catch (IOException e) {
+            logger.warn("Unable to delete timer bucket " + bucket + ": " + e.getMessage());
+        }
+    }
+
+    public static class StoredTimer {
+
+        private final String instanceId;
+        private final String name;
+        private final long deadline;
+
+        public StoredTimer(String instanceId,
+                           String name,
+                           long deadline) {
+            this.instanceId = instanceId;
+            this.name = name;
+            this.deadline = deadline;
+        }
+
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private static final class TimerKey {
+
+        private final String instanceId;
+        private final String name;
+
+        private TimerKey(String instanceId,
+                         String name) {
+            this.instanceId = instanceId;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TimerKey)) {
+                return false;
+            }
+            TimerKey that = (TimerKey) o;
+            return Objects.equals(instanceId,
+                                  that.instanceId) && Objects.equals(name,
+                                                                     that.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(instanceId) + Objects.hashCode(name);
+        }
+    }
+}
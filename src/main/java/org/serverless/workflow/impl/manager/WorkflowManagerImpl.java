@@ -18,21 +18,30 @@
 
 package org.serverless.workflow.impl.manager;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import org.serverless.workflow.api.ExpressionEvaluator;
 import org.serverless.workflow.api.Workflow;
 import org.serverless.workflow.api.WorkflowManager;
+import org.serverless.workflow.api.WorkflowPropertySource;
 import org.serverless.workflow.api.WorkflowValidator;
 import org.serverless.workflow.api.interfaces.Extension;
 import org.serverless.workflow.api.mapper.JsonObjectMapper;
 import org.serverless.workflow.api.mapper.YamlObjectMapper;
 import org.serverless.workflow.impl.expression.JexlExpressionEvaluatorImpl;
+import org.serverless.workflow.impl.mapper.LazyWorkflow;
+import org.serverless.workflow.impl.mapper.SmileObjectMapper;
+import org.serverless.workflow.impl.propertysource.PlaceholderResolver;
+import org.serverless.workflow.impl.propertysource.PropertyDependencies;
+import org.serverless.workflow.impl.propertysource.WorkflowPropertySourceImpl;
 import org.serverless.workflow.spi.ExpressionEvaluatorProvider;
 import org.serverless.workflow.spi.WorkflowPropertySourceProvider;
 import org.serverless.workflow.spi.WorkflowValidatorProvider;
@@ -42,6 +51,12 @@ import org.slf4j.LoggerFactory;
 
 public class WorkflowManagerImpl implements WorkflowManager {
 
+    /**
+     * Property that, set to false, stops every string value of the markup from being looked up as a property key,
+     * leaving only explicit {@code ${key}} placeholders to be resolved.
+     */
+    public static final String IMPLICIT_LOOKUP_PROPERTY = "workflow.properties.implicit-lookup";
+
     private Workflow workflow;
     private Map<String, ExpressionEvaluator> expressionEvaluators;
     private ExpressionEvaluator defaultExpressionEvaluator = new JexlExpressionEvaluatorImpl();
@@ -49,6 +64,11 @@ public class WorkflowManagerImpl implements WorkflowManager {
     private WorkflowValidator defaultWorkflowValidator = new WorkflowValidatorImpl();
     private JsonObjectMapper jsonObjectMapper = new JsonObjectMapper();
     private YamlObjectMapper yamlObjectMapper = new YamlObjectMapper();
+    // binary definitions hold resolved values, so they are never looked up in the property source
+    private final SmileObjectMapper smileObjectMapper = new SmileObjectMapper();
+    private PlaceholderResolver placeholderResolver = new PlaceholderResolver(null);
+    private WorkflowPropertySource propertySource;
+    private WorkflowPropertySource lookupSource;
 
     private static Logger logger = LoggerFactory.getLogger(WorkflowManagerImpl.class);
 
@@ -67,12 +87,19 @@ public class WorkflowManagerImpl implements WorkflowManager {
         workflowValidator.setWorkflowManager(this);
 
         try {
-            jsonObjectMapper = new JsonObjectMapper(WorkflowPropertySourceProvider.getInstance().get());
-            yamlObjectMapper = new YamlObjectMapper(WorkflowPropertySourceProvider.getInstance().get());
+            propertySource = WorkflowPropertySourceProvider.getInstance().get();
+            placeholderResolver = new PlaceholderResolver(propertySource);
+            // the api mappers look every value up as a property key when given a property source
+            if (isImplicitLookup(propertySource)) {
+                jsonObjectMapper = new JsonObjectMapper(propertySource);
+                yamlObjectMapper = new YamlObjectMapper(propertySource);
+                lookupSource = propertySource;
+            }
         } catch (Exception e) {
             logger.warn("Unable to load application.properties");
             jsonObjectMapper = new JsonObjectMapper();
             yamlObjectMapper = new YamlObjectMapper();
+            lookupSource = null;
         }
     }
 
@@ -153,22 +180,140 @@ public class WorkflowManagerImpl implements WorkflowManager {
         }
     }
 
+    /**
+     * @return the workflow encoded as Smile, the binary form of its JSON markup, or null if it cannot be mapped. The
+     * values are written as bound, with their properties already substituted.
+     */
+    public byte[] toBinary() {
+        try {
+            return smileObjectMapper.writeValueAsBytes(workflow);
+        } catch (JsonProcessingException e) {
+            logger.error("Error mapping to binary: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a workflow encoded with {@link #toBinary()}, taking its values as they are written: they were resolved
+     * before encoding and are not looked up in the property source again. Bytes without the Smile header are read
+     * as JSON or YAML markup in UTF-8, with placeholders and property lookup, so stored definitions can be mixed.
+     */
+    public Workflow toWorkflow(byte[] definition) {
+        if (!SmileObjectMapper.isSmile(definition)) {
+            return toWorkflow(new String(definition,
+                                         StandardCharsets.UTF_8));
+        }
+        try {
+            return smileObjectMapper.readValue(definition,
+                                               Workflow.class);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Could not convert binary definition to Workflow: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads only the header fields of a workflow eagerly, deferring its states, trigger definitions and
+     * extensions until they are first accessed. Errors in the deferred parts surface on that access.
+     */
+    public Workflow toWorkflowHeader(String markup) {
+        // try it as json markup first, if fails try yaml
+        try {
+            return readHeader(jsonObjectMapper,
+                              markup);
+        } catch (Exception e) {
+            try {
+                return readHeader(yamlObjectMapper,
+                                  markup);
+            } catch (Exception ee) {
+                throw new IllegalArgumentException("Could not convert markup to Workflow: " + ee.getMessage());
+            }
+        }
+    }
+
     @Override
     public Workflow toWorkflow(String markup) {
         // try it as json markup first, if fails try yaml
         try {
-            return jsonObjectMapper.readValue(markup,
-                                              Workflow.class);
+            return read(jsonObjectMapper,
+                        markup);
         } catch (Exception e) {
             try {
-                return yamlObjectMapper.readValue(markup,
-                                                  Workflow.class);
+                return read(yamlObjectMapper,
+                            markup);
             } catch (Exception ee) {
                 throw new IllegalArgumentException("Could not convert markup to Workflow: " + ee.getMessage());
             }
         }
     }
 
+    /**
+     * Reads markup into a tree without resolving its placeholders, e.g. to register it with
+     * {@link PropertyDependencies}.
+     */
+    public JsonNode toTree(String markup) {
+        // try it as json markup first, if fails try yaml
+        try {
+            return jsonObjectMapper.readTree(markup);
+        } catch (Exception e) {
+            try {
+                return yamlObjectMapper.readTree(markup);
+            } catch (Exception ee) {
+                throw new IllegalArgumentException("Could not convert markup to tree: " + ee.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return dependency tracking binding workflows as {@link #toWorkflow(String)} does, listening to the property
+     * source of this manager when it reports changes until closed
+     */
+    public PropertyDependencies newPropertyDependencies() {
+        WorkflowPropertySourceImpl notifyingSource = propertySource instanceof WorkflowPropertySourceImpl ?
+                (WorkflowPropertySourceImpl) propertySource : null;
+        return new PropertyDependencies(jsonObjectMapper,
+                                        placeholderResolver,
+                                        notifyingSource);
+    }
+
+    public PlaceholderResolver getPlaceholderResolver() {
+        return placeholderResolver;
+    }
+
+    public WorkflowPropertySource getPropertySource() {
+        return propertySource;
+    }
+
+    /**
+     * Reads markup, resolving its placeholders first if it has any, so that markup without placeholders is bound
+     * straight from the text.
+     */
+    private Workflow read(ObjectMapper mapper,
+                          String markup) throws IOException {
+        if (!PlaceholderResolver.hasPlaceholders(markup)) {
+            return mapper.readValue(markup,
+                                    Workflow.class);
+        }
+        return mapper.treeToValue(placeholderResolver.resolve(mapper.readTree(markup)),
+                                  Workflow.class);
+    }
+
+    private Workflow readHeader(ObjectMapper mapper,
+                                String markup) throws IOException {
+        if (!PlaceholderResolver.hasPlaceholders(markup)) {
+            return LazyWorkflow.read(mapper,
+                                     lookupSource,
+                                     markup);
+        }
+        return LazyWorkflow.read(mapper,
+                                 lookupSource,
+                                 placeholderResolver.resolve(mapper.readTree(markup)));
+    }
+
+    private static boolean isImplicitLookup(WorkflowPropertySource propertySource) {
+        return propertySource == null || propertySource.getPropertySource() == null ||
+                !"false".equalsIgnoreCase(propertySource.getPropertySource().getProperty(IMPLICIT_LOOKUP_PROPERTY));
+    }
+
     @Override
     public void registerExtension(String extensionId,
                                   Class<? extends Extension> extensionClass) {
@@ -181,5 +326,10 @@ public class WorkflowManagerImpl implements WorkflowManager {
                                                                                    extensionClass);
         yamlObjectMapper.getWorkflowModule().getExtensionDeserializer().addExtension(extensionId,
                                                                                      extensionClass);
+
+        smileObjectMapper.getWorkflowModule().getExtensionSerializer().addExtension(extensionId,
+                                                                                    extensionClass);
+        smileObjectMapper.getWorkflowModule().getExtensionDeserializer().addExtension(extensionId,
+                                                                                      extensionClass);
     }
 }
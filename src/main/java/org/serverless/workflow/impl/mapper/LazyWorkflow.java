@@ -0,0 +1,323 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.mapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.api.WorkflowPropertySource;
+import org.serverless.workflow.api.events.TriggerEvent;
+import org.serverless.workflow.api.interfaces.Extension;
+import org.serverless.workflow.api.interfaces.State;
+
+/**
+ * Workflow read from markup header first. The top-level fields (id, name, version, description, owner,
+ * starts-at and metadata) are deserialized when the markup is read; states, trigger definitions and extensions
+ * are kept as buffered tokens and only deserialized, with the same mapper, the first time they are accessed.
+ * Listing many definitions by their header therefore costs a token scan rather than building every state.
+ * Given a property source, header and metadata values that name a property are replaced by its value, as the api
+ * mappers do when they are given one. Any other top-level field is bound by the mapper itself, so it is rejected,
+ * ignored or kept as an extension exactly as when the whole workflow is read eagerly.
+ */
+public class LazyWorkflow extends Workflow {
+
+    private static final TypeReference<List<State>> STATES = new TypeReference<List<State>>() {
+    };
+    private static final TypeReference<List<TriggerEvent>> TRIGGER_DEFS = new TypeReference<List<TriggerEvent>>() {
+    };
+    private static final TypeReference<List<Extension>> EXTENSIONS = new TypeReference<List<Extension>>() {
+    };
+    private static final TypeReference<Map<String, String>> METADATA = new TypeReference<Map<String, String>>() {
+    };
+
+    private final ObjectMapper mapper;
+    private TokenBuffer states;
+    private TokenBuffer triggerDefs;
+    private TokenBuffer extensions;
+    // extensions the mapper made of unknown fields, added to the deferred ones when those are loaded
+    private List<Extension> unknownFieldExtensions;
+
+    private LazyWorkflow(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Reads the header of a workflow with the given mapper, buffering the rest of it.
+     * @throws IOException if the markup cannot be read by the mapper
+     */
+    public static LazyWorkflow read(ObjectMapper mapper,
+                                    String markup) throws IOException {
+        return read(mapper,
+                    null,
+                    markup);
+    }
+
+    /**
+     * Reads the header of a workflow with the given mapper, looking header values up in the property source.
+     * @param propertySource source of implicitly looked up values, or null to take the values as written
+     * @throws IOException if the markup cannot be read by the mapper
+     */
+    public static LazyWorkflow read(ObjectMapper mapper,
+                                    WorkflowPropertySource propertySource,
+                                    String markup) throws IOException {
+        return read(mapper,
+                    propertySource,
+                    mapper.getFactory().createParser(markup));
+    }
+
+    /**
+     * Reads the header of a workflow already read into a tree, e.g. to resolve placeholders.
+     */
+    public static LazyWorkflow read(ObjectMapper mapper,
+                                    JsonNode tree) throws IOException {
+        return read(mapper,
+                    null,
+                    tree);
+    }
+
+    /**
+     * Reads the header of a workflow already read into a tree, looking header values up in the property source.
+     * @param propertySource source of implicitly looked up values, or null to take the values as written
+     */
+    public static LazyWorkflow read(ObjectMapper mapper,
+                                    WorkflowPropertySource propertySource,
+                                    JsonNode tree) throws IOException {
+        return read(mapper,
+                    propertySource,
+                    mapper.treeAsTokens(tree));
+    }
+
+    private static LazyWorkflow read(ObjectMapper mapper,
+                                     WorkflowPropertySource propertySource,
+                                     JsonParser markup) throws IOException {
+        LazyWorkflow workflow = new LazyWorkflow(mapper);
+        Properties properties = propertySource == null ? null : propertySource.getPropertySource();
+        TokenBuffer unknownFields = null;
+        try (JsonParser parser = markup) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Workflow markup is not an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id":
+                        workflow.setId(text(mapper,
+                                            parser,
+                                            properties));
+                        break;
+                    case "name":
+                        workflow.setName(text(mapper,
+                                              parser,
+                                              properties));
+                        break;
+                    case "version":
+                        workflow.setVersion(text(mapper,
+                                                 parser,
+                                                 properties));
+                        break;
+                    case "description":
+                        workflow.setDescription(text(mapper,
+                                                     parser,
+                                                     properties));
+                        break;
+                    case "owner":
+                        workflow.setOwner(text(mapper,
+                                               parser,
+                                               properties));
+                        break;
+                    case "starts-at":
+                        workflow.setStartsAt(text(mapper,
+                                                  parser,
+                                                  properties));
+                        break;
+                    case "metadata":
+                        Map<String, String> metadata = mapper.readValue(parser,
+                                                                        METADATA);
+                        if (metadata != null && properties != null) {
+                            metadata.replaceAll((key, value) -> value == null ? null : properties.getProperty(value,
+                                                                                                              value));
+                        }
+                        workflow.setMetadata(metadata);
+                        break;
+                    case "states":
+                        workflow.states = buffer(parser);
+                        break;
+                    case "trigger-defs":
+                        workflow.triggerDefs = buffer(parser);
+                        break;
+                    case "extensions":
+                        workflow.extensions = buffer(parser);
+                        break;
+                    default:
+                        if (unknownFields == null) {
+                            unknownFields = new TokenBuffer(parser);
+                            unknownFields.writeStartObject();
+                        }
+                        unknownFields.writeFieldName(field);
+                        unknownFields.copyCurrentStructure(parser);
+                }
+            }
+        }
+        if (unknownFields != null) {
+            unknownFields.writeEndObject();
+            bindUnknownFields(workflow,
+                              unknownFields);
+        }
+        return workflow;
+    }
+
+    /**
+     * Binds the fields the header does not know with the mapper, failing if it rejects them and taking over the
+     * extensions it makes of them.
+     */
+    private static void bindUnknownFields(LazyWorkflow workflow,
+                                          TokenBuffer unknownFields) throws IOException {
+        Workflow bound;
+        try (JsonParser parser = unknownFields.asParser(workflow.mapper)) {
+            bound = workflow.mapper.readValue(parser,
+                                              Workflow.class);
+        }
+        List<Extension> boundExtensions = bound == null ? null : bound.getExtensions();
+        if (boundExtensions == null || boundExtensions.isEmpty()) {
+            return;
+        }
+        if (workflow.extensions == null) {
+            workflow.setExtensions(new ArrayList<>(boundExtensions));
+        } else {
+            workflow.unknownFieldExtensions = boundExtensions;
+        }
+    }
+
+    @Override
+    public synchronized List<State> getStates() {
+        if (states != null) {
+            super.setStates(deserialize(states,
+                                        STATES));
+            states = null;
+        }
+        return super.getStates();
+    }
+
+    @Override
+    public synchronized void setStates(List<State> states) {
+        this.states = null;
+        super.setStates(states);
+    }
+
+    @Override
+    public synchronized Workflow withStates(List<State> states) {
+        setStates(states);
+        return this;
+    }
+
+    @Override
+    public synchronized List<TriggerEvent> getTriggerDefs() {
+        if (triggerDefs != null) {
+            super.setTriggerDefs(deserialize(triggerDefs,
+                                             TRIGGER_DEFS));
+            triggerDefs = null;
+        }
+        return super.getTriggerDefs();
+    }
+
+    @Override
+    public synchronized void setTriggerDefs(List<TriggerEvent> triggerDefs) {
+        this.triggerDefs = null;
+        super.setTriggerDefs(triggerDefs);
+    }
+
+    @Override
+    public synchronized Workflow withTriggerDefs(List<TriggerEvent> triggerDefs) {
+        setTriggerDefs(triggerDefs);
+        return this;
+    }
+
+    @Override
+    public synchronized List<Extension> getExtensions() {
+        if (extensions != null) {
+            List<Extension> deserialized = deserialize(extensions,
+                                                       EXTENSIONS);
+            if (unknownFieldExtensions != null) {
+                deserialized = deserialized == null ? new ArrayList<>() : new ArrayList<>(deserialized);
+                deserialized.addAll(unknownFieldExtensions);
+                unknownFieldExtensions = null;
+            }
+            super.setExtensions(deserialized);
+            extensions = null;
+        }
+        return super.getExtensions();
+    }
+
+    @Override
+    public synchronized void setExtensions(List<Extension> extensions) {
+        this.extensions = null;
+        this.unknownFieldExtensions = null;
+        super.setExtensions(extensions);
+    }
+
+    @Override
+    public synchronized Workflow withExtensions(List<Extension> extensions) {
+        setExtensions(extensions);
+        return this;
+    }
+
+    /**
+     * @return whether states, trigger definitions and extensions have all been deserialized
+     */
+    @JsonIgnore
+    public synchronized boolean isFullyLoaded() {
+        return states == null && triggerDefs == null && extensions == null;
+    }
+
+    private <T> T deserialize(TokenBuffer buffer,
+                              TypeReference<T> type) {
+        try (JsonParser parser = buffer.asParser(mapper)) {
+            return mapper.readValue(parser,
+                                    type);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not convert markup of workflow " + getId() + ": " + e.getMessage());
+        }
+    }
+
+    private static String text(ObjectMapper mapper,
+                               JsonParser parser,
+                               Properties properties) throws IOException {
+        String value = mapper.readValue(parser,
+                                        String.class);
+        return value == null || properties == null ? value : properties.getProperty(value,
+                                                                                     value);
+    }
+
+    private static TokenBuffer buffer(JsonParser parser) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(parser);
+        buffer.copyCurrentStructure(parser);
+        return buffer;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.mapper;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.serverless.workflow.api.WorkflowPropertySource;
+import org.serverless.workflow.api.mapper.WorkflowModule;
+
+/**
+ * Maps workflows to and from Smile, the binary encoding of the JSON model. It registers the same workflow module
+ * as the JSON and YAML mappers, so extensions apply to binary definitions just as they do to markup. Binary
+ * definitions hold the values of a bound workflow, properties already substituted, so they are read without a
+ * property source; WorkflowManagerImpl and WorkflowArtifact do so. Repeated names and short string values, state
+ * names in particular, are written once and referenced afterwards.
+ */
+public class SmileObjectMapper extends ObjectMapper {
+
+    /**
+     * First bytes of every Smile document.
+     */
+    public static final byte[] HEADER = {':', ')', '\n'};
+
+    private WorkflowModule workflowModule;
+
+    public SmileObjectMapper() {
+        this(null);
+    }
+
+    public SmileObjectMapper(WorkflowPropertySource context) {
+        super(new SmileFactory().configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES,
+                                           true));
+        workflowModule = new WorkflowModule(context);
+
+        configure(SerializationFeature.FAIL_ON_EMPTY_BEANS,
+                  false);
+        configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES,
+                  false);
+        configure(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES,
+                  false);
+        setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
+        registerModule(workflowModule);
+    }
+
+    public WorkflowModule getWorkflowModule() {
+        return workflowModule;
+    }
+
+    /**
+     * @return whether the bytes start with the Smile header
+     */
+    public static boolean isSmile(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER.length; i++) {
+            if (bytes[i] != HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
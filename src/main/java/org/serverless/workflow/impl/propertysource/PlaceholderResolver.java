@@ -0,0 +1,205 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.propertysource;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.serverless.workflow.api.WorkflowPropertySource;
+
+/**
+ * Resolves {@code ${key}} and {@code ${key:default}} placeholders in workflow markup against a property source.
+ * Every string value is checked for a placeholder once; values holding placeholders are resolved once per
+ * properties and cached, so repeated values (state names referenced by transitions, for instance) cost a single
+ * lookup. Placeholders always resolve to text: the mapper coerces the text when the field it binds to is a number
+ * or a boolean, so free-form values keep the string they were written as.
+ * <p>
+ * A placeholder naming a missing property without a default is left as it is, unless
+ * {@value #STRICT_PROPERTY} is true, in which case resolving it fails. {@code $${key}} escapes a placeholder and
+ * resolves to the literal {@code ${key}}.
+ */
+public class PlaceholderResolver {
+
+    public static final String PREFIX = "${";
+    public static final String SUFFIX = "}";
+    public static final char DEFAULT_SEPARATOR = ':';
+    public static final char ESCAPE = '$';
+    public static final String STRICT_PROPERTY = "workflow.properties.strict-placeholders";
+
+    private final WorkflowPropertySource propertySource;
+    private volatile Resolutions resolutions = new Resolutions(null);
+
+    /**
+     * @param propertySource source of the placeholder values, or null to resolve only placeholders with defaults
+     */
+    public PlaceholderResolver(WorkflowPropertySource propertySource) {
+        this.propertySource = propertySource;
+    }
+
+    /**
+     * @return whether the markup holds any placeholder, so that it needs resolving at all
+     */
+    public static boolean hasPlaceholders(String markup) {
+        return markup.contains(PREFIX);
+    }
+
+    /**
+     * @return whether the placeholder starting at the index is escaped with a preceding {@code $}
+     */
+    public static boolean isEscaped(String value,
+                                    int start) {
+        return start > 0 && value.charAt(start - 1) == ESCAPE;
+    }
+
+    /**
+     * Replaces the string values of the tree holding placeholders with what they resolve to.
+     * @return the resolved tree, the given one unless it is a single string value
+     * @throws IllegalArgumentException in strict mode, if a placeholder without default names a missing property
+     */
+    public JsonNode resolve(JsonNode tree) {
+        if (tree.isTextual()) {
+            JsonNode value = resolveValue(tree.textValue());
+            return value == null ? tree : value;
+        }
+        if (tree.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = tree.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode value = resolve(field.getValue());
+                if (value != field.getValue()) {
+                    ((ObjectNode) tree).set(field.getKey(),
+                                            value);
+                }
+            }
+        } else if (tree.isArray()) {
+            ArrayNode array = (ArrayNode) tree;
+            for (int i = 0; i < array.size(); i++) {
+                JsonNode value = resolve(array.get(i));
+                if (value != array.get(i)) {
+                    array.set(i,
+                              value);
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * @return the resolved value, or null if the value holds no placeholder
+     */
+    public JsonNode resolveValue(String value) {
+        if (!value.contains(PREFIX)) {
+            return null;
+        }
+        Properties properties = properties();
+        Resolutions current = resolutions;
+        if (current.properties != properties) {
+            // resolutions are kept per properties, so a value resolved against replaced properties never ends up
+            // in the cache of the new ones
+            current = new Resolutions(properties);
+            resolutions = current;
+        }
+        return current.resolve(value);
+    }
+
+    public String resolveText(String value) {
+        JsonNode resolvedValue = resolveValue(value);
+        return resolvedValue == null ? value : resolvedValue.asText();
+    }
+
+    private Properties properties() {
+        return propertySource == null ? null : propertySource.getPropertySource();
+    }
+
+    /**
+     * Values resolved against one properties instance.
+     */
+    private static class Resolutions {
+
+        private final Properties properties;
+        private final boolean strict;
+        private final Map<String, JsonNode> values = new ConcurrentHashMap<>();
+
+        private Resolutions(Properties properties) {
+            this.properties = properties;
+            this.strict = properties != null && Boolean.parseBoolean(properties.getProperty(STRICT_PROPERTY));
+        }
+
+        private JsonNode resolve(String value) {
+            return values.computeIfAbsent(value,
+                                          key -> TextNode.valueOf(replace(key)));
+        }
+
+        private String replace(String value) {
+            StringBuilder text = new StringBuilder(value.length());
+            int position = 0;
+            int start;
+            while ((start = value.indexOf(PREFIX,
+                                          position)) >= 0) {
+                int end = value.indexOf(SUFFIX,
+                                        start + PREFIX.length());
+                if (end < 0) {
+                    break;
+                }
+                if (isEscaped(value,
+                              start)) {
+                    text.append(value,
+                                position,
+                                start - 1);
+                    text.append(value,
+                                start,
+                                end + SUFFIX.length());
+                } else {
+                    text.append(value,
+                                position,
+                                start);
+                    text.append(lookup(value.substring(start + PREFIX.length(),
+                                                       end)));
+                }
+                position = end + SUFFIX.length();
+            }
+            text.append(value,
+                        position,
+                        value.length());
+            return text.toString();
+        }
+
+        private String lookup(String placeholder) {
+            int separator = placeholder.indexOf(DEFAULT_SEPARATOR);
+            String key = separator < 0 ? placeholder : placeholder.substring(0,
+                                                                             separator);
+            String value = properties == null ? null : properties.getProperty(key);
+            if (value != null) {
+                return value;
+            }
+            if (separator >= 0) {
+                return placeholder.substring(separator + 1);
+            }
+            if (strict) {
+                throw new IllegalArgumentException("Unresolved placeholder " + PREFIX + placeholder + SUFFIX);
+            }
+            return PREFIX + placeholder + SUFFIX;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.propertysource;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.serverless.workflow.api.Workflow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks which fields of which workflows reference each property key through placeholders. When properties change,
+ * only the workflows using a changed key are rebound, and only their fields referencing it are resolved again, from
+ * the markup tree kept at registration rather than by parsing the markup again. Rebound workflows are handed to the
+ * listeners, e.g. to register them in a catalog.
+ * <p>
+ * Only explicit placeholders are tracked. Values looked up implicitly as property keys are resolved by the mapper
+ * while binding, so they pick up new values whenever their workflow is rebound but do not cause a rebind.
+ * <p>
+ * Dependencies created for a property source listen to it until closed.
+ */
+public class PropertyDependencies implements PropertySourceListener,
+                                             Closeable {
+
+    private final ObjectMapper mapper;
+    private final PlaceholderResolver resolver;
+    private final Map<String, Binding> bindings = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+    private final List<Consumer<Workflow>> listeners = new CopyOnWriteArrayList<>();
+    private final WorkflowPropertySourceImpl propertySource;
+
+    private static Logger logger = LoggerFactory.getLogger(PropertyDependencies.class);
+
+    public PropertyDependencies(ObjectMapper mapper,
+                                PlaceholderResolver resolver) {
+        this(mapper,
+             resolver,
+             null);
+    }
+
+    /**
+     * @param propertySource property source to listen to until closed, or null to be notified by the caller
+     */
+    public PropertyDependencies(ObjectMapper mapper,
+                                PlaceholderResolver resolver,
+                                WorkflowPropertySourceImpl propertySource) {
+        this.mapper = mapper;
+        this.resolver = resolver;
+        this.propertySource = propertySource;
+        if (propertySource != null) {
+            propertySource.addListener(this);
+        }
+    }
+
+    /**
+     * Binds the workflow of a markup tree, replacing the workflow registered with the same id and version.
+     * @param markup tree of the markup with its placeholders unresolved, kept to resolve them again
+     */
+    public synchronized Workflow register(JsonNode markup) throws Exception {
+        Map<String, Set<String>> fields = new HashMap<>();
+        collect(markup,
+                "",
+                fields);
+        JsonNode resolved = resolver.resolve(markup.deepCopy());
+        Workflow workflow = mapper.treeToValue(resolved,
+                                               Workflow.class);
+        if (workflow.getId() == null) {
+            throw new IllegalArgumentException("Workflow id is required to track its property dependencies");
+        }
+        bind(new Binding(markup,
+                         resolved,
+                         fields,
+                         workflow));
+        return workflow;
+    }
+
+    public synchronized boolean unregister(String workflowId,
+                                           String workflowVersion) {
+        return unregister(workflowKey(workflowId,
+                                      workflowVersion));
+    }
+
+    /**
+     * @return the workflow as last bound, or null if none is registered
+     */
+    public Workflow getWorkflow(String workflowId,
+                                String workflowVersion) {
+        Binding binding = bindings.get(workflowKey(workflowId,
+                                                   workflowVersion));
+        return binding == null ? null : binding.workflow;
+    }
+
+    /**
+     * @return the workflows with placeholders referencing the key
+     */
+    public Collection<Workflow> getDependentWorkflows(String key) {
+        List<Workflow> workflows = new ArrayList<>();
+        for (String workflowKey : dependents.getOrDefault(key,
+                                                          Collections.emptySet())) {
+            Binding binding = bindings.get(workflowKey);
+            if (binding != null) {
+                workflows.add(binding.workflow);
+            }
+        }
+        return workflows;
+    }
+
+    /**
+     * @return JSON pointers of the fields of the workflow with placeholders referencing the key
+     */
+    public Set<String> getDependentFields(String workflowId,
+                                          String workflowVersion,
+                                          String key) {
+        Binding binding = bindings.get(workflowKey(workflowId,
+                                                   workflowVersion));
+        if (binding == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(binding.fields.getOrDefault(key,
+                                                                       Collections.emptySet()));
+    }
+
+    public void addListener(Consumer<Workflow> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops listening to the property source, leaving the workflows bound as they are.
+     */
+    @Override
+    public void close() {
+        if (propertySource != null) {
+            propertySource.removeListener(this);
+        }
+    }
+
+    /**
+     * Rebinds the workflows referencing any of the keys. A workflow that no longer resolves or binds, e.g. because a
+     * key it requires was removed, keeps its previous binding. A workflow whose id or version changed is registered
+     * under the new one, replacing the workflow registered there, and is no longer found under the old one.
+     */
+    @Override
+    public synchronized void propertiesChanged(Set<String> keys) {
+        // keyed by binding, a rebound workflow may move to the id and version of another one meanwhile
+        Map<Binding, Set<String>> affected = new LinkedHashMap<>();
+        for (String key : keys) {
+            for (String workflowKey : dependents.getOrDefault(key,
+                                                              Collections.emptySet())) {
+                Binding binding = bindings.get(workflowKey);
+                affected.computeIfAbsent(binding,
+                                         b -> new LinkedHashSet<>())
+                        .addAll(binding.fields.get(key));
+            }
+        }
+        for (Map.Entry<Binding, Set<String>> entry : affected.entrySet()) {
+            Binding binding = entry.getKey();
+            if (bindings.get(binding.workflowKey) != binding) {
+                // replaced by a workflow rebound to the same id and version
+                continue;
+            }
+            try {
+                JsonNode resolved = binding.resolved.deepCopy();
+                for (String field : entry.getValue()) {
+                    JsonPointer pointer = JsonPointer.compile(field);
+                    replace(resolved.at(pointer.head()),
+                            pointer.last(),
+                            resolver.resolve(binding.markup.at(pointer)));
+                }
+                Workflow workflow = mapper.treeToValue(resolved,
+                                                       Workflow.class);
+                if (workflow.getId() == null) {
+                    throw new IllegalArgumentException("Workflow id is required to track its property dependencies");
+                }
+                binding.workflow = workflow;
+                binding.resolved = resolved;
+            } catch (Exception e) {
+                logger.error("Unable to rebind workflow " + binding.workflowKey + ": " + e.getMessage());
+                continue;
+            }
+            String workflowKey = workflowKey(binding.workflow.getId(),
+                                             binding.workflow.getVersion());
+            if (!workflowKey.equals(binding.workflowKey)) {
+                unregister(binding.workflowKey);
+                bind(binding);
+            }
+            for (Consumer<Workflow> listener : listeners) {
+                listener.accept(binding.workflow);
+            }
+        }
+    }
+
+    private void bind(Binding binding) {
+        String workflowKey = workflowKey(binding.workflow.getId(),
+                                         binding.workflow.getVersion());
+        unregister(workflowKey);
+        binding.workflowKey = workflowKey;
+        bindings.put(workflowKey,
+                     binding);
+        for (String key : binding.fields.keySet()) {
+            dependents.computeIfAbsent(key,
+                                       k -> ConcurrentHashMap.newKeySet()).add(workflowKey);
+        }
+    }
+
+    private boolean unregister(String workflowKey) {
+        Binding binding = bindings.remove(workflowKey);
+        if (binding == null) {
+            return false;
+        }
+        for (String key : binding.fields.keySet()) {
+            Set<String> workflows = dependents.get(key);
+            if (workflows != null) {
+                workflows.remove(workflowKey);
+                if (workflows.isEmpty()) {
+                    dependents.remove(key);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void collect(JsonNode node,
+                                String path,
+                                Map<String, Set<String>> fields) {
+        if (node.isTextual()) {
+            for (String key : keys(node.textValue())) {
+                fields.computeIfAbsent(key,
+                                       k -> new HashSet<>()).add(path);
+            }
+        } else if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> children = node.fields();
+            while (children.hasNext()) {
+                Map.Entry<String, JsonNode> child = children.next();
+                collect(child.getValue(),
+                        path + "/" + child.getKey().replace("~",
+                                                            "~0").replace("/",
+                                                                          "~1"),
+                        fields);
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                collect(node.get(i),
+                        path + "/" + i,
+                        fields);
+            }
+        }
+    }
+
+    /**
+     * @return the property keys referenced by the placeholders of a value
+     */
+    static Set<String> keys(String value) {
+        Set<String> keys = new LinkedHashSet<>();
+        int start;
+        int position = 0;
+        while ((start = value.indexOf(PlaceholderResolver.PREFIX,
+                                      position)) >= 0) {
+            int end = value.indexOf(PlaceholderResolver.SUFFIX,
+                                    start + PlaceholderResolver.PREFIX.length());
+            if (end < 0) {
+                break;
+            }
+            if (!PlaceholderResolver.isEscaped(value,
+                                               start)) {
+                String placeholder = value.substring(start + PlaceholderResolver.PREFIX.length(),
+                                                     end);
+                int separator = placeholder.indexOf(PlaceholderResolver.DEFAULT_SEPARATOR);
+                keys.add(separator < 0 ? placeholder : placeholder.substring(0,
+                                                                             separator));
+            }
+            position = end + PlaceholderResolver.SUFFIX.length();
+        }
+        return keys;
+    }
+
+    private static void replace(JsonNode parent,
+                                JsonPointer field,
+                                JsonNode value) {
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(field.getMatchingProperty(),
+                                      value);
+        } else if (parent.isArray()) {
+            ((ArrayNode) parent).set(field.getMatchingIndex(),
+                                     value);
+        }
+    }
+
+    private static String workflowKey(String workflowId,
+                                      String workflowVersion) {
+        return workflowVersion == null ? workflowId : workflowId + '@' + workflowVersion;
+    }
+
+    private static class Binding {
+
+        final JsonNode markup;
+        final Map<String, Set<String>> fields;
+        volatile JsonNode resolved;
+        volatile Workflow workflow;
+        String workflowKey;
+
+        Binding(JsonNode markup,
+                JsonNode resolved,
+                Map<String, Set<String>> fields,
+                Workflow workflow) {
+            this.markup = markup;
+            this.resolved = resolved;
+            this.fields = fields;
+            this.workflow = workflow;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.propertysource;
+
+import java.util.Set;
+
+/**
+ * Notified by {@link WorkflowPropertySourceImpl} after a reload changed the value of some property keys. Called on
+ * the thread that reloaded the properties, which is the file watcher thread for changes to watched files.
+ */
+@FunctionalInterface
+public interface PropertySourceListener {
+
+    /**
+     * @param keys keys whose value was added, changed or removed
+     */
+    void propertiesChanged(Set<String> keys);
+}
@@ -17,41 +17,337 @@
  */
 package org.serverless.workflow.impl.propertysource;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.serverless.workflow.api.WorkflowPropertySource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class WorkflowPropertySourceImpl implements WorkflowPropertySource {
+/**
+ * Property source merging, from highest to lowest precedence: properties set with
+ * {@link #setOverrides(Properties)}, {@code workflow.} system properties, {@code WORKFLOW_} environment
+ * variables (as {@code WORKFLOW_STORE_TYPE} for {@code workflow.store.type}), the external files listed in
+ * {@code workflow.properties.files} and the classpath {@code application.properties}. Other system properties and
+ * environment variables are left out, so that the JVM's own settings are never looked up as workflow values.
+ * <p>
+ * Every reload replaces the merged properties with new ones rather than changing them, so that readers holding on
+ * to the previous properties can tell they changed, and notifies the listeners of the keys whose value changed.
+ * {@link #watch()} reloads whenever an external file is written. A file that cannot be read keeps the properties
+ * last read from it.
+ * <p>
+ * {@link #setPropertySource(Properties)} replaces the properties altogether, as with any property source: the given
+ * properties are handed out as they are, and the layered sources are no longer read until overrides are set.
+ */
+public class WorkflowPropertySourceImpl implements WorkflowPropertySource,
+                                                   Closeable {
+
+    public static final String FILES_PROPERTY = "workflow.properties.files";
+    public static final String ENVIRONMENT_PREFIX = "WORKFLOW_";
+    public static final String SYSTEM_PROPERTY_PREFIX = "workflow.";
 
-    private Properties propertySource = new Properties();
     private final String propertySourceName = "application.properties";
+    private final Properties classpathProperties = new Properties();
+    private final List<Path> files;
+    private final List<PropertySourceListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Path, Properties> fileProperties = new HashMap<>();
+    private Properties overrides = new Properties();
+    private boolean replaced;
+    private volatile Properties propertySource;
+    private WatchService watchService;
 
     private static Logger logger = LoggerFactory.getLogger(WorkflowPropertySourceImpl.class);
 
     public WorkflowPropertySourceImpl() {
+        this(null);
+    }
+
+    /**
+     * @param files external property files, later files taking precedence, or null to read them from
+     * {@code workflow.properties.files}
+     */
+    public WorkflowPropertySourceImpl(List<Path> files) {
         try {
             InputStream is = getClass().getClassLoader().getResourceAsStream(propertySourceName);
 
             if (is != null) {
-                propertySource.load(is);
+                try (InputStream in = is) {
+                    classpathProperties.load(in);
+                }
             } else {
                 logger.warn("Unable to find application.properties. No property source available.");
             }
         } catch (Exception e) {
             logger.error("Error loading application.properties: " + e.getMessage());
         }
+        this.files = new ArrayList<>();
+        for (Path file : files != null ? files : configuredFiles()) {
+            this.files.add(file.toAbsolutePath().normalize());
+        }
+        this.propertySource = merge();
     }
 
+    /**
+     * @return the merged properties, which a reload replaces with new ones, so changes belong in
+     * {@link #setOverrides(Properties)} rather than in the returned properties
+     */
     @Override
     public Properties getPropertySource() {
         return propertySource;
     }
 
+    /**
+     * Replaces the properties with the given ones, notifying the listeners of the keys changed. Reloading leaves
+     * them as they are until {@link #setOverrides(Properties)} is called.
+     */
     @Override
-    public void setPropertySource(Properties propertySource) {
+    public synchronized void setPropertySource(Properties propertySource) {
+        Properties previous = this.propertySource;
         this.propertySource = propertySource;
+        replaced = true;
+        notifyListeners(changes(previous,
+                                propertySource));
+    }
+
+    /**
+     * Sets properties taking precedence over every other source and merges the sources again, also after the
+     * properties were replaced with {@link #setPropertySource(Properties)}.
+     * @param overrides properties copied as the highest layer, or null to remove it
+     * @return keys whose value was added, changed or removed
+     */
+    public synchronized Set<String> setOverrides(Properties overrides) {
+        Properties copy = new Properties();
+        if (overrides != null) {
+            copy.putAll(overrides);
+        }
+        this.overrides = copy;
+        replaced = false;
+        return reload();
+    }
+
+    public List<Path> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    public void addListener(PropertySourceListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PropertySourceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reads every source again and notifies the listeners if any value changed. Does nothing while the properties
+     * are replaced.
+     * @return keys whose value was added, changed or removed
+     */
+    public synchronized Set<String> reload() {
+        if (replaced) {
+            return Collections.emptySet();
+        }
+        Properties previous = propertySource;
+        Properties current = merge();
+        Set<String> changed = changes(previous,
+                                      current);
+        if (!changed.isEmpty()) {
+            propertySource = current;
+            notifyListeners(changed);
+        }
+        return changed;
+    }
+
+    /**
+     * Starts a daemon thread reloading the properties whenever one of the external files is created, written or
+     * deleted. Files are watched through their directories, which must exist.
+     */
+    public synchronized void watch() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        if (files.isEmpty()) {
+            logger.warn("No external property files to watch");
+            return;
+        }
+        WatchService service = FileSystems.getDefault().newWatchService();
+        Set<Path> directories = new HashSet<>();
+        for (Path file : files) {
+            Path directory = directory(file);
+            if (directories.add(directory)) {
+                directory.register(service,
+                                   StandardWatchEventKinds.ENTRY_CREATE,
+                                   StandardWatchEventKinds.ENTRY_MODIFY,
+                                   StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+        watchService = service;
+        Thread watcher = new Thread(() -> watch(service),
+                                    "workflow-properties-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the external files.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                // drain the events queued meanwhile, an editor saving a file raises several
+                while (key != null) {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                                files.contains(directory.resolve((Path) event.context()))) {
+                            changed = true;
+                        }
+                    }
+                    key.reset();
+                    key = service.poll();
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void notifyListeners(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        for (PropertySourceListener listener : listeners) {
+            try {
+                listener.propertiesChanged(keys);
+            } catch (Exception e) {
+                logger.error("Property source listener failed: " + e.getMessage(),
+                             e);
+            }
+        }
+    }
+
+    private static Set<String> changes(Properties previous,
+                                       Properties current) {
+        Properties before = previous == null ? new Properties() : previous;
+        Properties after = current == null ? new Properties() : current;
+        Set<String> changed = new HashSet<>();
+        for (String key : after.stringPropertyNames()) {
+            if (!Objects.equals(after.getProperty(key),
+                                before.getProperty(key))) {
+                changed.add(key);
+            }
+        }
+        for (String key : before.stringPropertyNames()) {
+            if (after.getProperty(key) == null) {
+                changed.add(key);
+            }
+        }
+        return Collections.unmodifiableSet(changed);
+    }
+
+    private Properties merge() {
+        Properties merged = new Properties();
+        merged.putAll(classpathProperties);
+        for (Path file : files) {
+            merged.putAll(load(file));
+        }
+        for (Map.Entry<String, String> variable : System.getenv().entrySet()) {
+            if (variable.getKey().startsWith(ENVIRONMENT_PREFIX)) {
+                merged.setProperty(variable.getKey().toLowerCase(Locale.ROOT).replace('_',
+                                                                                      '.'),
+                                   variable.getValue());
+            }
+        }
+        Properties systemProperties = System.getProperties();
+        for (String key : systemProperties.stringPropertyNames()) {
+            if (key.startsWith(SYSTEM_PROPERTY_PREFIX)) {
+                merged.setProperty(key,
+                                   systemProperties.getProperty(key));
+            }
+        }
+        merged.putAll(overrides);
+        return merged;
+    }
+
+    /**
+     * @return the properties of the file, none if it does not exist, or those last read if reading it fails, so that
+     * a file caught halfway through being written does not count as its keys being removed
+     */
+    private Properties load(Path file) {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file,
+                                                         StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                logger.error("Error loading " + file + ", keeping its previous properties: " + e.getMessage());
+                return fileProperties.getOrDefault(file,
+                                                   new Properties());
+            }
+        }
+        fileProperties.put(file,
+                           properties);
+        return properties;
+    }
+
+    private List<Path> configuredFiles() {
+        String configured = System.getProperty(FILES_PROPERTY);
+        if (configured == null) {
+            configured = System.getenv(ENVIRONMENT_PREFIX + "PROPERTIES_FILES");
+        }
+        if (configured == null) {
+            configured = classpathProperties.getProperty(FILES_PROPERTY);
+        }
+        List<Path> configuredFiles = new ArrayList<>();
+        if (configured != null) {
+            for (String file : configured.split(",")) {
+                if (!file.trim().isEmpty()) {
+                    configuredFiles.add(Paths.get(file.trim()));
+                }
+            }
+        }
+        return configuredFiles;
+    }
+
+    private static Path directory(Path file) {
+        Path directory = file.getParent();
+        return directory == null ? file.getRoot() : directory;
     }
 }
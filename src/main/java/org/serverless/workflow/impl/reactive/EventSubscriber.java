@@ -0,0 +1,252 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.reactive;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.serverless.workflow.api.events.TriggerEvent;
+import org.serverless.workflow.impl.events.RingBuffer;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reactive Streams entry point feeding events to a {@link WorkflowEngine}. Demand follows the free capacity of the
+ * engine's event buffer: the subscriber requests a prefetch window up front and requests the next half window
+ * only once the buffer has room for it, so a fast publisher is slowed down instead of filling the heap. Events
+ * are signalled through {@link WorkflowEngine#trySignal(EventMessage)}, so they pass admission control; events it
+ * does not admit are held back with the ones the buffer had no room for, and retried after a short delay.
+ */
+public class EventSubscriber<T> implements Subscriber<T> {
+
+    public static final int DEFAULT_PREFETCH = 256;
+    public static final long ADMISSION_RETRY_MILLIS = 10;
+
+    private static final ScheduledExecutorService admissionRetries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable,
+                                   "event-subscriber-retries");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final WorkflowEngine engine;
+    private final RingBuffer<EventMessage> eventBuffer;
+    private final Function<? super T, EventMessage> converter;
+    private final int prefetch;
+    private final int limit;
+    private final Executor executor;
+    private final Queue<EventMessage> overflow = new ArrayDeque<>();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private volatile Subscription subscription;
+    private int received;
+
+    private static Logger logger = LoggerFactory.getLogger(EventSubscriber.class);
+
+    /**
+     * Subscriber with the default prefetch, or the capacity of the engine's event buffer if that is smaller.
+     */
+    public EventSubscriber(WorkflowEngine engine,
+                           Function<? super T, EventMessage> converter) {
+        this(engine,
+             converter,
+             Math.min(DEFAULT_PREFETCH,
+                      engine.getEventBuffer().getCapacity()),
+             ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param prefetch number of events requested ahead, at most the capacity of the engine's event buffer
+     * @param executor runs the requests for more events once the event buffer has room
+     */
+    public EventSubscriber(WorkflowEngine engine,
+                           Function<? super T, EventMessage> converter,
+                           int prefetch,
+                           Executor executor) {
+        if (prefetch < 1 || prefetch > engine.getEventBuffer().getCapacity()) {
+            throw new IllegalArgumentException("Invalid prefetch " + prefetch + " for an event buffer of " + engine.getEventBuffer().getCapacity());
+        }
+        this.engine = engine;
+        this.eventBuffer = engine.getEventBuffer();
+        this.converter = converter;
+        this.prefetch = prefetch;
+        this.limit = Math.max(1,
+                              prefetch / 2);
+        this.executor = executor;
+    }
+
+    /**
+     * Subscriber for event messages as they are.
+     */
+    public static EventSubscriber<EventMessage> forEventMessages(WorkflowEngine engine) {
+        return new EventSubscriber<>(engine,
+                                     Function.identity());
+    }
+
+    /**
+     * Subscriber for the payloads of one trigger's events. Each payload is delivered as the event data, correlated
+     * by the value of its field named by the trigger's correlation token.
+     */
+    public static EventSubscriber<JsonNode> forTriggerEvents(WorkflowEngine engine,
+                                                             TriggerEvent trigger) {
+        return new EventSubscriber<>(engine,
+                                     payload -> new EventMessage(trigger.getName(),
+                                                                 WorkflowEngine.correlationValue(payload,
+                                                                                                 trigger),
+                                                                 payload));
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        Objects.requireNonNull(subscription,
+                               "subscription");
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        requestWhenCapacity(prefetch);
+    }
+
+    @Override
+    public void onNext(T item) {
+        Objects.requireNonNull(item,
+                               "item");
+        EventMessage message;
+        try {
+            message = converter.apply(item);
+        } catch (RuntimeException e) {
+            logger.error("Unable to convert event " + item + ": " + e.getMessage());
+            cancel();
+            completion.completeExceptionally(e);
+            return;
+        }
+        boolean heldBack = false;
+        synchronized (overflow) {
+            // events the buffer had no room for (it is shared with other producers) keep their order
+            if (!overflow.isEmpty() || !engine.trySignal(message)) {
+                overflow.add(message);
+                heldBack = overflow.size() == 1;
+            }
+        }
+        if (heldBack) {
+            flushWhenCapacity();
+        }
+        if (++received == limit) {
+            received = 0;
+            requestWhenCapacity(limit);
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        Objects.requireNonNull(error,
+                               "error");
+        logger.error("Event publisher failed: " + error.getMessage());
+        completion.completeExceptionally(error);
+    }
+
+    @Override
+    public void onComplete() {
+        completion.complete(null);
+    }
+
+    /**
+     * Stops requesting events from the publisher.
+     */
+    public void cancel() {
+        Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * @return completed when the publisher completes, exceptionally when it fails
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    private void requestWhenCapacity(int events) {
+        int pending;
+        synchronized (overflow) {
+            pending = overflow.size();
+        }
+        eventBuffer.whenCapacity(Math.min(events + pending,
+                                          eventBuffer.getCapacity())).thenRunAsync(() -> {
+                                                                                       if (flushOverflow()) {
+                                                                                           subscription.request(events);
+                                                                                       } else {
+                                                                                           retry(() -> requestWhenCapacity(events));
+                                                                                       }
+                                                                                   },
+                                                                                   executor);
+    }
+
+    /**
+     * Signals the held back events once the buffer has room, even if the publisher sends no more events.
+     */
+    private void flushWhenCapacity() {
+        eventBuffer.whenCapacity(1).thenRunAsync(() -> {
+                                                     if (!flushOverflow()) {
+                                                         retry(this::flushWhenCapacity);
+                                                     }
+                                                 },
+                                                 executor);
+    }
+
+    /**
+     * Runs a task waiting for room in the buffer again, after a delay if the buffer has room so that it was
+     * admission control that held the events back.
+     */
+    private void retry(Runnable task) {
+        if (eventBuffer.getRemainingCapacity() > 0) {
+            admissionRetries.schedule(task,
+                                      ADMISSION_RETRY_MILLIS,
+                                      TimeUnit.MILLISECONDS);
+        } else {
+            task.run();
+        }
+    }
+
+    private boolean flushOverflow() {
+        synchronized (overflow) {
+            while (!overflow.isEmpty()) {
+                if (!engine.trySignal(overflow.peek())) {
+                    return false;
+                }
+                overflow.poll();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.reactive;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.serverless.workflow.impl.runtime.InstanceTransition;
+import org.serverless.workflow.impl.runtime.TransitionListener;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+/**
+ * Reactive Streams publisher of the transitions of a {@link WorkflowEngine}'s instances. Every subscriber gets
+ * its own bounded buffer and receives transitions as it requests them, on the publisher's executor rather than
+ * on the engine's partition threads. A subscriber that lets its buffer fill up is failed with an
+ * {@link IllegalStateException} and dropped, so a slow consumer cannot grow the heap or hold up the engine.
+ */
+public class TransitionPublisher implements Publisher<InstanceTransition>, AutoCloseable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final WorkflowEngine engine;
+    private final int bufferSize;
+    private final Executor executor;
+    private final Set<TransitionSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final TransitionListener listener = this::publish;
+    private volatile boolean closed;
+
+    public TransitionPublisher(WorkflowEngine engine) {
+        this(engine,
+             DEFAULT_BUFFER_SIZE,
+             ForkJoinPool.commonPool());
+    }
+
+    public TransitionPublisher(WorkflowEngine engine,
+                               int bufferSize,
+                               Executor executor) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        this.engine = engine;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+        engine.addTransitionListener(listener);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super InstanceTransition> subscriber) {
+        Objects.requireNonNull(subscriber,
+                               "subscriber");
+        TransitionSubscription subscription = new TransitionSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscription.schedule();
+        if (closed) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Stops publishing; subscribers receive the transitions already buffered and then complete.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        engine.removeTransitionListener(listener);
+        subscriptions.forEach(TransitionSubscription::complete);
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    private void publish(InstanceTransition transition) {
+        for (TransitionSubscription subscription : subscriptions) {
+            subscription.offer(transition);
+        }
+    }
+
+    private class TransitionSubscription implements Subscription {
+
+        private final Subscriber<? super InstanceTransition> subscriber;
+        private final Queue<InstanceTransition> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean subscribed;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        private TransitionSubscription(Subscriber<? super InstanceTransition> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " transitions, demand must be positive"));
+                return;
+            }
+            requested.accumulateAndGet(n,
+                                       (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void offer(InstanceTransition transition) {
+            if (!buffer.offer(transition)) {
+                fail(new IllegalStateException("Subscriber fell behind by more than " + bufferSize + " transitions"));
+                return;
+            }
+            schedule();
+        }
+
+        private void complete() {
+            completed = true;
+            schedule();
+        }
+
+        private void fail(Throwable failure) {
+            error = failure;
+            subscriptions.remove(this);
+            schedule();
+        }
+
+        private void schedule() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        /**
+         * Signals the subscriber from one thread at a time; signals arriving meanwhile are picked up by the
+         * running drain before it returns.
+         */
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                long emitted = 0;
+                long demand = requested.get();
+                while (!cancelled && error == null && emitted < demand) {
+                    InstanceTransition transition = buffer.poll();
+                    if (transition == null) {
+                        break;
+                    }
+                    subscriber.onNext(transition);
+                    emitted++;
+                }
+                if (emitted > 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                if (!cancelled) {
+                    if (error != null) {
+                        cancelled = true;
+                        buffer.clear();
+                        subscriber.onError(error);
+                    } else if (completed && buffer.isEmpty()) {
+                        cancelled = true;
+                        subscriptions.remove(this);
+                        subscriber.onComplete();
+                    }
+                }
+                missed = pendingDrains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+/**
+ * A branch of a parallel state, compiled into its own definition and executed as a child of the parallel state.
+ */
+public class BranchDefinition {
+
+    private final String name;
+    private final boolean waitForCompletion;
+    private final WorkflowDefinition definition;
+
+    public BranchDefinition(String name,
+                            boolean waitForCompletion,
+                            WorkflowDefinition definition) {
+        this.name = name;
+        this.waitForCompletion = waitForCompletion;
+        this.definition = definition;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isWaitForCompletion() {
+        return waitForCompletion;
+    }
+
+    public WorkflowDefinition getDefinition() {
+        return definition;
+    }
+}
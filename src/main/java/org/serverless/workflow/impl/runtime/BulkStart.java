@@ -0,0 +1,111 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Progress of instances started together with {@link WorkflowEngine#startAll}. Finished instances are reported
+ * to the listener one by one as they complete or fail; the completion future completes once every instance
+ * has finished.
+ */
+public class BulkStart {
+
+    private final WorkflowDefinition definition;
+    private final BiConsumer<WorkflowInstance, Throwable> listener;
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    // one for every unfinished instance plus one while inputs are still being read
+    private final AtomicInteger outstanding = new AtomicInteger(1);
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private static Logger logger = LoggerFactory.getLogger(BulkStart.class);
+
+    BulkStart(WorkflowDefinition definition,
+              BiConsumer<WorkflowInstance, Throwable> listener) {
+        this.definition = definition;
+        this.listener = listener;
+    }
+
+    public WorkflowDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @return number of instances started so far
+     */
+    public int getStarted() {
+        return started.get();
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return completed once all inputs have been read and every instance started from them has finished
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    void instanceStarted() {
+        started.incrementAndGet();
+        outstanding.incrementAndGet();
+    }
+
+    void instanceFinished(WorkflowInstance instance,
+                          Throwable error) {
+        if (error == null) {
+            completed.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        if (listener != null) {
+            try {
+                listener.accept(instance,
+                                error);
+            } catch (RuntimeException e) {
+                logger.error("Bulk start listener failed for instance " + instance.getId() + ": " + e.getMessage());
+            }
+        }
+        release();
+    }
+
+    void inputsRead() {
+        release();
+    }
+
+    private void release() {
+        if (outstanding.decrementAndGet() == 0) {
+            completion.complete(null);
+        }
+    }
+}
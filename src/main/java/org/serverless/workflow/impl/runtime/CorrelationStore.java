@@ -0,0 +1,131 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of instances waiting for trigger events, by trigger name and correlation token, and by correlation
+ * token alone for lookups that do not know the trigger.
+ */
+public class CorrelationStore {
+
+    private final ConcurrentMap<CorrelationKey, Set<String>> waitingInstances = new ConcurrentHashMap<>();
+    // instance ids by correlation token, with the number of triggers they wait for with that token
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> instancesByToken = new ConcurrentHashMap<>();
+
+    public void register(String triggerName,
+                         String correlationToken,
+                         String instanceId) {
+        boolean added = waitingInstances.computeIfAbsent(new CorrelationKey(triggerName,
+                                                                            correlationToken),
+                                                         key -> ConcurrentHashMap.newKeySet()).add(instanceId);
+        if (added && correlationToken != null) {
+            instancesByToken.computeIfAbsent(correlationToken,
+                                             token -> new ConcurrentHashMap<>()).merge(instanceId,
+                                                                                       1,
+                                                                                       Integer::sum);
+        }
+    }
+
+    public boolean unregister(String triggerName,
+                              String correlationToken,
+                              String instanceId) {
+        boolean[] removed = new boolean[1];
+        waitingInstances.computeIfPresent(new CorrelationKey(triggerName,
+                                                             correlationToken),
+                                          (key, instanceIds) -> {
+                                              removed[0] = instanceIds.remove(instanceId);
+                                              return instanceIds.isEmpty() ? null : instanceIds;
+                                          });
+        if (removed[0] && correlationToken != null) {
+            instancesByToken.computeIfPresent(correlationToken,
+                                              (token, instanceIds) -> {
+                                                  instanceIds.computeIfPresent(instanceId,
+                                                                               (id, triggers) -> triggers == 1 ? null : triggers - 1);
+                                                  return instanceIds.isEmpty() ? null : instanceIds;
+                                              });
+        }
+        return removed[0];
+    }
+
+    /**
+     * @return ids of the instances waiting for the given trigger and correlation token, never null
+     */
+    public Set<String> lookup(String triggerName,
+                              String correlationToken) {
+        Set<String> instanceIds = waitingInstances.get(new CorrelationKey(triggerName,
+                                                                          correlationToken));
+        return instanceIds == null ? Collections.emptySet() : Collections.unmodifiableSet(instanceIds);
+    }
+
+    /**
+     * @return ids of the instances waiting for any trigger with the given correlation token, never null
+     */
+    public Set<String> lookup(String correlationToken) {
+        Map<String, Integer> instanceIds = correlationToken == null ? null : instancesByToken.get(correlationToken);
+        return instanceIds == null ? Collections.emptySet() : Collections.unmodifiableSet(instanceIds.keySet());
+    }
+
+    public int size() {
+        return waitingInstances.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public void clear() {
+        waitingInstances.clear();
+        instancesByToken.clear();
+    }
+
+    private static final class CorrelationKey {
+
+        private final String triggerName;
+        private final String correlationToken;
+
+        private CorrelationKey(String triggerName,
+                               String correlationToken) {
+            this.triggerName = triggerName;
+            this.correlationToken = correlationToken;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CorrelationKey)) {
+                return false;
+            }
+            CorrelationKey that = (CorrelationKey) o;
+            return Objects.equals(triggerName,
+                                  that.triggerName) &&
+                    Objects.equals(correlationToken,
+                                   that.correlationToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(triggerName) + Objects.hashCode(correlationToken);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.serverless.workflow.api.ExpressionEvaluator;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.impl.expression.JexlExpressionEvaluatorImpl;
+
+/**
+ * Registry of compiled workflow definitions by id and version. Lookups without a version resolve to the
+ * highest registered version. Every change increments the catalog generation, which invalidates the
+ * definitions cached by {@link SubflowCallSite}s.
+ */
+public class DefinitionCatalog {
+
+    private static final String NO_VERSION = "";
+
+    private final ConcurrentMap<String, ConcurrentNavigableMap<String, WorkflowDefinition>> definitions = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile ExpressionEvaluator expressionEvaluator = new JexlExpressionEvaluatorImpl();
+    private volatile int inlineThreshold;
+
+    public WorkflowDefinition register(Workflow workflow) {
+        return register(workflow,
+                        expressionEvaluator);
+    }
+
+    /**
+     * Registers a workflow, matching its event states to trigger definitions with the given evaluator rather
+     * than the catalog's, e.g. one answering from matches computed ahead of time.
+     */
+    public WorkflowDefinition register(Workflow workflow,
+                                       ExpressionEvaluator triggerMatcher) {
+        if (workflow.getId() == null) {
+            throw new IllegalArgumentException("Workflow id is required to register a workflow definition");
+        }
+        WorkflowDefinition definition = DefinitionCompiler.compile(workflow,
+                                                                   this,
+                                                                   triggerMatcher);
+        definitions.computeIfAbsent(workflow.getId(),
+                                    id -> new ConcurrentSkipListMap<>(DefinitionCatalog::compareVersions))
+                .put(versionKey(workflow.getVersion()),
+                     definition);
+        generation.incrementAndGet();
+        return definition;
+    }
+
+    public boolean unregister(String workflowId,
+                              String workflowVersion) {
+        Map<String, WorkflowDefinition> versions = definitions.get(workflowId);
+        if (versions == null || versions.remove(versionKey(workflowVersion)) == null) {
+            return false;
+        }
+        generation.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @param workflowVersion version to resolve, or null for the latest version
+     * @return the matching definition or null if none is registered
+     */
+    public WorkflowDefinition resolve(String workflowId,
+                                      String workflowVersion) {
+        ConcurrentNavigableMap<String, WorkflowDefinition> versions = definitions.get(workflowId);
+        if (versions == null || versions.isEmpty()) {
+            return null;
+        }
+        if (workflowVersion == null || workflowVersion.isEmpty()) {
+            Map.Entry<String, WorkflowDefinition> latest = versions.lastEntry();
+            return latest == null ? null : latest.getValue();
+        }
+        return versions.get(workflowVersion);
+    }
+
+    public Collection<WorkflowDefinition> getDefinitions() {
+        List<WorkflowDefinition> all = new ArrayList<>();
+        definitions.values().forEach(versions -> all.addAll(versions.values()));
+        return all;
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public ExpressionEvaluator getExpressionEvaluator() {
+        return expressionEvaluator;
+    }
+
+    /**
+     * Sets the evaluator used to match event state expressions against trigger definitions at registration.
+     */
+    public void setExpressionEvaluator(ExpressionEvaluator expressionEvaluator) {
+        this.expressionEvaluator = expressionEvaluator;
+    }
+
+    public int getInlineThreshold() {
+        return inlineThreshold;
+    }
+
+    /**
+     * Subflows pinned to a version, waiting for completion and declaring at most this many states are inlined
+     * into the graph of the calling workflow when it is registered. 0 (the default) disables inlining.
+     */
+    public void setInlineThreshold(int inlineThreshold) {
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    static int compareVersions(String first,
+                               String second) {
+        String[] firstParts = first.split("\\.");
+        String[] secondParts = second.split("\\.");
+        for (int i = 0; i < Math.min(firstParts.length,
+                                     secondParts.length); i++) {
+            int result;
+            if (isNumeric(firstParts[i]) && isNumeric(secondParts[i])) {
+                result = Long.compare(Long.parseLong(firstParts[i]),
+                                      Long.parseLong(secondParts[i]));
+            } else {
+                result = firstParts[i].compareTo(secondParts[i]);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(firstParts.length,
+                               secondParts.length);
+    }
+
+    private static boolean isNumeric(String part) {
+        if (part.isEmpty() || part.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isDigit(part.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String versionKey(String version) {
+        return version == null ? NO_VERSION : version;
+    }
+}
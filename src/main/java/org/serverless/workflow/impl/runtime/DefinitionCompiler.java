@@ -0,0 +1,156 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.serverless.workflow.api.ExpressionEvaluator;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.api.branches.Branch;
+import org.serverless.workflow.api.events.Event;
+import org.serverless.workflow.api.events.TriggerEvent;
+import org.serverless.workflow.api.interfaces.State;
+import org.serverless.workflow.api.states.EventState;
+import org.serverless.workflow.api.states.ParallelState;
+import org.serverless.workflow.api.states.SubflowState;
+import org.serverless.workflow.api.states.SwitchState;
+import org.serverless.workflow.impl.choices.ChoiceCompiler;
+
+/**
+ * Compiles workflows into {@link WorkflowDefinition}s: switch states into decisions, event states into the
+ * trigger definitions their expressions match, subflow states into cached call sites (or inlined graphs) and
+ * parallel state branches into definitions of their own.
+ */
+public class DefinitionCompiler {
+
+    public static WorkflowDefinition compile(Workflow workflow,
+                                             DefinitionCatalog catalog) {
+        return compile(workflow,
+                       catalog,
+                       catalog.getExpressionEvaluator());
+    }
+
+    /**
+     * @param triggerMatcher evaluator matching event state expressions to trigger definitions
+     */
+    public static WorkflowDefinition compile(Workflow workflow,
+                                             DefinitionCatalog catalog,
+                                             ExpressionEvaluator triggerMatcher) {
+        return compile(workflow.getId(),
+                       workflow.getVersion(),
+                       workflow.getStartsAt(),
+                       workflow.getStates(),
+                       workflow,
+                       catalog,
+                       triggerMatcher);
+    }
+
+    private static WorkflowDefinition compile(String id,
+                                              String version,
+                                              String startsAt,
+                                              List<State> states,
+                                              Workflow workflow,
+                                              DefinitionCatalog catalog,
+                                              ExpressionEvaluator triggerMatcher) {
+        List<State> workflowStates = states == null ? Collections.emptyList() : states;
+        List<TriggerEvent> triggerDefs = workflow.getTriggerDefs() == null ? Collections.emptyList() : workflow.getTriggerDefs();
+
+        Map<String, StateNode> nodes = new LinkedHashMap<>();
+        for (State state : workflowStates) {
+            StateNode node = new StateNode(state.getName(),
+                                           "",
+                                           null,
+                                           state);
+            nodes.put(node.getName(),
+                      node);
+
+            if (state instanceof SwitchState) {
+                node.setSwitchState(ChoiceCompiler.compile((SwitchState) state));
+            } else if (state instanceof EventState && ((EventState) state).getEvents() != null) {
+                for (Event event : ((EventState) state).getEvents()) {
+                    for (TriggerEvent trigger : triggerDefs) {
+                        if (triggerMatcher.evaluate(event.getEventExpression(),
+                                                    trigger)) {
+                            node.addEvent(trigger,
+                                          event);
+                        }
+                    }
+                }
+            } else if (state instanceof ParallelState && ((ParallelState) state).getBranches() != null) {
+                for (Branch branch : ((ParallelState) state).getBranches()) {
+                    node.addBranch(new BranchDefinition(branch.getName(),
+                                                        branch.isWaitForCompletion(),
+                                                        compile(id + "/" + state.getName() + "/" + branch.getName(),
+                                                                version,
+                                                                branch.getStartsAt(),
+                                                                branch.getStates(),
+                                                                workflow,
+                                                                catalog,
+                                                                triggerMatcher)));
+                }
+            } else if (state instanceof SubflowState) {
+                SubflowState subflowState = (SubflowState) state;
+                node.setCallSite(new SubflowCallSite(subflowState.getWorkflowId(),
+                                                     subflowState.getWorkflowVersion()));
+                WorkflowDefinition subflow = inlineCandidate(subflowState,
+                                                             catalog);
+                if (subflow != null) {
+                    inline(node,
+                           subflow,
+                           nodes);
+                }
+            }
+        }
+
+        return new WorkflowDefinition(id,
+                                      version,
+                                      startsAt,
+                                      workflow,
+                                      nodes,
+                                      workflowStates.size());
+    }
+
+    private static WorkflowDefinition inlineCandidate(SubflowState subflowState,
+                                                      DefinitionCatalog catalog) {
+        if (catalog.getInlineThreshold() <= 0 || !subflowState.isWaitForCompletion() ||
+                subflowState.getWorkflowVersion() == null || subflowState.getWorkflowVersion().isEmpty()) {
+            return null;
+        }
+        WorkflowDefinition subflow = catalog.resolve(subflowState.getWorkflowId(),
+                                                     subflowState.getWorkflowVersion());
+        return subflow != null && subflow.getStateCount() <= catalog.getInlineThreshold() ? subflow : null;
+    }
+
+    private static void inline(StateNode node,
+                               WorkflowDefinition subflow,
+                               Map<String, StateNode> nodes) {
+        String prefix = node.getName() + "/";
+        String exit = node.getState().isEnd() ? node.getExit() : node.getNextState();
+        node.setInlineTarget(prefix + subflow.getStartsAt());
+        for (StateNode subflowNode : subflow.getNodes().values()) {
+            StateNode inlined = subflowNode.inline(prefix,
+                                                   exit);
+            nodes.put(inlined.getName(),
+                      inlined);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * An event occurrence delivered to waiting instances: the name of the trigger definition it matches,
+ * the value of the trigger's correlation token and the event data.
+ */
+public class EventMessage {
+
+    private final String triggerName;
+    private final String correlationValue;
+    private final JsonNode data;
+
+    public EventMessage(String triggerName,
+                        String correlationValue,
+                        JsonNode data) {
+        this.triggerName = triggerName;
+        this.correlationValue = correlationValue;
+        this.data = data;
+    }
+
+    public String getTriggerName() {
+        return triggerName;
+    }
+
+    public String getCorrelationValue() {
+        return correlationValue;
+    }
+
+    public JsonNode getData() {
+        return data;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.runtime;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+/**
+ * Handle to an instance started with {@link WorkflowEngine#submit}. Status queries read a copy of the status and
+ * current state the engine publishes on every transition, so they never wait for the instance's partition.
+ */
+public class InstanceHandle {
+
+    private final WorkflowEngine engine;
+    private final String instanceId;
+    private final String workflowId;
+    private final String workflowVersion;
+    private final CompletableFuture<WorkflowInstance> completion;
+    private volatile InstanceStatus status = InstanceStatus.RUNNING;
+    private volatile String currentState;
+
+    InstanceHandle(WorkflowEngine engine,
+                   WorkflowInstance instance,
+                   CompletableFuture<WorkflowInstance> completion) {
+        this.engine = engine;
+        this.instanceId = instance.getId();
+        this.workflowId = instance.getWorkflowId();
+        this.workflowVersion = instance.getWorkflowVersion();
+        this.completion = completion;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public String getWorkflowId() {
+        return workflowId;
+    }
+
+    public String getWorkflowVersion() {
+        return workflowVersion;
+    }
+
+    public InstanceStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return name of the state the instance last entered, null until it has entered its first state
+     */
+    public String getCurrentState() {
+        return currentState;
+    }
+
+    public boolean isDone() {
+        return status.isTerminal();
+    }
+
+    /**
+     * @return completed with the finished instance, or exceptionally with a {@link WorkflowExecutionException}
+     * if it failed or was cancelled. Every call returns a new dependent future: cancelling it only detaches
+     * the caller, use {@link #cancel()} to cancel the instance.
+     */
+    public CompletableFuture<WorkflowInstance> getCompletion() {
+        return completion.thenApply(Function.identity());
+    }
+
+    /**
+     * Cancels the instance together with its running subflows and parallel branches.
+     * @return completed with true once the instance is cancelled, false if it had already finished
+     */
+    public CompletableFuture<Boolean> cancel() {
+        return engine.cancel(instanceId);
+    }
+
+    void update(InstanceStatus status,
+                String currentState) {
+        this.currentState = currentState;
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceHandle{" + instanceId + ", " + workflowId + ":" + workflowVersion + ", " + status + ", " + currentState + "}";
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.runtime;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import org.serverless.workflow.impl.instance.InstanceStatus;
+
+/**
+ * Secondary index of the live instances of one partition by definition and current state. Per-state data is kept
+ * in arrays keyed by the dense {@link StateNode#getId() state ids} of each definition, and is updated
+ * incrementally as instances change state. It is only changed from its partition's thread and can be
+ * queried from any thread.
+ */
+public class InstanceIndex {
+
+    private final Map<WorkflowDefinition, StateIndex> definitions = new ConcurrentHashMap<>();
+
+    /**
+     * Moves an instance from the state it was indexed under to its new one.
+     * @param fromState state id the instance was indexed under, -1 if it was not indexed
+     * @param toState state id to index it under, -1 to remove it
+     */
+    void move(WorkflowDefinition definition,
+              String instanceId,
+              int fromState,
+              boolean wasWaiting,
+              int toState,
+              boolean waiting) {
+        StateIndex index = definitions.get(definition);
+        if (index == null) {
+            if (toState < 0) {
+                return;
+            }
+            index = new StateIndex(definition);
+            definitions.put(definition,
+                            index);
+        }
+        if (fromState >= 0) {
+            index.remove(instanceId,
+                         fromState,
+                         wasWaiting);
+        }
+        if (toState >= 0) {
+            index.add(instanceId,
+                      toState,
+                      waiting);
+        } else if (index.live == 0) {
+            definitions.remove(definition);
+        }
+    }
+
+    /**
+     * @param workflowVersion version to count, or null for all versions
+     * @param stateName state to count, or null for all states
+     * @param status {@link InstanceStatus#RUNNING} or {@link InstanceStatus#WAITING} to count only those, or null
+     */
+    public int count(String workflowId,
+                     String workflowVersion,
+                     String stateName,
+                     InstanceStatus status) {
+        int count = 0;
+        for (StateIndex index : definitions.values()) {
+            if (!index.matches(workflowId,
+                               workflowVersion)) {
+                continue;
+            }
+            if (stateName == null) {
+                for (int state = 0; state < index.waiting.length(); state++) {
+                    count += index.count(state,
+                                         status);
+                }
+            } else {
+                StateNode node = index.definition.getNode(stateName);
+                if (node != null) {
+                    count += index.count(node.getId(),
+                                         status);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Passes the ids of the matching instances to the consumer.
+     * @param workflowVersion version to find, or null for all versions
+     * @param stateName state to find, or null for all states
+     */
+    public void find(String workflowId,
+                     String workflowVersion,
+                     String stateName,
+                     Consumer<String> instanceIds) {
+        for (StateIndex index : definitions.values()) {
+            if (!index.matches(workflowId,
+                               workflowVersion)) {
+                continue;
+            }
+            if (stateName == null) {
+                for (int state = 0; state < index.instances.length(); state++) {
+                    index.instances(state).forEach(instanceIds);
+                }
+            } else {
+                StateNode node = index.definition.getNode(stateName);
+                if (node != null) {
+                    index.instances(node.getId()).forEach(instanceIds);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        definitions.clear();
+    }
+
+    private static final class StateIndex {
+
+        private final WorkflowDefinition definition;
+        private final AtomicReferenceArray<Set<String>> instances;
+        private final AtomicIntegerArray waiting;
+        // only touched by the writing partition thread
+        private int live;
+
+        private StateIndex(WorkflowDefinition definition) {
+            this.definition = definition;
+            this.instances = new AtomicReferenceArray<>(definition.getNodes().size());
+            this.waiting = new AtomicIntegerArray(definition.getNodes().size());
+        }
+
+        private boolean matches(String workflowId,
+                                String workflowVersion) {
+            return definition.getId().equals(workflowId) && (workflowVersion == null || workflowVersion.equals(definition.getVersion()));
+        }
+
+        private void add(String instanceId,
+                         int state,
+                         boolean isWaiting) {
+            Set<String> stateInstances = instances.get(state);
+            if (stateInstances == null) {
+                stateInstances = ConcurrentHashMap.newKeySet();
+                instances.set(state,
+                              stateInstances);
+            }
+            if (stateInstances.add(instanceId)) {
+                live++;
+                if (isWaiting) {
+                    waiting.incrementAndGet(state);
+                }
+            }
+        }
+
+        private void remove(String instanceId,
+                            int state,
+                            boolean wasWaiting) {
+            Set<String> stateInstances = instances.get(state);
+            if (stateInstances != null && stateInstances.remove(instanceId)) {
+                live--;
+                if (wasWaiting) {
+                    waiting.decrementAndGet(state);
+                }
+            }
+        }
+
+        private Set<String> instances(int state) {
+            Set<String> stateInstances = instances.get(state);
+            return stateInstances == null ? Collections.emptySet() : stateInstances;
+        }
+
+        private int count(int state,
+                          InstanceStatus status) {
+            int all = instances(state).size();
+            if (status == null) {
+                return all;
+            } else if (status == InstanceStatus.WAITING) {
+                return waiting.get(state);
+            } else if (status == InstanceStatus.RUNNING) {
+                return Math.max(0,
+                                all - waiting.get(state));
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import org.serverless.workflow.impl.instance.InstanceStatus;
+
+/**
+ * A change of an instance observed by the engine: a state was entered, the instance started waiting,
+ * or it finished.
+ */
+public class InstanceTransition {
+
+    private final String instanceId;
+    private final String workflowId;
+    private final String workflowVersion;
+    private final String state;
+    private final InstanceStatus status;
+    private final long timestamp;
+
+    public InstanceTransition(String instanceId,
+                              String workflowId,
+                              String workflowVersion,
+                              String state,
+                              InstanceStatus status,
+                              long timestamp) {
+        this.instanceId = instanceId;
+        this.workflowId = workflowId;
+        this.workflowVersion = workflowVersion;
+        this.state = state;
+        this.status = status;
+        this.timestamp = timestamp;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public String getWorkflowId() {
+        return workflowId;
+    }
+
+    public String getWorkflowVersion() {
+        return workflowVersion;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public InstanceStatus getStatus() {
+        return status;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return whether the instance finished with this transition
+     */
+    public boolean isCompletion() {
+        return status.isTerminal();
+    }
+
+    @Override
+    public String toString() {
+        return instanceId + " " + status + (state == null ? "" : " in " + state);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Holds back work for partitions that are not yet available, for example while they are being recovered.
+ * Tasks submitted to a closed partition are queued and run in submission order when it opens.
+ */
+public class PartitionGate {
+
+    private final Partition[] partitions;
+
+    public PartitionGate(int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Number of partitions must be positive");
+        }
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition();
+        }
+    }
+
+    public void execute(int partition,
+                        Runnable task) {
+        Partition target = partitions[partition];
+        synchronized (target) {
+            if (!target.open) {
+                target.pending.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Opens a partition, running its queued tasks on the calling thread first.
+     */
+    public void open(int partition) {
+        Partition target = partitions[partition];
+        while (true) {
+            List<Runnable> tasks;
+            synchronized (target) {
+                if (target.pending.isEmpty()) {
+                    target.open = true;
+                    break;
+                }
+                tasks = new ArrayList<>(target.pending);
+                target.pending.clear();
+            }
+            tasks.forEach(Runnable::run);
+        }
+        target.opened.complete(null);
+    }
+
+    public boolean isOpen(int partition) {
+        return partitions[partition].opened.isDone();
+    }
+
+    public CompletableFuture<Void> whenOpen(int partition) {
+        return partitions[partition].opened;
+    }
+
+    public CompletableFuture<Void> whenAllOpen() {
+        CompletableFuture<?>[] futures = new CompletableFuture[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            futures[i] = partitions[i].opened;
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    public int getPartitions() {
+        return partitions.length;
+    }
+
+    private static class Partition {
+
+        private final Queue<Runnable> pending = new ArrayDeque<>();
+        private final CompletableFuture<Void> opened = new CompletableFuture<>();
+        private boolean open;
+    }
+}
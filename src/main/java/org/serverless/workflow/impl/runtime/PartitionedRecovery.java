@@ -0,0 +1,333 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.journal.FileJournal;
+import org.serverless.workflow.impl.journal.InstanceSnapshot;
+import org.serverless.workflow.impl.journal.JournalManager;
+import org.serverless.workflow.impl.journal.JournalRecord;
+import org.serverless.workflow.impl.journal.JournalReplayer;
+import org.serverless.workflow.impl.journal.JournalSegment;
+import org.serverless.workflow.impl.journal.SnapshotStore;
+import org.serverless.workflow.impl.journal.TimerStore;
+
+/**
+ * Recovers instances after a restart with one replay per partition, running in parallel. Journal segments are
+ * decoded concurrently and their records split by instance partition; each partition then applies its snapshots
+ * and records in journal order. As soon as a partition is done, its waiting instances are handed to the
+ * partition's {@link Owner}, which registers them in its correlation store and timer wheel, and the partition is
+ * opened in the {@link PartitionGate}, so it accepts events while other partitions are still recovering. With a
+ * {@link TimerStore}, only the timers of its near-future buckets are scheduled; later ones stay on disk until the
+ * store's load horizon reaches them.
+ */
+public class PartitionedRecovery {
+
+    private final JournalManager journalManager;
+    private final PartitionGate partitionGate;
+    private final int parallelism;
+    private final TimerStore timerStore;
+    private final Owner owner;
+
+    public PartitionedRecovery(JournalManager journalManager,
+                               CorrelationStore correlationStore,
+                               TimerWheel timerWheel,
+                               PartitionGate partitionGate) {
+        this(journalManager,
+             correlationStore,
+             timerWheel,
+             partitionGate,
+             Runtime.getRuntime().availableProcessors());
+    }
+
+    public PartitionedRecovery(JournalManager journalManager,
+                               CorrelationStore correlationStore,
+                               TimerWheel timerWheel,
+                               PartitionGate partitionGate,
+                               int parallelism) {
+        this(journalManager,
+             correlationStore,
+             timerWheel,
+             partitionGate,
+             parallelism,
+             null);
+    }
+
+    /**
+     * Recovers all partitions into one correlation store and timer wheel.
+     * @param timerStore store the timers of recovered instances are loaded from, or null to schedule the timers
+     * found in the recovered instance state
+     */
+    public PartitionedRecovery(JournalManager journalManager,
+                               CorrelationStore correlationStore,
+                               TimerWheel timerWheel,
+                               PartitionGate partitionGate,
+                               int parallelism,
+                               TimerStore timerStore) {
+        this(journalManager,
+             partitionGate,
+             parallelism,
+             timerStore,
+             new SharedOwner(correlationStore,
+                             timerWheel,
+                             partitionGate.getPartitions()));
+    }
+
+    /**
+     * @param timerStore store the timers of recovered instances are loaded from, or null to schedule the timers
+     * found in the recovered instance state
+     * @param owner maps instances to partitions and takes over the instances of every recovered partition
+     */
+    public PartitionedRecovery(JournalManager journalManager,
+                               PartitionGate partitionGate,
+                               int parallelism,
+                               TimerStore timerStore,
+                               Owner owner) {
+        this.journalManager = journalManager;
+        this.partitionGate = partitionGate;
+        this.parallelism = Math.max(1,
+                                    parallelism);
+        this.timerStore = timerStore;
+        this.owner = owner;
+    }
+
+    /**
+     * Starts recovery, handing the instances that had not finished to the owner only.
+     * @return number of recovered instances, completed once all partitions are open
+     */
+    public CompletableFuture<Integer> recover() {
+        return recover(null);
+    }
+
+    /**
+     * Starts recovery. The consumer receives every instance that had not finished, on the thread recovering its
+     * partition, before the partition is handed to its owner.
+     * @param instanceConsumer consumer of the recovered instances, or null
+     * @return number of recovered instances, completed once all partitions are open
+     */
+    public CompletableFuture<Integer> recover(Consumer<WorkflowInstance> instanceConsumer) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                                                                runnable -> {
+                                                                    Thread thread = new Thread(runnable,
+                                                                                               "journal-recovery-" + threadCount.incrementAndGet());
+                                                                    thread.setDaemon(true);
+                                                                    return thread;
+                                                                });
+        int partitions = partitionGate.getPartitions();
+        SnapshotStore snapshotStore = journalManager.getSnapshotStore();
+        FileJournal journal = journalManager.getJournal();
+
+        List<List<TimerStore.StoredTimer>> storedTimers = newBuckets(partitions);
+        if (timerStore != null) {
+            for (TimerStore.StoredTimer timer : timerStore.load(System.currentTimeMillis())) {
+                storedTimers.get(owner.partitionOf(timer.getInstanceId())).add(timer);
+            }
+        }
+
+        List<List<String>> snapshotIds = newBuckets(partitions);
+        for (String instanceId : snapshotStore.getInstanceIds()) {
+            snapshotIds.get(owner.partitionOf(instanceId)).add(instanceId);
+        }
+
+        List<CompletableFuture<List<List<JournalRecord>>>> decodedSegments = new ArrayList<>();
+        for (JournalSegment segment : journal.getSegments()) {
+            decodedSegments.add(CompletableFuture.supplyAsync(() -> {
+                                                                  List<List<JournalRecord>> records = newBuckets(partitions);
+                                                                  journal.replay(segment,
+                                                                                 record -> records.get(owner.partitionOf(record.getInstanceId())).add(record));
+                                                                  return records;
+                                                              },
+                                                              executor));
+        }
+
+        List<CompletableFuture<Integer>> recoveredPartitions = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            int partition = i;
+            CompletableFuture<PartitionState> state = CompletableFuture.supplyAsync(() -> loadSnapshots(snapshotStore,
+                                                                                                        snapshotIds.get(partition)),
+                                                                                    executor);
+            for (CompletableFuture<List<List<JournalRecord>>> decodedSegment : decodedSegments) {
+                state = state.thenCombineAsync(decodedSegment,
+                                               (partitionState, records) -> partitionState.apply(records.get(partition)),
+                                               executor);
+            }
+            recoveredPartitions.add(state.thenComposeAsync(partitionState -> open(partition,
+                                                                                   partitionState,
+                                                                                   storedTimers.get(partition),
+                                                                                   instanceConsumer),
+                                                           executor));
+        }
+
+        return CompletableFuture.allOf(recoveredPartitions.toArray(new CompletableFuture[0]))
+                .thenApply(done -> recoveredPartitions.stream().mapToInt(CompletableFuture::join).sum())
+                .whenComplete((count, e) -> executor.shutdown());
+    }
+
+    private PartitionState loadSnapshots(SnapshotStore snapshotStore,
+                                         List<String> instanceIds) {
+        PartitionState state = new PartitionState();
+        for (String instanceId : instanceIds) {
+            InstanceSnapshot snapshot = snapshotStore.read(instanceId);
+            if (snapshot == null) {
+                continue;
+            }
+            state.snapshotSequences.put(instanceId,
+                                        snapshot.getLastSequence());
+            if (!snapshot.isTerminal()) {
+                state.instances.put(instanceId,
+                                    snapshot.getInstance());
+            }
+        }
+        return state;
+    }
+
+    private CompletableFuture<Integer> open(int partition,
+                                            PartitionState state,
+                                            List<TimerStore.StoredTimer> storedTimers,
+                                            Consumer<WorkflowInstance> instanceConsumer) {
+        List<WorkflowInstance> instances = new ArrayList<>();
+        List<TimerStore.StoredTimer> timers = new ArrayList<>();
+        for (WorkflowInstance instance : state.instances.values()) {
+            if (instance.isTerminated()) {
+                continue;
+            }
+            if (timerStore == null) {
+                instance.getTimers().forEach((timerName, deadline) -> timers.add(new TimerStore.StoredTimer(instance.getId(),
+                                                                                                            timerName,
+                                                                                                            deadline)));
+            }
+            if (instanceConsumer != null) {
+                instanceConsumer.accept(instance);
+            }
+            instances.add(instance);
+        }
+        for (TimerStore.StoredTimer timer : storedTimers) {
+            WorkflowInstance instance = state.instances.get(timer.getInstanceId());
+            if (instance != null && !instance.isTerminated() && instance.getTimers().containsKey(timer.getName())) {
+                timers.add(timer);
+            }
+        }
+        return owner.restore(partition,
+                             instances,
+                             timers)
+                .thenApply(restored -> {
+                    partitionGate.open(partition);
+                    return instances.size();
+                });
+    }
+
+    private static <T> List<List<T>> newBuckets(int partitions) {
+        List<List<T>> buckets = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        return buckets;
+    }
+
+    /**
+     * Owns the partitions being recovered.
+     */
+    public interface Owner {
+
+        /**
+         * @return partition of the instance, the same one its events and timers are handled by after recovery
+         */
+        int partitionOf(String instanceId);
+
+        /**
+         * Takes over the recovered instances of a partition before the partition is opened.
+         * @param instances instances that had not finished, in the order they were recovered
+         * @param timers timers of those instances to schedule now
+         * @return completed once the instances are registered for their events and timers
+         */
+        CompletableFuture<?> restore(int partition,
+                                     List<WorkflowInstance> instances,
+                                     List<TimerStore.StoredTimer> timers);
+    }
+
+    /**
+     * Registers the instances of all partitions in one correlation store and timer wheel.
+     */
+    private static class SharedOwner implements Owner {
+
+        private final CorrelationStore correlationStore;
+        private final TimerWheel timerWheel;
+        private final int partitions;
+
+        private SharedOwner(CorrelationStore correlationStore,
+                            TimerWheel timerWheel,
+                            int partitions) {
+            this.correlationStore = correlationStore;
+            this.timerWheel = timerWheel;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public int partitionOf(String instanceId) {
+            return Partitions.ownerOf(instanceId,
+                                      partitions);
+        }
+
+        @Override
+        public CompletableFuture<?> restore(int partition,
+                                            List<WorkflowInstance> instances,
+                                            List<TimerStore.StoredTimer> timers) {
+            for (WorkflowInstance instance : instances) {
+                instance.getAwaitedEvents().forEach((triggerName, correlationToken) -> correlationStore.register(triggerName,
+                                                                                                                 correlationToken,
+                                                                                                                 instance.getId()));
+            }
+            for (TimerStore.StoredTimer timer : timers) {
+                timerWheel.schedule(timer.getInstanceId(),
+                                    timer.getName(),
+                                    timer.getDeadline());
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static class PartitionState {
+
+        private final Map<String, WorkflowInstance> instances = new LinkedHashMap<>();
+        private final Map<String, Long> snapshotSequences = new HashMap<>();
+
+        private PartitionState apply(List<JournalRecord> records) {
+            for (JournalRecord record : records) {
+                Long snapshotSequence = snapshotSequences.get(record.getInstanceId());
+                if (snapshotSequence == null || record.getSequence() > snapshotSequence) {
+                    JournalReplayer.apply(instances,
+                                          record);
+                }
+            }
+            return this;
+        }
+    }
+}
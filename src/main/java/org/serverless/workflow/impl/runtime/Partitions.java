@@ -0,0 +1,48 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+/**
+ * Maps instance ids (or other routing keys) to partitions. Recovery, execution and event admission all use the
+ * same mapping so that a partition's instances are always handled by the same owner.
+ */
+public final class Partitions {
+
+    private Partitions() {
+    }
+
+    public static int partitionOf(String key,
+                                  int partitions) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % partitions;
+    }
+
+    /**
+     * @return partition owning the instance; sub-instances, whose ids extend the id of their top-level instance
+     * after a '/', belong to the partition of their top-level instance
+     */
+    public static int ownerOf(String instanceId,
+                              int partitions) {
+        int separator = instanceId.indexOf('/');
+        return partitionOf(separator < 0 ? instanceId : instanceId.substring(0,
+                                                                             separator),
+                           partitions);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.serverless.workflow.api.events.Event;
+import org.serverless.workflow.api.events.TriggerEvent;
+import org.serverless.workflow.api.interfaces.State;
+import org.serverless.workflow.api.states.DelayState;
+import org.serverless.workflow.api.states.EventState;
+import org.serverless.workflow.api.states.OperationState;
+import org.serverless.workflow.api.states.ParallelState;
+import org.serverless.workflow.api.states.SubflowState;
+import org.serverless.workflow.api.states.SwitchState;
+import org.serverless.workflow.impl.choices.CompiledSwitchState;
+
+/**
+ * A state of a compiled workflow definition, with everything needed to execute it resolved up front.
+ * States of inlined subflows are qualified with the name of the subflow state that inlined them
+ * ({@code subflow-state/child-state}) and continue at their exit state when they end.
+ */
+public class StateNode {
+
+    public enum Kind {
+        OPERATION,
+        SWITCH,
+        DELAY,
+        EVENT,
+        SUBFLOW,
+        PARALLEL,
+        INLINED_SUBFLOW
+    }
+
+    private final String name;
+    private final String scope;
+    private final String exit;
+    private final State state;
+    private Kind kind;
+    private CompiledSwitchState switchState;
+    private SubflowCallSite callSite;
+    private String inlineTarget;
+    private Map<String, Event> eventsByTrigger = Collections.emptyMap();
+    private Map<String, TriggerEvent> triggers = Collections.emptyMap();
+    private List<BranchDefinition> branches = Collections.emptyList();
+    private int id = -1;
+
+    StateNode(String name,
+              String scope,
+              String exit,
+              State state) {
+        this.name = name;
+        this.scope = scope;
+        this.exit = exit;
+        this.state = state;
+        this.kind = kindOf(state);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Dense index of this node within its definition, from 0 to the number of nodes, used to key per-state data
+     * in arrays.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * State to continue at when this state ends, or null if ending it ends the workflow.
+     */
+    public String getExit() {
+        return exit;
+    }
+
+    /**
+     * Qualifies a state name referenced by this state (next state, switch target) with its scope.
+     */
+    public String qualify(String stateName) {
+        return stateName == null ? null : scope + stateName;
+    }
+
+    public String getNextState() {
+        if (state instanceof OperationState) {
+            return qualify(((OperationState) state).getNextState());
+        } else if (state instanceof DelayState) {
+            return qualify(((DelayState) state).getNextState());
+        } else if (state instanceof SubflowState) {
+            return qualify(((SubflowState) state).getNextState());
+        } else if (state instanceof ParallelState) {
+            return qualify(((ParallelState) state).getNextState());
+        }
+        return null;
+    }
+
+    public CompiledSwitchState getSwitchState() {
+        return switchState;
+    }
+
+    public SubflowCallSite getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * Qualified start state of the inlined subflow, for {@link Kind#INLINED_SUBFLOW} nodes.
+     */
+    public String getInlineTarget() {
+        return inlineTarget;
+    }
+
+    /**
+     * The event of this event state that handles the given trigger, or null.
+     */
+    public Event getEvent(String triggerName) {
+        return eventsByTrigger.get(triggerName);
+    }
+
+    /**
+     * Trigger definitions this event state waits for, by name.
+     */
+    public Map<String, TriggerEvent> getTriggers() {
+        return triggers;
+    }
+
+    public List<BranchDefinition> getBranches() {
+        return branches;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    void setSwitchState(CompiledSwitchState switchState) {
+        this.switchState = switchState;
+    }
+
+    void setCallSite(SubflowCallSite callSite) {
+        this.callSite = callSite;
+    }
+
+    void setInlineTarget(String inlineTarget) {
+        this.inlineTarget = inlineTarget;
+        this.kind = Kind.INLINED_SUBFLOW;
+    }
+
+    void addEvent(TriggerEvent trigger,
+                  Event event) {
+        if (eventsByTrigger.isEmpty()) {
+            eventsByTrigger = new LinkedHashMap<>();
+            triggers = new LinkedHashMap<>();
+        }
+        eventsByTrigger.putIfAbsent(trigger.getName(),
+                                    event);
+        triggers.putIfAbsent(trigger.getName(),
+                             trigger);
+    }
+
+    void addBranch(BranchDefinition branch) {
+        if (branches.isEmpty()) {
+            branches = new ArrayList<>();
+        }
+        branches.add(branch);
+    }
+
+    /**
+     * Copies this node into the graph of a workflow that inlines its definition.
+     * @param prefix qualifier of the inlining subflow state
+     * @param parentExit state the inlining workflow continues at once the subflow ends
+     */
+    StateNode inline(String prefix,
+                     String parentExit) {
+        StateNode copy = new StateNode(prefix + name,
+                                       prefix + scope,
+                                       exit == null ? parentExit : prefix + exit,
+                                       state);
+        copy.kind = kind;
+        copy.switchState = switchState;
+        copy.callSite = callSite;
+        copy.inlineTarget = inlineTarget == null ? null : prefix + inlineTarget;
+        copy.eventsByTrigger = eventsByTrigger;
+        copy.triggers = triggers;
+        copy.branches = branches;
+        return copy;
+    }
+
+    private static Kind kindOf(State state) {
+        if (state instanceof OperationState) {
+            return Kind.OPERATION;
+        } else if (state instanceof SwitchState) {
+            return Kind.SWITCH;
+        } else if (state instanceof DelayState) {
+            return Kind.DELAY;
+        } else if (state instanceof EventState) {
+            return Kind.EVENT;
+        } else if (state instanceof SubflowState) {
+            return Kind.SUBFLOW;
+        } else if (state instanceof ParallelState) {
+            return Kind.PARALLEL;
+        }
+        throw new IllegalArgumentException("Unsupported state type: " + state.getClass().getName());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+/**
+ * Subflow reference of a subflow state, caching the definition it resolves to. The cached definition is reused
+ * until definitions are registered or removed from the catalog.
+ */
+public class SubflowCallSite {
+
+    private final String workflowId;
+    private final String workflowVersion;
+    private volatile Resolution resolution;
+
+    public SubflowCallSite(String workflowId,
+                           String workflowVersion) {
+        this.workflowId = workflowId;
+        this.workflowVersion = workflowVersion;
+    }
+
+    public WorkflowDefinition resolve(DefinitionCatalog catalog) {
+        long generation = catalog.getGeneration();
+        Resolution current = resolution;
+        if (current != null && current.catalog == catalog && current.generation == generation) {
+            return current.definition;
+        }
+
+        WorkflowDefinition definition = catalog.resolve(workflowId,
+                                                        workflowVersion);
+        if (definition == null) {
+            throw new IllegalStateException("Subflow workflow " + workflowId + " version " + workflowVersion + " is not registered");
+        }
+        resolution = new Resolution(catalog,
+                                    generation,
+                                    definition);
+        return definition;
+    }
+
+    public String getWorkflowId() {
+        return workflowId;
+    }
+
+    public String getWorkflowVersion() {
+        return workflowVersion;
+    }
+
+    private static class Resolution {
+
+        private final DefinitionCatalog catalog;
+        private final long generation;
+        private final WorkflowDefinition definition;
+
+        private Resolution(DefinitionCatalog catalog,
+                           long generation,
+                           WorkflowDefinition definition) {
+            this.catalog = catalog;
+            this.generation = generation;
+            this.definition = definition;
+        }
+    }
+}
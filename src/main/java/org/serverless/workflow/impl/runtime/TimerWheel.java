@@ -0,0 +1,198 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Hashed timer wheel for delay state timers. Scheduling and cancelling are O(1); {@link #advance(long)} only
+ * visits the buckets of the ticks that elapsed since the previous call.
+ */
+public class TimerWheel {
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final int mask;
+    private final Map<TimerKey, Timer>[] buckets;
+    private final Map<TimerKey, Timer> timers = new HashMap<>();
+    private long currentTick;
+
+    public TimerWheel() {
+        this(DEFAULT_TICK_MILLIS,
+             DEFAULT_WHEEL_SIZE,
+             System.currentTimeMillis());
+    }
+
+    /**
+     * @param tickMillis timer resolution in milliseconds
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param startTime epoch milliseconds of the first tick
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis,
+                      int wheelSize,
+                      long startTime) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+        }
+        int size = Integer.highestOneBit(wheelSize - 1 == 0 ? 1 : (wheelSize - 1) << 1);
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new Map[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new LinkedHashMap<>();
+        }
+        this.currentTick = startTime / tickMillis;
+    }
+
+    /**
+     * Schedules a timer, replacing a timer with the same instance and name. Deadlines in the past fire on the
+     * next call to {@link #advance(long)}.
+     */
+    public synchronized void schedule(String instanceId,
+                                      String timerName,
+                                      long deadline) {
+        TimerKey key = new TimerKey(instanceId,
+                                    timerName);
+        removeTimer(key);
+        Timer timer = new Timer(instanceId,
+                                timerName,
+                                deadline,
+                                Math.max(deadline / tickMillis,
+                                         currentTick));
+        timers.put(key,
+                   timer);
+        buckets[(int) (timer.tick & mask)].put(key,
+                                               timer);
+    }
+
+    public synchronized boolean cancel(String instanceId,
+                                       String timerName) {
+        return removeTimer(new TimerKey(instanceId,
+                                        timerName)) != null;
+    }
+
+    /**
+     * Advances the wheel up to the given time.
+     * @return timers whose deadline has passed, in tick order
+     */
+    public synchronized List<Timer> advance(long now) {
+        List<Timer> expired = new ArrayList<>();
+        long targetTick = now / tickMillis;
+        if (targetTick < currentTick) {
+            return expired;
+        }
+        long lastTick = Math.min(targetTick,
+                                 currentTick + mask);
+        for (long tick = currentTick; tick <= lastTick; tick++) {
+            Iterator<Timer> iterator = buckets[(int) (tick & mask)].values().iterator();
+            while (iterator.hasNext()) {
+                Timer timer = iterator.next();
+                if (timer.tick <= targetTick) {
+                    iterator.remove();
+                    timers.remove(new TimerKey(timer.instanceId,
+                                               timer.name));
+                    expired.add(timer);
+                }
+            }
+        }
+        currentTick = targetTick + 1;
+        return expired;
+    }
+
+    public synchronized int size() {
+        return timers.size();
+    }
+
+    private Timer removeTimer(TimerKey key) {
+        Timer timer = timers.remove(key);
+        if (timer != null) {
+            buckets[(int) (timer.tick & mask)].remove(key);
+        }
+        return timer;
+    }
+
+    public static class Timer {
+
+        private final String instanceId;
+        private final String name;
+        private final long deadline;
+        private final long tick;
+
+        private Timer(String instanceId,
+                      String name,
+                      long deadline,
+                      long tick) {
+            this.instanceId = instanceId;
+            this.name = name;
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private static final class TimerKey {
+
+        private final String instanceId;
+        private final String name;
+
+        private TimerKey(String instanceId,
+                         String name) {
+            this.instanceId = instanceId;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TimerKey)) {
+                return false;
+            }
+            TimerKey that = (TimerKey) o;
+            return instanceId.equals(that.instanceId) && Objects.equals(name,
+                                                                        that.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * instanceId.hashCode() + Objects.hashCode(name);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.serverless.workflow.api.Workflow;
+
+/**
+ * Executable form of a workflow: its states compiled into {@link StateNode}s, keyed by qualified state name.
+ */
+public class WorkflowDefinition {
+
+    private final String id;
+    private final String version;
+    private final String startsAt;
+    private final Workflow workflow;
+    private final Map<String, StateNode> nodes;
+    private final int stateCount;
+
+    public WorkflowDefinition(String id,
+                              String version,
+                              String startsAt,
+                              Workflow workflow,
+                              Map<String, StateNode> nodes,
+                              int stateCount) {
+        this.id = id;
+        this.version = version;
+        this.startsAt = startsAt;
+        this.workflow = workflow;
+        this.nodes = Collections.unmodifiableMap(nodes);
+        int nodeId = 0;
+        for (StateNode node : nodes.values()) {
+            node.setId(nodeId++);
+        }
+        this.stateCount = stateCount;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getStartsAt() {
+        return startsAt;
+    }
+
+    public Workflow getWorkflow() {
+        return workflow;
+    }
+
+    public StateNode getNode(String stateName) {
+        return nodes.get(stateName);
+    }
+
+    public Map<String, StateNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Number of states declared by the workflow itself, not counting inlined subflow states.
+     */
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowDefinition{" + id + ":" + version + "}";
+    }
+}
@@ -0,0 +1,1859 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.runtime;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.serverless.workflow.api.actions.Action;
+import org.serverless.workflow.api.actions.Retry;
+import org.serverless.workflow.api.events.Event;
+import org.serverless.workflow.api.events.TriggerEvent;
+import org.serverless.workflow.api.states.DelayState;
+import org.serverless.workflow.api.states.OperationState;
+import org.serverless.workflow.api.states.SubflowState;
+import org.serverless.workflow.impl.admission.AdmissionController;
+import org.serverless.workflow.impl.admission.AdmissionRejectedException;
+import org.serverless.workflow.impl.admission.InstanceQuotas;
+import org.serverless.workflow.impl.admission.QuotaLimiter;
+import org.serverless.workflow.impl.data.PersistentJson;
+import org.serverless.workflow.impl.data.PersistentObjectNode;
+import org.serverless.workflow.impl.events.BatchEventProcessor;
+import org.serverless.workflow.impl.events.RingBuffer;
+import org.serverless.workflow.impl.functions.FunctionDispatcher;
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.journal.InstanceSnapshotSource;
+import org.serverless.workflow.impl.journal.JournalManager;
+import org.serverless.workflow.impl.journal.JournalRecord;
+import org.serverless.workflow.impl.journal.TimerStore;
+import org.serverless.workflow.impl.store.InstanceStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes workflow instances against the definitions of a {@link DefinitionCatalog}. Instances are spread over a
+ * fixed number of partitions by instance id, each partition owning its instances, correlation index and timers
+ * and changing them from its single thread only, so instance state is never locked. Function calls run on their
+ * bulkheads and resume the instance on its partition when they complete. Subflows and parallel branches run as
+ * child executions in the partition of their parent. Instance data is kept as persistent JSON, so children start
+ * from the data of their parent without copying it and only the fields they changed are merged back.
+ * <p>
+ * Signalled events are published to a lock-free ring buffer; a single processor drains them in batches and
+ * hands each batch to every partition as one task, in publication order, so each partition sees the events for
+ * its instances in the order they were signalled. Starts and signals pass the {@link AdmissionController} first,
+ * which rejects them early when the engine is over its queue depth, in-flight or latency limits.
+ * <p>
+ * With hibernation enabled, top-level instances that have waited for an event or a timer longer than the idle
+ * time are written to an {@link InstanceStore} and dropped from the heap. Their execution stays behind as a stub,
+ * still registered in the correlation store, timer wheel and instance index, and the instance is read back when
+ * its event or timer arrives or it is cancelled.
+ * <p>
+ * After a restart, {@link #recover()} resumes the instances that had not finished from the journal, holding
+ * back events for each partition until its instances are back.
+ */
+public class WorkflowEngine {
+
+    public static final int DEFAULT_PARTITIONS = Runtime.getRuntime().availableProcessors();
+    public static final int BULK_CHUNK_SIZE = 256;
+    public static final int MAX_QUEUED_BULK_CHUNKS_PER_PARTITION = 4;
+    public static final long HIBERNATION_RETRY_MILLIS = 1000;
+    public static final long MAX_HIBERNATION_RETRY_MILLIS = 60000;
+
+    private final DefinitionCatalog catalog;
+    private final FunctionDispatcher functionDispatcher;
+    private final Partition[] partitions;
+    private final ScheduledExecutorService scheduler;
+    private final BatchEventProcessor<EventMessage> eventProcessor;
+    private final List<TransitionListener> transitionListeners = new CopyOnWriteArrayList<>();
+    private final AdmissionController admissionController = new AdmissionController();
+    private final AtomicInteger inFlightInstances = new AtomicInteger();
+    private final InstanceQuotas instanceQuotas = new InstanceQuotas();
+    private final AtomicInteger hibernatedInstances = new AtomicInteger();
+    private volatile JournalManager journalManager;
+    private volatile PartitionGate partitionGate;
+    private volatile TimerStore timerStore;
+    private volatile InstanceStore hibernationStore;
+    private volatile long hibernationIdleMillis;
+
+    private static Logger logger = LoggerFactory.getLogger(WorkflowEngine.class);
+
+    public WorkflowEngine(DefinitionCatalog catalog) {
+        this(catalog,
+             new FunctionDispatcher());
+    }
+
+    public WorkflowEngine(DefinitionCatalog catalog,
+                          FunctionDispatcher functionDispatcher) {
+        this(catalog,
+             functionDispatcher,
+             new RingBuffer<>());
+    }
+
+    /**
+     * @param eventBuffer buffer signalled events are published to, its capacity and wait strategies
+     * determine how producers are held back when events arrive faster than they are delivered
+     */
+    public WorkflowEngine(DefinitionCatalog catalog,
+                          FunctionDispatcher functionDispatcher,
+                          RingBuffer<EventMessage> eventBuffer) {
+        this(catalog,
+             functionDispatcher,
+             eventBuffer,
+             DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * @param partitions number of partitions, each executing its instances on a thread of its own
+     */
+    public WorkflowEngine(DefinitionCatalog catalog,
+                          FunctionDispatcher functionDispatcher,
+                          RingBuffer<EventMessage> eventBuffer,
+                          int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Invalid number of partitions: " + partitions);
+        }
+        this.catalog = catalog;
+        this.functionDispatcher = functionDispatcher;
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition(i);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("workflow-timers"));
+        this.scheduler.scheduleAtFixedRate(this::advanceTimers,
+                                           TimerWheel.DEFAULT_TICK_MILLIS,
+                                           TimerWheel.DEFAULT_TICK_MILLIS,
+                                           TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleAtFixedRate(admissionController::refreshLatency,
+                                           TimerWheel.DEFAULT_TICK_MILLIS,
+                                           TimerWheel.DEFAULT_TICK_MILLIS,
+                                           TimeUnit.MILLISECONDS);
+        this.eventProcessor = new BatchEventProcessor<>("workflow-events",
+                                                        eventBuffer,
+                                                        BatchEventProcessor.DEFAULT_MAX_BATCH_SIZE,
+                                                        this::deliverBatch);
+    }
+
+    /**
+     * Journals instance changes and snapshots instances through the given journal manager.
+     */
+    public void setJournalManager(JournalManager journalManager) {
+        this.journalManager = journalManager;
+        journalManager.setSnapshotSource(new InstanceSnapshotSource() {
+            @Override
+            public byte[] snapshot(String instanceId) {
+                Execution execution = partitionOf(instanceId).executions.get(instanceId);
+                if (execution == null) {
+                    return null;
+                }
+                WorkflowInstance instance = execution.instance;
+                if (instance == null) {
+                    instance = hibernationStore.read(instanceId);
+                    if (instance == null) {
+                        // woken in the meantime
+                        instance = execution.instance;
+                    }
+                }
+                return instance == null ? null : InstanceCodec.encode(instance);
+            }
+
+            @Override
+            public <T> CompletableFuture<T> onOwner(String instanceId,
+                                                    Supplier<T> task) {
+                return CompletableFuture.supplyAsync(task,
+                                                     partitionOf(instanceId).executor);
+            }
+        });
+    }
+
+    /**
+     * Persists delay timers in the given store. Timers due within the store's load horizon are also kept in the
+     * partitions' timer wheels; later ones stay on disk and are paged into the wheels as their time approaches.
+     * The store is synced on every timer tick.
+     * <p>
+     * Only the timers of delay states survive a restart. Action timeouts are scheduled in memory and not stored:
+     * they bound a single function call, and a recovered instance runs its action again under a fresh timeout.
+     * Event state timeouts ({@code timeout} of an event) are not implemented, so an event state waits until its
+     * event arrives or the instance is cancelled.
+     */
+    public void setTimerStore(TimerStore timerStore) {
+        this.timerStore = timerStore;
+    }
+
+    /**
+     * Hibernates top-level instances that have been waiting for an event or timer for the given time, checked on
+     * every timer tick. The store keeps hibernated instances until they wake, so it must stay open as long as the
+     * engine runs, and should not be put behind a {@link org.serverless.workflow.impl.store.ReadThroughCache},
+     * which would keep them on the heap. When writing to the store fails, a partition retries after
+     * {@value #HIBERNATION_RETRY_MILLIS} ms, doubling the wait on every further failure up to
+     * {@value #MAX_HIBERNATION_RETRY_MILLIS} ms.
+     * @param idleMillis time an instance waits before it is hibernated
+     */
+    public void setHibernation(InstanceStore store,
+                               long idleMillis) {
+        if (store == null || idleMillis < 0) {
+            throw new IllegalArgumentException("Invalid hibernation store " + store + " or idle time " + idleMillis);
+        }
+        this.hibernationIdleMillis = idleMillis;
+        this.hibernationStore = store;
+    }
+
+    /**
+     * Resumes the instances that had not finished when the engine stopped, replaying the journal of the journal
+     * manager one partition at a time in parallel. Each partition takes its instances back on its own thread:
+     * waiting instances are registered for their events and timers again, running instances continue from the
+     * state they were in, running its actions again. Events signalled for a partition that is still recovering
+     * are held back until it is done. Set the timer store and hibernation before recovering.
+     * @return completed with the number of resumed instances, including subflow instances, once all partitions
+     * are recovered
+     * @throws IllegalStateException if there is no journal manager or a recovery was already started
+     */
+    public CompletableFuture<Integer> recover() {
+        JournalManager manager = journalManager;
+        if (manager == null) {
+            throw new IllegalStateException("Recovery requires a journal manager");
+        }
+        PartitionGate gate;
+        synchronized (this) {
+            if (partitionGate != null) {
+                throw new IllegalStateException("Recovery was already started");
+            }
+            gate = new PartitionGate(partitions.length);
+            partitionGate = gate;
+        }
+        return new PartitionedRecovery(manager,
+                                       gate,
+                                       partitions.length,
+                                       timerStore,
+                                       new PartitionedRecovery.Owner() {
+                                           @Override
+                                           public int partitionOf(String instanceId) {
+                                               return getPartition(instanceId);
+                                           }
+
+                                           @Override
+                                           public CompletableFuture<?> restore(int partition,
+                                                                               List<WorkflowInstance> instances,
+                                                                               List<TimerStore.StoredTimer> timers) {
+                                               Partition target = partitions[partition];
+                                               return CompletableFuture.runAsync(() -> batched(target,
+                                                                                               () -> resume(target,
+                                                                                                            instances,
+                                                                                                            timers)),
+                                                                                 target.executor);
+                                           }
+                                       }).recover();
+    }
+
+    /**
+     * Starts an instance of a registered workflow.
+     * @param workflowVersion version to start, or null for the latest version
+     * @return completed with the finished instance, or exceptionally with a {@link WorkflowExecutionException},
+     * or an {@link AdmissionRejectedException} if the engine is over its admission limits or the workflow over
+     * its instance quota
+     */
+    public CompletableFuture<WorkflowInstance> start(String workflowId,
+                                                     String workflowVersion,
+                                                     JsonNode input) {
+        try {
+            return launch(workflowId,
+                          workflowVersion,
+                          input).completion;
+        } catch (IllegalArgumentException | RejectedExecutionException e) {
+            CompletableFuture<WorkflowInstance> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Starts an instance of a registered workflow without tying a thread to it: the returned handle answers
+     * status queries without blocking, completes when the instance finishes and can cancel it.
+     * @param workflowVersion version to start, or null for the latest version
+     * @throws IllegalArgumentException if the workflow is not registered
+     * @throws AdmissionRejectedException if the engine is over its admission limits or the workflow over its
+     * instance quota
+     */
+    public InstanceHandle submit(String workflowId,
+                                 String workflowVersion,
+                                 JsonNode input) {
+        return launch(workflowId,
+                      workflowVersion,
+                      input).handle;
+    }
+
+    /**
+     * Starts one instance of a registered workflow for every input. The definition is resolved once, instances
+     * are handed to their partitions in chunks that each run as one task and journal with one append. Reading
+     * the inputs is paced by the partitions: the calling thread waits while too many chunks are queued, and
+     * by the workflow's instance quota: it waits for a permit rather than rejecting instances over the quota.
+     * @param workflowVersion version to start, or null for the latest version
+     * @param listener notified on the partition thread of every instance as it completes or fails, may be null
+     * @throws IllegalArgumentException if the workflow is not registered
+     * @throws AdmissionRejectedException if the engine is over its admission limits when the bulk start begins
+     */
+    public BulkStart startAll(String workflowId,
+                              String workflowVersion,
+                              Stream<? extends JsonNode> inputs,
+                              BiConsumer<WorkflowInstance, Throwable> listener) {
+        WorkflowDefinition definition = catalog.resolve(workflowId,
+                                                        workflowVersion);
+        if (definition == null) {
+            throw new IllegalArgumentException("Workflow " + workflowId + " version " + workflowVersion + " is not registered");
+        }
+        admissionController.admit(workflowId,
+                                  getEventBuffer().getBacklog(),
+                                  inFlightInstances.get());
+
+        BulkStart bulkStart = new BulkStart(definition,
+                                            listener);
+        Semaphore queuedChunks = new Semaphore(MAX_QUEUED_BULK_CHUNKS_PER_PARTITION * partitions.length);
+        List<List<Execution>> chunks = new ArrayList<>(partitions.length);
+        List<List<JsonNode>> chunkInputs = new ArrayList<>(partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            chunks.add(new ArrayList<>(BULK_CHUNK_SIZE));
+            chunkInputs.add(new ArrayList<>(BULK_CHUNK_SIZE));
+        }
+        try {
+            Iterator<? extends JsonNode> iterator = inputs.iterator();
+            QuotaLimiter quotaLimiter = quotaLimiterOf(definition);
+            while (iterator.hasNext()) {
+                // read first, an execution only exists once its input does
+                JsonNode input = iterator.next();
+                if (quotaLimiter.tryAcquire() != null) {
+                    awaitQuota(quotaLimiter,
+                               chunks,
+                               chunkInputs,
+                               queuedChunks);
+                }
+                Execution execution = newExecution(definition,
+                                                   quotaLimiter);
+                bulkStart.instanceStarted();
+                execution.completion.whenComplete((instance, error) -> bulkStart.instanceFinished(error == null ? instance : execution.instance,
+                                                                                                  error));
+                int partition = execution.partition.index;
+                chunks.get(partition).add(execution);
+                chunkInputs.get(partition).add(input);
+                if (chunks.get(partition).size() == BULK_CHUNK_SIZE) {
+                    submitChunk(partitions[partition],
+                                chunks.set(partition,
+                                           new ArrayList<>(BULK_CHUNK_SIZE)),
+                                chunkInputs.set(partition,
+                                                new ArrayList<>(BULK_CHUNK_SIZE)),
+                                queuedChunks);
+                }
+            }
+            for (int partition = 0; partition < partitions.length; partition++) {
+                if (!chunks.get(partition).isEmpty()) {
+                    submitChunk(partitions[partition],
+                                chunks.set(partition,
+                                           new ArrayList<>(0)),
+                                chunkInputs.set(partition,
+                                                new ArrayList<>(0)),
+                                queuedChunks);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            RejectedExecutionException rejection = new RejectedExecutionException("Interrupted after starting " + bulkStart.getStarted() + " instances of " + workflowId);
+            chunks.forEach(chunk -> abandon(chunk,
+                                            rejection));
+            throw rejection;
+        } catch (RuntimeException e) {
+            chunks.forEach(chunk -> abandon(chunk,
+                                            e));
+            throw e;
+        } finally {
+            bulkStart.inputsRead();
+        }
+        return bulkStart;
+    }
+
+    public BulkStart startAll(String workflowId,
+                              String workflowVersion,
+                              Collection<? extends JsonNode> inputs,
+                              BiConsumer<WorkflowInstance, Throwable> listener) {
+        return startAll(workflowId,
+                        workflowVersion,
+                        inputs.stream(),
+                        listener);
+    }
+
+    /**
+     * Delivers an event to the instances waiting for its trigger and correlation value, waiting for
+     * room in the event buffer if it is full.
+     * @throws AdmissionRejectedException if the engine is over its admission limits
+     * @throws RejectedExecutionException if the calling thread is interrupted while waiting
+     */
+    public void signal(EventMessage message) {
+        admissionController.admit(message.getTriggerName(),
+                                  getEventBuffer().getBacklog(),
+                                  inFlightInstances.get());
+        try {
+            eventProcessor.getRingBuffer().publish(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while signalling " + message.getTriggerName());
+        }
+    }
+
+    /**
+     * Delivers an event like {@link #signal(EventMessage)} if it is admitted and the event buffer has room for it.
+     * @return false if the event was not accepted
+     */
+    public boolean trySignal(EventMessage message) {
+        return admissionController.check(message.getTriggerName(),
+                                         getEventBuffer().getBacklog(),
+                                         inFlightInstances.get()) == null && getEventBuffer().tryPublish(message);
+    }
+
+    /**
+     * @return handle to a running top-level instance, or null if it is unknown or has finished
+     */
+    public InstanceHandle getInstanceHandle(String instanceId) {
+        Execution execution = partitionOf(instanceId).executions.get(instanceId);
+        return execution == null ? null : execution.handle;
+    }
+
+    /**
+     * Cancels a running top-level instance together with its running subflows and parallel branches. Its
+     * completion fails with a {@link WorkflowExecutionException} caused by a {@link CancellationException}.
+     * @return completed on the instance's partition thread with true once the instance is cancelled, false if
+     * it is unknown or has already finished
+     */
+    public CompletableFuture<Boolean> cancel(String instanceId) {
+        Partition partition = partitionOf(instanceId);
+        CompletableFuture<Boolean> cancelled = new CompletableFuture<>();
+        execute(partition,
+                () -> batched(partition,
+                              () -> {
+                                  Execution execution = partition.executions.get(instanceId);
+                                  if (execution == null || execution.parent != null) {
+                                      cancelled.complete(false);
+                                      return;
+                                  }
+                                  cancelExecution(execution,
+                                                  new CancellationException("Cancelled on request"));
+                                  cancelled.complete(true);
+                              }));
+        return cancelled;
+    }
+
+    public RingBuffer<EventMessage> getEventBuffer() {
+        return eventProcessor.getRingBuffer();
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * @return number of top-level instances started and not finished yet
+     */
+    public int getInFlightInstances() {
+        return inFlightInstances.get();
+    }
+
+    /**
+     * @return per-definition limits on the rate at which instances start and on how many run at the same time
+     */
+    public InstanceQuotas getInstanceQuotas() {
+        return instanceQuotas;
+    }
+
+    /**
+     * @return number of instances currently held in the hibernation store rather than on the heap
+     */
+    public int getHibernatedInstances() {
+        return hibernatedInstances.get();
+    }
+
+    public void addTransitionListener(TransitionListener listener) {
+        transitionListeners.add(listener);
+    }
+
+    public void removeTransitionListener(TransitionListener listener) {
+        transitionListeners.remove(listener);
+    }
+
+    public DefinitionCatalog getCatalog() {
+        return catalog;
+    }
+
+    public int getPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * @return partition owning the instance; sub-instances belong to the partition of their top-level instance
+     */
+    public int getPartition(String instanceId) {
+        return partitionOf(instanceId).index;
+    }
+
+    public CorrelationStore getCorrelationStore(int partition) {
+        return partitions[partition].correlationStore;
+    }
+
+    public InstanceIndex getInstanceIndex(int partition) {
+        return partitions[partition].instanceIndex;
+    }
+
+    /**
+     * Counts live instances, including subflow instances, from the instance indexes without visiting them.
+     * @param workflowVersion version to count, or null for all versions
+     * @param stateName state the instances are in, or null for any state
+     * @param status {@link InstanceStatus#RUNNING} or {@link InstanceStatus#WAITING} to count only those, or null
+     */
+    public int countInstances(String workflowId,
+                              String workflowVersion,
+                              String stateName,
+                              InstanceStatus status) {
+        int count = 0;
+        for (Partition partition : partitions) {
+            count += partition.instanceIndex.count(workflowId,
+                                                   workflowVersion,
+                                                   stateName,
+                                                   status);
+        }
+        return count;
+    }
+
+    /**
+     * @param workflowVersion version to find, or null for all versions
+     * @param stateName state the instances are in, or null for any state
+     * @return ids of the live instances found in the instance indexes
+     */
+    public List<String> findInstances(String workflowId,
+                                      String workflowVersion,
+                                      String stateName) {
+        List<String> instanceIds = new ArrayList<>();
+        for (Partition partition : partitions) {
+            partition.instanceIndex.find(workflowId,
+                                         workflowVersion,
+                                         stateName,
+                                         instanceIds::add);
+        }
+        return instanceIds;
+    }
+
+    /**
+     * @return ids of the instances waiting for an event with the given correlation token, for any trigger
+     */
+    public Set<String> findInstancesByCorrelation(String correlationToken) {
+        Set<String> instanceIds = new HashSet<>();
+        for (Partition partition : partitions) {
+            instanceIds.addAll(partition.correlationStore.lookup(correlationToken));
+        }
+        return instanceIds;
+    }
+
+    public TimerWheel getTimerWheel(int partition) {
+        return partitions[partition].timerWheel;
+    }
+
+    public FunctionDispatcher getFunctionDispatcher() {
+        return functionDispatcher;
+    }
+
+    public void shutdown() {
+        try {
+            eventProcessor.stop(5,
+                                TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+        for (Partition partition : partitions) {
+            partition.executor.shutdown();
+        }
+    }
+
+    private Execution launch(String workflowId,
+                             String workflowVersion,
+                             JsonNode input) {
+        WorkflowDefinition definition = catalog.resolve(workflowId,
+                                                        workflowVersion);
+        if (definition == null) {
+            throw new IllegalArgumentException("Workflow " + workflowId + " version " + workflowVersion + " is not registered");
+        }
+        admissionController.admit(workflowId,
+                                  getEventBuffer().getBacklog(),
+                                  inFlightInstances.get());
+        QuotaLimiter quotaLimiter = quotaLimiterOf(definition);
+        AdmissionRejectedException.Reason overQuota = quotaLimiter.tryAcquire();
+        if (overQuota != null) {
+            throw quotaLimiter.rejection(overQuota,
+                                         admissionController.getPriority(workflowId));
+        }
+
+        Execution execution = newExecution(definition,
+                                           quotaLimiter);
+        execution.partition.executor.execute(() -> begin(execution,
+                                                         input));
+        return execution;
+    }
+
+    private Execution newExecution(WorkflowDefinition definition,
+                                   QuotaLimiter quotaLimiter) {
+        inFlightInstances.incrementAndGet();
+        String instanceId = UUID.randomUUID().toString();
+        Execution execution = new Execution(new WorkflowInstance(instanceId,
+                                                                 definition.getId(),
+                                                                 definition.getVersion()),
+                                            definition,
+                                            partitionOf(instanceId),
+                                            null,
+                                            null);
+        execution.quotaLimiter = quotaLimiter;
+        execution.handle = new InstanceHandle(this,
+                                              execution.instance,
+                                              execution.completion);
+        return execution;
+    }
+
+    private QuotaLimiter quotaLimiterOf(WorkflowDefinition definition) {
+        return instanceQuotas.limiterFor(definition.getId(),
+                                         definition.getVersion(),
+                                         definition.getWorkflow() == null ? null : definition.getWorkflow().getMetadata());
+    }
+
+    /**
+     * Waits for an instance quota permit during a bulk start, first handing the instances gathered so far
+     * to their partitions as those may be the ones whose completion frees a permit.
+     */
+    private void awaitQuota(QuotaLimiter quotaLimiter,
+                            List<List<Execution>> chunks,
+                            List<List<JsonNode>> chunkInputs,
+                            Semaphore queuedChunks) throws InterruptedException {
+        for (int partition = 0; partition < partitions.length; partition++) {
+            if (!chunks.get(partition).isEmpty()) {
+                submitChunk(partitions[partition],
+                            chunks.set(partition,
+                                       new ArrayList<>(BULK_CHUNK_SIZE)),
+                            chunkInputs.set(partition,
+                                            new ArrayList<>(BULK_CHUNK_SIZE)),
+                            queuedChunks);
+            }
+        }
+        do {
+            LockSupport.parkNanos(Math.max(TimeUnit.MICROSECONDS.toNanos(100),
+                                           quotaLimiter.nanosUntilPermit()));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        } while (quotaLimiter.tryAcquire() != null);
+    }
+
+    private void submitChunk(Partition partition,
+                             List<Execution> executions,
+                             List<JsonNode> inputs,
+                             Semaphore queuedChunks) throws InterruptedException {
+        try {
+            queuedChunks.acquire();
+        } catch (InterruptedException e) {
+            abandon(executions,
+                    e);
+            throw e;
+        }
+        try {
+            partition.executor.execute(() -> {
+                queuedChunks.release();
+                batched(partition,
+                        () -> {
+                            for (int i = 0; i < executions.size(); i++) {
+                                begin(executions.get(i),
+                                      inputs.get(i));
+                            }
+                        });
+            });
+        } catch (RejectedExecutionException e) {
+            queuedChunks.release();
+            abandon(executions,
+                    e);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives up bulk started executions that were never handed to their partition, releasing their in-flight
+     * count and quota permit and failing their completion, so the bulk start still completes.
+     */
+    private void abandon(List<Execution> executions,
+                         Throwable cause) {
+        for (Execution execution : executions) {
+            inFlightInstances.decrementAndGet();
+            execution.quotaLimiter.release();
+            execution.instance.setStatus(InstanceStatus.CANCELLED);
+            execution.completion.completeExceptionally(new WorkflowExecutionException(execution.instance,
+                                                                                      "Workflow instance " + execution.instanceId + " was not started: " + cause.getMessage(),
+                                                                                      cause));
+        }
+        executions.clear();
+    }
+
+    private void begin(Execution execution,
+                       JsonNode input) {
+        WorkflowInstance instance = execution.instance;
+        instance.setData(input == null ? PersistentObjectNode.empty() : PersistentJson.persistent(input));
+        execution.input = instance.getData();
+        execution.partition.executions.put(instance.getId(),
+                                           execution);
+        journal(execution,
+                JournalRecord.instanceStarted(instance.getId(),
+                                              instance.getWorkflowId(),
+                                              instance.getWorkflowVersion(),
+                                              InstanceCodec.encodeData(instance.getData())));
+        enter(execution,
+              execution.definition.getStartsAt());
+        run(execution);
+    }
+
+    private void run(Execution execution) {
+        WorkflowInstance instance = execution.instance;
+        try {
+            while (instance.getStatus() == InstanceStatus.RUNNING) {
+                StateNode node = execution.definition.getNode(instance.getCurrentState());
+                if (node == null) {
+                    fail(execution,
+                         new IllegalStateException("Unknown state " + instance.getCurrentState()));
+                    return;
+                }
+                switch (node.getKind()) {
+                    case INLINED_SUBFLOW:
+                        enter(execution,
+                              node.getInlineTarget());
+                        break;
+                    case SWITCH:
+                        String target = node.getSwitchState().evaluate(instance.getData());
+                        if (target == null) {
+                            fail(execution,
+                                 new IllegalStateException("No choice of switch state " + node.getName() + " matched"));
+                            return;
+                        }
+                        enter(execution,
+                              node.qualify(target));
+                        break;
+                    case OPERATION:
+                        OperationState operationState = (OperationState) node.getState();
+                        if (operationState.getActions() == null || operationState.getActions().isEmpty()) {
+                            leave(execution,
+                                  node,
+                                  node.getNextState());
+                            break;
+                        }
+                        runActions(execution,
+                                   node,
+                                   operationState.getActions(),
+                                   isParallel(operationState.getActionMode()),
+                                   node.getNextState());
+                        return;
+                    case DELAY:
+                        delay(execution,
+                              node);
+                        return;
+                    case EVENT:
+                        await(execution,
+                              node);
+                        return;
+                    case SUBFLOW:
+                        if (!callSubflow(execution,
+                                         node)) {
+                            return;
+                        }
+                        break;
+                    case PARALLEL:
+                        if (!forkBranches(execution,
+                                          node)) {
+                            return;
+                        }
+                        break;
+                    default:
+                        fail(execution,
+                             new IllegalStateException("Unsupported state " + node.getName()));
+                        return;
+                }
+            }
+        } catch (RuntimeException e) {
+            fail(execution,
+                 e);
+        }
+    }
+
+    private void enter(Execution execution,
+                       String stateName) {
+        execution.instance.setCurrentState(stateName);
+        journal(execution,
+                JournalRecord.stateEntered(execution.instance.getId(),
+                                           stateName,
+                                           null));
+        transitioned(execution);
+    }
+
+    private void waiting(Execution execution) {
+        execution.instance.setStatus(InstanceStatus.WAITING);
+        idle(execution);
+        transitioned(execution);
+    }
+
+    /**
+     * Queues a top-level execution that started waiting to be hibernated once it has been idle long enough.
+     */
+    private void idle(Execution execution) {
+        if (hibernationStore == null || execution.parent != null) {
+            return;
+        }
+        execution.idleSince = System.currentTimeMillis();
+        execution.partition.idle.add(new IdleExecution(execution,
+                                                       execution.idleSince));
+    }
+
+    /**
+     * Hibernates the executions of a partition that have been waiting since before the idle time, writing their
+     * instances to the hibernation store as one batch. Executions that resumed, or started waiting again since
+     * they were queued, are skipped; the latter have been queued again. After a failed write the partition backs
+     * off before trying again, and only starting and ending to fail are logged.
+     */
+    private void hibernate(Partition partition,
+                           long now) {
+        InstanceStore store = hibernationStore;
+        if (store == null || now < partition.hibernationRetryAt) {
+            return;
+        }
+        long idleBefore = now - hibernationIdleMillis;
+        List<IdleExecution> polled = new ArrayList<>();
+        List<Execution> executions = new ArrayList<>();
+        List<WorkflowInstance> instances = new ArrayList<>();
+        while (!partition.idle.isEmpty() && partition.idle.peek().since <= idleBefore) {
+            IdleExecution idle = partition.idle.poll();
+            Execution execution = idle.execution;
+            WorkflowInstance instance = execution.instance;
+            if (instance != null && execution.idleSince == idle.since && execution.pendingChildren == 0 &&
+                    instance.getStatus() == InstanceStatus.WAITING) {
+                polled.add(idle);
+                executions.add(execution);
+                instances.add(instance);
+            }
+        }
+        if (instances.isEmpty()) {
+            return;
+        }
+        try {
+            store.write(instances);
+        } catch (RuntimeException e) {
+            boolean failing = partition.hibernationRetryMillis > 0;
+            partition.hibernationRetryMillis = failing ? Math.min(partition.hibernationRetryMillis * 2,
+                                                                  MAX_HIBERNATION_RETRY_MILLIS) : HIBERNATION_RETRY_MILLIS;
+            partition.hibernationRetryAt = now + partition.hibernationRetryMillis;
+            if (!failing) {
+                logger.error("Unable to hibernate " + instances.size() + " instances of partition " + partition.index + ", backing off: " + e.getMessage());
+            }
+            // the instances stay on the heap, drop whatever part of the batch was written
+            try {
+                List<String> instanceIds = new ArrayList<>(executions.size());
+                executions.forEach(execution -> instanceIds.add(execution.instanceId));
+                store.delete(instanceIds);
+            } catch (RuntimeException deleteError) {
+                if (!failing) {
+                    logger.error("Unable to remove partly hibernated instances of partition " + partition.index + ": " + deleteError.getMessage());
+                }
+            }
+            // queued again in their order, so the retry takes them first
+            for (int i = polled.size() - 1; i >= 0; i--) {
+                partition.idle.addFirst(polled.get(i));
+            }
+            return;
+        }
+        if (partition.hibernationRetryMillis > 0) {
+            logger.info("Hibernating instances of partition " + partition.index + " again");
+            partition.hibernationRetryMillis = 0;
+            partition.hibernationRetryAt = 0;
+        }
+        for (Execution execution : executions) {
+            execution.instance = null;
+            execution.input = null;
+        }
+        hibernatedInstances.addAndGet(executions.size());
+    }
+
+    /**
+     * @return instance of the execution, read back from the hibernation store if it was hibernated
+     */
+    private WorkflowInstance wake(Execution execution) {
+        WorkflowInstance instance = execution.instance;
+        if (instance != null) {
+            return instance;
+        }
+        InstanceStore store = hibernationStore;
+        instance = store.read(execution.instanceId);
+        if (instance == null) {
+            throw new IllegalStateException("Hibernated instance " + execution.instanceId + " is missing from the " + store.getType() + " store");
+        }
+        instance.setData(PersistentJson.persistent(instance.getData()));
+        execution.instance = instance;
+        store.delete(execution.instanceId);
+        hibernatedInstances.decrementAndGet();
+        // queued again in case it keeps waiting after all
+        idle(execution);
+        return instance;
+    }
+
+    /**
+     * Takes back the recovered instances of a partition. Executions are rebuilt parents first, so subflow and
+     * branch instances find the execution they belong to; an instance whose parent has finished goes on as a
+     * top-level instance.
+     */
+    private void resume(Partition partition,
+                        List<WorkflowInstance> instances,
+                        List<TimerStore.StoredTimer> timers) {
+        List<WorkflowInstance> ordered = new ArrayList<>(instances);
+        ordered.sort(Comparator.comparingInt(instance -> instance.getId().length()));
+        List<Execution> executions = new ArrayList<>(ordered.size());
+        for (WorkflowInstance instance : ordered) {
+            Execution execution = restore(partition,
+                                          instance);
+            if (execution != null) {
+                executions.add(execution);
+            }
+        }
+        for (TimerStore.StoredTimer timer : timers) {
+            if (partition.executions.containsKey(timer.getInstanceId())) {
+                partition.timerWheel.schedule(timer.getInstanceId(),
+                                              timer.getName(),
+                                              timer.getDeadline());
+            }
+        }
+        for (Execution execution : executions) {
+            try {
+                proceed(execution);
+            } catch (RuntimeException e) {
+                fail(execution,
+                     e);
+            }
+        }
+    }
+
+    private Execution restore(Partition partition,
+                              WorkflowInstance instance) {
+        Execution parent = null;
+        String parentId = instance.getId();
+        for (int separator = parentId.lastIndexOf('/'); separator > 0 && parent == null; separator = parentId.lastIndexOf('/')) {
+            parentId = parentId.substring(0,
+                                          separator);
+            parent = partition.executions.get(parentId);
+        }
+        WorkflowDefinition definition = null;
+        StateNode joinNode = null;
+        if (parent != null) {
+            String childName = instance.getId().substring(parent.instanceId.length() + 1);
+            StateNode current = parent.definition.getNode(parent.instance.getCurrentState());
+            for (StateNode node : parent.definition.getNodes().values()) {
+                boolean waitedFor;
+                if (node.getKind() == StateNode.Kind.SUBFLOW && childName.equals(node.getName())) {
+                    definition = node.getCallSite().resolve(catalog);
+                    waitedFor = ((SubflowState) node.getState()).isWaitForCompletion();
+                } else if (node.getKind() == StateNode.Kind.PARALLEL && childName.startsWith(node.getName() + "/")) {
+                    BranchDefinition branch = node.getBranches().stream()
+                            .filter(candidate -> childName.equals(node.getName() + "/" + candidate.getName()))
+                            .findFirst()
+                            .orElse(null);
+                    if (branch == null) {
+                        continue;
+                    }
+                    definition = branch.getDefinition();
+                    waitedFor = branch.isWaitForCompletion();
+                } else {
+                    continue;
+                }
+                joinNode = waitedFor && node == current ? node : null;
+                break;
+            }
+        }
+        if (definition == null) {
+            definition = catalog.resolve(instance.getWorkflowId(),
+                                         instance.getWorkflowVersion());
+        }
+        if (definition == null) {
+            logger.error("Unable to resume instance " + instance.getId() + ": workflow " + instance.getWorkflowId() + " version " + instance.getWorkflowVersion() + " is not registered");
+            return null;
+        }
+
+        instance.setData(instance.getData() == null ? PersistentObjectNode.empty() : PersistentJson.persistent(instance.getData()));
+        Execution execution = new Execution(instance,
+                                            definition,
+                                            partition,
+                                            parent,
+                                            joinNode);
+        if (parent == null) {
+            inFlightInstances.incrementAndGet();
+            execution.quotaLimiter = quotaLimiterOf(definition);
+            execution.quotaLimiter.reacquire();
+            execution.handle = new InstanceHandle(this,
+                                                  instance,
+                                                  execution.completion);
+        } else if (joinNode != null) {
+            parent.pendingChildren++;
+        }
+        partition.executions.put(instance.getId(),
+                                 execution);
+        return execution;
+    }
+
+    /**
+     * Continues a restored execution: waiting ones wait again, ones whose children have all finished leave the
+     * state they forked them in and running ones run their current state again.
+     */
+    private void proceed(Execution execution) {
+        WorkflowInstance instance = execution.instance;
+        if (instance.getCurrentState() == null) {
+            enter(execution,
+                  execution.definition.getStartsAt());
+            run(execution);
+            return;
+        }
+        StateNode node = execution.definition.getNode(instance.getCurrentState());
+        if (instance.getStatus() == InstanceStatus.WAITING) {
+            Partition partition = execution.partition;
+            instance.getAwaitedEvents().forEach((triggerName, correlationValue) -> partition.correlationStore.register(triggerName,
+                                                                                                                      correlationValue,
+                                                                                                                      instance.getId()));
+            waiting(execution);
+        } else if (node != null && (node.getKind() == StateNode.Kind.SUBFLOW || node.getKind() == StateNode.Kind.PARALLEL)) {
+            if (execution.pendingChildren > 0) {
+                waiting(execution);
+            } else {
+                leave(execution,
+                      node,
+                      node.getNextState());
+                run(execution);
+            }
+        } else {
+            run(execution);
+        }
+    }
+
+    private void transitioned(Execution execution) {
+        WorkflowInstance instance = execution.instance;
+        index(execution);
+        if (execution.handle != null) {
+            execution.handle.update(instance.getStatus(),
+                                    instance.getCurrentState());
+        }
+        if (transitionListeners.isEmpty()) {
+            return;
+        }
+        InstanceTransition transition = new InstanceTransition(instance.getId(),
+                                                               instance.getWorkflowId(),
+                                                               instance.getWorkflowVersion(),
+                                                               instance.getCurrentState(),
+                                                               instance.getStatus(),
+                                                               System.currentTimeMillis());
+        for (TransitionListener listener : transitionListeners) {
+            try {
+                listener.onTransition(transition);
+            } catch (RuntimeException e) {
+                logger.error("Transition listener failed for instance " + instance.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Moves the execution in its partition's instance index if its state or waiting status changed.
+     */
+    private void index(Execution execution) {
+        WorkflowInstance instance = execution.instance;
+        StateNode node = instance.isTerminated() ? null : execution.definition.getNode(instance.getCurrentState());
+        int state = node == null ? -1 : node.getId();
+        boolean waiting = instance.getStatus() == InstanceStatus.WAITING;
+        if (state != execution.indexedState || waiting != execution.indexedWaiting) {
+            execution.partition.instanceIndex.move(execution.definition,
+                                                   instance.getId(),
+                                                   execution.indexedState,
+                                                   execution.indexedWaiting,
+                                                   state,
+                                                   waiting);
+            execution.indexedState = state;
+            execution.indexedWaiting = waiting;
+        }
+    }
+
+    private void leave(Execution execution,
+                       StateNode node,
+                       String nextState) {
+        if (node.getState().isEnd() || nextState == null) {
+            if (node.getExit() != null) {
+                enter(execution,
+                      node.getExit());
+            } else {
+                finish(execution,
+                       InstanceStatus.COMPLETED,
+                       null);
+            }
+        } else {
+            enter(execution,
+                  nextState);
+        }
+    }
+
+    private void runActions(Execution execution,
+                            StateNode node,
+                            List<Action> actions,
+                            boolean parallel,
+                            String nextState) {
+        if (!parallel) {
+            runSequentialActions(execution,
+                                 node,
+                                 actions,
+                                 0,
+                                 nextState);
+            return;
+        }
+
+        JsonNode input = execution.instance.getData();
+        List<CompletableFuture<JsonNode>> calls = new ArrayList<>(actions.size());
+        for (Action action : actions) {
+            calls.add(invoke(action,
+                             input));
+        }
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).whenCompleteAsync((done, error) -> {
+                                                                                    if (execution.instance.isTerminated()) {
+                                                                                        return;
+                                                                                    }
+                                                                                    for (int i = 0; i < calls.size(); i++) {
+                                                                                        if (calls.get(i).isCompletedExceptionally()) {
+                                                                                            actionFailed(execution,
+                                                                                                         node,
+                                                                                                         actions.get(i),
+                                                                                                         error);
+                                                                                            return;
+                                                                                        }
+                                                                                    }
+                                                                                    for (int i = 0; i < calls.size(); i++) {
+                                                                                        actionCompleted(execution,
+                                                                                                        actions.get(i),
+                                                                                                        calls.get(i).join());
+                                                                                    }
+                                                                                    leave(execution,
+                                                                                          node,
+                                                                                          nextState);
+                                                                                    run(execution);
+                                                                                },
+                                                                                execution.partition.executor);
+    }
+
+    private void runSequentialActions(Execution execution,
+                                      StateNode node,
+                                      List<Action> actions,
+                                      int index,
+                                      String nextState) {
+        Action action = actions.get(index);
+        invoke(action,
+               execution.instance.getData()).whenCompleteAsync((result, error) -> {
+                                                                   if (execution.instance.isTerminated()) {
+                                                                       return;
+                                                                   }
+                                                                   if (error != null) {
+                                                                       actionFailed(execution,
+                                                                                    node,
+                                                                                    action,
+                                                                                    error);
+                                                                       return;
+                                                                   }
+                                                                   actionCompleted(execution,
+                                                                                   action,
+                                                                                   result);
+                                                                   if (index + 1 < actions.size()) {
+                                                                       runSequentialActions(execution,
+                                                                                            node,
+                                                                                            actions,
+                                                                                            index + 1,
+                                                                                            nextState);
+                                                                   } else {
+                                                                       leave(execution,
+                                                                             node,
+                                                                             nextState);
+                                                                       run(execution);
+                                                                   }
+                                                               },
+                                                               execution.partition.executor);
+    }
+
+    private void actionCompleted(Execution execution,
+                                 Action action,
+                                 JsonNode result) {
+        WorkflowInstance instance = execution.instance;
+        instance.setData(merge(instance.getData(),
+                               result));
+        journal(execution,
+                JournalRecord.actionCompleted(instance.getId(),
+                                              action.getFunction().getName(),
+                                              InstanceCodec.encodeData(instance.getData())));
+    }
+
+    private void actionFailed(Execution execution,
+                              StateNode node,
+                              Action action,
+                              Throwable error) {
+        Retry retry = action.getRetry();
+        if (retry != null && retry.getNextState() != null) {
+            enter(execution,
+                  node.qualify(retry.getNextState()));
+            run(execution);
+        } else {
+            fail(execution,
+                 unwrap(error));
+        }
+    }
+
+    /**
+     * Invokes the function of an action, applying its timeout and retrying failed attempts with the same input.
+     */
+    private CompletableFuture<JsonNode> invoke(Action action,
+                                               JsonNode input) {
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        attempt(action,
+                input,
+                1,
+                result);
+        return result;
+    }
+
+    private void attempt(Action action,
+                         JsonNode input,
+                         int attempt,
+                         CompletableFuture<JsonNode> result) {
+        CompletableFuture<JsonNode> call = new CompletableFuture<>();
+        // invokers get a mutable copy of their own, the instance data is shared and must not change under them
+        functionDispatcher.invoke(action.getFunction(),
+                                  PersistentJson.mutable(input)).whenComplete((value, error) -> {
+            if (error == null) {
+                call.complete(value);
+            } else {
+                call.completeExceptionally(unwrap(error));
+            }
+        });
+        long timeout = durationMillis(action.getTimeout());
+        if (timeout > 0 && !call.isDone()) {
+            scheduler.schedule(() -> call.completeExceptionally(new TimeoutException("Function " + action.getFunction().getName() + " timed out after " + action.getTimeout())),
+                               timeout,
+                               TimeUnit.MILLISECONDS);
+        }
+
+        call.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Retry retry = action.getRetry();
+            if (retry != null && retry.getMaxRetry() != null && attempt <= retry.getMaxRetry()) {
+                scheduler.schedule(() -> attempt(action,
+                                                 input,
+                                                 attempt + 1,
+                                                 result),
+                                   durationMillis(retry.getRetryInterval()),
+                                   TimeUnit.MILLISECONDS);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void delay(Execution execution,
+                       StateNode node) {
+        WorkflowInstance instance = execution.instance;
+        long deadline = System.currentTimeMillis() + durationMillis(((DelayState) node.getState()).getTimeDelay());
+        waiting(execution);
+        instance.getTimers().put(node.getName(),
+                                 deadline);
+        journal(execution,
+                JournalRecord.timerScheduled(instance.getId(),
+                                             node.getName(),
+                                             deadline));
+        TimerStore store = timerStore;
+        if (store == null || store.schedule(instance.getId(),
+                                            node.getName(),
+                                            deadline)) {
+            execution.partition.timerWheel.schedule(instance.getId(),
+                                                    node.getName(),
+                                                    deadline);
+        }
+    }
+
+    private void advanceTimers() {
+        TimerStore store = timerStore;
+        if (store != null) {
+            try {
+                // timers written since the last tick reach the disk together
+                store.force();
+                for (TimerStore.StoredTimer timer : store.load(System.currentTimeMillis())) {
+                    partitionOf(timer.getInstanceId()).timerWheel.schedule(timer.getInstanceId(),
+                                                                           timer.getName(),
+                                                                           timer.getDeadline());
+                }
+            } catch (RuntimeException e) {
+                logger.error("Unable to sync or load stored timers: " + e.getMessage());
+            }
+        }
+        PartitionGate gate = partitionGate;
+        for (Partition partition : partitions) {
+            if (gate != null && !gate.isOpen(partition.index)) {
+                // timers of a recovering partition fire once its instances are back
+                continue;
+            }
+            try {
+                partition.executor.execute(() -> advanceTimers(partition));
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    private void advanceTimers(Partition partition) {
+        try {
+            long now = System.currentTimeMillis();
+            for (TimerWheel.Timer timer : partition.timerWheel.advance(now)) {
+                timerFired(partition,
+                           timer);
+            }
+            hibernate(partition,
+                      now);
+        } catch (RuntimeException e) {
+            logger.error("Unable to advance timers of partition " + partition.index + ": " + e.getMessage());
+        }
+    }
+
+    private void timerFired(Partition partition,
+                            TimerWheel.Timer timer) {
+        Execution execution = partition.executions.get(timer.getInstanceId());
+        TimerStore store = timerStore;
+        if (execution == null || wake(execution).getTimers().remove(timer.getName()) == null) {
+            if (store != null) {
+                // a stored timer of an instance that finished or was lost, so its bucket can go
+                store.remove(timer.getInstanceId(),
+                             timer.getName(),
+                             timer.getDeadline());
+            }
+            return;
+        }
+        WorkflowInstance instance = execution.instance;
+        instance.setStatus(InstanceStatus.RUNNING);
+        journal(execution,
+                JournalRecord.timerFired(instance.getId(),
+                                         timer.getName()));
+        if (store != null) {
+            store.remove(instance.getId(),
+                         timer.getName(),
+                         timer.getDeadline());
+        }
+        StateNode node = execution.definition.getNode(timer.getName());
+        leave(execution,
+              node,
+              node.getNextState());
+        run(execution);
+    }
+
+    private void await(Execution execution,
+                       StateNode node) {
+        WorkflowInstance instance = execution.instance;
+        if (node.getTriggers().isEmpty()) {
+            fail(execution,
+                 new IllegalStateException("Event state " + node.getName() + " does not match any trigger definition"));
+            return;
+        }
+        waiting(execution);
+        for (TriggerEvent trigger : node.getTriggers().values()) {
+            String correlationValue = correlationValue(instance.getData(),
+                                                       trigger);
+            instance.getAwaitedEvents().put(trigger.getName(),
+                                            correlationValue);
+            execution.partition.correlationStore.register(trigger.getName(),
+                                                          correlationValue,
+                                                          instance.getId());
+            journal(execution,
+                    JournalRecord.eventAwaited(instance.getId(),
+                                               trigger.getName(),
+                                               correlationValue));
+        }
+    }
+
+    private void deliverBatch(List<EventMessage> batch) {
+        List<EventMessage> messages = new ArrayList<>(batch);
+        long drained = System.nanoTime();
+        for (Partition partition : partitions) {
+            execute(partition,
+                    () -> {
+                        batched(partition,
+                                () -> messages.forEach(message -> deliver(partition,
+                                                                          message)));
+                        admissionController.getLatencyTracker().record(System.nanoTime() - drained,
+                                                                       TimeUnit.NANOSECONDS);
+                    });
+        }
+    }
+
+    private void deliver(Partition partition,
+                         EventMessage message) {
+        for (String instanceId : new ArrayList<>(partition.correlationStore.lookup(message.getTriggerName(),
+                                                                                   message.getCorrelationValue()))) {
+            Execution execution = partition.executions.get(instanceId);
+            if (execution == null) {
+                continue;
+            }
+            WorkflowInstance instance = wake(execution);
+            StateNode node = execution.definition.getNode(instance.getCurrentState());
+            Event event = node == null ? null : node.getEvent(message.getTriggerName());
+            if (event == null) {
+                continue;
+            }
+
+            clearWaits(execution);
+            instance.setStatus(InstanceStatus.RUNNING);
+            instance.setData(merge(instance.getData(),
+                                   message.getData()));
+            journal(execution,
+                    JournalRecord.eventCorrelated(instance.getId(),
+                                                  message.getTriggerName(),
+                                                  message.getCorrelationValue(),
+                                                  InstanceCodec.encodeData(instance.getData())));
+
+            String nextState = node.qualify(event.getNextState());
+            if (event.getActions() == null || event.getActions().isEmpty()) {
+                leave(execution,
+                      node,
+                      nextState);
+                run(execution);
+            } else {
+                runActions(execution,
+                           node,
+                           event.getActions(),
+                           isParallel(event.getActionMode()),
+                           nextState);
+            }
+        }
+    }
+
+    private boolean callSubflow(Execution execution,
+                                StateNode node) {
+        SubflowState subflowState = (SubflowState) node.getState();
+        WorkflowDefinition subflow = node.getCallSite().resolve(catalog);
+        WorkflowInstance instance = execution.instance;
+        Execution child = new Execution(new WorkflowInstance(instance.getId() + "/" + node.getName(),
+                                                             subflow.getId(),
+                                                             subflow.getVersion()),
+                                        subflow,
+                                        execution.partition,
+                                        execution,
+                                        subflowState.isWaitForCompletion() ? node : null);
+        if (subflowState.isWaitForCompletion()) {
+            execution.pendingChildren = 1;
+            waiting(execution);
+            begin(child,
+                  instance.getData());
+            return false;
+        }
+        begin(child,
+              instance.getData());
+        leave(execution,
+              node,
+              node.getNextState());
+        return true;
+    }
+
+    private boolean forkBranches(Execution execution,
+                                 StateNode node) {
+        WorkflowInstance instance = execution.instance;
+        List<Execution> children = new ArrayList<>();
+        int waiting = 0;
+        for (BranchDefinition branch : node.getBranches()) {
+            children.add(new Execution(new WorkflowInstance(instance.getId() + "/" + node.getName() + "/" + branch.getName(),
+                                                            branch.getDefinition().getId(),
+                                                            branch.getDefinition().getVersion()),
+                                       branch.getDefinition(),
+                                       execution.partition,
+                                       execution,
+                                       branch.isWaitForCompletion() ? node : null));
+            if (branch.isWaitForCompletion()) {
+                waiting++;
+            }
+        }
+
+        execution.pendingChildren = waiting;
+        if (waiting > 0) {
+            waiting(execution);
+        }
+        for (Execution child : children) {
+            begin(child,
+                  instance.getData());
+        }
+        if (waiting == 0) {
+            leave(execution,
+                  node,
+                  node.getNextState());
+            return true;
+        }
+        return false;
+    }
+
+    private void childFinished(Execution child) {
+        Execution parent = child.parent;
+        if (parent == null || child.joinNode == null) {
+            return;
+        }
+        parent.partition.executor.execute(() -> {
+            WorkflowInstance instance = parent.instance;
+            if (instance.isTerminated()) {
+                return;
+            }
+            if (child.instance.getStatus() != InstanceStatus.COMPLETED) {
+                fail(parent,
+                     new IllegalStateException("Child execution " + child.instance.getId() + " finished as " + child.instance.getStatus()));
+                return;
+            }
+            instance.setData(mergeChanges(instance.getData(),
+                                          child.input,
+                                          child.instance.getData()));
+            journal(parent,
+                    JournalRecord.actionCompleted(instance.getId(),
+                                                  child.instance.getId(),
+                                                  InstanceCodec.encodeData(instance.getData())));
+            if (--parent.pendingChildren == 0) {
+                instance.setStatus(InstanceStatus.RUNNING);
+                leave(parent,
+                      child.joinNode,
+                      child.joinNode.getNextState());
+                run(parent);
+            }
+        });
+    }
+
+    /**
+     * Cancels the children of an execution before the execution itself, so none of them reports back to it.
+     */
+    private void cancelExecution(Execution execution,
+                                 CancellationException cancellation) {
+        wake(execution);
+        for (Execution other : new ArrayList<>(execution.partition.executions.values())) {
+            if (other.parent == execution) {
+                cancelExecution(other,
+                                cancellation);
+            }
+        }
+        finish(execution,
+               InstanceStatus.CANCELLED,
+               cancellation);
+    }
+
+    private void fail(Execution execution,
+                      Throwable error) {
+        logger.error("Workflow instance " + execution.instanceId + " failed: " + error.getMessage());
+        finish(execution,
+               InstanceStatus.FAILED,
+               error);
+    }
+
+    private void finish(Execution execution,
+                        InstanceStatus status,
+                        Throwable error) {
+        WorkflowInstance instance = execution.instance;
+        if (instance.isTerminated()) {
+            return;
+        }
+        clearWaits(execution);
+        instance.setStatus(status);
+        execution.partition.executions.remove(instance.getId());
+        if (execution.parent == null) {
+            inFlightInstances.decrementAndGet();
+            execution.quotaLimiter.release();
+        }
+        journal(execution,
+                JournalRecord.instanceFinished(instance.getId(),
+                                               status.name(),
+                                               InstanceCodec.encodeData(instance.getData())));
+        if (execution.parent == null) {
+            // handed out through the completion, children keep persistent data for their parent to merge
+            instance.setData(PersistentJson.mutable(instance.getData()));
+        }
+        transitioned(execution);
+        if (error == null) {
+            execution.completion.complete(instance);
+        } else {
+            execution.completion.completeExceptionally(new WorkflowExecutionException(instance,
+                                                                                      "Workflow instance " + instance.getId() + " " + status.name().toLowerCase() + ": " + error.getMessage(),
+                                                                                      error));
+        }
+        childFinished(execution);
+    }
+
+    private void clearWaits(Execution execution) {
+        WorkflowInstance instance = execution.instance;
+        Partition partition = execution.partition;
+        instance.getAwaitedEvents().forEach((triggerName, correlationValue) -> partition.correlationStore.unregister(triggerName,
+                                                                                                                    correlationValue,
+                                                                                                                    instance.getId()));
+        instance.getAwaitedEvents().clear();
+        TimerStore store = timerStore;
+        instance.getTimers().forEach((timerName, deadline) -> {
+            partition.timerWheel.cancel(instance.getId(),
+                                        timerName);
+            if (store != null) {
+                store.remove(instance.getId(),
+                             timerName,
+                             deadline);
+            }
+        });
+        instance.getTimers().clear();
+    }
+
+    private void journal(Execution execution,
+                         JournalRecord record) {
+        JournalManager manager = journalManager;
+        if (manager == null) {
+            return;
+        }
+        List<JournalRecord> batch = execution.partition.journalBatch;
+        if (batch != null) {
+            batch.add(record);
+            return;
+        }
+        manager.append(record).exceptionally(e -> {
+            logger.error("Unable to journal " + record.getType() + " of instance " + record.getInstanceId() + ": " + e.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Runs a partition task, journaling all records it produces with a single append.
+     */
+    private void batched(Partition partition,
+                         Runnable task) {
+        JournalManager manager = journalManager;
+        if (manager == null) {
+            task.run();
+            return;
+        }
+        List<JournalRecord> batch = new ArrayList<>();
+        partition.journalBatch = batch;
+        try {
+            task.run();
+        } finally {
+            partition.journalBatch = null;
+            if (!batch.isEmpty()) {
+                manager.append(batch).exceptionally(e -> {
+                    logger.error("Unable to journal " + batch.size() + " records of partition " + partition.index + ": " + e.getMessage());
+                    return null;
+                });
+            }
+        }
+    }
+
+    static JsonNode merge(JsonNode data,
+                          JsonNode result) {
+        if (result == null || result.isNull() || result.isMissingNode()) {
+            return data;
+        }
+        if (data != null && data.isObject() && result.isObject()) {
+            return PersistentJson.persistentObject(data).withFields(result);
+        }
+        return PersistentJson.persistent(result);
+    }
+
+    /**
+     * Merges the data a child execution ended with into its parent, applying only what the child changed
+     * relative to the data it started from.
+     */
+    static JsonNode mergeChanges(JsonNode data,
+                                 JsonNode childInput,
+                                 JsonNode childOutput) {
+        if (data instanceof PersistentObjectNode && childInput instanceof PersistentObjectNode &&
+                childOutput instanceof PersistentObjectNode) {
+            return ((PersistentObjectNode) data).withChanges((PersistentObjectNode) childInput,
+                                                             (PersistentObjectNode) childOutput);
+        }
+        return merge(data,
+                     childOutput);
+    }
+
+    /**
+     * @return value of the field of the data named by the trigger's correlation token, or null if the trigger has
+     * no correlation token or the data no such field
+     */
+    public static String correlationValue(JsonNode data,
+                                          TriggerEvent trigger) {
+        String correlationToken = trigger.getCorrelationToken();
+        if (correlationToken == null || data == null || !data.hasNonNull(correlationToken)) {
+            return null;
+        }
+        return data.get(correlationToken).asText();
+    }
+
+    static long durationMillis(String duration) {
+        if (duration == null || duration.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Duration.parse(duration).toMillis();
+        } catch (DateTimeParseException e) {
+            logger.warn("Ignoring invalid duration " + duration);
+            return 0;
+        }
+    }
+
+    /**
+     * Runs a task on the partition's thread, once the partition is open if it is being recovered.
+     */
+    private void execute(Partition partition,
+                         Runnable task) {
+        PartitionGate gate = partitionGate;
+        if (gate == null) {
+            partition.executor.execute(task);
+        } else {
+            gate.execute(partition.index,
+                         () -> partition.executor.execute(task));
+        }
+    }
+
+    private Partition partitionOf(String instanceId) {
+        return partitions[Partitions.ownerOf(instanceId,
+                                             partitions.length)];
+    }
+
+    private static boolean isParallel(Enum<?> actionMode) {
+        return actionMode != null && "PARALLEL".equals(actionMode.name());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable,
+                                       name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Instances owned by one partition thread. The correlation store, instance index and timer wheel only hold
+     * this partition's instances and are only changed from its thread.
+     */
+    private static class Partition {
+
+        private final int index;
+        private final ExecutorService executor;
+        private final Map<String, Execution> executions = new ConcurrentHashMap<>();
+        private final CorrelationStore correlationStore = new CorrelationStore();
+        private final TimerWheel timerWheel = new TimerWheel();
+        private final InstanceIndex instanceIndex = new InstanceIndex();
+        private final Deque<IdleExecution> idle = new ArrayDeque<>();
+        private List<JournalRecord> journalBatch;
+        // backoff after failed hibernation writes, both zero while writes succeed
+        private long hibernationRetryMillis;
+        private long hibernationRetryAt;
+
+        private Partition(int index) {
+            this.index = index;
+            this.executor = Executors.newSingleThreadExecutor(daemonThreads("workflow-partition-" + index));
+        }
+    }
+
+    /**
+     * Execution state kept on the heap for every live instance. While the execution is hibernated its instance
+     * is null and the instance id, correlations and timers are all that remain of it in memory.
+     */
+    private static class Execution {
+
+        private final String instanceId;
+        // null while hibernated, read by the snapshot source off the partition thread
+        private volatile WorkflowInstance instance;
+        private final WorkflowDefinition definition;
+        private final Partition partition;
+        private final Execution parent;
+        private final StateNode joinNode;
+        private final CompletableFuture<WorkflowInstance> completion = new CompletableFuture<>();
+        private JsonNode input;
+        private int pendingChildren;
+        private QuotaLimiter quotaLimiter;
+        private InstanceHandle handle;
+        private int indexedState = -1;
+        private boolean indexedWaiting;
+        private long idleSince;
+
+        private Execution(WorkflowInstance instance,
+                          WorkflowDefinition definition,
+                          Partition partition,
+                          Execution parent,
+                          StateNode joinNode) {
+            this.instanceId = instance.getId();
+            this.instance = instance;
+            this.definition = definition;
+            this.partition = partition;
+            this.parent = parent;
+            this.joinNode = joinNode;
+        }
+    }
+
+    private static class IdleExecution {
+
+        private final Execution execution;
+        private final long since;
+
+        private IdleExecution(Execution execution,
+                              long since) {
+            this.execution = execution;
+            this.since = since;
+        }
+    }
+}
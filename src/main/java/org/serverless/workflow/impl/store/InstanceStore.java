@@ -0,0 +1,83 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+/**
+ * Storage backend for workflow instances, discovered through {@code META-INF/services} by the
+ * {@link InstanceStoreProvider}. Implementations have a public no-argument constructor and are configured with
+ * {@link #init(Properties)} before first use.
+ * <p>
+ * Writes are batched: a store applies each batch passed to {@link #write(Collection)} with a single flush or
+ * transaction, so callers should collect the instances changed by a unit of work and write them together.
+ * Stores that do not keep instances in memory are put behind a {@link ReadThroughCache} by the provider.
+ */
+public interface InstanceStore extends AutoCloseable {
+
+    /**
+     * @return name the store is selected by with the {@code workflow.store.type} property
+     */
+    String getType();
+
+    /**
+     * Configures the store from {@code workflow.store.*} properties.
+     */
+    default void init(Properties properties) {
+    }
+
+    /**
+     * Writes a batch of instances, replacing stored instances with the same ids.
+     */
+    void write(Collection<WorkflowInstance> instances);
+
+    default void write(WorkflowInstance instance) {
+        write(Collections.singletonList(instance));
+    }
+
+    /**
+     * @return the stored instance, or null if there is none with that id
+     */
+    WorkflowInstance read(String instanceId);
+
+    void delete(Collection<String> instanceIds);
+
+    default void delete(String instanceId) {
+        delete(Collections.singletonList(instanceId));
+    }
+
+    void forEach(Consumer<WorkflowInstance> consumer);
+
+    int size();
+
+    /**
+     * @return whether reads are already served from memory, so a cache in front of the store gains nothing
+     */
+    default boolean isInMemory() {
+        return false;
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+
+public class InstanceStoreProvider {
+
+    public static final String TYPE_PROPERTY = "workflow.store.type";
+    public static final String CACHE_SIZE_PROPERTY = "workflow.store.cache-size";
+
+    private Map<String, InstanceStore> instanceStores = new HashMap<>();
+
+    public InstanceStoreProvider() {
+        ServiceLoader<InstanceStore> foundInstanceStores = ServiceLoader.load(InstanceStore.class);
+
+        foundInstanceStores.forEach(instanceStore -> instanceStores.put(instanceStore.getType(),
+                                                                        instanceStore));
+    }
+
+    private static class LazyHolder {
+
+        static final InstanceStoreProvider INSTANCE = new InstanceStoreProvider();
+    }
+
+    public static InstanceStoreProvider getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    public Map<String, InstanceStore> get() {
+        return instanceStores;
+    }
+
+    /**
+     * Opens a new store of the type named by {@code workflow.store.type} (memory if unset). Stores that do not
+     * keep instances in memory are returned behind a {@link ReadThroughCache} of {@code workflow.store.cache-size}
+     * entries.
+     */
+    public InstanceStore open(Properties properties) {
+        String type = properties.getProperty(TYPE_PROPERTY,
+                                             MemoryInstanceStore.TYPE);
+        InstanceStore prototype = instanceStores.get(type);
+        if (prototype == null) {
+            throw new IllegalArgumentException("Unknown instance store type: " + type);
+        }
+        InstanceStore store;
+        try {
+            store = prototype.getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create instance store " + type,
+                                            e);
+        }
+        store.init(properties);
+        if (store.isInMemory()) {
+            return store;
+        }
+        return new ReadThroughCache(store,
+                                    Integer.parseInt(properties.getProperty(CACHE_SIZE_PROPERTY,
+                                                                            String.valueOf(ReadThroughCache.DEFAULT_MAX_ENTRIES))));
+    }
+}
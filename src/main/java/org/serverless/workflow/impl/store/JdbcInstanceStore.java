@@ -0,0 +1,267 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+/**
+ * Stores instances in a {@code workflow_instances} table, created on first use. Each batch is written in one
+ * transaction: a batched update of existing rows followed by a batched insert of the rows the update missed,
+ * which works on any database without vendor upsert syntax. The workflow id, version and status are kept in their
+ * own columns so the table can be queried directly; the full instance is stored encoded in the state column.
+ * A single connection is used, guarded by the store's monitor.
+ */
+public class JdbcInstanceStore implements InstanceStore {
+
+    public static final String TYPE = "jdbc";
+    public static final String URL_PROPERTY = "workflow.store.jdbc.url";
+    public static final String USER_PROPERTY = "workflow.store.jdbc.user";
+    public static final String PASSWORD_PROPERTY = "workflow.store.jdbc.password";
+    public static final String TABLE = "workflow_instances";
+
+    private static final String CREATE = "CREATE TABLE " + TABLE + " (instance_id VARCHAR(255) PRIMARY KEY, "
+            + "workflow_id VARCHAR(255), workflow_version VARCHAR(64), status VARCHAR(32), state BLOB)";
+    private static final String UPDATE = "UPDATE " + TABLE
+            + " SET workflow_id = ?, workflow_version = ?, status = ?, state = ? WHERE instance_id = ?";
+    private static final String INSERT = "INSERT INTO " + TABLE
+            + " (workflow_id, workflow_version, status, state, instance_id) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT = "SELECT state FROM " + TABLE + " WHERE instance_id = ?";
+    private static final String SELECT_ALL = "SELECT state FROM " + TABLE;
+    private static final String DELETE = "DELETE FROM " + TABLE + " WHERE instance_id = ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM " + TABLE;
+
+    private Connection connection;
+
+    /**
+     * Store opened by {@link #init(Properties)}, for discovery through {@code META-INF/services}.
+     */
+    public JdbcInstanceStore() {
+    }
+
+    public JdbcInstanceStore(Connection connection) {
+        open(connection);
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public void init(Properties properties) {
+        String url = properties.getProperty(URL_PROPERTY);
+        if (url == null) {
+            throw new IllegalArgumentException("Missing property " + URL_PROPERTY);
+        }
+        try {
+            open(DriverManager.getConnection(url,
+                                             properties.getProperty(USER_PROPERTY),
+                                             properties.getProperty(PASSWORD_PROPERTY)));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to connect to " + url,
+                                            e);
+        }
+    }
+
+    @Override
+    public synchronized void write(Collection<WorkflowInstance> instances) {
+        if (instances.isEmpty()) {
+            return;
+        }
+        List<WorkflowInstance> batch = new ArrayList<>(instances);
+        List<byte[]> states = new ArrayList<>(batch.size());
+        batch.forEach(instance -> states.add(InstanceCodec.encode(instance)));
+        try {
+            List<Integer> missing = new ArrayList<>();
+            try (PreparedStatement update = connection.prepareStatement(UPDATE)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    bind(update,
+                         batch.get(i),
+                         states.get(i));
+                    update.addBatch();
+                }
+                int[] counts = update.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        missing.add(i);
+                    }
+                }
+            }
+            if (!missing.isEmpty()) {
+                try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+                    for (int i : missing) {
+                        bind(insert,
+                             batch.get(i),
+                             states.get(i));
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw rollback("Unable to write instances",
+                           e);
+        }
+    }
+
+    @Override
+    public synchronized WorkflowInstance read(String instanceId) {
+        try (PreparedStatement select = connection.prepareStatement(SELECT)) {
+            select.setString(1,
+                             instanceId);
+            try (ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next() ? InstanceCodec.decode(resultSet.getBytes(1)) : null;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to read instance " + instanceId,
+                                            e);
+        }
+    }
+
+    @Override
+    public synchronized void delete(Collection<String> instanceIds) {
+        if (instanceIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement delete = connection.prepareStatement(DELETE)) {
+            for (String instanceId : instanceIds) {
+                delete.setString(1,
+                                 instanceId);
+                delete.addBatch();
+            }
+            delete.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            throw rollback("Unable to delete instances",
+                           e);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<WorkflowInstance> consumer) {
+        List<byte[]> states = new ArrayList<>();
+        synchronized (this) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(SELECT_ALL)) {
+                while (resultSet.next()) {
+                    states.add(resultSet.getBytes(1));
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to read instances",
+                                                e);
+            }
+        }
+        states.forEach(state -> consumer.accept(InstanceCodec.decode(state)));
+    }
+
+    @Override
+    public synchronized int size() {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(COUNT)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to count instances",
+                                            e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to close connection",
+                                            e);
+        }
+    }
+
+    private void open(Connection connection) {
+        this.connection = connection;
+        try {
+            connection.setAutoCommit(false);
+            if (!tableExists(connection.getMetaData())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate(CREATE);
+                }
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            throw rollback("Unable to create table " + TABLE,
+                           e);
+        }
+    }
+
+    private static boolean tableExists(DatabaseMetaData metaData) throws SQLException {
+        for (String name : new String[]{TABLE, TABLE.toUpperCase()}) {
+            try (ResultSet tables = metaData.getTables(null,
+                                                       null,
+                                                       name,
+                                                       null)) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void bind(PreparedStatement statement,
+                             WorkflowInstance instance,
+                             byte[] state) throws SQLException {
+        statement.setString(1,
+                            instance.getWorkflowId());
+        statement.setString(2,
+                            instance.getWorkflowVersion());
+        statement.setString(3,
+                            instance.getStatus() == null ? null : instance.getStatus().name());
+        statement.setBytes(4,
+                           state);
+        statement.setString(5,
+                            instance.getId());
+    }
+
+    private IllegalStateException rollback(String message,
+                                           SQLException e) {
+        try {
+            connection.rollback();
+        } catch (SQLException rollbackException) {
+            e.addSuppressed(rollbackException);
+        }
+        return new IllegalStateException(message,
+                                         e);
+    }
+}
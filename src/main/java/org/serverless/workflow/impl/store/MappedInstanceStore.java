@@ -0,0 +1,454 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores instances in a memory-mapped log file. Every write appends a record (int body length, int CRC32, then
+ * byte type, instance id and the encoded instance) and points the in-memory index at it; deletes append a
+ * tombstone. The index is rebuilt by scanning the file on open, stopping at the first incomplete record. When the
+ * mapping is full the live records are compacted into a new file if at least half of it is garbage, otherwise the
+ * mapping is doubled. A compaction that fails leaves the current file in place and the mapping is doubled
+ * instead. Replaced mappings are unmapped right away. A single mapping limits the file to 2 GB.
+ */
+public class MappedInstanceStore implements InstanceStore {
+
+    public static final String TYPE = "mmap";
+    public static final String PATH_PROPERTY = "workflow.store.mmap.path";
+    public static final String SYNC_PROPERTY = "workflow.store.mmap.sync";
+    public static final int DEFAULT_INITIAL_SIZE = 1024 * 1024;
+
+    private static final int HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> offsets = new HashMap<>();
+    private Path path;
+    private boolean sync;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private long liveBytes;
+
+    private static Logger logger = LoggerFactory.getLogger(MappedInstanceStore.class);
+
+    /**
+     * Store opened by {@link #init(Properties)}, for discovery through {@code META-INF/services}.
+     */
+    public MappedInstanceStore() {
+    }
+
+    /**
+     * @param sync whether each batch is forced to the storage device before the write returns
+     */
+    public MappedInstanceStore(Path path,
+                               boolean sync) {
+        open(path,
+             sync);
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public void init(Properties properties) {
+        open(Paths.get(properties.getProperty(PATH_PROPERTY,
+                                              "workflow-instances.store")),
+             Boolean.parseBoolean(properties.getProperty(SYNC_PROPERTY,
+                                                         "false")));
+    }
+
+    @Override
+    public void write(Collection<WorkflowInstance> instances) {
+        List<byte[]> ids = new ArrayList<>(instances.size());
+        List<byte[]> states = new ArrayList<>(instances.size());
+        for (WorkflowInstance instance : instances) {
+            ids.add(instance.getId().getBytes(StandardCharsets.UTF_8));
+            states.add(InstanceCodec.encode(instance));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                append(PUT,
+                       ids.get(i),
+                       states.get(i));
+            }
+            flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WorkflowInstance read(String instanceId) {
+        lock.readLock().lock();
+        try {
+            Integer offset = offsets.get(instanceId);
+            return offset == null ? null : InstanceCodec.decode(stateAt(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Collection<String> instanceIds) {
+        lock.writeLock().lock();
+        try {
+            boolean deleted = false;
+            for (String instanceId : instanceIds) {
+                if (offsets.containsKey(instanceId)) {
+                    append(DELETE,
+                           instanceId.getBytes(StandardCharsets.UTF_8),
+                           new byte[0]);
+                    deleted = true;
+                }
+            }
+            if (deleted) {
+                flush();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<WorkflowInstance> consumer) {
+        List<byte[]> states = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int offset : offsets.values()) {
+                states.add(stateAt(offset));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        states.forEach(state -> consumer.accept(InstanceCodec.decode(state)));
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return offsets.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (channel != null) {
+                buffer.force();
+                channel.close();
+                MappedBuffers.unmap(buffer);
+                channel = null;
+                buffer = null;
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to close instance store " + path + ": " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes of the file used by records, live or not
+     */
+    public int getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return writePosition;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private void open(Path path,
+                      boolean sync) {
+        this.path = path;
+        this.sync = sync;
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            channel = FileChannel.open(path,
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                 0,
+                                 Math.max(DEFAULT_INITIAL_SIZE,
+                                          channel.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open instance store " + path,
+                                           e);
+        }
+        scan();
+    }
+
+    private void scan() {
+        int position = 0;
+        while (true) {
+            int length = recordLength(position);
+            if (length < 0) {
+                break;
+            }
+            ByteBuffer record = record(position,
+                                       length);
+            byte type = record.get();
+            String instanceId = readId(record);
+            index(type,
+                  instanceId,
+                  position,
+                  length);
+            position += HEADER_SIZE + length;
+        }
+        writePosition = position;
+        logger.debug("Opened instance store " + path + " with " + offsets.size() + " instances");
+    }
+
+    /**
+     * @return body length of the valid record at the position, or -1 if there is none
+     */
+    private int recordLength(int position) {
+        if (position + HEADER_SIZE > buffer.capacity()) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+            return -1;
+        }
+        return checksum(position + HEADER_SIZE,
+                        length) == buffer.getInt(position + 4) ? length : -1;
+    }
+
+    private void append(byte type,
+                        byte[] id,
+                        byte[] state) {
+        int length = 1 + 2 + id.length + state.length;
+        ensureCapacity(HEADER_SIZE + length);
+        int position = writePosition;
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_SIZE);
+        record.put(type);
+        record.putShort((short) id.length);
+        record.put(id);
+        record.put(state);
+        buffer.putInt(position + 4,
+                      checksum(position + HEADER_SIZE,
+                               length));
+        buffer.putInt(position,
+                      length);
+        writePosition = position + HEADER_SIZE + length;
+        index(type,
+              new String(id,
+                         StandardCharsets.UTF_8),
+              position,
+              length);
+    }
+
+    private void index(byte type,
+                       String instanceId,
+                       int position,
+                       int length) {
+        Integer previous = type == PUT ? offsets.put(instanceId,
+                                                     position) : offsets.remove(instanceId);
+        if (previous != null) {
+            liveBytes -= HEADER_SIZE + buffer.getInt(previous);
+        }
+        if (type == PUT) {
+            liveBytes += HEADER_SIZE + length;
+        }
+    }
+
+    private void ensureCapacity(int recordSize) {
+        if (writePosition + recordSize <= buffer.capacity()) {
+            return;
+        }
+        if (liveBytes <= writePosition / 2 && liveBytes + recordSize <= buffer.capacity()) {
+            try {
+                compact();
+                return;
+            } catch (UncheckedIOException e) {
+                logger.warn(e.getMessage() + ", growing it instead: " + e.getCause().getMessage());
+            }
+        }
+        long capacity = Math.max((long) buffer.capacity() * 2,
+                                 (long) writePosition + recordSize);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Instance store " + path + " is full");
+        }
+        remap(channel,
+              (int) capacity);
+    }
+
+    /**
+     * Copies the live records into a new file that replaces the current one. The current file, channel and
+     * mapping are only let go once the new file has replaced it, so a failure leaves the store as it was.
+     */
+    private void compact() {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        FileChannel target = null;
+        MappedByteBuffer targetBuffer = null;
+        try {
+            target = FileChannel.open(compacted,
+                                      StandardOpenOption.CREATE,
+                                      StandardOpenOption.TRUNCATE_EXISTING,
+                                      StandardOpenOption.READ,
+                                      StandardOpenOption.WRITE);
+            targetBuffer = target.map(FileChannel.MapMode.READ_WRITE,
+                                      0,
+                                      buffer.capacity());
+            Map<String, Integer> moved = new HashMap<>(offsets.size());
+            int position = 0;
+            for (Map.Entry<String, Integer> entry : offsets.entrySet()) {
+                int size = HEADER_SIZE + buffer.getInt(entry.getValue());
+                ByteBuffer source = buffer.duplicate();
+                source.position(entry.getValue());
+                source.limit(entry.getValue() + size);
+                targetBuffer.position(position);
+                targetBuffer.put(source);
+                moved.put(entry.getKey(),
+                          position);
+                position += size;
+            }
+            targetBuffer.force();
+            Files.move(compacted,
+                       path,
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            FileChannel previousChannel = channel;
+            MappedByteBuffer previousBuffer = buffer;
+            channel = target;
+            buffer = targetBuffer;
+            offsets.clear();
+            offsets.putAll(moved);
+            writePosition = position;
+            liveBytes = position;
+            try {
+                previousChannel.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close compacted instance store " + path + ": " + e.getMessage());
+            }
+            MappedBuffers.unmap(previousBuffer);
+        } catch (IOException e) {
+            MappedBuffers.unmap(targetBuffer);
+            if (target != null) {
+                try {
+                    target.close();
+                    Files.deleteIfExists(compacted);
+                } catch (IOException closeError) {
+                    logger.warn("Unable to remove " + compacted + ": " + closeError.getMessage());
+                }
+            }
+            throw new UncheckedIOException("Unable to compact instance store " + path,
+                                           e);
+        }
+    }
+
+    private void remap(FileChannel fileChannel,
+                       int capacity) {
+        try {
+            buffer.force();
+            MappedByteBuffer previous = buffer;
+            buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE,
+                                     0,
+                                     capacity);
+            MappedBuffers.unmap(previous);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to grow instance store " + path,
+                                           e);
+        }
+    }
+
+    private void flush() {
+        if (sync) {
+            buffer.force();
+        }
+    }
+
+    private ByteBuffer record(int position,
+                              int length) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_SIZE);
+        record.limit(position + HEADER_SIZE + length);
+        return record.slice();
+    }
+
+    private byte[] stateAt(int position) {
+        ByteBuffer record = record(position,
+                                   buffer.getInt(position));
+        record.get();
+        readId(record);
+        byte[] state = new byte[record.remaining()];
+        record.get(state);
+        return state;
+    }
+
+    private int checksum(int offset,
+                         int length) {
+        CRC32 crc32 = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length);
+        body.position(offset);
+        crc32.update(body);
+        return (int) crc32.getValue();
+    }
+
+    private static String readId(ByteBuffer record) {
+        byte[] id = new byte[record.getShort()];
+        record.get(id);
+        return new String(id,
+                          StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+/**
+ * Keeps instances in a concurrent map by reference, without copying or encoding them. Nothing survives a
+ * restart, and instances changed after they were written are seen changed by readers.
+ */
+public class MemoryInstanceStore implements InstanceStore {
+
+    public static final String TYPE = "memory";
+
+    private final Map<String, WorkflowInstance> instances = new ConcurrentHashMap<>();
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public void write(Collection<WorkflowInstance> batch) {
+        for (WorkflowInstance instance : batch) {
+            instances.put(instance.getId(),
+                          instance);
+        }
+    }
+
+    @Override
+    public WorkflowInstance read(String instanceId) {
+        return instances.get(instanceId);
+    }
+
+    @Override
+    public void delete(Collection<String> instanceIds) {
+        instanceIds.forEach(instances::remove);
+    }
+
+    @Override
+    public void forEach(Consumer<WorkflowInstance> consumer) {
+        instances.values().forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        return instances.size();
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return true;
+    }
+}
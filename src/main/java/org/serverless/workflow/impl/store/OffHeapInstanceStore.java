@@ -0,0 +1,171 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+/**
+ * Keeps encoded instances in a {@link SlabArena} outside the Java heap, with only their ids and arena handles on
+ * it, so holding many instances, hibernated ones in particular, adds little to the old generation and to GC
+ * pauses. Nothing survives a restart.
+ */
+public class OffHeapInstanceStore implements InstanceStore {
+
+    public static final String TYPE = "offheap";
+    public static final String SLAB_SIZE_PROPERTY = "workflow.store.offheap.slab-size";
+    public static final String MAX_SIZE_PROPERTY = "workflow.store.offheap.max-size";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Long> handles = new HashMap<>();
+    private SlabArena arena;
+
+    /**
+     * Store with an arena of default size, for discovery through {@code META-INF/services}.
+     */
+    public OffHeapInstanceStore() {
+        this(new SlabArena());
+    }
+
+    public OffHeapInstanceStore(SlabArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public void init(Properties properties) {
+        arena = new SlabArena(Integer.parseInt(properties.getProperty(SLAB_SIZE_PROPERTY,
+                                                                      String.valueOf(SlabArena.DEFAULT_SLAB_SIZE))),
+                              Long.parseLong(properties.getProperty(MAX_SIZE_PROPERTY,
+                                                                    String.valueOf(Long.MAX_VALUE))));
+    }
+
+    @Override
+    public void write(Collection<WorkflowInstance> instances) {
+        List<byte[]> records = new ArrayList<>(instances.size());
+        instances.forEach(instance -> records.add(InstanceCodec.encode(instance)));
+        lock.writeLock().lock();
+        try {
+            int i = 0;
+            for (WorkflowInstance instance : instances) {
+                Long previous = handles.put(instance.getId(),
+                                            arena.allocate(records.get(i++)));
+                if (previous != null) {
+                    arena.free(previous);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WorkflowInstance read(String instanceId) {
+        byte[] record;
+        lock.readLock().lock();
+        try {
+            Long handle = handles.get(instanceId);
+            if (handle == null) {
+                return null;
+            }
+            record = arena.read(handle);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return InstanceCodec.decode(record);
+    }
+
+    @Override
+    public void delete(Collection<String> instanceIds) {
+        lock.writeLock().lock();
+        try {
+            for (String instanceId : instanceIds) {
+                Long handle = handles.remove(instanceId);
+                if (handle != null) {
+                    arena.free(handle);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<WorkflowInstance> consumer) {
+        List<byte[]> records = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            handles.values().forEach(handle -> records.add(arena.read(handle)));
+        } finally {
+            lock.readLock().unlock();
+        }
+        records.forEach(record -> consumer.accept(InstanceCodec.decode(record)));
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return handles.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isInMemory() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            handles.clear();
+            arena.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return direct memory taken by the store's arena
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            return arena.getAllocatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+
+/**
+ * Read-through, write-through cache in front of another store. The most recently used instances are kept in
+ * their encoded form, so every read returns a fresh copy and callers never share instances through the cache.
+ * <p>
+ * An instance read from the store is only cached if no write or delete of it happened while it was read, so a
+ * read racing with a delete never brings the deleted instance back into the cache.
+ */
+public class ReadThroughCache implements InstanceStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final InstanceStore store;
+    private final Map<String, byte[]> entries;
+    // reads from the store in progress, each removed by a write or delete of its instance meanwhile
+    private final Map<String, Object> loads = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    public ReadThroughCache(InstanceStore store) {
+        this(store,
+             DEFAULT_MAX_ENTRIES);
+    }
+
+    public ReadThroughCache(InstanceStore store,
+                            int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxEntries);
+        }
+        this.store = store;
+        this.entries = new LinkedHashMap<String, byte[]>(16,
+                                                         0.75f,
+                                                         true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public String getType() {
+        return store.getType();
+    }
+
+    @Override
+    public void init(Properties properties) {
+        store.init(properties);
+    }
+
+    @Override
+    public void write(Collection<WorkflowInstance> instances) {
+        store.write(instances);
+        synchronized (entries) {
+            for (WorkflowInstance instance : instances) {
+                loads.remove(instance.getId());
+                entries.put(instance.getId(),
+                            InstanceCodec.encode(instance));
+            }
+        }
+    }
+
+    @Override
+    public WorkflowInstance read(String instanceId) {
+        byte[] cached;
+        Object load = new Object();
+        synchronized (entries) {
+            cached = entries.get(instanceId);
+            if (cached != null) {
+                hits++;
+            } else {
+                misses++;
+                loads.put(instanceId,
+                          load);
+            }
+        }
+        if (cached != null) {
+            return InstanceCodec.decode(cached);
+        }
+        WorkflowInstance instance;
+        try {
+            instance = store.read(instanceId);
+        } catch (RuntimeException e) {
+            synchronized (entries) {
+                loads.remove(instanceId,
+                             load);
+            }
+            throw e;
+        }
+        byte[] encoded = instance == null ? null : InstanceCodec.encode(instance);
+        synchronized (entries) {
+            // a write or delete meanwhile removed the load, its own outcome wins
+            if (loads.remove(instanceId,
+                             load) && encoded != null) {
+                entries.put(instanceId,
+                            encoded);
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public void delete(Collection<String> instanceIds) {
+        store.delete(instanceIds);
+        synchronized (entries) {
+            for (String instanceId : instanceIds) {
+                loads.remove(instanceId);
+                entries.remove(instanceId);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<WorkflowInstance> consumer) {
+        store.forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public void close() {
+        synchronized (entries) {
+            loads.clear();
+            entries.clear();
+        }
+        store.close();
+    }
+
+    public InstanceStore getStore() {
+        return store;
+    }
+
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+}
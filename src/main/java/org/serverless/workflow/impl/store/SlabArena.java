@@ -0,0 +1,304 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl.store;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Slab allocator over direct buffers, holding records outside the Java heap. Memory is taken from the system a
+ * slab at a time and each slab is cut into chunks of one size class, the classes growing by a quarter from
+ * {@link #MIN_CHUNK_SIZE} up to the slab size. A record is stored in the smallest chunk that holds it and its
+ * length, and freed chunks go to the free list of their class for reuse. Records larger than a slab get a direct
+ * buffer of their own, released when they are freed; regular slabs are kept for the life of the arena.
+ * <p>
+ * Records are addressed by handles packing the slab index and the chunk offset into a long, so an index of the
+ * records only keeps primitives on the heap. The arena is not thread-safe.
+ */
+public class SlabArena {
+
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+    public static final int MIN_CHUNK_SIZE = 64;
+
+    private static final int LENGTH_SIZE = 4;
+
+    private final int slabSize;
+    private final long maxBytes;
+    private final int[] chunkSizes;
+    private final LongStack[] freeChunks;
+    // offset of the next chunk never handed out in the last slab of each class, or -1 if there is none
+    private final int[] nextChunks;
+    private final int[] currentSlabs;
+    private final List<Slab> slabs = new ArrayList<>();
+    private final IntStack freeSlabs = new IntStack();
+    private long allocatedBytes;
+    private long usedBytes;
+
+    public SlabArena() {
+        this(DEFAULT_SLAB_SIZE,
+             Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytes limit on the direct memory taken for slabs and large records
+     */
+    public SlabArena(int slabSize,
+                     long maxBytes) {
+        if (slabSize < MIN_CHUNK_SIZE || maxBytes < slabSize) {
+            throw new IllegalArgumentException("Invalid slab size " + slabSize + " or arena size " + maxBytes);
+        }
+        this.slabSize = slabSize;
+        this.maxBytes = maxBytes;
+        List<Integer> sizes = new ArrayList<>();
+        for (long size = MIN_CHUNK_SIZE; size < slabSize; size = (size + size / 4 + 7) & ~7) {
+            sizes.add((int) size);
+        }
+        sizes.add(slabSize);
+        this.chunkSizes = sizes.stream().mapToInt(Integer::intValue).toArray();
+        this.freeChunks = new LongStack[chunkSizes.length];
+        for (int i = 0; i < freeChunks.length; i++) {
+            freeChunks[i] = new LongStack();
+        }
+        this.nextChunks = new int[chunkSizes.length];
+        Arrays.fill(nextChunks,
+                    -1);
+        this.currentSlabs = new int[chunkSizes.length];
+    }
+
+    /**
+     * Copies a record into the arena.
+     * @return handle to read and free the record with
+     * @throws IllegalStateException if the arena is at its size limit
+     */
+    public long allocate(byte[] record) {
+        int size = LENGTH_SIZE + record.length;
+        long handle = size > slabSize ? allocateLarge(size) : allocateChunk(sizeClass(size));
+        Slab slab = slabs.get(slabIndex(handle));
+        int offset = offset(handle);
+        slab.buffer.putInt(offset,
+                           record.length);
+        ByteBuffer target = slab.buffer.duplicate();
+        target.position(offset + LENGTH_SIZE);
+        target.put(record);
+        usedBytes += slab.chunkSize;
+        return handle;
+    }
+
+    /**
+     * @return copy of the record with the handle
+     */
+    public byte[] read(long handle) {
+        Slab slab = slab(handle);
+        int offset = offset(handle);
+        byte[] record = new byte[slab.buffer.getInt(offset)];
+        ByteBuffer source = slab.buffer.duplicate();
+        source.position(offset + LENGTH_SIZE);
+        source.get(record);
+        return record;
+    }
+
+    public void free(long handle) {
+        int index = slabIndex(handle);
+        Slab slab = slab(handle);
+        usedBytes -= slab.chunkSize;
+        if (slab.sizeClass < 0) {
+            slabs.set(index,
+                      null);
+            freeSlabs.push(index);
+            allocatedBytes -= slab.chunkSize;
+            return;
+        }
+        freeChunks[slab.sizeClass].push(handle);
+    }
+
+    /**
+     * Drops all slabs, leaving their memory to be released with the buffers.
+     */
+    public void clear() {
+        slabs.clear();
+        freeSlabs.clear();
+        for (LongStack free : freeChunks) {
+            free.clear();
+        }
+        Arrays.fill(nextChunks,
+                    -1);
+        allocatedBytes = 0;
+        usedBytes = 0;
+    }
+
+    /**
+     * @return direct memory taken by the arena
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return memory of the chunks holding records, including what their records leave unused
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    private long allocateChunk(int sizeClass) {
+        LongStack free = freeChunks[sizeClass];
+        if (!free.isEmpty()) {
+            return free.pop();
+        }
+        int chunkSize = chunkSizes[sizeClass];
+        if (nextChunks[sizeClass] < 0 || nextChunks[sizeClass] + chunkSize > slabSize) {
+            currentSlabs[sizeClass] = addSlab(slabSize,
+                                              sizeClass,
+                                              chunkSize);
+            nextChunks[sizeClass] = 0;
+        }
+        long handle = handle(currentSlabs[sizeClass],
+                             nextChunks[sizeClass]);
+        nextChunks[sizeClass] += chunkSize;
+        return handle;
+    }
+
+    private long allocateLarge(int size) {
+        return handle(addSlab(size,
+                              -1,
+                              size),
+                      0);
+    }
+
+    private int addSlab(int capacity,
+                        int sizeClass,
+                        int chunkSize) {
+        if (allocatedBytes + capacity > maxBytes) {
+            throw new IllegalStateException("Arena is full: " + allocatedBytes + " of " + maxBytes + " bytes allocated");
+        }
+        Slab slab = new Slab(ByteBuffer.allocateDirect(capacity),
+                             sizeClass,
+                             chunkSize);
+        allocatedBytes += capacity;
+        if (!freeSlabs.isEmpty()) {
+            int index = freeSlabs.pop();
+            slabs.set(index,
+                      slab);
+            return index;
+        }
+        slabs.add(slab);
+        return slabs.size() - 1;
+    }
+
+    private int sizeClass(int size) {
+        int index = Arrays.binarySearch(chunkSizes,
+                                        size);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private Slab slab(long handle) {
+        int index = slabIndex(handle);
+        Slab slab = index < slabs.size() ? slabs.get(index) : null;
+        if (slab == null) {
+            throw new IllegalArgumentException("Invalid handle " + handle);
+        }
+        return slab;
+    }
+
+    private static long handle(int slabIndex,
+                               int offset) {
+        return ((long) slabIndex << 32) | offset;
+    }
+
+    private static int slabIndex(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+    private static final class Slab {
+
+        private final ByteBuffer buffer;
+        // -1 for a buffer holding a single large record
+        private final int sizeClass;
+        private final int chunkSize;
+
+        private Slab(ByteBuffer buffer,
+                     int sizeClass,
+                     int chunkSize) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    private static final class LongStack {
+
+        private long[] values = new long[16];
+        private int size;
+
+        private void push(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values,
+                                       size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private long pop() {
+            return values[--size];
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+
+    private static final class IntStack {
+
+        private int[] values = new int[16];
+        private int size;
+
+        private void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values,
+                                       size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int pop() {
+            return values[--size];
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+}
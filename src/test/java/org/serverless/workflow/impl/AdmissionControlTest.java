@@ -0,0 +1,235 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.admission.AdmissionController;
+import org.serverless.workflow.impl.admission.AdmissionPolicy;
+import org.serverless.workflow.impl.admission.AdmissionRejectedException;
+import org.serverless.workflow.impl.admission.LatencyTracker;
+import org.serverless.workflow.impl.admission.Priority;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdmissionControlTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+    }
+
+    @Test
+    public void testLimitsAndPriorities() {
+        AdmissionController controller = new AdmissionController();
+        assertNull(controller.check("any",
+                                    1000000,
+                                    1000000));
+
+        controller.setPolicy(new AdmissionPolicy(100,
+                                                 10,
+                                                 0,
+                                                 0.5));
+        controller.setPriority("batch",
+                               Priority.LOW);
+        controller.setPriority("payments",
+                               Priority.HIGH);
+
+        assertNull(controller.check("orders",
+                                    99,
+                                    9));
+        assertEquals(AdmissionRejectedException.Reason.QUEUE_DEPTH,
+                     controller.check("orders",
+                                      100,
+                                      0));
+        assertEquals(AdmissionRejectedException.Reason.IN_FLIGHT_INSTANCES,
+                     controller.check("orders",
+                                      0,
+                                      10));
+
+        assertEquals(AdmissionRejectedException.Reason.IN_FLIGHT_INSTANCES,
+                     controller.check("batch",
+                                      0,
+                                      5));
+        assertEquals(AdmissionRejectedException.Reason.QUEUE_DEPTH,
+                     controller.check("batch",
+                                      50,
+                                      0));
+
+        assertNull(controller.check("payments",
+                                    99,
+                                    1000));
+        assertEquals(AdmissionRejectedException.Reason.QUEUE_DEPTH,
+                     controller.check("payments",
+                                      100,
+                                      0));
+        assertEquals(5,
+                     controller.getRejectedCount());
+
+        AdmissionRejectedException rejection = assertThrows(AdmissionRejectedException.class,
+                                                            () -> controller.admit("batch",
+                                                                                   0,
+                                                                                   7));
+        assertEquals(Priority.LOW,
+                     rejection.getPriority());
+        assertEquals("batch",
+                     rejection.getName());
+        assertTrue(rejection.getMessage().contains("7 instances in flight"));
+    }
+
+    @Test
+    public void testLatencyLimit() {
+        AdmissionController controller = new AdmissionController();
+        controller.setPolicy(new AdmissionPolicy(0,
+                                                 0,
+                                                 50));
+        controller.setPriority("payments",
+                               Priority.HIGH);
+        for (int i = 0; i < 100; i++) {
+            controller.getLatencyTracker().record(10,
+                                                  TimeUnit.MILLISECONDS);
+        }
+        controller.refreshLatency();
+        assertNull(controller.check("orders",
+                                    0,
+                                    0));
+
+        for (int i = 0; i < 10; i++) {
+            controller.getLatencyTracker().record(200,
+                                                  TimeUnit.MILLISECONDS);
+        }
+        // checks use the percentile of the last refresh
+        assertNull(controller.check("orders",
+                                    0,
+                                    0));
+        controller.refreshLatency();
+        assertTrue(controller.getP99LatencyMillis() >= 200);
+        assertEquals(AdmissionRejectedException.Reason.LATENCY,
+                     controller.check("orders",
+                                      0,
+                                      0));
+        assertNull(controller.check("payments",
+                                    0,
+                                    0));
+    }
+
+    @Test
+    public void testLatencyPercentiles() throws Exception {
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(0,
+                     tracker.getPercentileMicros(0.99));
+        for (int i = 1; i <= 1000; i++) {
+            tracker.record(i,
+                           TimeUnit.MILLISECONDS);
+        }
+        long p99 = tracker.getPercentileMicros(0.99);
+        assertTrue(p99 >= 990000 && p99 <= 990000 * 1.125,
+                   "p99 " + p99);
+        long p50 = tracker.getPercentileMicros(0.5);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125,
+                   "p50 " + p50);
+
+        LatencyTracker shortWindow = new LatencyTracker(20,
+                                                        TimeUnit.MILLISECONDS);
+        shortWindow.record(1,
+                           TimeUnit.SECONDS);
+        assertTrue(shortWindow.getP99Millis() >= 1000);
+        Thread.sleep(60);
+        assertEquals(0,
+                     shortWindow.getP99Millis());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testEngineShedsLowPriorityFirst(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        engine.getAdmissionController().setPolicy(new AdmissionPolicy(0,
+                                                                      10,
+                                                                      0,
+                                                                      0.5));
+
+        List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            instances.add(engine.start("order",
+                                       null,
+                                       mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+        }
+        assertEquals(5,
+                     engine.getInFlightInstances());
+
+        engine.getAdmissionController().setPriority("order",
+                                                    Priority.LOW);
+        ExecutionException rejected = assertThrows(ExecutionException.class,
+                                                   () -> engine.start("order",
+                                                                      null,
+                                                                      mapper.readTree("{\"orderId\":\"order-5\"}")).get(5,
+                                                                                                                        TimeUnit.SECONDS));
+        assertTrue(rejected.getCause() instanceof AdmissionRejectedException);
+        assertEquals(AdmissionRejectedException.Reason.IN_FLIGHT_INSTANCES,
+                     ((AdmissionRejectedException) rejected.getCause()).getReason());
+
+        engine.getAdmissionController().setPriority("payment-trigger",
+                                                    Priority.LOW);
+        assertFalse(engine.trySignal(new EventMessage("payment-trigger",
+                                                      "order-0",
+                                                      null)));
+        engine.getAdmissionController().setPriority("payment-trigger",
+                                                    Priority.NORMAL);
+        for (int i = 0; i < 5; i++) {
+            engine.signal(new EventMessage("payment-trigger",
+                                           "order-" + i,
+                                           null));
+        }
+        for (CompletableFuture<WorkflowInstance> instance : instances) {
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.get(5,
+                                      TimeUnit.SECONDS).getStatus());
+        }
+        assertEquals(0,
+                     engine.getInFlightInstances());
+        engine.start("order",
+                     null,
+                     mapper.readTree("{\"orderId\":\"order-6\"}"));
+        assertEquals(1,
+                     engine.getInFlightInstances());
+    }
+}
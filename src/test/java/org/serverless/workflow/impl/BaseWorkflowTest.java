@@ -25,6 +25,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 import org.junit.jupiter.api.Assertions;
 import org.serverless.workflow.api.WorkflowManager;
@@ -70,4 +71,16 @@ public class BaseWorkflowTest {
                                           error));
         }
     }
+
+    /**
+     * Polls the condition until it holds, failing the test after ten seconds.
+     */
+    public static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline,
+                                  "condition not met in time");
+            Thread.sleep(5);
+        }
+    }
 }
\ No newline at end of file
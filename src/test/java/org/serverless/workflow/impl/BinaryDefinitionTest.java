@@ -0,0 +1,99 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.impl.manager.WorkflowManagerImpl;
+import org.serverless.workflow.impl.mapper.SmileObjectMapper;
+import org.serverless.workflow.impl.util.TestExtensionImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BinaryDefinitionTest extends BaseWorkflowTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"basic/singleeventstate.json", "basic/singleeventstate.yml",
+            "basic/singleswitchstateandchoice.json", "basic/singleswitchstateandchoice.yml",
+            "basic/singleparallelstate.json", "basic/singleparallelstate.yml",
+            "basic/workflowwithmetadata.json", "basic/workflowwithmetadata.yml",
+            "subflows/parentworkflow.json", "subflows/parentworkflow.yml"})
+    public void testBinaryRoundTrip(String model) {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        workflowManager.setMarkup(getFileContents(getResourcePath(model)));
+        String json = workflowManager.toJson();
+
+        byte[] binary = workflowManager.toBinary();
+        assertNotNull(binary);
+        assertTrue(SmileObjectMapper.isSmile(binary));
+
+        workflowManager.setWorkflow(workflowManager.toWorkflow(binary));
+        assertEquals(json,
+                     workflowManager.toJson());
+    }
+
+    @Test
+    public void testMarkupBytesAreReadAsText() {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        byte[] markup = getFileContents(getResourcePath("basic/singleeventstate.yml")).getBytes(StandardCharsets.UTF_8);
+        assertFalse(SmileObjectMapper.isSmile(markup));
+
+        Workflow workflow = workflowManager.toWorkflow(markup);
+        assertNotNull(workflow);
+        assertEquals(1,
+                     workflow.getStates().size());
+    }
+
+    @Test
+    public void testBinaryValuesAreNotLookedUp() {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        // resolved values that happen to name a property stay as they are
+        workflowManager.setWorkflow(new Workflow().withId("abc")
+                                            .withName("workflow.name")
+                                            .withVersion("1.0"));
+
+        Workflow workflow = workflowManager.toWorkflow(workflowManager.toBinary());
+        assertEquals("workflow.name",
+                     workflow.getName());
+        assertEquals("test-wf",
+                     workflowManager.getPropertySource().getPropertySource().getProperty("workflow.name"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"extensions/singleextension.json", "extensions/singleextension.yml"})
+    public void testBinaryExtensions(String model) {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        workflowManager.registerExtension("testextension",
+                                          TestExtensionImpl.class);
+        workflowManager.setMarkup(getFileContents(getResourcePath(model)));
+
+        Workflow workflow = workflowManager.toWorkflow(workflowManager.toBinary());
+        assertEquals(1,
+                     workflow.getExtensions().size());
+        assertTrue(workflow.getExtensions().get(0) instanceof TestExtensionImpl);
+        assertEquals("testvalue1",
+                     ((TestExtensionImpl) workflow.getExtensions().get(0)).getTestparam1());
+    }
+}
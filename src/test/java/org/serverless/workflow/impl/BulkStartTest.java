@@ -0,0 +1,225 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.admission.InstanceQuota;
+import org.serverless.workflow.impl.events.RingBuffer;
+import org.serverless.workflow.impl.functions.FunctionDispatcher;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.journal.FileJournal;
+import org.serverless.workflow.impl.journal.JournalManager;
+import org.serverless.workflow.impl.journal.RecordType;
+import org.serverless.workflow.impl.runtime.BulkStart;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+import org.serverless.workflow.impl.util.LocalFunctionInvokerImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BulkStartTest extends BaseWorkflowTest {
+
+    private static final int PARTITIONS = 4;
+
+    @TempDir
+    Path directory;
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private FunctionDispatcher functionDispatcher = new FunctionDispatcher();
+    private WorkflowEngine engine = new WorkflowEngine(catalog,
+                                                       functionDispatcher,
+                                                       new RingBuffer<>(),
+                                                       PARTITIONS);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        functionDispatcher.shutdown();
+        LocalFunctionInvokerImpl.clearHandlers();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"subflows/childworkflow.json", "subflows/childworkflow.yml"})
+    public void testStartAllFromStream(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        functionDispatcher.setBulkheadLimits("enrichFunction",
+                                             8,
+                                             10000);
+
+        int count = 3000;
+        Set<Integer> partitions = ConcurrentHashMap.newKeySet();
+        Map<Integer, Boolean> enriched = new ConcurrentHashMap<>();
+        BulkStart bulkStart = engine.startAll("child",
+                                              null,
+                                              IntStream.range(0,
+                                                              count).mapToObj(this::input),
+                                              (instance, error) -> {
+                                                  partitions.add(engine.getPartition(instance.getId()));
+                                                  enriched.put(instance.getData().get("index").asInt(),
+                                                               instance.getData().get("enriched").asBoolean());
+                                              });
+
+        bulkStart.getCompletion().get(30,
+                                      TimeUnit.SECONDS);
+        assertEquals(count,
+                     bulkStart.getStarted());
+        assertEquals(count,
+                     bulkStart.getCompleted());
+        assertEquals(0,
+                     bulkStart.getFailed());
+        assertEquals(count,
+                     enriched.size());
+        assertTrue(enriched.values().stream().allMatch(Boolean::booleanValue));
+        assertEquals(PARTITIONS,
+                     partitions.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"subflows/childworkflow.json", "subflows/childworkflow.yml"})
+    public void testFailedInstancesAreReported(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        LocalFunctionInvokerImpl.registerHandler("enrichFunction",
+                                                 input -> {
+                                                     if (input.get("index").asInt() % 2 == 1) {
+                                                         throw new IllegalStateException("odd input");
+                                                     }
+                                                     return mapper.createObjectNode().put("enriched",
+                                                                                          true);
+                                                 });
+
+        AtomicInteger failures = new AtomicInteger();
+        BulkStart bulkStart = engine.startAll("child",
+                                              "1.0",
+                                              Arrays.asList(input(0),
+                                                            input(1),
+                                                            input(2),
+                                                            input(3)),
+                                              (instance, error) -> {
+                                                  if (error != null) {
+                                                      assertEquals(InstanceStatus.FAILED,
+                                                                   instance.getStatus());
+                                                      failures.incrementAndGet();
+                                                  }
+                                              });
+
+        bulkStart.getCompletion().get(10,
+                                      TimeUnit.SECONDS);
+        assertEquals(2,
+                     bulkStart.getCompleted());
+        assertEquals(2,
+                     bulkStart.getFailed());
+        assertEquals(2,
+                     failures.get());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"subflows/childworkflow.json", "subflows/childworkflow.yml"})
+    public void testBulkStartIsJournaled(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        functionDispatcher.setBulkheadLimits("enrichFunction",
+                                             8,
+                                             10000);
+
+        int count = 1000;
+        try (JournalManager manager = new JournalManager(directory)) {
+            engine.setJournalManager(manager);
+            engine.startAll("child",
+                            null,
+                            IntStream.range(0,
+                                            count).mapToObj(this::input),
+                            null).getCompletion().get(30,
+                                                      TimeUnit.SECONDS);
+        }
+
+        Map<RecordType, AtomicInteger> records = new ConcurrentHashMap<>();
+        try (FileJournal journal = new FileJournal(directory.resolve("journal"))) {
+            journal.replay(0,
+                           record -> records.computeIfAbsent(record.getType(),
+                                                             type -> new AtomicInteger()).incrementAndGet());
+        }
+        assertEquals(count,
+                     records.get(RecordType.INSTANCE_STARTED).get());
+        assertEquals(count,
+                     records.get(RecordType.INSTANCE_FINISHED).get());
+    }
+
+    @Test
+    public void testUnreadableInputReleasesBufferedInstances() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("subflows/childworkflow.json"))));
+        engine.getInstanceQuotas().setQuota("child",
+                                            "1.0",
+                                            new InstanceQuota(0,
+                                                              0,
+                                                              100));
+
+        AtomicInteger failures = new AtomicInteger();
+        assertThrows(IllegalStateException.class,
+                     () -> engine.startAll("child",
+                                           null,
+                                           IntStream.range(0,
+                                                           40).mapToObj(i -> {
+                                               if (i == 30) {
+                                                   throw new IllegalStateException("unreadable input");
+                                               }
+                                               return input(i);
+                                           }),
+                                           (instance, error) -> failures.incrementAndGet()));
+        // the instances buffered for their partitions are failed rather than left in flight
+        assertEquals(30,
+                     failures.get());
+        assertEquals(0,
+                     engine.getInFlightInstances());
+        assertEquals(0,
+                     engine.getInstanceQuotas().limiterFor("child",
+                                                           "1.0",
+                                                           null).getRunning());
+    }
+
+    @Test
+    public void testUnknownWorkflow() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> engine.startAll("unknown",
+                                           null,
+                                           Arrays.asList(input(0)),
+                                           null));
+    }
+
+    private JsonNode input(int index) {
+        return mapper.createObjectNode().put("index",
+                                             index);
+    }
+}
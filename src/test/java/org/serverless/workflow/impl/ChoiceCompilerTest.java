@@ -0,0 +1,299 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.api.WorkflowManager;
+import org.serverless.workflow.api.choices.AndChoice;
+import org.serverless.workflow.api.choices.DefaultChoice;
+import org.serverless.workflow.api.choices.SingleChoice;
+import org.serverless.workflow.api.interfaces.Choice;
+import org.serverless.workflow.api.states.SwitchState;
+import org.serverless.workflow.impl.choices.ChoiceCompiler;
+import org.serverless.workflow.impl.choices.ChoicePredicate;
+import org.serverless.workflow.impl.choices.ComparisonPredicate;
+import org.serverless.workflow.impl.choices.CompiledSwitchState;
+import org.serverless.workflow.impl.choices.IntervalDecision;
+import org.serverless.workflow.impl.choices.JsonPath;
+import org.serverless.workflow.impl.choices.LookupDecision;
+import org.serverless.workflow.impl.choices.SequentialDecision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChoiceCompilerTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"basic/singleswitchstatesinglechoice.json", "basic/singleswitchstatesinglechoice.yml"})
+    public void testSingleChoice(String model) throws Exception {
+        CompiledSwitchState switchState = compileFirstState(model);
+
+        assertEquals("testnextstate",
+                     switchState.evaluate(mapper.readTree("{\"testpath\":\"testvalue\"}")));
+        assertEquals("defaultteststate",
+                     switchState.evaluate(mapper.readTree("{\"testpath\":\"othervalue\"}")));
+        assertEquals("defaultteststate",
+                     switchState.evaluate(mapper.readTree("{}")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"basic/singleswitchstateandchoice.json", "basic/singleswitchstateorchoice.json"})
+    public void testAndOrChoice(String model) throws Exception {
+        CompiledSwitchState switchState = compileFirstState(model);
+
+        assertEquals("testnextstate",
+                     switchState.evaluate(mapper.readTree("{\"testpath\":\"testvalue\"}")));
+        assertEquals("defaultteststate",
+                     switchState.evaluate(mapper.readTree("{\"testpath\":\"othervalue\"}")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"basic/singleswitchstatenotchoice.json", "basic/singleswitchstatenotchoice.yml"})
+    public void testNotChoice(String model) throws Exception {
+        CompiledSwitchState switchState = compileFirstState(model);
+
+        assertEquals("defaultteststate",
+                     switchState.evaluate(mapper.readTree("{\"testpath\":\"testvalue\"}")));
+        assertEquals("testnextstate",
+                     switchState.evaluate(mapper.readTree("{\"testpath\":\"othervalue\"}")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"choices/switchstatecomparisons.json", "choices/switchstatecomparisons.yml"})
+    public void testComparisons(String model) throws Exception {
+        CompiledSwitchState switchState = compileFirstState(model);
+
+        assertEquals("premium",
+                     switchState.evaluate(mapper.readTree("{\"order\":{\"total\":150,\"customer\":{\"type\":\"gold\"}}}")));
+        assertEquals("express",
+                     switchState.evaluate(mapper.readTree("{\"order\":{\"total\":150,\"customer\":{\"type\":\"silver\"},\"items\":[{\"category\":\"electronics\"}]}}")));
+        assertEquals("express",
+                     switchState.evaluate(mapper.readTree("{\"order\":{\"total\":50.5,\"express\":true}}")));
+        assertEquals("standard",
+                     switchState.evaluate(mapper.readTree("{\"order\":{\"total\":50,\"express\":false}}")));
+        assertEquals("rejected",
+                     switchState.evaluate(mapper.readTree("{\"order\":{\"total\":5}}")));
+    }
+
+    @Test
+    public void testCompileFromWorkflowModel() throws Exception {
+        SwitchState switchState = new SwitchState().withName("test-state").withDefault("defaultteststate").withEnd(false);
+        switchState.setChoices(Arrays.asList(
+                new AndChoice().withNextState("testnextstate").withAnd(
+                        Arrays.asList(
+                                new DefaultChoice()
+                                        .withOperator(DefaultChoice.Operator.EQUALS)
+                                        .withPath("$.customer.name")
+                                        .withValue("testname")
+                        )
+                )
+        ));
+
+        CompiledSwitchState compiledSwitchState = ChoiceCompiler.compile(switchState);
+        assertEquals("test-state",
+                     compiledSwitchState.getName());
+        assertEquals("testnextstate",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"name\":\"testname\"}}")));
+        assertEquals("defaultteststate",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":\"testname\"}")));
+    }
+
+    @Test
+    public void testInvalidChoices() {
+        SwitchState switchState = new SwitchState().withName("test-state").withDefault("defaultteststate").withEnd(false);
+        switchState.setChoices(Arrays.asList(new AndChoice().withNextState("testnextstate")));
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> ChoiceCompiler.compile(switchState));
+        assertThrows(IllegalArgumentException.class,
+                     () -> JsonPath.compile("$.items[first]"));
+    }
+
+    @Test
+    public void testJsonPath() throws Exception {
+        JsonPath path = JsonPath.compile("$.order.items[1].name");
+        assertEquals("second",
+                     path.resolve(mapper.readTree("{\"order\":{\"items\":[{\"name\":\"first\"},{\"name\":\"second\"}]}}")).asText());
+        assertNull(path.resolve(mapper.readTree("{\"order\":{\"items\":[]}}")));
+        assertEquals("value",
+                     JsonPath.compile("key").resolve(mapper.readTree("{\"key\":\"value\"}")).asText());
+    }
+
+    @Test
+    public void testJsonPathEquality() {
+        assertEquals(JsonPath.compile("$.order.items[0]"),
+                     JsonPath.compile("order.items[0]"));
+        assertEquals(JsonPath.compile("$.order.items[0]").hashCode(),
+                     JsonPath.compile(".order.items[0]").hashCode());
+        assertNotEquals(JsonPath.compile("$.order.items[0]"),
+                        JsonPath.compile("$.order.items[1]"));
+        assertNotEquals(JsonPath.compile("$.order"),
+                        JsonPath.compile("$.orders"));
+    }
+
+    @Test
+    public void testMismatchedTypes() throws Exception {
+        JsonNode data = mapper.readTree("{\"count\":5,\"flag\":true,\"items\":[1]}");
+
+        assertTrue(new ComparisonPredicate(JsonPath.compile("count"),
+                                           ComparisonPredicate.Comparison.NOT_EQUALS,
+                                           "five").test(data));
+        assertFalse(new ComparisonPredicate(JsonPath.compile("count"),
+                                            ComparisonPredicate.Comparison.EQUALS,
+                                            "five").test(data));
+        assertFalse(new ComparisonPredicate(JsonPath.compile("count"),
+                                            ComparisonPredicate.Comparison.LESS_THAN,
+                                            "five").test(data));
+        assertTrue(new ComparisonPredicate(JsonPath.compile("flag"),
+                                           ComparisonPredicate.Comparison.NOT_EQUALS,
+                                           "yes").test(data));
+        assertTrue(new ComparisonPredicate(JsonPath.compile("items"),
+                                           ComparisonPredicate.Comparison.NOT_EQUALS,
+                                           "1").test(data));
+        assertFalse(new ComparisonPredicate(JsonPath.compile("missing"),
+                                            ComparisonPredicate.Comparison.NOT_EQUALS,
+                                            "1").test(data));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"choices/switchstateintervals.json", "choices/switchstateintervals.yml"})
+    public void testIntervalDecision(String model) throws Exception {
+        CompiledSwitchState switchState = compileFirstState(model);
+        assertTrue(switchState.getDecision() instanceof IntervalDecision);
+
+        assertEquals("negative",
+                     switchState.evaluate(mapper.readTree("{\"score\":-1}")));
+        assertEquals("fail",
+                     switchState.evaluate(mapper.readTree("{\"score\":0}")));
+        assertEquals("fail",
+                     switchState.evaluate(mapper.readTree("{\"score\":49.9}")));
+        assertEquals("borderline",
+                     switchState.evaluate(mapper.readTree("{\"score\":50}")));
+        assertEquals("pass",
+                     switchState.evaluate(mapper.readTree("{\"score\":50.1}")));
+        assertEquals("credit",
+                     switchState.evaluate(mapper.readTree("{\"score\":74}")));
+        assertEquals("highdistinction",
+                     switchState.evaluate(mapper.readTree("{\"score\":100}")));
+        assertEquals("outofrange",
+                     switchState.evaluate(mapper.readTree("{\"score\":100.5}")));
+        assertEquals("outofrange",
+                     switchState.evaluate(mapper.readTree("{\"score\":\"abc\"}")));
+        assertEquals("outofrange",
+                     switchState.evaluate(mapper.readTree("{}")));
+    }
+
+    @Test
+    public void testLookupDecision() throws Exception {
+        List<Choice> choices = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            choices.add(equalsChoice("$.customer.country",
+                                     "country-" + i,
+                                     "state-" + i));
+        }
+        choices.add(equalsChoice("$.customer.country",
+                                 "country-1",
+                                 "duplicate-state"));
+        choices.add(equalsChoice("$.customer.country",
+                                 "42",
+                                 "numeric-state"));
+        choices.add(equalsChoice("$.customer.country",
+                                 "true",
+                                 "boolean-state"));
+
+        SwitchState switchState = new SwitchState().withName("test-state").withDefault("defaultteststate").withEnd(false);
+        switchState.setChoices(choices);
+        CompiledSwitchState compiledSwitchState = ChoiceCompiler.compile(switchState);
+        assertTrue(compiledSwitchState.getDecision() instanceof LookupDecision);
+
+        assertEquals("state-0",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"country\":\"country-0\"}}")));
+        assertEquals("state-1",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"country\":\"country-1\"}}")));
+        assertEquals("state-199",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"country\":\"country-199\"}}")));
+        assertEquals("numeric-state",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"country\":42.0}}")));
+        assertEquals("numeric-state",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"country\":\"42\"}}")));
+        assertEquals("boolean-state",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"country\":true}}")));
+        assertEquals("defaultteststate",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{\"country\":\"country-200\"}}")));
+        assertEquals("defaultteststate",
+                     compiledSwitchState.evaluate(mapper.readTree("{\"customer\":{}}")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"choices/switchstateintervals.json", "choices/switchstateintervals.yml"})
+    public void testDecisionTablesMatchSequentialEvaluation(String model) throws Exception {
+        WorkflowManager workflowManager = getWorkflowManager();
+        workflowManager.setMarkup(getFileContents(getResourcePath(model)));
+        SwitchState switchState = (SwitchState) workflowManager.getWorkflow().getStates().get(0);
+
+        CompiledSwitchState compiledSwitchState = ChoiceCompiler.compile(switchState);
+        SequentialDecision sequentialDecision = new SequentialDecision(switchState.getChoices().stream().map(ChoiceCompiler::compile).toArray(ChoicePredicate[]::new),
+                                                                       switchState.getChoices().stream().map(ChoiceCompiler::getNextState).toArray(String[]::new),
+                                                                       switchState.getDefault());
+
+        for (double score = -10; score <= 110; score += 0.5) {
+            JsonNode data = mapper.readTree("{\"score\":" + score + "}");
+            assertEquals(sequentialDecision.decide(data),
+                         compiledSwitchState.evaluate(data));
+        }
+    }
+
+    private SingleChoice equalsChoice(String path,
+                                      String value,
+                                      String nextState) {
+        SingleChoice choice = new SingleChoice();
+        choice.setPath(path);
+        choice.setValue(value);
+        choice.setOperator(DefaultChoice.Operator.EQUALS);
+        choice.setNextState(nextState);
+        return choice;
+    }
+
+    private CompiledSwitchState compileFirstState(String model) {
+        WorkflowManager workflowManager = getWorkflowManager();
+        assertNotNull(workflowManager);
+        workflowManager.setMarkup(getFileContents(getResourcePath(model)));
+
+        Map<String, CompiledSwitchState> compiledSwitchStates = ChoiceCompiler.compileAll(workflowManager.getWorkflow());
+        CompiledSwitchState switchState = compiledSwitchStates.get(workflowManager.getWorkflow().getStates().get(0).getName());
+        assertNotNull(switchState);
+        return switchState;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.journal.JournalManager;
+import org.serverless.workflow.impl.journal.JournalRecord;
+import org.serverless.workflow.impl.journal.TimerStore;
+import org.serverless.workflow.impl.runtime.CorrelationStore;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.InstanceHandle;
+import org.serverless.workflow.impl.runtime.PartitionGate;
+import org.serverless.workflow.impl.runtime.PartitionedRecovery;
+import org.serverless.workflow.impl.runtime.TimerWheel;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DurableTimerTest extends BaseWorkflowTest {
+
+    private static final long NOW = 1_000_000;
+
+    @TempDir
+    Path directory;
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+    }
+
+    @Test
+    public void testFarBucketsLoadLazily() throws Exception {
+        TimerStore store = new TimerStore(directory,
+                                          1000,
+                                          2);
+        assertFalse(store.schedule("instance-1",
+                                   "delay",
+                                   NOW + 500));
+        assertFalse(store.schedule("instance-2",
+                                   "delay",
+                                   NOW + 2500));
+        assertFalse(store.schedule("instance-3",
+                                   "delay",
+                                   NOW + 100_000));
+        assertFalse(store.schedule("instance-4",
+                                   "delay",
+                                   NOW + 600));
+        store.remove("instance-4",
+                     "delay",
+                     NOW + 600);
+
+        TimerStore restarted = new TimerStore(directory,
+                                              1000,
+                                              2);
+        assertEquals(3,
+                     restarted.getUnloadedBuckets());
+        assertEquals(deadlines("instance-1",
+                               NOW + 500,
+                               "instance-2",
+                               NOW + 2500),
+                     deadlines(restarted.load(NOW)));
+        assertEquals(1,
+                     restarted.getUnloadedBuckets());
+        assertEquals(2,
+                     restarted.getLoadedTimers());
+        assertTrue(restarted.schedule("instance-5",
+                                      "delay",
+                                      NOW + 1500));
+
+        assertEquals(deadlines("instance-3",
+                               NOW + 100_000),
+                     deadlines(restarted.load(NOW + 99_000)));
+        restarted.remove("instance-1",
+                         "delay",
+                         NOW + 500);
+        restarted.remove("instance-2",
+                         "delay",
+                         NOW + 2500);
+        restarted.remove("instance-3",
+                         "delay",
+                         NOW + 100_000);
+        restarted.remove("instance-5",
+                         "delay",
+                         NOW + 1500);
+        restarted.load(NOW + 200_000);
+        assertEquals(0,
+                     bucketFiles().size());
+    }
+
+    @Test
+    public void testTruncatedRecordsAreIgnored() throws Exception {
+        TimerStore store = new TimerStore(directory,
+                                          1000,
+                                          0);
+        store.schedule("instance-1",
+                       "delay",
+                       NOW + 100);
+        Path bucket = bucketFiles().get(0);
+        Files.write(bucket,
+                    new byte[]{0, 0, 0, 40, 1, 2, 3},
+                    StandardOpenOption.APPEND);
+
+        assertEquals(deadlines("instance-1",
+                               NOW + 100),
+                     deadlines(new TimerStore(directory,
+                                              1000,
+                                              0).load(NOW)));
+    }
+
+    @Test
+    public void testRecoverySchedulesNearTimersOnly() throws Exception {
+        long now = System.currentTimeMillis();
+        TimerStore store = new TimerStore(directory.resolve("timers"));
+        try (JournalManager manager = new JournalManager(directory.resolve("journal"))) {
+            for (int i = 0; i < 20; i++) {
+                String instanceId = "instance-" + i;
+                long deadline = i % 2 == 0 ? now + 1000 : now + TimeUnit.DAYS.toMillis(30);
+                manager.append(JournalRecord.instanceStarted(instanceId,
+                                                             "delayed-order",
+                                                             "1.0",
+                                                             "{}".getBytes())).get(5,
+                                                                                   TimeUnit.SECONDS);
+                manager.append(JournalRecord.timerScheduled(instanceId,
+                                                            "wait-for-release",
+                                                            deadline)).get(5,
+                                                                           TimeUnit.SECONDS);
+                store.schedule(instanceId,
+                               "wait-for-release",
+                               deadline);
+            }
+        }
+
+        try (JournalManager manager = new JournalManager(directory.resolve("journal"))) {
+            TimerStore restarted = new TimerStore(directory.resolve("timers"));
+            TimerWheel timerWheel = new TimerWheel();
+            int count = new PartitionedRecovery(manager,
+                                                new CorrelationStore(),
+                                                timerWheel,
+                                                new PartitionGate(4),
+                                                4,
+                                                restarted).recover().get(30,
+                                                                         TimeUnit.SECONDS);
+            assertEquals(20,
+                         count);
+            assertEquals(10,
+                         timerWheel.size());
+            assertEquals(10,
+                         restarted.getLoadedTimers());
+            assertEquals(10,
+                         restarted.load(now + TimeUnit.DAYS.toMillis(30)).size());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"timers/delayedorder.json", "timers/delayedorder.yml"})
+    public void testEnginePagesInStoredTimers(String model) throws Exception {
+        String definition = getFileContents(getResourcePath(model));
+        catalog.register(getWorkflowManager().toWorkflow(definition));
+        catalog.register(getWorkflowManager().toWorkflow(definition.replace("delayed-order",
+                                                                            "sleeping-order")
+                                                                 .replace("PT1S",
+                                                                          "PT1H")));
+        TimerStore store = new TimerStore(directory,
+                                          200,
+                                          0);
+        engine.setTimerStore(store);
+
+        InstanceHandle sleeping = engine.submit("sleeping-order",
+                                                null,
+                                                mapper.createObjectNode());
+        WorkflowInstance delayed = engine.start("delayed-order",
+                                                null,
+                                                mapper.createObjectNode()).get(10,
+                                                                               TimeUnit.SECONDS);
+        assertEquals(InstanceStatus.COMPLETED,
+                     delayed.getStatus());
+        assertEquals(InstanceStatus.WAITING,
+                     sleeping.getStatus());
+        assertEquals(0,
+                     engine.getTimerWheel(engine.getPartition(sleeping.getInstanceId())).size());
+        awaitCondition(() -> bucketFiles().size() == 1);
+
+        assertTrue(sleeping.cancel().get(5,
+                                         TimeUnit.SECONDS));
+        assertEquals(0,
+                     new TimerStore(directory,
+                                    200,
+                                    0).load(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(2)).size());
+    }
+
+    @Test
+    public void testStaleStoredTimerIsRemoved() throws Exception {
+        TimerStore store = new TimerStore(directory,
+                                          200,
+                                          0);
+        store.schedule("unknown-instance",
+                       "delay",
+                       System.currentTimeMillis() + 100);
+        store.close();
+        assertEquals(1,
+                     bucketFiles().size());
+
+        engine.setTimerStore(store);
+        awaitCondition(() -> bucketFiles().isEmpty());
+        assertEquals(0,
+                     store.getLoadedTimers());
+    }
+
+    private List<Path> bucketFiles() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, Long> deadlines(List<TimerStore.StoredTimer> timers) {
+        return timers.stream().collect(Collectors.toMap(TimerStore.StoredTimer::getInstanceId,
+                                                        TimerStore.StoredTimer::getDeadline));
+    }
+
+    private static Map<String, Long> deadlines(Object... instanceDeadlines) {
+        Map<String, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < instanceDeadlines.length; i += 2) {
+            deadlines.put((String) instanceDeadlines[i],
+                          (Long) instanceDeadlines[i + 1]);
+        }
+        return deadlines;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.events.BatchEventProcessor;
+import org.serverless.workflow.impl.events.RingBuffer;
+import org.serverless.workflow.impl.events.WaitStrategies;
+import org.serverless.workflow.impl.events.WaitStrategy;
+import org.serverless.workflow.impl.functions.FunctionDispatcher;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class EventIngestionTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"busy-spin", "yielding", "sleeping", "blocking"})
+    public void testConcurrentProducers(String waitStrategy) throws Exception {
+        int producers = 4;
+        int eventsPerProducer = 20000;
+        RingBuffer<long[]> ringBuffer = new RingBuffer<>(256,
+                                                         waitStrategy(waitStrategy),
+                                                         waitStrategy(waitStrategy));
+        long[] lastSequences = new long[producers];
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch received = new CountDownLatch(producers * eventsPerProducer);
+        List<String> outOfOrder = Collections.synchronizedList(new ArrayList<>());
+        Arrays.fill(lastSequences,
+                              -1);
+
+        BatchEventProcessor<long[]> processor = new BatchEventProcessor<>("test-events",
+                                                                          ringBuffer,
+                                                                          64,
+                                                                          batch -> {
+                                                                              batchSizes.add(batch.size());
+                                                                              for (long[] event : batch) {
+                                                                                  int producer = (int) event[0];
+                                                                                  if (event[1] != lastSequences[producer] + 1) {
+                                                                                      outOfOrder.add(producer + ":" + event[1]);
+                                                                                  }
+                                                                                  lastSequences[producer] = event[1];
+                                                                                  received.countDown();
+                                                                              }
+                                                                          });
+        List<CompletableFuture<Void>> publishing = new ArrayList<>();
+        for (int producer = 0; producer < producers; producer++) {
+            int id = producer;
+            publishing.add(CompletableFuture.runAsync(() -> {
+                try {
+                    for (long sequence = 0; sequence < eventsPerProducer; sequence++) {
+                        ringBuffer.publish(new long[]{id, sequence});
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+
+        CompletableFuture.allOf(publishing.toArray(new CompletableFuture[0])).get(30,
+                                                                                  TimeUnit.SECONDS);
+        assertTrue(received.await(30,
+                                  TimeUnit.SECONDS));
+        assertTrue(processor.stop(5,
+                                  TimeUnit.SECONDS));
+        assertTrue(outOfOrder.isEmpty(),
+                   "Events out of order: " + outOfOrder);
+        assertEquals(producers * eventsPerProducer,
+                     batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 64));
+        assertEquals(0,
+                     ringBuffer.getBacklog());
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        RingBuffer<String> ringBuffer = new RingBuffer<>(8,
+                                                         WaitStrategies.yielding(),
+                                                         WaitStrategies.blocking());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ringBuffer.tryPublish("event-" + i));
+        }
+        assertFalse(ringBuffer.tryPublish("event-8"));
+        assertEquals(0,
+                     ringBuffer.getRemainingCapacity());
+        assertFalse(ringBuffer.offer("event-8",
+                                     10,
+                                     TimeUnit.MILLISECONDS));
+
+        List<String> drained = new ArrayList<>();
+        assertEquals(3,
+                     ringBuffer.drain(drained::add,
+                                      3));
+        assertEquals(Arrays.asList("event-0", "event-1", "event-2"),
+                     drained);
+        assertEquals(3,
+                     ringBuffer.getRemainingCapacity());
+        assertTrue(ringBuffer.tryPublish("event-8"));
+
+        drained.clear();
+        assertEquals(6,
+                     ringBuffer.drain(drained::add,
+                                      100));
+        assertEquals("event-8",
+                     drained.get(5));
+        assertEquals(0,
+                     ringBuffer.drain(drained::add,
+                                      100));
+    }
+
+    @Test
+    public void testInvalidCapacity() {
+        try {
+            new RingBuffer<String>(100,
+                                   WaitStrategies.yielding(),
+                                   WaitStrategies.blocking());
+            fail("Capacity must be a power of two");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("power of two"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testSignalledEventsResumeInstances(String model) throws Exception {
+        DefinitionCatalog catalog = new DefinitionCatalog();
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        WorkflowEngine engine = new WorkflowEngine(catalog,
+                                                   new FunctionDispatcher(),
+                                                   new RingBuffer<>(16,
+                                                                    WaitStrategies.yielding(),
+                                                                    WaitStrategies.blocking()));
+        try {
+            List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                instances.add(engine.start("order",
+                                           null,
+                                           mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+            }
+            for (int i = 0; i < 100; i++) {
+                engine.signal(new EventMessage("payment-trigger",
+                                               "order-" + i,
+                                               mapper.readTree("{\"paid\":" + i + "}")));
+            }
+
+            for (int i = 0; i < 100; i++) {
+                WorkflowInstance instance = instances.get(i).get(5,
+                                                                 TimeUnit.SECONDS);
+                assertEquals(InstanceStatus.COMPLETED,
+                             instance.getStatus());
+                assertEquals(i,
+                             instance.getData().get("paid").asInt());
+            }
+            assertEquals(0,
+                         IntStream.range(0,
+                                   engine.getPartitions()).map(partition -> engine.getCorrelationStore(partition).size()).sum());
+        } finally {
+            engine.shutdown();
+            engine.getFunctionDispatcher().shutdown();
+        }
+    }
+
+    private static WaitStrategy waitStrategy(String name) {
+        switch (name) {
+            case "busy-spin":
+                return WaitStrategies.busySpin();
+            case "yielding":
+                return WaitStrategies.yielding();
+            case "sleeping":
+                return WaitStrategies.sleeping(TimeUnit.MICROSECONDS.toNanos(50));
+            default:
+                return WaitStrategies.blocking();
+        }
+    }
+}
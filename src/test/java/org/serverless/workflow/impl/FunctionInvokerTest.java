@@ -0,0 +1,160 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.api.WorkflowManager;
+import org.serverless.workflow.api.functions.Function;
+import org.serverless.workflow.api.states.EventState;
+import org.serverless.workflow.impl.functions.FunctionDispatcher;
+import org.serverless.workflow.impl.functions.FunctionInvokerProvider;
+import org.serverless.workflow.impl.util.LocalFunctionInvokerImpl;
+import org.serverless.workflow.impl.utils.WorkflowUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class FunctionInvokerTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private FunctionDispatcher functionDispatcher = new FunctionDispatcher();
+
+    @AfterEach
+    public void tearDown() {
+        functionDispatcher.shutdown();
+        LocalFunctionInvokerImpl.clearHandlers();
+    }
+
+    @Test
+    public void testInvokerProvider() {
+        assertNotNull(FunctionInvokerProvider.getInstance().get());
+        assertTrue(FunctionInvokerProvider.getInstance().get().containsKey("local"));
+        assertNotNull(functionDispatcher.getFunctionInvoker("local"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"functions/eventstatewithlocalfunctions.json", "functions/eventstatewithlocalfunctions.yml"})
+    public void testInvokeEventStateFunctions(String model) throws Exception {
+        WorkflowManager workflowManager = getWorkflowManager();
+        assertNotNull(workflowManager);
+        workflowManager.setMarkup(getFileContents(getResourcePath(model)));
+
+        EventState eventState = (EventState) workflowManager.getWorkflow().getStates().get(0);
+        List<Function> functions = WorkflowUtils.getAllFunctionsForActions(WorkflowUtils.getAllActionsForEventState(eventState));
+        assertEquals(2,
+                     functions.size());
+
+        JsonNode data = mapper.readTree("{\"customer\":\"test\"}");
+        for (Function function : functions) {
+            data = functionDispatcher.invoke(function,
+                                             data).get(5,
+                                                       TimeUnit.SECONDS);
+        }
+
+        assertEquals("secondFunction",
+                     data.get("function").asText());
+        assertEquals("test",
+                     data.get("customer").asText());
+        assertEquals("1",
+                     data.get("one").asText());
+        assertEquals("2",
+                     data.get("two").asText());
+    }
+
+    @Test
+    public void testUnknownFunctionType() {
+        CompletableFuture<JsonNode> result = functionDispatcher.invoke(new Function().withName("testFunction").withType("unknown"),
+                                                                       mapper.createObjectNode());
+        try {
+            result.get(5,
+                       TimeUnit.SECONDS);
+            fail("Expected invocation of unknown function type to fail");
+        } catch (Exception e) {
+            assertTrue(e instanceof ExecutionException);
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testBulkheadIsolation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LocalFunctionInvokerImpl.registerHandler("slowFunction",
+                                                 input -> {
+                                                     started.countDown();
+                                                     try {
+                                                         release.await(5,
+                                                                       TimeUnit.SECONDS);
+                                                     } catch (InterruptedException e) {
+                                                         Thread.currentThread().interrupt();
+                                                     }
+                                                     return input;
+                                                 });
+        functionDispatcher.setBulkheadLimits("slowFunction",
+                                             1,
+                                             1);
+
+        Function slowFunction = new Function().withName("slowFunction").withType("local");
+        CompletableFuture<JsonNode> running = functionDispatcher.invoke(slowFunction,
+                                                                        mapper.createObjectNode());
+        assertTrue(started.await(5,
+                                 TimeUnit.SECONDS));
+        CompletableFuture<JsonNode> queued = functionDispatcher.invoke(slowFunction,
+                                                                       mapper.createObjectNode());
+        CompletableFuture<JsonNode> rejected = functionDispatcher.invoke(slowFunction,
+                                                                         mapper.createObjectNode());
+
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+            fail("Expected call over the bulkhead limits to be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1,
+                     functionDispatcher.getBulkhead("slowFunction").getQueuedCalls());
+
+        // other functions keep running while the slow one is saturated
+        JsonNode result = functionDispatcher.invoke(new Function().withName("fastFunction").withType("local"),
+                                                    mapper.createObjectNode()).get(5,
+                                                                                   TimeUnit.SECONDS);
+        assertEquals("fastFunction",
+                     result.get("function").asText());
+
+        release.countDown();
+        assertNotNull(running.get(5,
+                                  TimeUnit.SECONDS));
+        assertNotNull(queued.get(5,
+                                 TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.InstanceHandle;
+import org.serverless.workflow.impl.runtime.TimerWheel;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+import org.serverless.workflow.impl.store.MappedInstanceStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HibernationTest extends BaseWorkflowTest {
+
+    @TempDir
+    Path directory;
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog);
+    private MappedInstanceStore store;
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testEventWakesHibernatedInstances(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        enableHibernation();
+
+        int count = 100;
+        List<InstanceHandle> handles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            handles.add(engine.submit("order",
+                                      null,
+                                      mapper.readTree("{\"orderId\":\"order-" + i + "\",\"amount\":" + i + "}")));
+        }
+        awaitCondition(() -> engine.getHibernatedInstances() == count);
+        assertEquals(count,
+                     store.size());
+        // hibernated instances stay indexed and correlated
+        assertEquals(count,
+                     engine.countInstances("order",
+                                           null,
+                                           "wait-for-payment",
+                                           InstanceStatus.WAITING));
+        assertEquals(1,
+                     engine.findInstancesByCorrelation("order-7").size());
+
+        for (int i = 0; i < count; i++) {
+            engine.signal(new EventMessage("payment-trigger",
+                                           "order-" + i,
+                                           mapper.readTree("{\"paid\":true}")));
+        }
+        for (int i = 0; i < count; i++) {
+            WorkflowInstance instance = handles.get(i).getCompletion().get(5,
+                                                                          TimeUnit.SECONDS);
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.getStatus());
+            assertEquals(i,
+                         instance.getData().get("amount").asInt());
+            assertTrue(instance.getData().get("paid").asBoolean());
+        }
+        assertEquals(0,
+                     engine.getHibernatedInstances());
+        assertEquals(0,
+                     store.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"timers/delayedorder.json", "timers/delayedorder.yml"})
+    public void testTimerWakesHibernatedInstance(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        enableHibernation();
+
+        InstanceHandle handle = engine.submit("delayed-order",
+                                              null,
+                                              mapper.readTree("{\"orderId\":\"order-1\"}"));
+        awaitCondition(() -> engine.getHibernatedInstances() == 1);
+
+        WorkflowInstance instance = handle.getCompletion().get(5,
+                                                               TimeUnit.SECONDS);
+        assertEquals(InstanceStatus.COMPLETED,
+                     instance.getStatus());
+        assertEquals("order-1",
+                     instance.getData().get("orderId").asText());
+        assertEquals(0,
+                     engine.getHibernatedInstances());
+    }
+
+    @Test
+    public void testCancelHibernatedInstance() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("events/correlatedevent.json"))));
+        enableHibernation();
+
+        InstanceHandle handle = engine.submit("order",
+                                              null,
+                                              mapper.readTree("{\"orderId\":\"order-1\"}"));
+        awaitCondition(() -> engine.getHibernatedInstances() == 1);
+
+        assertTrue(handle.cancel().get(5,
+                                       TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class,
+                     () -> handle.getCompletion().get(5,
+                                                      TimeUnit.SECONDS));
+        assertEquals(InstanceStatus.CANCELLED,
+                     handle.getStatus());
+        assertEquals(0,
+                     engine.getHibernatedInstances());
+        assertEquals(0,
+                     engine.getCorrelationStore(engine.getPartition(handle.getInstanceId())).size());
+        assertEquals(0,
+                     store.size());
+    }
+
+    @Test
+    public void testFailedHibernationIsRetried() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("events/correlatedevent.json"))));
+        AtomicInteger writes = new AtomicInteger();
+        store = new MappedInstanceStore(directory.resolve("hibernated.store"),
+                                        false) {
+            @Override
+            public void write(Collection<WorkflowInstance> instances) {
+                if (writes.incrementAndGet() == 1) {
+                    throw new IllegalStateException("store unavailable");
+                }
+                super.write(instances);
+            }
+        };
+        engine.setHibernation(store,
+                              0);
+
+        engine.submit("order",
+                      null,
+                      mapper.readTree("{\"orderId\":\"order-1\"}"));
+        awaitCondition(() -> writes.get() == 1);
+        long failedAt = System.currentTimeMillis();
+        awaitCondition(() -> engine.getHibernatedInstances() == 1);
+        // retried once after backing off, not on every tick
+        assertTrue(System.currentTimeMillis() - failedAt >= WorkflowEngine.HIBERNATION_RETRY_MILLIS - TimerWheel.DEFAULT_TICK_MILLIS);
+        assertEquals(2,
+                     writes.get());
+        assertEquals(1,
+                     store.size());
+    }
+
+    private void enableHibernation() {
+        store = new MappedInstanceStore(directory.resolve("hibernated.store"),
+                                        false);
+        engine.setHibernation(store,
+                              0);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.InstanceHandle;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+import org.serverless.workflow.impl.runtime.WorkflowExecutionException;
+import org.serverless.workflow.impl.util.LocalFunctionInvokerImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InstanceHandleTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+        LocalFunctionInvokerImpl.clearHandlers();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testStatusAndCancellation(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        InstanceHandle handle = engine.submit("order",
+                                              null,
+                                              mapper.readTree("{\"orderId\":\"order-1\"}"));
+        awaitCondition(() -> handle.getStatus() == InstanceStatus.WAITING);
+        assertEquals("wait-for-payment",
+                     handle.getCurrentState());
+        assertFalse(handle.isDone());
+        assertSame(handle,
+                   engine.getInstanceHandle(handle.getInstanceId()));
+
+        assertTrue(handle.cancel().get(5,
+                                       TimeUnit.SECONDS));
+        ExecutionException cancelled = assertThrows(ExecutionException.class,
+                                                    () -> handle.getCompletion().get(5,
+                                                                                     TimeUnit.SECONDS));
+        assertTrue(cancelled.getCause() instanceof WorkflowExecutionException);
+        assertTrue(cancelled.getCause().getCause() instanceof CancellationException);
+        assertEquals(InstanceStatus.CANCELLED,
+                     handle.getStatus());
+        assertTrue(handle.isDone());
+        assertNull(engine.getInstanceHandle(handle.getInstanceId()));
+        assertEquals(0,
+                     engine.getInFlightInstances());
+        assertEquals(0,
+                     IntStream.range(0,
+                                     engine.getPartitions()).map(partition -> engine.getCorrelationStore(partition).size()).sum());
+        assertFalse(handle.cancel().get(5,
+                                        TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelStopsSubflows() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("subflows/childworkflow.json"))));
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("subflows/parentworkflow.json"))));
+        CountDownLatch enriching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger finished = new AtomicInteger();
+        LocalFunctionInvokerImpl.registerHandler("enrichFunction",
+                                                 input -> {
+                                                     enriching.countDown();
+                                                     try {
+                                                         release.await(5,
+                                                                       TimeUnit.SECONDS);
+                                                     } catch (InterruptedException e) {
+                                                         Thread.currentThread().interrupt();
+                                                     }
+                                                     return mapper.createObjectNode().put("enriched",
+                                                                                          true);
+                                                 });
+        LocalFunctionInvokerImpl.registerHandler("finishFunction",
+                                                 input -> {
+                                                     finished.incrementAndGet();
+                                                     return mapper.createObjectNode();
+                                                 });
+
+        InstanceHandle handle = engine.submit("parent",
+                                              null,
+                                              mapper.createObjectNode());
+        assertTrue(enriching.await(5,
+                                   TimeUnit.SECONDS));
+        assertTrue(handle.cancel().get(5,
+                                       TimeUnit.SECONDS));
+        release.countDown();
+
+        assertThrows(ExecutionException.class,
+                     () -> handle.getCompletion().get(5,
+                                                      TimeUnit.SECONDS));
+        assertEquals(InstanceStatus.CANCELLED,
+                     handle.getStatus());
+        Thread.sleep(100);
+        assertEquals(0,
+                     finished.get());
+        assertEquals(0,
+                     engine.getInFlightInstances());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testManyInstancesFromOneThread(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        int count = 10000;
+        List<InstanceHandle> handles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            handles.add(engine.submit("order",
+                                      null,
+                                      mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+        }
+        awaitCondition(() -> handles.stream().allMatch(handle -> handle.getStatus() == InstanceStatus.WAITING));
+        assertEquals(count,
+                     engine.getInFlightInstances());
+
+        for (int i = 0; i < count; i++) {
+            engine.signal(new EventMessage("payment-trigger",
+                                           "order-" + i,
+                                           null));
+        }
+        CompletableFuture<?>[] completions = handles.stream().map(InstanceHandle::getCompletion).toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(completions).get(30,
+                                                 TimeUnit.SECONDS);
+        for (CompletableFuture<?> completion : completions) {
+            assertEquals(InstanceStatus.COMPLETED,
+                         ((WorkflowInstance) completion.join()).getStatus());
+        }
+    }
+}
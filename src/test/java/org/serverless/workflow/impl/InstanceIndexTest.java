@@ -0,0 +1,166 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.runtime.CorrelationStore;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.InstanceHandle;
+import org.serverless.workflow.impl.runtime.StateNode;
+import org.serverless.workflow.impl.runtime.WorkflowDefinition;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InstanceIndexTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testQueriesFollowTransitions(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        int count = 100;
+        List<InstanceHandle> handles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            handles.add(engine.submit("order",
+                                      null,
+                                      mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+        }
+        awaitCondition(() -> engine.countInstances("order",
+                                                   null,
+                                                   "wait-for-payment",
+                                                   InstanceStatus.WAITING) == count);
+        assertEquals(0,
+                     engine.countInstances("order",
+                                           null,
+                                           "wait-for-payment",
+                                           InstanceStatus.RUNNING));
+        assertEquals(count,
+                     engine.countInstances("order",
+                                           "1.0",
+                                           null,
+                                           null));
+        assertEquals(0,
+                     engine.countInstances("order",
+                                           "2.0",
+                                           null,
+                                           null));
+        assertEquals(0,
+                     engine.countInstances("order",
+                                           null,
+                                           "unknown-state",
+                                           null));
+        Set<String> instanceIds = new HashSet<>(engine.findInstances("order",
+                                                                     null,
+                                                                     "wait-for-payment"));
+        assertEquals(count,
+                     instanceIds.size());
+        handles.forEach(handle -> assertTrue(instanceIds.contains(handle.getInstanceId())));
+
+        Set<String> correlated = engine.findInstancesByCorrelation("order-7");
+        assertEquals(1,
+                     correlated.size());
+        assertTrue(correlated.contains(handles.get(7).getInstanceId()));
+
+        for (int i = 0; i < count / 2; i++) {
+            engine.signal(new EventMessage("payment-trigger",
+                                           "order-" + i,
+                                           null));
+        }
+        for (int i = 0; i < count / 2; i++) {
+            handles.get(i).getCompletion().join();
+        }
+        assertEquals(count / 2,
+                     engine.countInstances("order",
+                                           null,
+                                           "wait-for-payment",
+                                           InstanceStatus.WAITING));
+        assertTrue(engine.findInstancesByCorrelation("order-7").isEmpty());
+
+        handles.get(99).cancel().join();
+        assertEquals(count / 2 - 1,
+                     engine.findInstances("order",
+                                          null,
+                                          null).size());
+    }
+
+    @Test
+    public void testCorrelationTokenIndex() {
+        CorrelationStore correlationStore = new CorrelationStore();
+        correlationStore.register("payment-trigger",
+                                  "order-1",
+                                  "instance-1");
+        correlationStore.register("cancel-trigger",
+                                  "order-1",
+                                  "instance-1");
+        correlationStore.register("payment-trigger",
+                                  "order-1",
+                                  "instance-1");
+        correlationStore.register("payment-trigger",
+                                  "order-2",
+                                  "instance-2");
+        assertEquals(1,
+                     correlationStore.lookup("order-1").size());
+
+        correlationStore.unregister("payment-trigger",
+                                    "order-1",
+                                    "instance-1");
+        assertTrue(correlationStore.lookup("order-1").contains("instance-1"));
+        correlationStore.unregister("cancel-trigger",
+                                    "order-1",
+                                    "instance-1");
+        assertTrue(correlationStore.lookup("order-1").isEmpty());
+        assertTrue(correlationStore.lookup("order-2").contains("instance-2"));
+    }
+
+    @Test
+    public void testDenseStateIds() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("subflows/childworkflow.json"))));
+        WorkflowDefinition definition = catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("subflows/parentworkflow.json"))));
+        Set<Integer> ids = new HashSet<>();
+        for (StateNode node : definition.getNodes().values()) {
+            assertTrue(node.getId() >= 0 && node.getId() < definition.getNodes().size());
+            ids.add(node.getId());
+        }
+        assertEquals(definition.getNodes().size(),
+                     ids.size());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.admission.AdmissionRejectedException;
+import org.serverless.workflow.impl.admission.InstanceQuota;
+import org.serverless.workflow.impl.admission.TokenBucket;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.BulkStart;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InstanceQuotaTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+    }
+
+    @Test
+    public void testTokenBucket() throws Exception {
+        TokenBucket tokenBucket = new TokenBucket(10,
+                                                  5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(tokenBucket.tryAcquire());
+        }
+        assertFalse(tokenBucket.tryAcquire());
+        long wait = tokenBucket.nanosUntilPermit();
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(100),
+                   "wait " + wait);
+
+        Thread.sleep(120);
+        assertTrue(tokenBucket.tryAcquire());
+        assertFalse(tokenBucket.tryAcquire());
+    }
+
+    @Test
+    public void testQuotaFromMetadataAndProperties() {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("quota.rate",
+                     "50");
+        metadata.put("quota.max-concurrent",
+                     "10");
+        InstanceQuota quota = InstanceQuota.of("order",
+                                               "1.0",
+                                               metadata,
+                                               null);
+        assertEquals(50.0,
+                     quota.getRatePerSecond());
+        assertEquals(50,
+                     quota.getBurst());
+        assertEquals(10,
+                     quota.getMaxConcurrentInstances());
+
+        Properties properties = new Properties();
+        properties.setProperty("workflow.order.quota.max-concurrent",
+                               "20");
+        properties.setProperty("workflow.order.1.0.quota.burst",
+                               "5");
+        properties.setProperty("workflow.order.2.0.quota.rate",
+                               "1");
+        quota = InstanceQuota.of("order",
+                                 "1.0",
+                                 metadata,
+                                 properties);
+        assertEquals(50.0,
+                     quota.getRatePerSecond());
+        assertEquals(5,
+                     quota.getBurst());
+        assertEquals(20,
+                     quota.getMaxConcurrentInstances());
+
+        assertTrue(InstanceQuota.of("other",
+                                    "1.0",
+                                    null,
+                                    properties).isUnlimited());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"admission/limitedorder.json", "admission/limitedorder.yml"})
+    public void testConcurrencyCapFromMetadata(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("events/correlatedevent.json"))));
+
+        List<CompletableFuture<WorkflowInstance>> limited = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            limited.add(engine.start("limited-order",
+                                     null,
+                                     mapper.readTree("{\"orderId\":\"limited-" + i + "\"}")));
+        }
+        ExecutionException rejected = assertThrows(ExecutionException.class,
+                                                   () -> engine.start("limited-order",
+                                                                      null,
+                                                                      mapper.readTree("{\"orderId\":\"limited-2\"}")).get(5,
+                                                                                                                          TimeUnit.SECONDS));
+        assertEquals(AdmissionRejectedException.Reason.CONCURRENCY_LIMIT,
+                     ((AdmissionRejectedException) rejected.getCause()).getReason());
+        assertEquals(2,
+                     engine.getInstanceQuotas().limiterFor("limited-order",
+                                                           "1.0",
+                                                           null).getRunning());
+
+        // other definitions are not held back by the quota
+        CompletableFuture<WorkflowInstance> unlimited = engine.start("order",
+                                                                     null,
+                                                                     mapper.readTree("{\"orderId\":\"order-0\"}"));
+        assertFalse(unlimited.isCompletedExceptionally());
+
+        engine.signal(new EventMessage("payment-trigger",
+                                       "limited-0",
+                                       null));
+        assertEquals(InstanceStatus.COMPLETED,
+                     limited.get(0).get(5,
+                                        TimeUnit.SECONDS).getStatus());
+        CompletableFuture<WorkflowInstance> admitted = engine.start("limited-order",
+                                                                    null,
+                                                                    mapper.readTree("{\"orderId\":\"limited-3\"}"));
+        assertFalse(admitted.isDone());
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("events/correlatedevent.json"))));
+        engine.getInstanceQuotas().setQuota("order",
+                                            "1.0",
+                                            new InstanceQuota(1,
+                                                              2,
+                                                              0));
+        for (int i = 0; i < 2; i++) {
+            engine.start("order",
+                         null,
+                         mapper.readTree("{\"orderId\":\"order-" + i + "\"}"));
+        }
+        ExecutionException rejected = assertThrows(ExecutionException.class,
+                                                   () -> engine.start("order",
+                                                                      null,
+                                                                      mapper.readTree("{\"orderId\":\"order-2\"}")).get(5,
+                                                                                                                        TimeUnit.SECONDS));
+        AdmissionRejectedException rejection = (AdmissionRejectedException) rejected.getCause();
+        assertEquals(AdmissionRejectedException.Reason.RATE_LIMIT,
+                     rejection.getReason());
+        assertEquals("order",
+                     rejection.getName());
+        assertEquals(2,
+                     engine.getInFlightInstances());
+    }
+
+    @Test
+    public void testBulkStartIsPacedByQuota() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("subflows/childworkflow.json"))));
+        engine.getInstanceQuotas().setQuota("child",
+                                            "1.0",
+                                            new InstanceQuota(100,
+                                                              10,
+                                                              0));
+        long started = System.nanoTime();
+        BulkStart bulkStart = engine.startAll("child",
+                                              null,
+                                              IntStream.range(0,
+                                                              40).mapToObj(i -> mapper.createObjectNode().put("index",
+                                                                                                              i)),
+                                              null);
+        bulkStart.getCompletion().get(10,
+                                      TimeUnit.SECONDS);
+        assertEquals(40,
+                     bulkStart.getCompleted());
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(250));
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.store.InstanceStore;
+import org.serverless.workflow.impl.store.InstanceStoreProvider;
+import org.serverless.workflow.impl.store.JdbcInstanceStore;
+import org.serverless.workflow.impl.store.MappedInstanceStore;
+import org.serverless.workflow.impl.store.MemoryInstanceStore;
+import org.serverless.workflow.impl.store.OffHeapInstanceStore;
+import org.serverless.workflow.impl.store.ReadThroughCache;
+import org.serverless.workflow.impl.store.SlabArena;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InstanceStoreTest extends BaseWorkflowTest {
+
+    @TempDir
+    Path directory;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testProviderDiscoversStores() {
+        assertTrue(InstanceStoreProvider.getInstance().get().containsKey(MemoryInstanceStore.TYPE));
+        assertTrue(InstanceStoreProvider.getInstance().get().containsKey(MappedInstanceStore.TYPE));
+        assertTrue(InstanceStoreProvider.getInstance().get().containsKey(JdbcInstanceStore.TYPE));
+        assertTrue(InstanceStoreProvider.getInstance().get().containsKey(OffHeapInstanceStore.TYPE));
+    }
+
+    @Test
+    public void testMemoryStore() {
+        InstanceStore store = InstanceStoreProvider.getInstance().open(new Properties());
+        assertTrue(store instanceof MemoryInstanceStore);
+        assertStoreContract(store);
+    }
+
+    @Test
+    public void testMappedStore() {
+        Properties properties = new Properties();
+        properties.setProperty(InstanceStoreProvider.TYPE_PROPERTY,
+                               MappedInstanceStore.TYPE);
+        properties.setProperty(MappedInstanceStore.PATH_PROPERTY,
+                               directory.resolve("instances.store").toString());
+        InstanceStore store = InstanceStoreProvider.getInstance().open(properties);
+        assertTrue(store instanceof ReadThroughCache);
+        assertStoreContract(store);
+        store.close();
+    }
+
+    @Test
+    public void testMappedStoreReopens() {
+        Path path = directory.resolve("instances.store");
+        MappedInstanceStore store = new MappedInstanceStore(path,
+                                                            true);
+        store.write(Arrays.asList(instance("instance-1",
+                                           InstanceStatus.WAITING),
+                                  instance("instance-2",
+                                           InstanceStatus.RUNNING)));
+        store.write(instance("instance-1",
+                             InstanceStatus.COMPLETED));
+        store.delete("instance-2");
+        store.close();
+
+        MappedInstanceStore reopened = new MappedInstanceStore(path,
+                                                               false);
+        assertEquals(1,
+                     reopened.size());
+        assertEquals(InstanceStatus.COMPLETED,
+                     reopened.read("instance-1").getStatus());
+        assertNull(reopened.read("instance-2"));
+        reopened.close();
+    }
+
+    @Test
+    public void testMappedStoreGrowsAndCompacts() throws Exception {
+        Path path = directory.resolve("instances.store");
+        MappedInstanceStore store = new MappedInstanceStore(path,
+                                                            false);
+        // rewriting the same instances fills the initial mapping with garbage, which is compacted away
+        for (int round = 0; round < 200; round++) {
+            List<WorkflowInstance> batch = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                batch.add(instance("instance-" + i,
+                                   InstanceStatus.RUNNING));
+            }
+            store.write(batch);
+        }
+        assertEquals(100,
+                     store.size());
+        assertTrue(store.getUsedBytes() < MappedInstanceStore.DEFAULT_INITIAL_SIZE);
+        assertTrue(Files.size(path) <= MappedInstanceStore.DEFAULT_INITIAL_SIZE);
+
+        // distinct live instances do not fit, so the mapping is doubled
+        for (int round = 0; round < 100; round++) {
+            List<WorkflowInstance> batch = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                batch.add(instance("instance-" + round + "-" + i,
+                                   InstanceStatus.RUNNING));
+            }
+            store.write(batch);
+        }
+        assertEquals(10_100,
+                     store.size());
+        assertTrue(Files.size(path) > MappedInstanceStore.DEFAULT_INITIAL_SIZE);
+        assertNotNull(store.read("instance-99-99"));
+        store.close();
+
+        MappedInstanceStore reopened = new MappedInstanceStore(path,
+                                                               false);
+        assertEquals(10_100,
+                     reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void testFailedCompactionGrowsInstead() throws Exception {
+        Path path = directory.resolve("instances.store");
+        // a directory where the compacted file would go makes compaction fail
+        Files.createDirectories(directory.resolve("instances.store.compact").resolve("blocked"));
+        MappedInstanceStore store = new MappedInstanceStore(path,
+                                                            false);
+        for (int round = 0; round < 200; round++) {
+            List<WorkflowInstance> batch = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                batch.add(instance("instance-" + i,
+                                   InstanceStatus.RUNNING));
+            }
+            store.write(batch);
+        }
+        assertEquals(100,
+                     store.size());
+        assertTrue(Files.size(path) > MappedInstanceStore.DEFAULT_INITIAL_SIZE);
+        assertNotNull(store.read("instance-99"));
+        store.close();
+
+        MappedInstanceStore reopened = new MappedInstanceStore(path,
+                                                               false);
+        assertEquals(100,
+                     reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void testOffHeapStore() {
+        Properties properties = new Properties();
+        properties.setProperty(InstanceStoreProvider.TYPE_PROPERTY,
+                               OffHeapInstanceStore.TYPE);
+        properties.setProperty(OffHeapInstanceStore.SLAB_SIZE_PROPERTY,
+                               "65536");
+        InstanceStore store = InstanceStoreProvider.getInstance().open(properties);
+        // off-heap instances are not cached on the heap
+        assertTrue(store instanceof OffHeapInstanceStore);
+        assertStoreContract(store);
+        assertEquals(65536,
+                     ((OffHeapInstanceStore) store).getAllocatedBytes());
+        store.close();
+    }
+
+    @Test
+    public void testArenaReusesChunks() {
+        SlabArena arena = new SlabArena(4096,
+                                        4 * 4096);
+        long small = arena.allocate(new byte[10]);
+        long medium = arena.allocate(new byte[500]);
+        assertEquals(4096 * 2,
+                     arena.getAllocatedBytes());
+        assertEquals(10,
+                     arena.read(small).length);
+
+        arena.free(medium);
+        long reused = arena.allocate(new byte[480]);
+        assertEquals(medium,
+                     reused);
+        assertEquals(4096 * 2,
+                     arena.getAllocatedBytes());
+
+        // records larger than a slab get a buffer of their own, released when freed
+        byte[] record = new byte[6000];
+        record[5999] = 42;
+        long large = arena.allocate(record);
+        assertEquals(42,
+                     arena.read(large)[5999]);
+        arena.free(large);
+        assertEquals(4096 * 2,
+                     arena.getAllocatedBytes());
+
+        assertThrows(IllegalStateException.class,
+                     () -> arena.allocate(new byte[3 * 4096]));
+    }
+
+    @Test
+    public void testCacheReadsThrough() {
+        MemoryInstanceStore backing = new MemoryInstanceStore();
+        backing.write(instance("instance-1",
+                               InstanceStatus.WAITING));
+        ReadThroughCache cache = new ReadThroughCache(backing,
+                                                      2);
+        assertNotNull(cache.read("instance-1"));
+        assertNotNull(cache.read("instance-1"));
+        assertEquals(1,
+                     cache.getMisses());
+        assertEquals(1,
+                     cache.getHits());
+
+        // reads return copies, so changing one does not change the cached instance
+        cache.read("instance-1").setStatus(InstanceStatus.FAILED);
+        assertEquals(InstanceStatus.WAITING,
+                     cache.read("instance-1").getStatus());
+
+        cache.delete("instance-1");
+        assertNull(backing.read("instance-1"));
+        assertNull(cache.read("instance-1"));
+    }
+
+    @Test
+    public void testCacheDoesNotRestoreInstanceDeletedDuringRead() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        MemoryInstanceStore backing = new MemoryInstanceStore() {
+            @Override
+            public WorkflowInstance read(String instanceId) {
+                WorkflowInstance instance = super.read(instanceId);
+                reading.countDown();
+                try {
+                    deleted.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return instance;
+            }
+        };
+        backing.write(instance("instance-1",
+                               InstanceStatus.WAITING));
+        ReadThroughCache cache = new ReadThroughCache(backing);
+
+        CompletableFuture<WorkflowInstance> read = CompletableFuture.supplyAsync(() -> cache.read("instance-1"));
+        reading.await();
+        cache.delete("instance-1");
+        deleted.countDown();
+        assertNotNull(read.get());
+
+        assertNull(cache.read("instance-1"));
+    }
+
+    @Test
+    public void testJdbcStore() throws Exception {
+        Connection connection = DriverManager.getConnection("jdbc:h2:mem:instances;DB_CLOSE_DELAY=-1");
+        JdbcInstanceStore store = new JdbcInstanceStore(connection);
+        assertStoreContract(new ReadThroughCache(store));
+
+        // the table survives on the connection, so a new store sees the stored rows
+        JdbcInstanceStore reopened = new JdbcInstanceStore(DriverManager.getConnection("jdbc:h2:mem:instances"));
+        assertEquals(1,
+                     reopened.size());
+        reopened.close();
+        store.close();
+    }
+
+    private void assertStoreContract(InstanceStore store) {
+        store.write(Arrays.asList(instance("instance-1",
+                                           InstanceStatus.WAITING),
+                                  instance("instance-2",
+                                           InstanceStatus.RUNNING),
+                                  instance("instance-3",
+                                           InstanceStatus.RUNNING)));
+        assertEquals(3,
+                     store.size());
+
+        store.write(Arrays.asList(instance("instance-2",
+                                           InstanceStatus.COMPLETED),
+                                  instance("instance-4",
+                                           InstanceStatus.FAILED)));
+        WorkflowInstance read = store.read("instance-2");
+        assertEquals(InstanceStatus.COMPLETED,
+                     read.getStatus());
+        assertEquals("order-1",
+                     read.getData().get("orderId").asText());
+
+        store.delete(Arrays.asList("instance-2",
+                                   "instance-3",
+                                   "instance-4"));
+        assertNull(store.read("instance-2"));
+        List<String> ids = new ArrayList<>();
+        store.forEach(instance -> ids.add(instance.getId()));
+        assertEquals(Arrays.asList("instance-1"),
+                     ids);
+    }
+
+    private WorkflowInstance instance(String id,
+                                      InstanceStatus status) {
+        WorkflowInstance instance = new WorkflowInstance(id,
+                                                         "order",
+                                                         "1.0");
+        instance.setStatus(status);
+        instance.setCurrentState("wait-for-payment");
+        instance.setData(mapper.createObjectNode().put("orderId",
+                                                       "order-1"));
+        return instance;
+    }
+}
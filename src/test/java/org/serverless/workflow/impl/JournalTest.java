@@ -0,0 +1,323 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.serverless.workflow.impl.journal.FileJournal;
+import org.serverless.workflow.impl.journal.JournalRecord;
+import org.serverless.workflow.impl.journal.JournalSegment;
+import org.serverless.workflow.impl.journal.RecordType;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalTest extends BaseWorkflowTest {
+
+    @TempDir
+    Path journalDirectory;
+
+    @Test
+    public void testAppendAndReplay() throws Exception {
+        try (FileJournal journal = new FileJournal(journalDirectory)) {
+            long started = journal.append(JournalRecord.instanceStarted("instance-1",
+                                                                        "abc",
+                                                                        "1.0",
+                                                                        bytes("{\"customer\":\"test\"}"))).get(5,
+                                                                                                              TimeUnit.SECONDS);
+            long last = journal.append(Arrays.asList(JournalRecord.stateEntered("instance-1",
+                                                                                "test-state",
+                                                                                null),
+                                                     JournalRecord.actionCompleted("instance-1",
+                                                                                   "testFunction",
+                                                                                   bytes("{\"result\":1}")),
+                                                     JournalRecord.eventCorrelated("instance-1",
+                                                                                   "test-trigger",
+                                                                                   "testcorrelationtoken",
+                                                                                   bytes("{}")),
+                                                     JournalRecord.instanceFinished("instance-1",
+                                                                                    "COMPLETED",
+                                                                                    bytes("{\"done\":true}")))).get(5,
+                                                                                                                    TimeUnit.SECONDS);
+            assertEquals(1,
+                         started);
+            assertEquals(5,
+                         last);
+            assertEquals(5,
+                         journal.getLastSequence());
+
+            List<JournalRecord> records = replay(journal,
+                                                 0);
+            assertEquals(5,
+                         records.size());
+            assertEquals(RecordType.INSTANCE_STARTED,
+                         records.get(0).getType());
+            assertEquals("abc",
+                         records.get(0).getName());
+            assertEquals("1.0",
+                         records.get(0).getDetail());
+            assertArrayEquals(bytes("{\"customer\":\"test\"}"),
+                              records.get(0).getData());
+            assertEquals("test-state",
+                         records.get(1).getName());
+            assertNull(records.get(1).getDetail());
+            assertEquals("testcorrelationtoken",
+                         records.get(3).getDetail());
+            assertEquals(RecordType.INSTANCE_FINISHED,
+                         records.get(4).getType());
+
+            assertEquals(2,
+                         replay(journal,
+                                4).size());
+        }
+    }
+
+    @Test
+    public void testGroupCommitFromManyThreads() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try (FileJournal journal = new FileJournal(journalDirectory,
+                                                   16 * 1024,
+                                                   true)) {
+            List<CompletableFuture<Long>> appends = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                String instanceId = "instance-" + (i % 50);
+                String stateName = "state-" + i;
+                appends.add(CompletableFuture.supplyAsync(() -> journal.append(JournalRecord.stateEntered(instanceId,
+                                                                                                          stateName,
+                                                                                                          bytes("{\"step\":\"" + stateName + "\"}"))),
+                                                          executorService).thenCompose(sequence -> sequence));
+            }
+            CompletableFuture.allOf(appends.toArray(new CompletableFuture[0])).get(30,
+                                                                                   TimeUnit.SECONDS);
+
+            assertEquals(2000,
+                         journal.getLastSequence());
+            assertTrue(journal.getSegments().size() > 1);
+
+            List<JournalRecord> records = replay(journal,
+                                                 0);
+            assertEquals(2000,
+                         records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(i + 1,
+                             records.get(i).getSequence());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testReopenContinuesSequence() throws Exception {
+        try (FileJournal journal = new FileJournal(journalDirectory)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(JournalRecord.stateEntered("instance-1",
+                                                          "state-" + i,
+                                                          null));
+            }
+            journal.append(JournalRecord.stateEntered("instance-1",
+                                                      "state-10",
+                                                      null)).get(5,
+                                                                 TimeUnit.SECONDS);
+        }
+
+        try (FileJournal journal = new FileJournal(journalDirectory)) {
+            assertEquals(11,
+                         journal.getLastSequence());
+            assertEquals(12,
+                         (long) journal.append(JournalRecord.stateEntered("instance-1",
+                                                                          "state-11",
+                                                                          null)).get(5,
+                                                                                     TimeUnit.SECONDS));
+            assertEquals(12,
+                         replay(journal,
+                                0).size());
+        }
+    }
+
+    @Test
+    public void testTornWriteIsTruncated() throws Exception {
+        Path segmentPath;
+        try (FileJournal journal = new FileJournal(journalDirectory)) {
+            journal.append(JournalRecord.stateEntered("instance-1",
+                                                      "state-1",
+                                                      bytes("{}")));
+            journal.append(JournalRecord.stateEntered("instance-1",
+                                                      "state-2",
+                                                      bytes("{}"))).get(5,
+                                                                        TimeUnit.SECONDS);
+            JournalSegment segment = journal.getSegments().get(0);
+            segmentPath = segment.getPath();
+        }
+
+        // corrupt the last byte of the second record
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath.toFile(),
+                                                          "rw")) {
+            file.seek(file.length() - 1);
+            file.write(0x7f);
+        }
+
+        try (FileJournal journal = new FileJournal(journalDirectory)) {
+            assertEquals(1,
+                         journal.getLastSequence());
+            List<JournalRecord> records = replay(journal,
+                                                 0);
+            assertEquals(1,
+                         records.size());
+            assertEquals("state-1",
+                         records.get(0).getName());
+
+            assertEquals(2,
+                         (long) journal.append(JournalRecord.stateEntered("instance-1",
+                                                                          "state-2",
+                                                                          null)).get(5,
+                                                                                     TimeUnit.SECONDS));
+            assertEquals(2,
+                         replay(journal,
+                                0).size());
+        }
+    }
+
+    @Test
+    public void testInvalidRecordFailsOnlyItsAppend() throws Exception {
+        char[] name = new char[Short.MAX_VALUE + 1];
+        Arrays.fill(name,
+                    'a');
+        try (FileJournal journal = new FileJournal(journalDirectory)) {
+            CompletableFuture<Long> first = journal.append(JournalRecord.stateEntered("instance-1",
+                                                                                      "state-1",
+                                                                                      null));
+            CompletableFuture<Long> invalid = journal.append(JournalRecord.stateEntered("instance-1",
+                                                                                        new String(name),
+                                                                                        null));
+            CompletableFuture<Long> second = journal.append(JournalRecord.stateEntered("instance-1",
+                                                                                       "state-2",
+                                                                                       null));
+
+            assertThrows(ExecutionException.class,
+                         () -> invalid.get(5,
+                                           TimeUnit.SECONDS));
+            assertEquals(1,
+                         (long) first.get(5,
+                                          TimeUnit.SECONDS));
+            assertEquals(2,
+                         (long) second.get(5,
+                                           TimeUnit.SECONDS));
+            assertEquals(2,
+                         replay(journal,
+                                0).size());
+        }
+    }
+
+    @Test
+    public void testAppendAfterCloseFails() throws Exception {
+        FileJournal journal = new FileJournal(journalDirectory);
+        journal.close();
+
+        CompletableFuture<Long> append = journal.append(JournalRecord.stateEntered("instance-1",
+                                                                                   "state-1",
+                                                                                   null));
+        assertTrue(append.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testSegmentsRollBetweenAppends() throws Exception {
+        try (FileJournal journal = new FileJournal(journalDirectory,
+                                                   200,
+                                                   false)) {
+            CompletableFuture<Long> last = null;
+            for (int i = 0; i < 10; i++) {
+                last = journal.append(Arrays.asList(JournalRecord.stateEntered("instance-" + i,
+                                                                               "state-1",
+                                                                               bytes("{}")),
+                                                    JournalRecord.stateEntered("instance-" + i,
+                                                                               "state-2",
+                                                                               bytes("{}")),
+                                                    JournalRecord.stateEntered("instance-" + i,
+                                                                               "state-3",
+                                                                               bytes("{}"))));
+            }
+            assertEquals(30,
+                         (long) last.get(5,
+                                         TimeUnit.SECONDS));
+            assertTrue(journal.getSegments().size() > 1);
+            for (JournalSegment segment : journal.getSegments()) {
+                // every segment starts with the first record of an append
+                assertEquals(1,
+                             segment.getFirstSequence() % 3);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptedInnerSegmentFailsRecovery() throws Exception {
+        Path segmentPath;
+        try (FileJournal journal = new FileJournal(journalDirectory,
+                                                   100,
+                                                   false)) {
+            CompletableFuture<Long> last = null;
+            for (int i = 0; i < 5; i++) {
+                last = journal.append(JournalRecord.stateEntered("instance-1",
+                                                                 "state-" + i,
+                                                                 bytes("{}")));
+            }
+            last.get(5,
+                     TimeUnit.SECONDS);
+            assertTrue(journal.getSegments().size() > 1);
+            segmentPath = journal.getSegments().get(0).getPath();
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath.toFile(),
+                                                          "rw")) {
+            file.seek(file.length() - 1);
+            file.write(0x7f);
+        }
+
+        assertThrows(UncheckedIOException.class,
+                     () -> new FileJournal(journalDirectory));
+    }
+
+    private static List<JournalRecord> replay(FileJournal journal,
+                                              long fromSequence) {
+        List<JournalRecord> records = new ArrayList<>();
+        journal.replay(fromSequence,
+                       records::add);
+        return records;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
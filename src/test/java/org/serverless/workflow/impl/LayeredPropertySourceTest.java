@@ -0,0 +1,314 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.api.states.EventState;
+import org.serverless.workflow.impl.manager.WorkflowManagerImpl;
+import org.serverless.workflow.impl.propertysource.PlaceholderResolver;
+import org.serverless.workflow.impl.propertysource.PropertyDependencies;
+import org.serverless.workflow.impl.propertysource.WorkflowPropertySourceImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LayeredPropertySourceTest extends BaseWorkflowTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testLayerPrecedence() throws Exception {
+        Path first = write("first.properties",
+                           "workflow.name=first-wf",
+                           "workflow.layer.key=first");
+        Path second = write("second.properties",
+                            "workflow.layer.key=second");
+        WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl(Arrays.asList(first,
+                                                                                                 second));
+
+        assertEquals("first-wf",
+                     propertySource.getPropertySource().getProperty("workflow.name"));
+        assertEquals("abc",
+                     propertySource.getPropertySource().getProperty("workflow.id"));
+        assertEquals("second",
+                     propertySource.getPropertySource().getProperty("workflow.layer.key"));
+        // only workflow. system properties are merged
+        assertNull(propertySource.getPropertySource().getProperty("java.version"));
+
+        System.setProperty("workflow.layer.key",
+                           "system");
+        try {
+            propertySource.reload();
+            assertEquals("system",
+                         propertySource.getPropertySource().getProperty("workflow.layer.key"));
+
+            Properties overrides = new Properties();
+            overrides.setProperty("workflow.layer.key",
+                                  "override");
+            propertySource.setOverrides(overrides);
+            assertEquals("override",
+                         propertySource.getPropertySource().getProperty("workflow.layer.key"));
+        } finally {
+            System.clearProperty("workflow.layer.key");
+        }
+    }
+
+    @Test
+    public void testReloadReportsChangedKeys() throws Exception {
+        Path file = write("workflow.properties",
+                          "workflow.name=first-wf",
+                          "removed.key=value");
+        WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl(Collections.singletonList(file));
+        List<Set<String>> changes = new ArrayList<>();
+        propertySource.addListener(changes::add);
+        Properties before = propertySource.getPropertySource();
+
+        assertTrue(propertySource.reload().isEmpty());
+        assertTrue(changes.isEmpty());
+
+        write("workflow.properties",
+              "workflow.name=second-wf",
+              "added.key=value");
+        Set<String> changed = propertySource.reload();
+        assertEquals(3,
+                     changed.size());
+        assertTrue(changed.containsAll(Arrays.asList("workflow.name",
+                                                     "removed.key",
+                                                     "added.key")));
+        assertEquals(Collections.singletonList(changed),
+                     changes);
+        assertEquals("first-wf",
+                     before.getProperty("workflow.name"));
+        assertEquals("second-wf",
+                     propertySource.getPropertySource().getProperty("workflow.name"));
+    }
+
+    @Test
+    public void testReplacedPropertiesSurviveReload() throws Exception {
+        Path file = write("workflow.properties",
+                          "workflow.name=first-wf");
+        WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl(Collections.singletonList(file));
+        Properties replacement = new Properties();
+        replacement.setProperty("workflow.name",
+                                "replaced-wf");
+        propertySource.setPropertySource(replacement);
+        replacement.setProperty("workflow.id",
+                                "changed");
+
+        write("workflow.properties",
+              "workflow.name=second-wf");
+        assertTrue(propertySource.reload().isEmpty());
+        assertSame(replacement,
+                   propertySource.getPropertySource());
+        assertEquals("changed",
+                     propertySource.getPropertySource().getProperty("workflow.id"));
+
+        Properties overrides = new Properties();
+        overrides.setProperty("workflow.id",
+                              "override");
+        propertySource.setOverrides(overrides);
+        assertEquals("second-wf",
+                     propertySource.getPropertySource().getProperty("workflow.name"));
+        assertEquals("override",
+                     propertySource.getPropertySource().getProperty("workflow.id"));
+    }
+
+    @Test
+    public void testUnreadableFileKeepsPreviousProperties() throws Exception {
+        Path file = write("workflow.properties",
+                          "workflow.name=first-wf");
+        WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl(Collections.singletonList(file));
+
+        // not valid UTF-8, so reading the file fails
+        Files.write(file,
+                    new byte[]{'a', '=', (byte) 0xff, (byte) 0xfe});
+        assertTrue(propertySource.reload().isEmpty());
+        assertEquals("first-wf",
+                     propertySource.getPropertySource().getProperty("workflow.name"));
+    }
+
+    @Test
+    public void testClosedDependenciesStopListening() throws Exception {
+        WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl(Collections.emptyList());
+        PropertyDependencies dependencies = new PropertyDependencies(new ObjectMapper(),
+                                                                     new PlaceholderResolver(propertySource),
+                                                                     propertySource);
+        List<Workflow> rebound = new CopyOnWriteArrayList<>();
+        dependencies.addListener(rebound::add);
+        dependencies.register(new ObjectMapper().readTree("{\"id\":\"abc\",\"version\":\"1.0\",\"name\":\"${workflow.name:test-wf}\"}"));
+
+        Properties overrides = new Properties();
+        overrides.setProperty("workflow.name",
+                              "second-wf");
+        propertySource.setOverrides(overrides);
+        assertEquals(1,
+                     rebound.size());
+
+        dependencies.close();
+        overrides.setProperty("workflow.name",
+                              "third-wf");
+        propertySource.setOverrides(overrides);
+        assertEquals(1,
+                     rebound.size());
+        assertEquals("second-wf",
+                     dependencies.getWorkflow("abc",
+                                              "1.0").getName());
+    }
+
+    @Test
+    public void testWatchReloadsFiles() throws Exception {
+        Path file = write("workflow.properties",
+                          "workflow.name=first-wf");
+        try (WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl(Collections.singletonList(file))) {
+            CountDownLatch reloaded = new CountDownLatch(1);
+            // writing the file may be seen halfway, before the new value is in
+            propertySource.addListener(keys -> {
+                if ("second-wf".equals(propertySource.getPropertySource().getProperty("workflow.name"))) {
+                    reloaded.countDown();
+                }
+            });
+            propertySource.watch();
+
+            write("workflow.properties",
+                  "workflow.name=second-wf");
+            assertTrue(reloaded.await(30,
+                                      TimeUnit.SECONDS));
+            assertEquals("second-wf",
+                         propertySource.getPropertySource().getProperty("workflow.name"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"propertysource/placeholdereventstate.json", "propertysource/placeholdereventstate.yml"})
+    public void testDependentWorkflowsRebind(String model) throws Exception {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        WorkflowPropertySourceImpl propertySource = (WorkflowPropertySourceImpl) workflowManager.getPropertySource();
+        PropertyDependencies dependencies = workflowManager.newPropertyDependencies();
+        List<Workflow> rebound = new CopyOnWriteArrayList<>();
+        dependencies.addListener(rebound::add);
+        try {
+            Workflow workflow = dependencies.register(workflowManager.toTree(getFileContents(getResourcePath(model))));
+            assertEquals("test-trigger",
+                         workflow.getTriggerDefs().get(0).getName());
+            assertEquals(new HashSet<>(Arrays.asList("/trigger-defs/0/name",
+                                                               "/states/0/events/0/event-expression")),
+                         dependencies.getDependentFields("abc",
+                                                         "1.0",
+                                                         "workflow.trigger.name"));
+            assertEquals(1,
+                         dependencies.getDependentWorkflows("workflow.state.name").size());
+
+            Properties overrides = new Properties();
+            overrides.setProperty("unused.key",
+                                  "value");
+            propertySource.setOverrides(overrides);
+            assertTrue(rebound.isEmpty());
+
+            overrides = new Properties();
+            overrides.setProperty("workflow.trigger.name",
+                                  "new-trigger");
+            propertySource.setOverrides(overrides);
+            assertEquals(1,
+                         rebound.size());
+            Workflow reboundWorkflow = rebound.get(0);
+            assertEquals("new-trigger",
+                         reboundWorkflow.getTriggerDefs().get(0).getName());
+            assertEquals("name eq 'new-trigger'",
+                         ((EventState) reboundWorkflow.getStates().get(0)).getEvents().get(0).getEventExpression());
+            assertEquals("test-wf",
+                         reboundWorkflow.getName());
+        } finally {
+            dependencies.close();
+            propertySource.setOverrides(null);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"propertysource/placeholdereventstate.json", "propertysource/placeholdereventstate.yml"})
+    public void testRebindMovesChangedVersion(String model) throws Exception {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        WorkflowPropertySourceImpl propertySource = (WorkflowPropertySourceImpl) workflowManager.getPropertySource();
+        PropertyDependencies dependencies = workflowManager.newPropertyDependencies();
+        List<Workflow> rebound = new CopyOnWriteArrayList<>();
+        dependencies.addListener(rebound::add);
+        try {
+            dependencies.register(workflowManager.toTree(getFileContents(getResourcePath(model))));
+
+            Properties overrides = new Properties();
+            overrides.setProperty("workflow.version",
+                                  "2.0");
+            propertySource.setOverrides(overrides);
+            assertEquals(1,
+                         rebound.size());
+            assertNull(dependencies.getWorkflow("abc",
+                                                "1.0"));
+            assertEquals("2.0",
+                         dependencies.getWorkflow("abc",
+                                                  "2.0").getVersion());
+            assertEquals(Collections.singleton("/version"),
+                         dependencies.getDependentFields("abc",
+                                                         "2.0",
+                                                         "workflow.version"));
+
+            overrides = new Properties();
+            overrides.setProperty("workflow.version",
+                                  "2.0");
+            overrides.setProperty("workflow.trigger.name",
+                                  "new-trigger");
+            propertySource.setOverrides(overrides);
+            assertEquals(2,
+                         rebound.size());
+            assertEquals("new-trigger",
+                         dependencies.getWorkflow("abc",
+                                                  "2.0").getTriggerDefs().get(0).getName());
+        } finally {
+            dependencies.close();
+            propertySource.setOverrides(null);
+        }
+    }
+
+    private Path write(String name,
+                       String... lines) throws IOException {
+        return Files.write(directory.resolve(name),
+                           Arrays.asList(lines),
+                           StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl;
+
+import java.util.Collections;
+import java.util.Properties;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.impl.manager.WorkflowManagerImpl;
+import org.serverless.workflow.impl.mapper.LazyWorkflow;
+import org.serverless.workflow.impl.propertysource.WorkflowPropertySourceImpl;
+import org.serverless.workflow.impl.util.TestExtensionImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LazyWorkflowTest extends BaseWorkflowTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"basic/workflowwithmetadata.json", "basic/workflowwithmetadata.yml"})
+    public void testHeaderFields(String model) {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        String markup = getFileContents(getResourcePath(model));
+        Workflow workflow = workflowManager.toWorkflow(markup);
+        LazyWorkflow header = (LazyWorkflow) workflowManager.toWorkflowHeader(markup);
+
+        assertEquals(workflow.getId(),
+                     header.getId());
+        assertEquals(workflow.getName(),
+                     header.getName());
+        assertEquals(workflow.getStartsAt(),
+                     header.getStartsAt());
+        assertEquals(workflow.getMetadata(),
+                     header.getMetadata());
+        assertFalse(header.isFullyLoaded());
+    }
+
+    @Test
+    public void testHeaderFieldsFromPropertySource() {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        Workflow header = workflowManager.toWorkflowHeader(getFileContents(getResourcePath("propertysource/propertysourceeventstatewithtrigger.json")));
+
+        assertEquals("test-wf",
+                     header.getName());
+        assertEquals("abc",
+                     header.getId());
+        assertEquals("test-state",
+                     header.getStartsAt());
+    }
+
+    @Test
+    public void testMetadataFromPropertySource() throws Exception {
+        WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl(Collections.emptyList());
+        Properties properties = new Properties();
+        properties.setProperty("workflow.team",
+                               "payments");
+        propertySource.setPropertySource(properties);
+
+        Workflow header = LazyWorkflow.read(new ObjectMapper(),
+                                            propertySource,
+                                            "{\"id\":\"abc\",\"metadata\":{\"team\":\"workflow.team\",\"tier\":\"gold\"}}");
+        assertEquals("payments",
+                     header.getMetadata().get("team"));
+        assertEquals("gold",
+                     header.getMetadata().get("tier"));
+    }
+
+    @Test
+    public void testUnknownFieldsBoundAsEagerly() throws Exception {
+        String markup = "{\"id\":\"abc\",\"name\":\"test-wf\",\"unknown-field\":{\"nested\":[1,2]}}";
+
+        ObjectMapper strict = new ObjectMapper();
+        assertThrows(UnrecognizedPropertyException.class,
+                     () -> strict.readValue(markup,
+                                            Workflow.class));
+        assertThrows(UnrecognizedPropertyException.class,
+                     () -> LazyWorkflow.read(strict,
+                                             markup));
+
+        ObjectMapper lenient = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES,
+                                                            false);
+        LazyWorkflow header = LazyWorkflow.read(lenient,
+                                                markup);
+        assertEquals("test-wf",
+                     header.getName());
+        assertEquals("abc",
+                     header.getId());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml",
+            "basic/singleparallelstate.json", "basic/singleparallelstate.yml",
+            "basic/singleswitchstateandchoice.json", "basic/singleswitchstateandchoice.yml"})
+    public void testDeferredPartsLoadOnAccess(String model) {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        String markup = getFileContents(getResourcePath(model));
+        workflowManager.setMarkup(markup);
+        String json = workflowManager.toJson();
+
+        LazyWorkflow header = (LazyWorkflow) workflowManager.toWorkflowHeader(markup);
+        assertFalse(header.isFullyLoaded());
+        header.getStates();
+        header.getTriggerDefs();
+        assertTrue(header.isFullyLoaded());
+
+        workflowManager.setWorkflow(header);
+        assertEquals(json,
+                     workflowManager.toJson());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"extensions/singleextension.json", "extensions/singleextension.yml"})
+    public void testDeferredExtensions(String model) {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        workflowManager.registerExtension("testextension",
+                                          TestExtensionImpl.class);
+        Workflow header = workflowManager.toWorkflowHeader(getFileContents(getResourcePath(model)));
+
+        assertEquals(1,
+                     header.getExtensions().size());
+        assertTrue(header.getExtensions().get(0) instanceof TestExtensionImpl);
+    }
+}
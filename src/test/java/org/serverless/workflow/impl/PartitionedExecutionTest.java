@@ -0,0 +1,149 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.events.RingBuffer;
+import org.serverless.workflow.impl.functions.FunctionDispatcher;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+import org.serverless.workflow.impl.util.LocalFunctionInvokerImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartitionedExecutionTest extends BaseWorkflowTest {
+
+    private static final int PARTITIONS = 4;
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog,
+                                                       new FunctionDispatcher(),
+                                                       new RingBuffer<>(),
+                                                       PARTITIONS);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+        LocalFunctionInvokerImpl.clearHandlers();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testInstancesAreOwnedByOnePartition(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            instances.add(engine.start("order",
+                                       null,
+                                       mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (waitingInstances() < 200 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(200,
+                     waitingInstances());
+
+        Map<String, Integer> waitingPartitions = new HashMap<>();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            assertTrue(engine.getCorrelationStore(partition).size() > 0);
+            for (int i = 0; i < 200; i++) {
+                if (!engine.getCorrelationStore(partition).lookup("payment-trigger",
+                                                                  "order-" + i).isEmpty()) {
+                    assertNull(waitingPartitions.put("order-" + i,
+                                                     partition));
+                }
+            }
+        }
+
+        for (int i = 0; i < 200; i++) {
+            engine.signal(new EventMessage("payment-trigger",
+                                           "order-" + i,
+                                           mapper.readTree("{\"paid\":true}")));
+        }
+        for (CompletableFuture<WorkflowInstance> future : instances) {
+            WorkflowInstance instance = future.get(5,
+                                                   TimeUnit.SECONDS);
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.getStatus());
+            assertEquals(waitingPartitions.get(instance.getData().get("orderId").asText()).intValue(),
+                         engine.getPartition(instance.getId()));
+        }
+        assertEquals(0,
+                     waitingInstances());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"data/parallelbranches.json", "data/parallelbranches.yml"})
+    public void testChildrenRunInParentPartition(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            instances.add(engine.start("parallel",
+                                       null,
+                                       mapper.readTree("{\"customer\":\"customer-" + i + "\"}")));
+        }
+        for (CompletableFuture<WorkflowInstance> future : instances) {
+            WorkflowInstance instance = future.get(5,
+                                                   TimeUnit.SECONDS);
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.getStatus());
+            assertEquals(engine.getPartition(instance.getId()),
+                         engine.getPartition(instance.getId() + "/fork/firstbranch"));
+            assertEquals(engine.getPartition(instance.getId()),
+                         engine.getPartition(instance.getId() + "/fork/secondbranch"));
+        }
+    }
+
+    @Test
+    public void testInvalidPartitions() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new WorkflowEngine(catalog,
+                                              new FunctionDispatcher(),
+                                              new RingBuffer<>(),
+                                              0));
+    }
+
+    private int waitingInstances() {
+        return IntStream.range(0,
+                               engine.getPartitions()).map(partition -> engine.getCorrelationStore(partition).size()).sum();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.data.PersistentArrayNode;
+import org.serverless.workflow.impl.data.PersistentJson;
+import org.serverless.workflow.impl.data.PersistentObjectNode;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+import org.serverless.workflow.impl.util.LocalFunctionInvokerImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PersistentDataTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testJsonNodeApi() throws Exception {
+        JsonNode original = mapper.readTree("{\"customer\":{\"name\":\"test\",\"age\":30},\"items\":[1,2,{\"sku\":\"abc\"}],\"active\":true}");
+        JsonNode data = PersistentJson.persistent(original);
+
+        assertTrue(data instanceof PersistentObjectNode);
+        assertTrue(data.get("items") instanceof PersistentArrayNode);
+        assertTrue(PersistentJson.equivalent(data,
+                                             original));
+        assertTrue(PersistentJson.equivalent(original,
+                                             data));
+        // equals stays symmetric: Jackson's nodes are never equal to persistent ones
+        assertNotEquals(data,
+                        original);
+        assertNotEquals(original,
+                        data);
+        assertEquals(data,
+                     PersistentJson.persistent(mapper.readTree("{\"active\":true,\"items\":[1,2,{\"sku\":\"abc\"}],\"customer\":{\"age\":30,\"name\":\"test\"}}")));
+        assertEquals("test",
+                     data.get("customer").get("name").asText());
+        assertEquals(30,
+                     data.path("customer").path("age").asInt());
+        assertTrue(data.path("missing").isMissingNode());
+        assertEquals("abc",
+                     data.at("/items/2/sku").asText());
+        assertEquals("abc",
+                     data.findValue("sku").asText());
+        assertEquals(3,
+                     data.size());
+        assertEquals(original,
+                     mapper.readTree(mapper.writeValueAsString(data)));
+        assertEquals(original,
+                     PersistentJson.mutable(data));
+    }
+
+    @Test
+    public void testStructuralSharing() throws Exception {
+        PersistentObjectNode base = PersistentJson.persistentObject(mapper.readTree("{\"customer\":{\"name\":\"test\"}}"));
+        for (int i = 0; i < 100; i++) {
+            base = base.withField("field-" + i,
+                                  IntNode.valueOf(i));
+        }
+
+        PersistentObjectNode updated = base.withField("status",
+                                                      TextNode.valueOf("approved"));
+        assertSame(base.get("customer"),
+                   updated.get("customer"));
+        assertNull(base.get("status"));
+        assertEquals("approved",
+                     updated.get("status").asText());
+        assertEquals(base.size() + 1,
+                     updated.size());
+        assertSame(base,
+                   base.withField("field-1",
+                                  base.get("field-1")));
+        assertSame(base,
+                   base.withoutField("unknown"));
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        Random random = new Random(42);
+        Map<String, JsonNode> expected = new HashMap<>();
+        PersistentObjectNode data = PersistentObjectNode.empty();
+        for (int i = 0; i < 5000; i++) {
+            String key = "key-" + random.nextInt(1000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                data = data.withoutField(key);
+            } else {
+                expected.put(key,
+                             IntNode.valueOf(i));
+                data = data.withField(key,
+                                      IntNode.valueOf(i));
+            }
+        }
+        assertEquals(expected.size(),
+                     data.size());
+        for (Map.Entry<String, JsonNode> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(),
+                         data.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testHashCollisions() {
+        // "Aa" and "BB" have the same hash code
+        PersistentObjectNode data = PersistentObjectNode.empty()
+                .withField("Aa",
+                           TextNode.valueOf("first"))
+                .withField("BB",
+                           TextNode.valueOf("second"))
+                .withField("C",
+                           TextNode.valueOf("third"));
+        assertEquals(3,
+                     data.size());
+        assertEquals("first",
+                     data.get("Aa").asText());
+        assertEquals("second",
+                     data.get("BB").asText());
+
+        PersistentObjectNode removed = data.withoutField("Aa");
+        assertNull(removed.get("Aa"));
+        assertEquals("second",
+                     removed.get("BB").asText());
+        assertEquals(2,
+                     removed.size());
+    }
+
+    @Test
+    public void testMergeChangedPaths() throws Exception {
+        PersistentObjectNode base = PersistentJson.persistentObject(mapper.readTree("{\"a\":1,\"nested\":{\"x\":1,\"y\":1},\"drop\":true}"));
+
+        PersistentObjectNode firstBranch = base.withField("b",
+                                                          IntNode.valueOf(2));
+        PersistentObjectNode secondBranch = base.withField("nested",
+                                                           ((PersistentObjectNode) base.get("nested")).withField("y",
+                                                                                                                IntNode.valueOf(2)))
+                .withoutField("drop");
+
+        PersistentObjectNode merged = base.withChanges(base,
+                                                       firstBranch)
+                .withChanges(base,
+                             secondBranch);
+        assertEquals(mapper.readTree("{\"a\":1,\"b\":2,\"nested\":{\"x\":1,\"y\":2}}"),
+                     PersistentJson.mutable(merged));
+        assertSame(base.get("a"),
+                   merged.get("a"));
+        assertSame(base,
+                   base.withChanges(firstBranch,
+                                    firstBranch));
+    }
+
+    @Test
+    public void testFieldsKeepInsertionOrder() throws Exception {
+        PersistentObjectNode data = PersistentJson.persistentObject(mapper.readTree("{\"zulu\":1,\"alpha\":2,\"mike\":3}"));
+        assertEquals("{\"zulu\":1,\"alpha\":2,\"mike\":3}",
+                     data.toString());
+
+        PersistentObjectNode updated = data.withField("alpha",
+                                                      IntNode.valueOf(20))
+                .withField("bravo",
+                           IntNode.valueOf(4))
+                .withoutField("zulu");
+        assertEquals("{\"alpha\":20,\"mike\":3,\"bravo\":4}",
+                     updated.toString());
+        assertEquals("{\"alpha\":20,\"mike\":3,\"bravo\":4}",
+                     PersistentJson.mutable(updated).toString());
+
+        PersistentObjectNode branch = data.withField("yankee",
+                                                     IntNode.valueOf(5))
+                .withField("echo",
+                           IntNode.valueOf(6));
+        assertEquals("{\"zulu\":1,\"alpha\":2,\"mike\":3,\"yankee\":5,\"echo\":6}",
+                     data.withChanges(data,
+                                      branch).toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"data/parallelbranches.json", "data/parallelbranches.yml"})
+    public void testParallelBranchesShareData(String model) throws Exception {
+        LocalFunctionInvokerImpl.registerHandler("firstFunction",
+                                                 input -> {
+                                                     // invokers get a mutable copy, not the shared persistent data
+                                                     ((ObjectNode) input).put("scratch",
+                                                                              true);
+                                                     return mapper.createObjectNode().put("first",
+                                                                                          input.get("customer").asText());
+                                                 });
+        LocalFunctionInvokerImpl.registerHandler("secondFunction",
+                                                 input -> mapper.createObjectNode().put("second",
+                                                                                        input.get("customer").asText()));
+        DefinitionCatalog catalog = new DefinitionCatalog();
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        WorkflowEngine engine = new WorkflowEngine(catalog);
+        try {
+            WorkflowInstance instance = engine.start("parallel",
+                                                     null,
+                                                     mapper.readTree("{\"customer\":\"test\"}")).get(5,
+                                                                                                     TimeUnit.SECONDS);
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.getStatus());
+            assertEquals(mapper.readTree("{\"customer\":\"test\",\"first\":\"test\",\"second\":\"test\"}"),
+                         PersistentJson.mutable(instance.getData()));
+            assertFalse(instance.getData().has("function"));
+            assertFalse(instance.getData().has("scratch"));
+            assertTrue(instance.getData() instanceof ObjectNode);
+        } finally {
+            engine.shutdown();
+            engine.getFunctionDispatcher().shutdown();
+            LocalFunctionInvokerImpl.clearHandlers();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl;
+
+import java.util.Properties;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.api.actions.Action;
+import org.serverless.workflow.api.events.Event;
+import org.serverless.workflow.api.states.EventState;
+import org.serverless.workflow.impl.manager.WorkflowManagerImpl;
+import org.serverless.workflow.impl.propertysource.PlaceholderResolver;
+import org.serverless.workflow.impl.propertysource.WorkflowPropertySourceImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PlaceholderResolverTest extends BaseWorkflowTest {
+
+    @Test
+    public void testValuesResolveToText() {
+        PlaceholderResolver resolver = new PlaceholderResolver(propertySource("count=3",
+                                                                              "ratio=1.10",
+                                                                              "enabled=true",
+                                                                              "name=test"));
+
+        assertEquals("3",
+                     resolver.resolveValue("${count}").textValue());
+        assertEquals("1.10",
+                     resolver.resolveValue("${ratio}").textValue());
+        assertEquals("true",
+                     resolver.resolveValue("${enabled}").textValue());
+        assertEquals("test",
+                     resolver.resolveValue("${name}").textValue());
+        assertEquals("PT3S",
+                     resolver.resolveValue("PT${count}S").textValue());
+        assertNull(resolver.resolveValue("name"));
+    }
+
+    @Test
+    public void testDefaultsAndMissingKeys() {
+        PlaceholderResolver resolver = new PlaceholderResolver(propertySource("name=test"));
+
+        assertEquals("test",
+                     resolver.resolveText("${name:other}"));
+        assertEquals("other",
+                     resolver.resolveText("${missing:other}"));
+        assertEquals("",
+                     resolver.resolveText("${missing:}"));
+        assertEquals("${missing}",
+                     resolver.resolveText("${missing}"));
+        assertEquals("a-${missing}-test",
+                     resolver.resolveText("a-${missing}-${name}"));
+        assertEquals("other",
+                     new PlaceholderResolver(null).resolveText("${name:other}"));
+    }
+
+    @Test
+    public void testStrictPlaceholders() {
+        PlaceholderResolver resolver = new PlaceholderResolver(propertySource("name=test",
+                                                                              PlaceholderResolver.STRICT_PROPERTY + "=true"));
+
+        assertEquals("test",
+                     resolver.resolveText("${name}"));
+        assertEquals("other",
+                     resolver.resolveText("${missing:other}"));
+        assertThrows(IllegalArgumentException.class,
+                     () -> resolver.resolveValue("${missing}"));
+    }
+
+    @Test
+    public void testEscapedPlaceholders() {
+        PlaceholderResolver resolver = new PlaceholderResolver(propertySource("name=test",
+                                                                              PlaceholderResolver.STRICT_PROPERTY + "=true"));
+
+        assertEquals("${name}",
+                     resolver.resolveText("$${name}"));
+        assertEquals("${missing} test",
+                     resolver.resolveText("$${missing} ${name}"));
+    }
+
+    @Test
+    public void testCacheFollowsProperties() {
+        WorkflowPropertySourceImpl propertySource = propertySource("name=first");
+        PlaceholderResolver resolver = new PlaceholderResolver(propertySource);
+
+        JsonNode first = resolver.resolveValue("${name}");
+        assertSame(first,
+                   resolver.resolveValue("${name}"));
+
+        propertySource.setPropertySource(properties("name=second"));
+        assertEquals("second",
+                     resolver.resolveText("${name}"));
+    }
+
+    @Test
+    public void testResolveTree() throws Exception {
+        PlaceholderResolver resolver = new PlaceholderResolver(propertySource("name=test",
+                                                                              "count=3"));
+        JsonNode tree = new ObjectMapper().readTree("{\"name\":\"${name}\",\"items\":[\"${count}\",\"plain\",{\"max\":\"${count}\"}]}");
+
+        assertSame(tree,
+                   resolver.resolve(tree));
+        assertEquals("{\"name\":\"test\",\"items\":[\"3\",\"plain\",{\"max\":\"3\"}]}",
+                     tree.toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"propertysource/placeholdereventstate.json", "propertysource/placeholdereventstate.yml"})
+    public void testWorkflowPlaceholders(String model) {
+        WorkflowManagerImpl workflowManager = (WorkflowManagerImpl) getWorkflowManager();
+        String markup = getFileContents(getResourcePath(model));
+        Workflow workflow = workflowManager.toWorkflow(markup);
+
+        assertEquals("test-wf",
+                     workflow.getName());
+        assertEquals("abc",
+                     workflow.getId());
+        assertEquals("1.0",
+                     workflow.getVersion());
+        assertEquals("test-trigger",
+                     workflow.getTriggerDefs().get(0).getName());
+
+        EventState eventState = (EventState) workflow.getStates().get(0);
+        assertEquals("test-state",
+                     eventState.getName());
+        Event event = eventState.getEvents().get(0);
+        assertEquals("name eq 'test-trigger'",
+                     event.getEventExpression());
+        Action action = event.getActions().get(0);
+        assertEquals("testFunction",
+                     action.getFunction().getName());
+        assertEquals("PT2S",
+                     action.getRetry().getRetryInterval());
+        assertEquals(10,
+                     action.getRetry().getMaxRetry().intValue());
+
+        Workflow header = workflowManager.toWorkflowHeader(markup);
+        assertEquals("test-wf",
+                     header.getName());
+        assertEquals("test-state",
+                     header.getStartsAt());
+        assertEquals("test-state",
+                     header.getStates().get(0).getName());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"propertysource/propertysourceeventstatewithtrigger.json", "propertysource/propertysourceeventstatewithtrigger.yml"})
+    public void testMarkupWithoutPlaceholders(String model) {
+        String markup = getFileContents(getResourcePath(model));
+        assertFalse(PlaceholderResolver.hasPlaceholders(markup));
+
+        // values still resolve implicitly as property keys unless turned off
+        Workflow workflow = getWorkflowManager().toWorkflow(markup);
+        assertEquals("test-wf",
+                     workflow.getName());
+    }
+
+    private static WorkflowPropertySourceImpl propertySource(String... entries) {
+        WorkflowPropertySourceImpl propertySource = new WorkflowPropertySourceImpl();
+        propertySource.setPropertySource(properties(entries));
+        return propertySource;
+    }
+
+    private static Properties properties(String... entries) {
+        Properties properties = new Properties();
+        for (String entry : entries) {
+            int separator = entry.indexOf('=');
+            properties.setProperty(entry.substring(0,
+                                                   separator),
+                                   entry.substring(separator + 1));
+        }
+        return properties;
+    }
+}
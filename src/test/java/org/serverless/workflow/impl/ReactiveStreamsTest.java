@@ -0,0 +1,369 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.serverless.workflow.api.events.TriggerEvent;
+import org.serverless.workflow.impl.admission.AdmissionPolicy;
+import org.serverless.workflow.impl.events.RingBuffer;
+import org.serverless.workflow.impl.events.WaitStrategies;
+import org.serverless.workflow.impl.functions.FunctionDispatcher;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.reactive.EventSubscriber;
+import org.serverless.workflow.impl.reactive.TransitionPublisher;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.InstanceTransition;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReactiveStreamsTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog,
+                                                       new FunctionDispatcher(),
+                                                       new RingBuffer<>(16,
+                                                                        WaitStrategies.yielding(),
+                                                                        WaitStrategies.blocking()),
+                                                       2);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testSubscriberAppliesDemand(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+        List<EventMessage> events = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            instances.add(engine.start("order",
+                                       null,
+                                       mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+            events.add(new EventMessage("payment-trigger",
+                                        "order-" + i,
+                                        mapper.readTree("{\"paid\":" + i + "}")));
+        }
+
+        ListPublisher<EventMessage> publisher = new ListPublisher<>(events);
+        EventSubscriber<EventMessage> subscriber = new EventSubscriber<>(engine,
+                                                                         message -> message,
+                                                                         8,
+                                                                         Runnable::run);
+        publisher.subscribe(subscriber);
+        subscriber.getCompletion().get(5,
+                                       TimeUnit.SECONDS);
+
+        for (int i = 0; i < instances.size(); i++) {
+            WorkflowInstance instance = instances.get(i).get(5,
+                                                             TimeUnit.SECONDS);
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.getStatus());
+            assertEquals(i,
+                         instance.getData().get("paid").asInt());
+        }
+        assertTrue(publisher.maxOutstanding <= 8,
+                   "Outstanding demand " + publisher.maxOutstanding + " exceeds the prefetch window");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testTriggerEventSubscriber(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+        TriggerEvent trigger = catalog.resolve("order",
+                                               null).getNode("wait-for-payment").getTriggers().get("payment-trigger");
+
+        List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+        List<JsonNode> payloads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            instances.add(engine.start("order",
+                                       null,
+                                       mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+            payloads.add(mapper.readTree("{\"orderId\":\"order-" + i + "\",\"paid\":" + i + "}"));
+        }
+
+        EventSubscriber<JsonNode> subscriber = EventSubscriber.forTriggerEvents(engine,
+                                                                                trigger);
+        new ListPublisher<>(payloads).subscribe(subscriber);
+        subscriber.getCompletion().get(5,
+                                       TimeUnit.SECONDS);
+
+        for (int i = 0; i < instances.size(); i++) {
+            WorkflowInstance instance = instances.get(i).get(5,
+                                                             TimeUnit.SECONDS);
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.getStatus());
+            assertEquals(i,
+                         instance.getData().get("paid").asInt());
+        }
+    }
+
+    @Test
+    public void testSubscriberPassesAdmissionControl() throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("events/correlatedevent.json"))));
+
+        List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+        List<EventMessage> events = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            instances.add(engine.start("order",
+                                       null,
+                                       mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+            events.add(new EventMessage("payment-trigger",
+                                        "order-" + i,
+                                        mapper.readTree("{\"paid\":true}")));
+        }
+        engine.getAdmissionController().setPolicy(new AdmissionPolicy(0,
+                                                                      1,
+                                                                      0));
+
+        EventSubscriber<EventMessage> subscriber = EventSubscriber.forEventMessages(engine);
+        new ListPublisher<>(events).subscribe(subscriber);
+        subscriber.getCompletion().get(5,
+                                       TimeUnit.SECONDS);
+        // held back while the engine is over its in-flight limit
+        Thread.sleep(200);
+        assertFalse(instances.get(0).isDone());
+        assertTrue(engine.getAdmissionController().getRejectedCount() > 0);
+
+        engine.getAdmissionController().setPolicy(new AdmissionPolicy());
+        for (CompletableFuture<WorkflowInstance> instance : instances) {
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.get(5,
+                                      TimeUnit.SECONDS).getStatus());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testTransitionPublisher(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        Map<String, List<InstanceTransition>> transitions = new ConcurrentHashMap<>();
+        CountDownLatch completions = new CountDownLatch(20);
+        try (TransitionPublisher publisher = new TransitionPublisher(engine)) {
+            publisher.subscribe(new Subscriber<InstanceTransition>() {
+                private Subscription subscription;
+
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(InstanceTransition transition) {
+                    transitions.computeIfAbsent(transition.getInstanceId(),
+                                                id -> new CopyOnWriteArrayList<>()).add(transition);
+                    if (transition.isCompletion()) {
+                        completions.countDown();
+                    }
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+
+            List<CompletableFuture<WorkflowInstance>> instances = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                instances.add(engine.start("order",
+                                           null,
+                                           mapper.readTree("{\"orderId\":\"order-" + i + "\"}")));
+            }
+            for (int i = 0; i < 20; i++) {
+                engine.signal(new EventMessage("payment-trigger",
+                                               "order-" + i,
+                                               null));
+            }
+            for (CompletableFuture<WorkflowInstance> instance : instances) {
+                instance.get(5,
+                             TimeUnit.SECONDS);
+            }
+            assertTrue(completions.await(5,
+                                         TimeUnit.SECONDS));
+        }
+
+        assertEquals(20,
+                     transitions.size());
+        for (List<InstanceTransition> instanceTransitions : transitions.values()) {
+            assertEquals(3,
+                         instanceTransitions.size());
+            assertEquals(InstanceStatus.RUNNING,
+                         instanceTransitions.get(0).getStatus());
+            assertEquals("wait-for-payment",
+                         instanceTransitions.get(0).getState());
+            assertEquals(InstanceStatus.WAITING,
+                         instanceTransitions.get(1).getStatus());
+            assertEquals(InstanceStatus.COMPLETED,
+                         instanceTransitions.get(2).getStatus());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events/correlatedevent.json", "events/correlatedevent.yml"})
+    public void testSlowSubscriberIsDropped(String model) throws Exception {
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model))));
+
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        try (TransitionPublisher publisher = new TransitionPublisher(engine,
+                                                                     4,
+                                                                     Runnable::run)) {
+            publisher.subscribe(new Subscriber<InstanceTransition>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                }
+
+                @Override
+                public void onNext(InstanceTransition transition) {
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    failure.complete(error);
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            for (int i = 0; i < 10; i++) {
+                engine.start("order",
+                             null,
+                             mapper.readTree("{\"orderId\":\"order-" + i + "\"}"));
+            }
+
+            assertTrue(failure.get(5,
+                                   TimeUnit.SECONDS) instanceof IllegalStateException);
+            assertEquals(0,
+                         publisher.getSubscriberCount());
+        }
+    }
+
+    @Test
+    public void testInvalidDemand() throws Exception {
+        AtomicReference<Subscription> subscription = new AtomicReference<>();
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        try (TransitionPublisher publisher = new TransitionPublisher(engine,
+                                                                     4,
+                                                                     Runnable::run)) {
+            publisher.subscribe(new Subscriber<InstanceTransition>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription.set(s);
+                }
+
+                @Override
+                public void onNext(InstanceTransition transition) {
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    failure.complete(error);
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            subscription.get().request(0);
+            assertTrue(failure.get(5,
+                                   TimeUnit.SECONDS) instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * Emits a list of items as they are requested and records the largest outstanding demand.
+     */
+    private static class ListPublisher<T> implements Publisher<T> {
+
+        private final List<T> items;
+        private volatile long maxOutstanding;
+
+        private ListPublisher(List<T> items) {
+            this.items = items;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super T> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private long requested;
+                private int index;
+                private boolean emitting;
+                private boolean cancelled;
+
+                @Override
+                public synchronized void request(long n) {
+                    requested += n;
+                    maxOutstanding = Math.max(maxOutstanding,
+                                              requested);
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (requested > 0 && index < items.size() && !cancelled) {
+                        requested--;
+                        subscriber.onNext(items.get(index++));
+                    }
+                    if (index == items.size() && !cancelled) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.journal.FileJournal;
+import org.serverless.workflow.impl.journal.JournalManager;
+import org.serverless.workflow.impl.journal.JournalRecord;
+import org.serverless.workflow.impl.journal.SnapshotPolicy;
+import org.serverless.workflow.impl.journal.SnapshotStore;
+import org.serverless.workflow.impl.runtime.CorrelationStore;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.PartitionGate;
+import org.serverless.workflow.impl.runtime.PartitionedRecovery;
+import org.serverless.workflow.impl.runtime.Partitions;
+import org.serverless.workflow.impl.runtime.TimerWheel;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecoveryTest extends BaseWorkflowTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testPartitionedRecovery() throws Exception {
+        try (JournalManager manager = newManager()) {
+            CompletableFuture<Long> appended = null;
+            for (int i = 0; i < 200; i++) {
+                // one append per instance, segments roll between appends
+                List<JournalRecord> records = new ArrayList<>();
+                String instanceId = "instance-" + i;
+                records.add(JournalRecord.instanceStarted(instanceId,
+                                                          "abc",
+                                                          "1.0",
+                                                          bytes("{\"index\":" + i + "}")));
+                records.add(JournalRecord.stateEntered(instanceId,
+                                                       "waiting-state",
+                                                       null));
+                if (i % 3 == 0) {
+                    records.add(JournalRecord.instanceFinished(instanceId,
+                                                               "COMPLETED",
+                                                               null));
+                } else if (i % 3 == 1) {
+                    records.add(JournalRecord.eventAwaited(instanceId,
+                                                           "test-trigger",
+                                                           "token-" + (i % 10)));
+                } else {
+                    records.add(JournalRecord.timerScheduled(instanceId,
+                                                             "delay",
+                                                             5000L + i));
+                }
+                appended = manager.append(records);
+            }
+            appended.get(5,
+                         TimeUnit.SECONDS);
+            assertTrue(manager.getJournal().getSegments().size() > 1);
+        }
+
+        try (JournalManager manager = newManager()) {
+            Map<String, WorkflowInstance> expected = manager.recover();
+
+            CorrelationStore correlationStore = new CorrelationStore();
+            TimerWheel timerWheel = new TimerWheel(10,
+                                                   64,
+                                                   0);
+            PartitionGate partitionGate = new PartitionGate(4);
+            Map<String, WorkflowInstance> recovered = new ConcurrentHashMap<>();
+            int count = new PartitionedRecovery(manager,
+                                                correlationStore,
+                                                timerWheel,
+                                                partitionGate,
+                                                4).recover(instance -> recovered.put(instance.getId(),
+                                                                                     instance)).get(30,
+                                                                                                    TimeUnit.SECONDS);
+
+            assertEquals(expected.size(),
+                         count);
+            assertEquals(expected.keySet(),
+                         recovered.keySet());
+            for (int partition = 0; partition < 4; partition++) {
+                assertTrue(partitionGate.isOpen(partition));
+            }
+
+            int awaiting = (int) expected.values().stream().filter(instance -> !instance.getAwaitedEvents().isEmpty()).count();
+            assertEquals(awaiting,
+                         correlationStore.size());
+            assertTrue(correlationStore.lookup("test-trigger",
+                                               "token-1").contains("instance-1"));
+            assertFalse(correlationStore.lookup("test-trigger",
+                                                "token-1").contains("instance-0"));
+
+            assertEquals(expected.size() - awaiting,
+                         timerWheel.size());
+            assertEquals(expected.size() - awaiting,
+                         timerWheel.advance(10000).size());
+        }
+    }
+
+    @Test
+    public void testEngineResumesInstances() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        DefinitionCatalog catalog = new DefinitionCatalog();
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("events/correlatedevent.json"))));
+        catalog.register(getWorkflowManager().toWorkflow(getFileContents(getResourcePath("timers/delayedorder.json"))));
+
+        int count = 20;
+        WorkflowEngine engine = new WorkflowEngine(catalog);
+        try (JournalManager manager = new JournalManager(directory)) {
+            engine.setJournalManager(manager);
+            for (int i = 0; i < count; i++) {
+                engine.submit("order",
+                              null,
+                              mapper.readTree("{\"orderId\":\"order-" + i + "\"}"));
+            }
+            engine.submit("delayed-order",
+                          null,
+                          mapper.createObjectNode());
+            awaitCondition(() -> engine.countInstances("order",
+                                                       null,
+                                                       null,
+                                                       InstanceStatus.WAITING) == count);
+            // started, entered its first state and awaited its event or scheduled its timer
+            awaitCondition(() -> manager.getJournal().getLastSequence() == 3 * (count + 1));
+        } finally {
+            engine.shutdown();
+            engine.getFunctionDispatcher().shutdown();
+        }
+
+        WorkflowEngine restarted = new WorkflowEngine(catalog);
+        try (JournalManager manager = new JournalManager(directory)) {
+            restarted.setJournalManager(manager);
+            Set<String> completed = ConcurrentHashMap.newKeySet();
+            restarted.addTransitionListener(transition -> {
+                if (transition.getStatus() == InstanceStatus.COMPLETED) {
+                    completed.add(transition.getWorkflowId() + ":" + transition.getInstanceId());
+                }
+            });
+            CompletableFuture<Integer> recovered = restarted.recover();
+            // events signalled while partitions recover are held back, not dropped
+            for (int i = 0; i < count; i++) {
+                restarted.signal(new EventMessage("payment-trigger",
+                                                  "order-" + i,
+                                                  mapper.readTree("{\"paid\":true}")));
+            }
+            assertEquals(Integer.valueOf(count + 1),
+                         recovered.get(30,
+                                       TimeUnit.SECONDS));
+            awaitCondition(() -> completed.size() == count + 1);
+            assertEquals(0,
+                         restarted.getInFlightInstances());
+            assertEquals(1,
+                         completed.stream().filter(key -> key.startsWith("delayed-order:")).count());
+        } finally {
+            restarted.shutdown();
+            restarted.getFunctionDispatcher().shutdown();
+        }
+    }
+
+    @Test
+    public void testPartitionGateQueuesUntilOpen() {
+        PartitionGate partitionGate = new PartitionGate(2);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        partitionGate.execute(0,
+                              () -> executed.add("first"));
+        partitionGate.execute(0,
+                              () -> executed.add("second"));
+        partitionGate.execute(1,
+                              () -> executed.add("other"));
+        assertTrue(executed.isEmpty());
+
+        partitionGate.open(0);
+        assertEquals(2,
+                     executed.size());
+        assertEquals("first",
+                     executed.get(0));
+        assertEquals("second",
+                     executed.get(1));
+        assertFalse(partitionGate.isOpen(1));
+
+        partitionGate.execute(0,
+                              () -> executed.add("third"));
+        assertEquals("third",
+                     executed.get(2));
+        assertEquals(3,
+                     executed.size());
+    }
+
+    @Test
+    public void testTimerWheel() {
+        TimerWheel timerWheel = new TimerWheel(10,
+                                               8,
+                                               0);
+        timerWheel.schedule("instance-1",
+                            "delay",
+                            25);
+        timerWheel.schedule("instance-2",
+                            "delay",
+                            1000);
+        timerWheel.schedule("instance-3",
+                            "delay",
+                            55);
+        assertTrue(timerWheel.cancel("instance-3",
+                                     "delay"));
+
+        assertTrue(timerWheel.advance(15).isEmpty());
+        List<TimerWheel.Timer> expired = timerWheel.advance(30);
+        assertEquals(1,
+                     expired.size());
+        assertEquals("instance-1",
+                     expired.get(0).getInstanceId());
+
+        // the second timer shares a bucket with earlier ticks but must wait for its own round
+        assertTrue(timerWheel.advance(500).isEmpty());
+        assertEquals(1,
+                     timerWheel.advance(1000).size());
+        assertEquals(0,
+                     timerWheel.size());
+    }
+
+    @Test
+    public void testPartitionsAreStable() {
+        for (int i = 0; i < 100; i++) {
+            int partition = Partitions.partitionOf("instance-" + i,
+                                                   8);
+            assertTrue(partition >= 0 && partition < 8);
+            assertEquals(partition,
+                         Partitions.partitionOf("instance-" + i,
+                                                8));
+        }
+    }
+
+    private JournalManager newManager() {
+        return new JournalManager(new FileJournal(directory.resolve("journal"),
+                                                  4096,
+                                                  true),
+                                  new SnapshotStore(directory.resolve("snapshots")),
+                                  new SnapshotPolicy());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
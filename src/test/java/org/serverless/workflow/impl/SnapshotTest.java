@@ -0,0 +1,263 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.serverless.workflow.impl.instance.InstanceCodec;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.journal.FileJournal;
+import org.serverless.workflow.impl.journal.InstanceSnapshot;
+import org.serverless.workflow.impl.journal.JournalManager;
+import org.serverless.workflow.impl.journal.JournalRecord;
+import org.serverless.workflow.impl.journal.JournalReplayer;
+import org.serverless.workflow.impl.journal.SnapshotPolicy;
+import org.serverless.workflow.impl.journal.SnapshotStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotTest extends BaseWorkflowTest {
+
+    @TempDir
+    Path directory;
+
+    private final Map<String, WorkflowInstance> liveInstances = new LinkedHashMap<>();
+
+    @Test
+    public void testSnapshotAfterEventInterval() throws Exception {
+        try (JournalManager manager = newManager(new SnapshotPolicy(3,
+                                                                    0),
+                                                 FileJournal.DEFAULT_MAX_SEGMENT_SIZE)) {
+            append(manager,
+                   JournalRecord.instanceStarted("instance-1",
+                                                 "abc",
+                                                 "1.0",
+                                                 bytes("{\"step\":0}")));
+            append(manager,
+                   JournalRecord.stateEntered("instance-1",
+                                              "first-state",
+                                              null));
+            manager.awaitSnapshots();
+            assertNull(manager.getSnapshotStore().read("instance-1"));
+
+            long sequence = append(manager,
+                                   JournalRecord.actionCompleted("instance-1",
+                                                                 "testFunction",
+                                                                 bytes("{\"step\":1}")));
+            manager.awaitSnapshots();
+            InstanceSnapshot snapshot = manager.getSnapshotStore().read("instance-1");
+            assertNotNull(snapshot);
+            assertEquals(sequence,
+                         snapshot.getLastSequence());
+            assertFalse(snapshot.isTerminal());
+            assertEquals("first-state",
+                         snapshot.getInstance().getCurrentState());
+            assertEquals(1,
+                         snapshot.getInstance().getData().get("step").asInt());
+        }
+    }
+
+    @Test
+    public void testSnapshotAfterByteInterval() throws Exception {
+        try (JournalManager manager = newManager(new SnapshotPolicy(0,
+                                                                    256),
+                                                 FileJournal.DEFAULT_MAX_SEGMENT_SIZE)) {
+            append(manager,
+                   JournalRecord.instanceStarted("instance-1",
+                                                 "abc",
+                                                 "1.0",
+                                                 bytes("{}")));
+            manager.awaitSnapshots();
+            assertNull(manager.getSnapshotStore().read("instance-1"));
+
+            StringBuilder payload = new StringBuilder();
+            for (int i = 0; i < 300; i++) {
+                payload.append('x');
+            }
+            append(manager,
+                   JournalRecord.actionCompleted("instance-1",
+                                                 "testFunction",
+                                                 bytes("{\"payload\":\"" + payload + "\"}")));
+            manager.awaitSnapshots();
+            assertNotNull(manager.getSnapshotStore().read("instance-1"));
+        }
+    }
+
+    @Test
+    public void testCompactionAndRecovery() throws Exception {
+        try (JournalManager manager = newManager(new SnapshotPolicy(5,
+                                                                    0),
+                                                 1024)) {
+            for (int i = 0; i < 20; i++) {
+                String instanceId = "instance-" + i;
+                append(manager,
+                       JournalRecord.instanceStarted(instanceId,
+                                                     "abc",
+                                                     "1.0",
+                                                     bytes("{\"index\":" + i + "}")));
+                for (int step = 0; step < 7; step++) {
+                    append(manager,
+                           JournalRecord.stateEntered(instanceId,
+                                                      "state-" + step,
+                                                      bytes("{\"index\":" + i + ",\"step\":" + step + "}")));
+                }
+                if (i % 2 == 0) {
+                    append(manager,
+                           JournalRecord.instanceFinished(instanceId,
+                                                          "COMPLETED",
+                                                          bytes("{}")));
+                } else {
+                    append(manager,
+                           JournalRecord.timerScheduled(instanceId,
+                                                        "delay",
+                                                        1000L + i));
+                    append(manager,
+                           JournalRecord.eventAwaited(instanceId,
+                                                      "test-trigger",
+                                                      "token-" + i));
+                }
+            }
+            manager.awaitSnapshots();
+
+            int segments = manager.getJournal().getSegments().size();
+            assertTrue(segments > 2);
+            int deleted = manager.compact();
+            assertTrue(deleted > 0);
+            assertEquals(segments - deleted,
+                         manager.getJournal().getSegments().size());
+        }
+
+        Map<String, WorkflowInstance> expected = new LinkedHashMap<>(liveInstances);
+        expected.values().removeIf(WorkflowInstance::isTerminated);
+
+        liveInstances.clear();
+        try (JournalManager manager = newManager(new SnapshotPolicy(5,
+                                                                    0),
+                                                 1024)) {
+            Map<String, WorkflowInstance> recovered = manager.recover();
+            assertEquals(expected.keySet(),
+                         recovered.keySet());
+            for (WorkflowInstance instance : expected.values()) {
+                WorkflowInstance recoveredInstance = recovered.get(instance.getId());
+                assertEquals(InstanceStatus.WAITING,
+                             recoveredInstance.getStatus());
+                assertEquals(instance.getCurrentState(),
+                             recoveredInstance.getCurrentState());
+                assertEquals(instance.getData(),
+                             recoveredInstance.getData());
+                assertEquals(instance.getTimers(),
+                             recoveredInstance.getTimers());
+                assertEquals(instance.getAwaitedEvents(),
+                             recoveredInstance.getAwaitedEvents());
+            }
+        }
+    }
+
+    @Test
+    public void testCompactionSnapshotUsesInstanceSequence() throws Exception {
+        try (JournalManager manager = newManager(new SnapshotPolicy(1000,
+                                                                    0),
+                                                 1024)) {
+            append(manager,
+                   JournalRecord.instanceStarted("instance-1",
+                                                 "abc",
+                                                 "1.0",
+                                                 bytes("{}")));
+            long last = append(manager,
+                               JournalRecord.stateEntered("instance-1",
+                                                          "state-1",
+                                                          bytes("{\"step\":1}")));
+            for (int i = 0; i < 50; i++) {
+                append(manager,
+                       JournalRecord.instanceStarted("other-" + i,
+                                                     "abc",
+                                                     "1.0",
+                                                     bytes("{\"index\":" + i + "}")));
+                append(manager,
+                       JournalRecord.instanceFinished("other-" + i,
+                                                      "COMPLETED",
+                                                      bytes("{}")));
+            }
+            manager.awaitSnapshots();
+            assertTrue(manager.compact() > 0);
+
+            assertEquals(last,
+                         manager.getSnapshotStore().read("instance-1").getLastSequence());
+        }
+    }
+
+    @Test
+    public void testCorruptedSnapshotIsIgnored() throws Exception {
+        SnapshotStore store = new SnapshotStore(directory.resolve("snapshots"));
+        WorkflowInstance instance = new WorkflowInstance("instance-1",
+                                                         "abc",
+                                                         "1.0");
+        store.write(new InstanceSnapshot("instance-1",
+                                         42,
+                                         false,
+                                         InstanceCodec.encode(instance)));
+        assertEquals(42,
+                     store.read("instance-1").getLastSequence());
+
+        Path file = store.getDirectory().resolve("instance-1.snapshot");
+        byte[] content = Files.readAllBytes(file);
+        content[content.length - 1] ^= 0x7f;
+        Files.write(file,
+                                  content);
+        assertNull(store.read("instance-1"));
+    }
+
+    private JournalManager newManager(SnapshotPolicy policy,
+                                      long maxSegmentSize) {
+        JournalManager manager = new JournalManager(new FileJournal(directory.resolve("journal"),
+                                                                    maxSegmentSize,
+                                                                    true),
+                                                    new SnapshotStore(directory.resolve("snapshots")),
+                                                    policy);
+        manager.setSnapshotSource(instanceId -> {
+            WorkflowInstance instance = liveInstances.get(instanceId);
+            return instance == null || instance.isTerminated() ? null : InstanceCodec.encode(instance);
+        });
+        return manager;
+    }
+
+    private long append(JournalManager manager,
+                        JournalRecord record) throws Exception {
+        JournalReplayer.apply(liveInstances,
+                              record);
+        return manager.append(record).get(5,
+                                          TimeUnit.SECONDS);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.api.Workflow;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.StateNode;
+import org.serverless.workflow.impl.runtime.SubflowCallSite;
+import org.serverless.workflow.impl.runtime.WorkflowDefinition;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+import org.serverless.workflow.impl.runtime.WorkflowExecutionException;
+import org.serverless.workflow.impl.util.LocalFunctionInvokerImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class SubflowTest extends BaseWorkflowTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private DefinitionCatalog catalog = new DefinitionCatalog();
+    private WorkflowEngine engine = new WorkflowEngine(catalog);
+
+    @AfterEach
+    public void tearDown() {
+        engine.shutdown();
+        engine.getFunctionDispatcher().shutdown();
+        LocalFunctionInvokerImpl.clearHandlers();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"subflows/parentworkflow.json", "subflows/parentworkflow.yml"})
+    public void testSubflowExecution(String model) throws Exception {
+        catalog.register(toWorkflow(model.replace("parent",
+                                                  "child")));
+        catalog.register(toWorkflow(model));
+
+        WorkflowInstance instance = engine.start("parent",
+                                                 "1.0",
+                                                 mapper.readTree("{\"customer\":\"test\"}")).get(5,
+                                                                                                 TimeUnit.SECONDS);
+        assertEquals(InstanceStatus.COMPLETED,
+                     instance.getStatus());
+        assertEquals("test",
+                     instance.getData().get("customer").asText());
+        assertEquals("true",
+                     instance.getData().get("enriched").asText());
+        assertEquals("true",
+                     instance.getData().get("finished").asText());
+        assertEquals("finishFunction",
+                     instance.getData().get("function").asText());
+    }
+
+    @Test
+    public void testCallSiteCaching() throws Exception {
+        catalog.register(toWorkflow("subflows/childworkflow.json"));
+        catalog.register(toWorkflow("subflows/parentworkflow.json"));
+
+        StateNode callChild = catalog.resolve("parent",
+                                              "1.0").getNode("call-child");
+        assertEquals(StateNode.Kind.SUBFLOW,
+                     callChild.getKind());
+        SubflowCallSite callSite = callChild.getCallSite();
+        WorkflowDefinition resolved = callSite.resolve(catalog);
+        assertEquals("child",
+                     resolved.getId());
+        assertSame(resolved,
+                   callSite.resolve(catalog));
+
+        // registering a definition invalidates cached resolutions
+        catalog.register(toWorkflow("subflows/childworkflow.json"));
+        assertNotSame(resolved,
+                      callSite.resolve(catalog));
+
+        Workflow newerChild = toWorkflow("subflows/childworkflow.json");
+        newerChild.setVersion("1.10");
+        catalog.register(newerChild);
+        Workflow olderChild = toWorkflow("subflows/childworkflow.json");
+        olderChild.setVersion("1.9");
+        catalog.register(olderChild);
+        assertEquals("1.10",
+                     new SubflowCallSite("child",
+                                         null).resolve(catalog).getVersion());
+        assertEquals("1.0",
+                     callSite.resolve(catalog).getVersion());
+    }
+
+    @Test
+    public void testInlinedSubflow() throws Exception {
+        catalog.setInlineThreshold(1);
+        catalog.register(toWorkflow("subflows/childworkflow.json"));
+        WorkflowDefinition parent = catalog.register(toWorkflow("subflows/parentworkflow.json"));
+
+        assertEquals(StateNode.Kind.INLINED_SUBFLOW,
+                     parent.getNode("call-child").getKind());
+        StateNode inlined = parent.getNode("call-child/enrich");
+        assertNotNull(inlined);
+        assertEquals("finish",
+                     inlined.getExit());
+
+        WorkflowInstance instance = engine.start("parent",
+                                                 null,
+                                                 mapper.readTree("{\"customer\":\"test\"}")).get(5,
+                                                                                                 TimeUnit.SECONDS);
+        assertEquals(InstanceStatus.COMPLETED,
+                     instance.getStatus());
+        assertEquals("true",
+                     instance.getData().get("enriched").asText());
+        assertEquals("true",
+                     instance.getData().get("finished").asText());
+    }
+
+    @Test
+    public void testSubflowWithoutWaiting() throws Exception {
+        CountDownLatch childCalled = new CountDownLatch(1);
+        LocalFunctionInvokerImpl.registerHandler("enrichFunction",
+                                                 input -> {
+                                                     childCalled.countDown();
+                                                     return mapper.createObjectNode().put("enriched",
+                                                                                          "true");
+                                                 });
+        catalog.register(toWorkflow("subflows/childworkflow.json"));
+        Workflow parent = getWorkflowManager().toWorkflow(getFileContents(getResourcePath("subflows/parentworkflow.json"))
+                                                                  .replace("\"wait-for-completion\": true",
+                                                                           "\"wait-for-completion\": false"));
+        catalog.register(parent);
+
+        WorkflowInstance instance = engine.start("parent",
+                                                 "1.0",
+                                                 null).get(5,
+                                                           TimeUnit.SECONDS);
+        assertEquals(InstanceStatus.COMPLETED,
+                     instance.getStatus());
+        assertFalse(instance.getData().has("enriched"));
+        assertTrue(childCalled.await(5,
+                                     TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMissingSubflowFailsInstance() throws Exception {
+        catalog.register(toWorkflow("subflows/parentworkflow.json"));
+        try {
+            engine.start("parent",
+                         "1.0",
+                         null).get(5,
+                                   TimeUnit.SECONDS);
+            fail("Expected the instance to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof WorkflowExecutionException);
+            WorkflowExecutionException executionException = (WorkflowExecutionException) e.getCause();
+            assertEquals(InstanceStatus.FAILED,
+                         executionException.getInstance().getStatus());
+            assertEquals("call-child",
+                         executionException.getInstance().getCurrentState());
+        }
+    }
+
+    private Workflow toWorkflow(String model) {
+        return getWorkflowManager().toWorkflow(getFileContents(getResourcePath(model)));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+package org.serverless.workflow.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.serverless.workflow.impl.aot.CompiledWorkflow;
+import org.serverless.workflow.impl.aot.WorkflowArtifact;
+import org.serverless.workflow.impl.aot.WorkflowCompiler;
+import org.serverless.workflow.impl.instance.InstanceStatus;
+import org.serverless.workflow.impl.instance.WorkflowInstance;
+import org.serverless.workflow.impl.runtime.DefinitionCatalog;
+import org.serverless.workflow.impl.runtime.EventMessage;
+import org.serverless.workflow.impl.runtime.InstanceHandle;
+import org.serverless.workflow.impl.runtime.WorkflowEngine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WorkflowArtifactTest extends BaseWorkflowTest {
+
+    @TempDir
+    Path directory;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"json", "yml"})
+    public void testCompileAndLoad(String format) throws Exception {
+        Path sources = Files.createDirectories(directory.resolve("workflows"));
+        copy("subflows/parentworkflow." + format,
+             sources);
+        copy("subflows/childworkflow." + format,
+             sources);
+        copy("events/correlatedevent." + format,
+             sources);
+        Path artifactPath = directory.resolve("workflows.wfa");
+
+        List<CompiledWorkflow> compiled = new WorkflowCompiler().compile(sources,
+                                                                         artifactPath);
+        assertEquals(3,
+                     compiled.size());
+
+        DefinitionCatalog catalog = new DefinitionCatalog();
+        try (WorkflowArtifact artifact = WorkflowArtifact.open(artifactPath)) {
+            List<String> ids = artifact.getEntries().stream().map(WorkflowArtifact.Entry::getId).collect(Collectors.toList());
+            // subflows are registered before their callers
+            assertTrue(ids.indexOf("child") < ids.indexOf("parent"));
+            assertEquals(1,
+                         artifact.getTriggerMatches(artifact.getEntries().get(ids.indexOf("order"))).size());
+            assertEquals(3,
+                         artifact.load(catalog));
+        }
+        assertNotNull(catalog.resolve("parent",
+                                      "1.0"));
+        assertNotNull(catalog.resolve("child",
+                                      "1.0"));
+
+        // event states are matched to their triggers from the artifact
+        WorkflowEngine engine = new WorkflowEngine(catalog);
+        try {
+            InstanceHandle handle = engine.submit("order",
+                                                  null,
+                                                  mapper.readTree("{\"orderId\":\"order-1\"}"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (handle.getStatus() != InstanceStatus.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            engine.signal(new EventMessage("payment-trigger",
+                                           "order-1",
+                                           null));
+            WorkflowInstance instance = handle.getCompletion().get(5,
+                                                                   TimeUnit.SECONDS);
+            assertEquals(InstanceStatus.COMPLETED,
+                         instance.getStatus());
+        } finally {
+            engine.shutdown();
+            engine.getFunctionDispatcher().shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidWorkflowIsNotCompiled() throws Exception {
+        Path sources = Files.createDirectories(directory.resolve("workflows"));
+        copy("events/correlatedevent.json",
+             sources);
+        copy("validation/emptyname.json",
+             sources);
+        Path artifactPath = directory.resolve("workflows.wfa");
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                                                      () -> new WorkflowCompiler().compile(sources,
+                                                                                           artifactPath));
+        assertTrue(error.getMessage().contains("emptyname.json"));
+        assertFalse(Files.exists(artifactPath));
+    }
+
+    @Test
+    public void testCorruptEntryIsDetected() throws Exception {
+        Path sources = Files.createDirectories(directory.resolve("workflows"));
+        copy("events/correlatedevent.json",
+             sources);
+        Path artifactPath = directory.resolve("workflows.wfa");
+        new WorkflowCompiler().compile(sources,
+                                       artifactPath);
+
+        try (FileChannel channel = FileChannel.open(artifactPath,
+                                                    StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}),
+                          channel.size() - 3);
+        }
+        try (WorkflowArtifact artifact = WorkflowArtifact.open(artifactPath)) {
+            assertThrows(IllegalStateException.class,
+                         () -> artifact.load(new DefinitionCatalog()));
+        }
+    }
+
+    private void copy(String model,
+                      Path directory) throws Exception {
+        Path source = getResourcePath(model);
+        Files.copy(source,
+                   directory.resolve(source.getFileName()));
+    }
+}
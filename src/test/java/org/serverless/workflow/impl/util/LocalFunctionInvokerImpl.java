@@ -0,0 +1,66 @@
+/*
+ *
+ *   Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package org.serverless.workflow.impl.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.serverless.workflow.api.functions.Function;
+import org.serverless.workflow.impl.functions.FunctionInvoker;
+
+public class LocalFunctionInvokerImpl implements FunctionInvoker {
+
+    private static final Map<String, java.util.function.Function<JsonNode, JsonNode>> handlers = new ConcurrentHashMap<>();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void registerHandler(String functionName,
+                                       java.util.function.Function<JsonNode, JsonNode> handler) {
+        handlers.put(functionName,
+                     handler);
+    }
+
+    public static void clearHandlers() {
+        handlers.clear();
+    }
+
+    @Override
+    public String getType() {
+        return "local";
+    }
+
+    @Override
+    public JsonNode invoke(Function function,
+                           JsonNode input) {
+        java.util.function.Function<JsonNode, JsonNode> handler = handlers.get(function.getName());
+        if (handler != null) {
+            return handler.apply(input);
+        }
+
+        ObjectNode result = input != null && input.isObject() ? ((ObjectNode) input).deepCopy() : mapper.createObjectNode();
+        result.put("function",
+                   function.getName());
+        if (function.getParameters() != null) {
+            function.getParameters().forEach(result::put);
+        }
+        return result;
+    }
+}